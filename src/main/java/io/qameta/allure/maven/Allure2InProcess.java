@@ -0,0 +1,245 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs the Allure 2 commandline inside the Maven JVM instead of forking {@code bin/allure}. The
+ * jars of {@code lib} are loaded into a class loader isolated from the plugin, which is cached
+ * for the lifetime of the plugin class loader so later modules of the build reuse the loaded and
+ * warmed-up classes. The cached loader is replaced when the jars of the installation change.
+ * Runs sharing a loader are serialized, since the commandline expects one run per JVM. Only a
+ * commandline that cannot be loaded is forked, a failing run fails the report.
+ */
+final class Allure2InProcess {
+
+    static final String MAIN_CLASS = "io.qameta.allure.CommandLine";
+
+    private static final String LOADER_NAME = "allure-commandline";
+
+    private static final String GENERATION_FAILED = "Allure report generation failed: ";
+
+    private static final ConcurrentMap<Path, CachedLoader> LOADERS = new ConcurrentHashMap<>();
+
+    private Allure2InProcess() {
+        throw new IllegalStateException("Do not instance");
+    }
+
+    /**
+     * Runs the commandline with the arguments and returns its exit code, or {@code null} when
+     * the installation cannot be loaded in-process and the caller should fork it instead. A run
+     * that does not finish within the timeout is interrupted and its class loader is dropped, so
+     * the next run does not wait for it.
+     *
+     * @param timeout the maximum run time in seconds
+     * @throws IOException when the commandline fails or times out
+     */
+    static Integer run(final Path allureHome, final List<String> arguments, final int timeout,
+                       final Log log)
+            throws IOException {
+        final CachedLoader cached;
+        try {
+            cached = getClassLoader(allureHome, log);
+        } catch (IOException e) {
+            return fork(allureHome, e, log);
+        }
+        cached.lock.lock();
+        final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, LOADER_NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            final Future<Integer> exitCode = executor.submit(
+                    () -> generate(cached.loader, allureHome, arguments)
+            );
+            return exitCode.get(timeout, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof LinkageError || cause instanceof ReflectiveOperationException) {
+                return fork(allureHome, cause, log);
+            }
+            throw new IOException(
+                    cause instanceof IOException ? cause.getMessage() : GENERATION_FAILED + cause, e
+            );
+        } catch (TimeoutException e) {
+            LOADERS.remove(cached.home, cached);
+            cached.close();
+            throw new IOException(
+                    "Allure report generation timed out after " + timeout + " seconds", e
+            );
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating the report", e);
+        } finally {
+            executor.shutdownNow();
+            cached.lock.unlock();
+        }
+    }
+
+    private static Integer fork(final Path allureHome, final Throwable cause, final Log log) {
+        if (log != null) {
+            log.warn("Cannot run Allure " + allureHome.getFileName()
+                    + " in-process, forking it instead: " + cause);
+        }
+        return null;
+    }
+
+    /**
+     * Loads the commandline and runs it. Failures of the commandline itself are wrapped into an
+     * {@link IOException}, except linkage errors, so the caller can tell them from a commandline
+     * that cannot be loaded.
+     */
+    private static int generate(final ClassLoader loader, final Path allureHome,
+                                final List<String> arguments)
+            throws IOException, ReflectiveOperationException {
+        final Thread thread = Thread.currentThread();
+        final ClassLoader contextLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(loader);
+        try {
+            final Class<?> type = Class.forName(MAIN_CLASS, true, loader);
+            final Constructor<?> constructor = type.getConstructor(Path.class);
+            final Method parse = type.getMethod("parse", String[].class);
+            final Method run = type.getMethod("run");
+            final Object commandLine = constructor.newInstance(allureHome);
+            final Optional<?> parsed = (Optional<?>) parse.invoke(
+                    commandLine, (Object) arguments.toArray(new String[0])
+            );
+            final Object exitCode = parsed.isPresent() ? parsed.get() : run.invoke(commandLine);
+            return (Integer) exitCode.getClass().getMethod("getCode").invoke(exitCode);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof LinkageError) {
+                throw (LinkageError) e.getCause();
+            }
+            throw new IOException(GENERATION_FAILED + e.getCause(), e.getCause());
+        } finally {
+            thread.setContextClassLoader(contextLoader);
+        }
+    }
+
+    private static CachedLoader getClassLoader(final Path allureHome, final Log log)
+            throws IOException {
+        final Path home = allureHome.toAbsolutePath().normalize();
+        final List<Path> jars = listJars(home.resolve("lib"));
+        final String signature = getSignature(jars);
+        return LOADERS.compute(home, (key, cached) -> {
+            if (cached != null && cached.signature.equals(signature)) {
+                return cached;
+            }
+            if (cached != null) {
+                cached.close();
+            }
+            if (log != null) {
+                log.info("Loading Allure " + key.getFileName() + " into the Maven JVM");
+            }
+            return new CachedLoader(key, signature, jars);
+        });
+    }
+
+    private static List<Path> listJars(final Path lib) throws IOException {
+        final List<Path> jars;
+        try (Stream<Path> files = Files.list(lib)) {
+            jars = files.filter(file -> file.getFileName().toString().endsWith(".jar"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        if (jars.isEmpty()) {
+            throw new IOException("No jars in " + lib);
+        }
+        return jars;
+    }
+
+    /**
+     * Identifies the jars by name, size and modification time, so a reinstalled version gets a
+     * fresh class loader.
+     */
+    private static String getSignature(final List<Path> jars) throws IOException {
+        final StringBuilder signature = new StringBuilder();
+        for (Path jar : jars) {
+            signature.append(jar.getFileName()).append(':').append(Files.size(jar)).append(':')
+                    .append(Files.getLastModifiedTime(jar).toMillis()).append(';');
+        }
+        return signature.toString();
+    }
+
+    /**
+     * A class loader over the jars of one installation, with the platform class loader as its
+     * parent so no plugin class leaks into the commandline.
+     */
+    private static final class CachedLoader {
+
+        private final Path home;
+
+        private final String signature;
+
+        private final URLClassLoader loader;
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private CachedLoader(final Path home, final String signature, final List<Path> jars) {
+            this.home = home;
+            this.signature = signature;
+            final List<URL> urls = new ArrayList<>();
+            for (Path jar : jars) {
+                urls.add(toUrl(jar));
+            }
+            this.loader = new URLClassLoader(
+                    LOADER_NAME, urls.toArray(new URL[0]),
+                    ClassLoader.getPlatformClassLoader()
+            );
+        }
+
+        private static URL toUrl(final Path jar) {
+            try {
+                return jar.toUri().toURL();
+            } catch (IOException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+
+        private void close() {
+            try {
+                loader.close();
+            } catch (IOException ignored) {
+                // The replaced loader only held open jar files.
+            }
+        }
+    }
+}
@@ -16,37 +16,52 @@
 package io.qameta.allure.maven;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
-import net.lingala.zip4j.ZipFile;
-import net.lingala.zip4j.exception.ZipException;
-import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 import org.apache.commons.exec.CommandLine;
+import org.apache.commons.exec.DefaultExecutor;
+import org.apache.commons.exec.PumpStreamHandler;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Strings;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Dependency;
 import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.DefaultProjectBuildingRequest;
+import org.apache.maven.project.ProjectBuildingRequest;
 import org.apache.maven.settings.Proxy;
+import org.apache.maven.shared.transfer.artifact.resolve.ArtifactResult;
+import org.apache.maven.shared.transfer.dependencies.resolve.DependencyResolver;
+import org.apache.maven.shared.transfer.dependencies.resolve.DependencyResolverException;
 
-import java.io.BufferedReader;
-import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 /**
@@ -64,7 +79,29 @@ public class Allure3Commandline {
 
     public static final String NPM_DEFAULT_REGISTRY = "https://registry.npmjs.org";
 
-    private static final String NODE_CHECKSUM_URL = "https://nodejs.org/dist/v%s/SHASUMS256.txt";
+    private static final String NODE_CHECKSUM_FILE_NAME = "SHASUMS256.txt";
+
+    private static final String NODE_CHECKSUM_URL = "https://nodejs.org/dist/v%s/" + NODE_CHECKSUM_FILE_NAME;
+
+    private static final String RECEIPT_FILE_NAME = ".allure3-receipt.properties";
+
+    private static final String NPM_CACHE_DIRECTORY = "npm-cache";
+
+    private static final String PACKAGE_LOCK_FILE_NAME = "package-lock.json";
+
+    private static final String RUNTIME_PACKAGE_NAME = "allure-maven-runtime";
+
+    private static final String NODE_COMPONENT = "node";
+
+    private static final String ALLURE_COMPONENT = "allure";
+
+    private static final String BUNDLE_ALLURE_VERSION = "allure.version";
+
+    private static final String BUNDLE_NODE_VERSION = "node.version";
+
+    private static final String BUNDLE_PLATFORM = "platform";
+
+    private static final String BUNDLE_NODE_SKIPPED = "node.skipped";
 
     private static final TypeReference<Map<String, Object>> MAP_TYPE = new MapTypeReference();
 
@@ -92,6 +129,36 @@ public class Allure3Commandline {
 
     private final Log log;
 
+    private Path storeDirectory;
+
+    private String nodeChecksumUrl = NODE_CHECKSUM_URL;
+
+    private String packageHash;
+
+    private boolean deepVerify;
+
+    private Path npmCacheDirectory;
+
+    private NpmCacheStats npmCacheStats;
+
+    private InstallReceipt receipt;
+
+    private List<String> rankedRegistries;
+
+    private List<Path> nodeToolchainHomes;
+
+    private Path systemNode;
+
+    private boolean nodeDiscovered;
+
+    private InstallPruner pruner;
+
+    private String nodeSkipped;
+
+    private boolean worker;
+
+    private long workerMaxMemory;
+
     public Allure3Commandline(final Path installationDirectory, final String allureVersion,
                               final String nodeVersion, final String nodeDownloadUrl, final String npmRegistry,
                               final Path allurePackagePath, final Proxy proxy, final Properties downloadProperties,
@@ -120,12 +187,143 @@ public class Allure3Commandline {
         this.log = log;
     }
 
+    /**
+     * Keeps the Node.js runtime and the Allure package in a machine-wide store shared by all
+     * projects. The installation directory then only holds launchers pointing into the store.
+     */
+    Allure3Commandline withStoreDirectory(final Path storeDirectory) {
+        this.storeDirectory = storeDirectory;
+        return this;
+    }
+
+    /**
+     * Overrides the location of the SHASUMS256.txt file, a format string taking the Node.js
+     * version.
+     */
+    Allure3Commandline withNodeChecksumUrl(final String nodeChecksumUrl) {
+        this.nodeChecksumUrl = nodeChecksumUrl;
+        return this;
+    }
+
+    /**
+     * Recounts the files of the installed trees against the install receipt instead of trusting
+     * it, and reinstalls only the parts that turn out to be incomplete.
+     */
+    Allure3Commandline withDeepVerify(final boolean deepVerify) {
+        this.deepVerify = deepVerify;
+        return this;
+    }
+
+    /**
+     * Overrides the npm cache, by default {@code npm-cache} in the runtime directory. Pointing
+     * several install directories at one cache lets them share downloaded packages.
+     */
+    Allure3Commandline withNpmCacheDirectory(final Path npmCacheDirectory) {
+        this.npmCacheDirectory = npmCacheDirectory;
+        return this;
+    }
+
+    /**
+     * Looks for a Node.js of the same major version in the given toolchain homes and on the
+     * {@code PATH} before downloading one, see {@link NodeDiscovery}.
+     */
+    Allure3Commandline withNodeDiscovery(final List<Path> toolchainNodeHomes) {
+        this.nodeToolchainHomes = toolchainNodeHomes;
+        return this;
+    }
+
+    /**
+     * Records the use of the runtime on each generate and serve, and prunes the runtime directory
+     * to the limits of the pruner afterwards.
+     */
+    Allure3Commandline withPruner(final InstallPruner pruner) {
+        this.pruner = pruner;
+        return this;
+    }
+
+    /**
+     * Runs generate jobs on a warm worker process reused across modules instead of starting the
+     * CLI for each report, see {@link Allure3Worker}. The worker is restarted once it uses more
+     * than the given megabytes of memory.
+     */
+    Allure3Commandline withWorker(final boolean worker, final long maxMemory) {
+        this.worker = worker;
+        this.workerMaxMemory = maxMemory;
+        return this;
+    }
+
+    /**
+     * Installs the runtime. Node.js and the Allure package tree are each installed under the lock
+     * of their own home, so installs of other versions into the same directory run at the same
+     * time and an install of the same Node.js waits and reuses it. The receipt and the launcher
+     * are updated under the lock of the directory.
+     */
     public void install() throws IOException {
-        installNode();
-        installAllure();
+        final boolean nodeInstalled;
+        final boolean allureInstalled;
+        String nodeSource = null;
+        try (InstallLock ignored = InstallLock.acquire(
+                getRuntimeDirectory(), getAllureHome().getFileName().toString(), log
+        )) {
+            final InstallReceipt recorded = InstallReceipt.read(getReceiptPath());
+            allureInstalled = isAllureInstalled(recorded);
+            final NpmPrefetch prefetch = allureInstalled || isNodeInstalled(recorded) && !isNativeInstall()
+                    ? null
+                    : startPrefetch();
+            try {
+                try (InstallLock ignoredNode = acquireNodeLock()) {
+                    nodeInstalled = isNodeInstalled(InstallReceipt.read(getReceiptPath()));
+                    if (!nodeInstalled) {
+                        nodeSource = installNode();
+                    }
+                }
+                if (!allureInstalled) {
+                    installAllure(prefetch);
+                }
+            } finally {
+                if (prefetch != null) {
+                    prefetch.close();
+                }
+            }
+            writeReceipt(nodeInstalled, nodeSource, allureInstalled);
+        }
         ensureLaunchers();
     }
 
+    /**
+     * Records the components in the receipt, read again under the directory lock since installs
+     * of other versions update it too.
+     */
+    private void writeReceipt(final boolean nodeInstalled, final String nodeSource,
+                              final boolean allureInstalled)
+            throws IOException {
+        try (InstallLock ignored = InstallLock.acquire(getRuntimeDirectory(), log)) {
+            final InstallReceipt current = InstallReceipt.read(getReceiptPath());
+            if (!nodeInstalled) {
+                current.put(NODE_COMPONENT, nodeVersion, getNodeHome(), nodeSource);
+                current.setSkipped(NODE_COMPONENT, nodeSkipped);
+            } else if (getSystemNode() == null
+                    && !current.matches(NODE_COMPONENT, nodeVersion, getNodeHome())) {
+                current.put(NODE_COMPONENT, nodeVersion, getNodeHome(), null);
+            }
+            if (!allureInstalled
+                    || !current.matches(ALLURE_COMPONENT, allureVersion, getAllureHome())) {
+                current.put(ALLURE_COMPONENT, allureVersion, getAllureHome(), getAllureSource());
+            }
+            current.write(getReceiptPath());
+            receipt = current;
+        }
+    }
+
+    /**
+     * Returns the lock of the Node.js home, or {@code null} for a Node.js found on the agent.
+     */
+    private InstallLock acquireNodeLock() throws IOException {
+        return getSystemNode() == null
+                ? InstallLock.acquire(getRuntimeDirectory(), getNodeHome().getFileName().toString(), log)
+                : null;
+    }
+
     public int generateReport(final List<Path> resultsPaths, final Path reportPath,
                               final boolean singleFile, final Path buildDirectory, final String reportName,
                               final Path userConfigPath)
@@ -142,6 +340,7 @@ public class Allure3Commandline {
             throws IOException {
         checkAllureExists();
         ensureLaunchers();
+        recordUse();
         FileUtils.deleteQuietly(reportPath.toFile());
 
         final Path workDirectory = prepareWorkDirectory(buildDirectory);
@@ -159,6 +358,7 @@ public class Allure3Commandline {
             throws IOException {
         checkAllureExists();
         ensureLaunchers();
+        recordUse();
         FileUtils.deleteQuietly(reportPath.toFile());
 
         final Path workDirectory = prepareWorkDirectory(buildDirectory);
@@ -171,38 +371,242 @@ public class Allure3Commandline {
         return executeOpen(reportPath, config, servePort);
     }
 
+    /**
+     * Deletes the Node.js and Allure trees exceeding the limits of the pruner from the runtime
+     * directory, and from the install directory when a shared store is used. The trees of this
+     * runtime are kept.
+     */
+    public List<Path> prune(final InstallPruner installPruner) throws IOException {
+        final List<Path> keep = getSystemNode() == null
+                ? Arrays.asList(getNodeHome(), getAllureHome())
+                : Collections.singletonList(getAllureHome());
+        final List<Path> pruned = new ArrayList<>(installPruner.prune(getRuntimeDirectory(), keep));
+        if (storeDirectory != null) {
+            pruned.addAll(installPruner.prune(installationDirectory, keep));
+        }
+        return pruned;
+    }
+
+    /**
+     * Packs the installed Node.js runtime, the Allure package tree, the pinned lockfile and a
+     * relative launcher into one archive for this platform, see {@link Allure3RuntimeBundle}.
+     */
+    public void createBundle(final Path bundle) throws IOException {
+        checkAllureExists();
+        if (getSystemNode() != null) {
+            throw new IOException(
+                    "Cannot bundle the Node.js found at " + getSystemNode()
+                            + ". Turn Node.js discovery off to bundle the plugin-managed runtime."
+            );
+        }
+        final Properties manifest = new Properties();
+        manifest.setProperty(BUNDLE_ALLURE_VERSION, allureVersion);
+        manifest.setProperty(BUNDLE_NODE_VERSION, nodeVersion);
+        manifest.setProperty(BUNDLE_PLATFORM, platform.getClassifier());
+        manifest.setProperty(BUNDLE_NODE_SKIPPED, getReceipt().getSkipped(NODE_COMPONENT));
+
+        final Map<String, Path> trees = new LinkedHashMap<>();
+        trees.put(getBundledNodeHome(), getNodeHome());
+        trees.put(getBundledAllureHome(), getAllureHome());
+        final Map<String, byte[]> files = new LinkedHashMap<>();
+        final String launcher = platform.isWindows()
+                ? createWindowsLauncher(true)
+                : createUnixLauncher(true);
+        files.put(
+                platform.getAllureExecutable(Paths.get("")).toString().replace('\\', '/'),
+                launcher.getBytes(StandardCharsets.UTF_8)
+        );
+        try (InstallLock ignored = InstallLock.acquire(getRuntimeDirectory(), log)) {
+            if (Files.isRegularFile(getLockfilePath())) {
+                files.put(getLockfilePath().getFileName().toString(), Files.readAllBytes(getLockfilePath()));
+            }
+            Allure3RuntimeBundle.write(bundle, manifest, trees, files);
+        }
+        if (log != null) {
+            log.info(String.format(
+                    "Bundled allure@%s with Node.js %s for %s into %s",
+                    allureVersion, nodeVersion, platform.getClassifier(), bundle
+            ));
+        }
+    }
+
+    /**
+     * Restores the runtime from a bundle made by {@link #createBundle(Path)}. Components the
+     * receipt already records are kept, the others are published from the bundle.
+     */
+    public void installBundle(final Path bundle) throws IOException {
+        if (allurePackagePath != null) {
+            throw new IOException(
+                    "Allure 3 runtime bundles cannot be combined with a local package archive: "
+                            + allurePackagePath
+            );
+        }
+        try (InstallLock ignoredAllure = InstallLock.acquire(
+                getRuntimeDirectory(), getAllureHome().getFileName().toString(), log
+        );
+             InstallLock ignoredNode = acquireNodeLock();
+             InstallLock ignored = InstallLock.acquire(getRuntimeDirectory(), log)) {
+            final Path staging = AllureInstallUtils.createStagingDirectory(getAllureHome());
+            try {
+                final Properties manifest = Allure3RuntimeBundle.extract(bundle, staging);
+                checkBundle(manifest, bundle);
+                final InstallReceipt current = InstallReceipt.read(getReceiptPath());
+                if (!isNodeInstalled(current)) {
+                    AllureInstallUtils.publish(staging.resolve(getBundledNodeHome()), getNodeHome());
+                    current.put(NODE_COMPONENT, nodeVersion, getNodeHome(), AllureChecksums.sha256(bundle));
+                    current.setSkipped(NODE_COMPONENT, manifest.getProperty(BUNDLE_NODE_SKIPPED));
+                }
+                if (!isAllureInstalled(current)) {
+                    AllureInstallUtils.publish(staging.resolve(getBundledAllureHome()), getAllureHome());
+                    current.put(ALLURE_COMPONENT, allureVersion, getAllureHome(), getAllureSource());
+                }
+                final Path lockfile = staging.resolve(getLockfilePath().getFileName());
+                if (Files.isRegularFile(lockfile)) {
+                    AllureInstallUtils.write(getLockfilePath(), Files.readAllBytes(lockfile), false);
+                }
+                current.write(getReceiptPath());
+                receipt = current;
+            } finally {
+                FileUtils.deleteQuietly(staging.toFile());
+            }
+        }
+        ensureLaunchers();
+        if (log != null) {
+            log.info(String.format("Restored allure@%s from runtime bundle %s", allureVersion, bundle));
+        }
+    }
+
+    /**
+     * Resolves the runtime bundle for this platform through Maven and restores it, so repository
+     * managers cache Allure 3 runtimes like any other artifact. The coordinates are
+     * {@code groupId:artifactId[:version]}, the version defaulting to the Allure version, and the
+     * platform classifier is added. Returns {@code false} if the runtime was already installed.
+     */
+    public boolean installBundleWithMaven(final MavenSession session,
+                                          final DependencyResolver dependencyResolver,
+                                          final String coordinates)
+            throws IOException {
+        if (allureExists()) {
+            return false;
+        }
+        final ProjectBuildingRequest buildingRequest = new DefaultProjectBuildingRequest(session.getProjectBuildingRequest());
+        buildingRequest.setResolveDependencies(false);
+        final Dependency bundleDep = toBundleDependency(coordinates);
+        try {
+            final Iterator<ArtifactResult> resolved = dependencyResolver.resolveDependencies(
+                    buildingRequest,
+                    Collections.singletonList(bundleDep), null, null
+            ).iterator();
+            if (!resolved.hasNext()) {
+                throw new IOException("No Allure 3 runtime bundle artifact found: " + coordinates);
+            }
+            installBundle(resolved.next().getArtifact().getFile().toPath());
+            return true;
+        } catch (DependencyResolverException e) {
+            throw new IOException("Cannot resolve Allure 3 runtime bundle " + coordinates, e);
+        }
+    }
+
+    /**
+     * Checks the install receipt, which takes a single small file read. Installs made before
+     * receipts were written are checked by probing the Node.js executable and the Allure CLI.
+     */
     public boolean allureExists() {
-        return Files.isExecutable(getNodeExecutable()) && Files.exists(getAllureCliPath());
+        try {
+            return isNodeInstalled(getReceipt()) && isAllureInstalled(getReceipt());
+        } catch (IOException e) {
+            return false;
+        }
     }
 
     public boolean allureNotExists() {
         return !allureExists();
     }
 
+    Path getRuntimeDirectory() {
+        return storeDirectory == null ? installationDirectory : storeDirectory;
+    }
+
+    Path getNodeHome() {
+        return getSystemNode() == null
+                ? platform.getNodeHome(getRuntimeDirectory(), nodeVersion)
+                : platform.getNodeHomeOf(getSystemNode());
+    }
+
     Path getNodeExecutable() {
-        return platform.getNodeExecutable(installationDirectory, nodeVersion);
+        return getSystemNode() == null ? platform.getNodeExecutable(getNodeHome()) : getSystemNode();
     }
 
     Path getNpmExecutable() {
-        return platform.getNpmExecutable(installationDirectory, nodeVersion);
+        return platform.getNpmExecutable(getNodeHome());
     }
 
     Path getNpmCliPath() {
-        return platform.getNpmCliPath(installationDirectory, nodeVersion);
+        return platform.getNpmCliPath(getNodeHome());
+    }
+
+    /**
+     * Returns the discovered Node.js executable, or {@code null} if discovery is off or found no
+     * compatible one. Discovery runs once per instance.
+     */
+    Path getSystemNode() {
+        if (!nodeDiscovered) {
+            nodeDiscovered = true;
+            systemNode = discoverNode();
+        }
+        return systemNode;
     }
 
     Path getAllureHome() {
-        return installationDirectory.resolve("allure-" + allureVersion);
+        if (storeDirectory == null) {
+            return installationDirectory.resolve("allure-" + allureVersion);
+        }
+        final String packageSuffix = allurePackagePath == null ? "" : "-" + getPackageFingerprint();
+        return storeDirectory.resolve(
+                "allure-" + allureVersion + "-" + platform.getClassifier() + packageSuffix
+        );
     }
 
     Path getAllureExecutablePath() {
         return platform.getAllureExecutable(installationDirectory);
     }
 
+    Path getNpmCacheDirectory() {
+        return npmCacheDirectory == null
+                ? getRuntimeDirectory().resolve(NPM_CACHE_DIRECTORY)
+                : npmCacheDirectory;
+    }
+
+    /**
+     * Returns how the registry requests of the last {@code npm install} were served, or
+     * {@code null} if npm has not run.
+     */
+    NpmCacheStats getNpmCacheStats() {
+        return npmCacheStats;
+    }
+
+    /**
+     * Returns the lockfile pinning the dependency tree of this Allure version.
+     */
+    Path getLockfilePath() {
+        return getRuntimeDirectory().resolve(".allure-" + allureVersion + "-" + PACKAGE_LOCK_FILE_NAME);
+    }
+
+    Path getReceiptPath() {
+        return installationDirectory.resolve(RECEIPT_FILE_NAME);
+    }
+
     Path getAllureCliPath() {
         return getAllureHome().resolve("node_modules").resolve("allure").resolve("cli.js");
     }
 
+    /**
+     * Returns the classifier runtime bundles of this platform are attached and resolved with.
+     */
+    public String getBundleClassifier() {
+        return platform.getClassifier();
+    }
+
     public String getVersion() {
         return allureVersion;
     }
@@ -211,66 +615,391 @@ public class Allure3Commandline {
         return nodeVersion;
     }
 
-    private void installNode() throws IOException {
-        if (Files.isExecutable(getNodeExecutable())) {
-            return;
+    private InstallReceipt getReceipt() {
+        if (receipt == null) {
+            receipt = InstallReceipt.read(getReceiptPath());
+        }
+        return receipt;
+    }
+
+    private boolean isNodeInstalled(final InstallReceipt current) throws IOException {
+        if (getSystemNode() != null) {
+            return true;
+        }
+        if (!current.matches(NODE_COMPONENT, nodeVersion, getNodeHome())) {
+            return Files.isExecutable(getNodeExecutable());
         }
+        if (!Files.isDirectory(getNodeHome())) {
+            return false;
+        }
+        if (!current.getSkipped(NODE_COMPONENT).isEmpty()
+                && NodeDistributionFilter.create(platform, downloadProperties) == null) {
+            if (log != null) {
+                log.info("Reinstalling the full Node.js distribution");
+            }
+            return false;
+        }
+        return !deepVerify || current.verifyFiles(NODE_COMPONENT, getNodeHome(), log);
+    }
+
+    /**
+     * A tree installed from a local package archive is reused only while the archive keeps the
+     * SHA-256 recorded in the receipt, so a rebuilt archive is installed again.
+     */
+    private boolean isAllureInstalled(final InstallReceipt current) throws IOException {
+        if (!current.matches(ALLURE_COMPONENT, allureVersion, getAllureHome())) {
+            return allurePackagePath == null && Files.exists(getAllureCliPath());
+        }
+        if (!Files.isDirectory(getAllureHome())) {
+            return false;
+        }
+        if (allurePackagePath != null
+                && !getPackageHash().equals(current.getSource(ALLURE_COMPONENT))) {
+            if (log != null) {
+                log.info(String.format(
+                        "Allure 3 package archive %s has changed since it was installed",
+                        allurePackagePath
+                ));
+            }
+            return false;
+        }
+        return !deepVerify || current.verifyFiles(ALLURE_COMPONENT, getAllureHome(), log);
+    }
+
+    /**
+     * Returns the SHA-256 of the local package archive, or of the installed package manifest
+     * for registry installs.
+     */
+    private String getAllureSource() throws IOException {
+        if (allurePackagePath != null) {
+            return getPackageHash();
+        }
+        final Path manifest = getAllureCliPath().resolveSibling("package.json");
+        return Files.exists(manifest) ? AllureChecksums.sha256(manifest) : null;
+    }
+
+    /**
+     * Installs Node.js and returns the verified SHA-256 of its archive.
+     */
+    private String installNode() throws IOException {
         if (offline) {
             throw new IOException(
                     String.format(
                             "Cannot install Node.js %s for Allure 3 while Maven is offline. "
                                     + "Pre-populate %s and rerun without offline mode to download it.",
-                            nodeVersion, installationDirectory
+                            nodeVersion, getRuntimeDirectory()
                     )
             );
         }
 
         final String archiveFileName = platform.getArchiveFileName(nodeVersion);
-        final URL archiveUrl = new URL(
-                String.format(
-                        nodeDownloadUrl, nodeVersion, nodeVersion,
-                        platform.getClassifier(), platform.getArchiveExtension()
-                )
+        final List<URL> archiveUrls = new ArrayList<>();
+        for (String mirror : AllureInstallUtils.split(nodeDownloadUrl)) {
+            archiveUrls.add(new URL(
+                    String.format(
+                            mirror, nodeVersion, nodeVersion,
+                            platform.getClassifier(), platform.getArchiveExtension()
+                    )
+            ));
+        }
+        final List<URL> rankedUrls = MirrorSelector.rank(
+                archiveUrls, url -> url, proxy, downloadProperties, log
+        );
+        final String expectedChecksum = MirrorSelector.withFailover(
+                getChecksumUrls(rankedUrls), "Node.js checksum download", log,
+                checksumUrl -> readChecksum(checksumUrl, archiveFileName)
         );
-        final URL checksumUrl = new URL(String.format(NODE_CHECKSUM_URL, nodeVersion));
-        final String expectedChecksum = readChecksum(checksumUrl, archiveFileName);
 
-        final Path archive = Files.createTempFile("node-" + nodeVersion, "-" + archiveFileName);
+        final Path partFile = getRuntimeDirectory()
+                .resolve(archiveFileName + ResumableDownload.PART_SUFFIX);
+        MirrorSelector.withFailover(
+                rankedUrls, "Node.js download", log, archiveUrl -> {
+                    installNodeFrom(archiveUrl, partFile, archiveFileName, expectedChecksum);
+                    return archiveUrl;
+                }
+        );
+        return expectedChecksum;
+    }
+
+    /**
+     * Installs Node.js from a single mirror. A download interrupted on one mirror leaves the
+     * partial file in place, so the next mirror resumes it instead of starting over.
+     */
+    private void installNodeFrom(final URL archiveUrl, final Path partFile,
+                                 final String archiveFileName, final String expectedChecksum)
+            throws IOException {
+        final Path staging = AllureInstallUtils.createStagingDirectory(getNodeHome());
+        final NodeDistributionFilter filter = NodeDistributionFilter.create(platform, downloadProperties);
+        final Predicate<String> accept = filter == null ? name -> true : filter;
         try {
-            AllureDownloadUtils.copy(archiveUrl, archive, proxy, downloadProperties);
-            verifyChecksum(archive, expectedChecksum, archiveFileName);
-            FileUtils.deleteQuietly(
-                    platform.getNodeHome(installationDirectory, nodeVersion).toFile()
-            );
-            unpackNode(archive.toFile());
+            final String actualChecksum = platform.isWindows()
+                    ? downloadAndUnpackNodeZip(archiveUrl, partFile, staging, accept)
+                    : streamNodeTarball(archiveUrl, partFile, staging, accept);
+            Files.deleteIfExists(partFile);
+            verifyChecksum(actualChecksum, expectedChecksum, archiveFileName);
+
+            final Path stagedNodeHome = platform.getNodeHome(staging, nodeVersion);
+            platform.getNodeExecutable(staging, nodeVersion).toFile().setExecutable(true);
+            platform.getNpmExecutable(staging, nodeVersion).toFile().setExecutable(true);
+            AllureInstallUtils.publish(stagedNodeHome, getNodeHome());
+            nodeSkipped = filter == null ? "" : filter.getSkipped();
         } finally {
-            Files.deleteIfExists(archive);
+            FileUtils.deleteQuietly(staging.toFile());
         }
+    }
 
-        getNodeExecutable().toFile().setExecutable(true);
-        getNpmExecutable().toFile().setExecutable(true);
+    /**
+     * Extracts the tarball into the staging directory while it is being downloaded and hashes the
+     * same bytes. The staging directory is only published after the checksum has been verified.
+     * The bytes are also kept in the partial file, so an interrupted download is resumed rather
+     * than restarted.
+     */
+    private String streamNodeTarball(final URL archiveUrl, final Path partFile,
+                                     final Path staging, final Predicate<String> filter)
+            throws IOException {
+        final MessageDigest digest = AllureChecksums.newSha256();
+        ResumableDownload.read(archiveUrl, partFile, proxy, downloadProperties, log, input -> {
+            final DigestInputStream digestInput = new DigestInputStream(input, digest);
+            try (GzipCompressorInputStream gzip = new GzipCompressorInputStream(digestInput);
+                    TarArchiveInputStream tar = new TarArchiveInputStream(gzip)) {
+                TarExtractor.extract(tar, staging, filter);
+                digestInput.transferTo(OutputStream.nullOutputStream());
+            }
+            return staging;
+        });
+        return AllureChecksums.toHex(digest.digest());
     }
 
-    private void installAllure() throws IOException {
-        if (allurePackagePath == null && Files.exists(getAllureCliPath())) {
-            return;
+    /**
+     * ZIP archives keep their directory at the end of the file, so they are downloaded into the
+     * partial file completely before extraction.
+     */
+    private String downloadAndUnpackNodeZip(final URL archiveUrl, final Path partFile,
+                                            final Path staging, final Predicate<String> filter)
+            throws IOException {
+        final MessageDigest digest = AllureChecksums.newSha256();
+        ResumableDownload.read(archiveUrl, partFile, proxy, downloadProperties, log, input -> {
+            new DigestInputStream(input, digest).transferTo(OutputStream.nullOutputStream());
+            return partFile;
+        });
+        try {
+            ZipExtractor.extract(partFile, staging, filter);
+        } catch (IOException e) {
+            Files.deleteIfExists(partFile);
+            throw e;
+        }
+        return AllureChecksums.toHex(digest.digest());
+    }
+
+    /**
+     * Starts fetching the Allure package tree from the registry in the background, so a cold
+     * install downloads it while Node.js is being installed. With a pinned lockfile, only its
+     * tarballs are downloaded.
+     */
+    private NpmPrefetch startPrefetch() throws IOException {
+        if (allurePackagePath != null || offline
+                || "false".equalsIgnoreCase(downloadProperties.getProperty(NpmPrefetch.PREFETCH))
+                || getRankedRegistries().isEmpty()) {
+            return null;
         }
-        if (allurePackagePath == null && offline) {
+        final JsonNode lockfile = readLockfile();
+        return lockfile == null
+                ? NpmPrefetch.start(
+                        getRankedRegistries().get(0), "allure", allureVersion,
+                        AllureInstallUtils.createStagingDirectory(getAllureHome()),
+                        proxy, downloadProperties, log
+                )
+                : NpmPrefetch.startLocked(
+                        getRankedRegistries().get(0), lockfile,
+                        AllureInstallUtils.createStagingDirectory(getAllureHome()),
+                        proxy, downloadProperties, log
+                );
+    }
+
+    /**
+     * The Java-native installer is opt-in with {@code allure.npm.installer=native} for registry
+     * installs. It needs the registry, so offline builds install with npm from its cache.
+     */
+    private boolean isNativeInstall() {
+        return allurePackagePath == null && !offline
+                && NpmInstaller.NATIVE.equalsIgnoreCase(downloadProperties.getProperty(NpmInstaller.INSTALLER));
+    }
+
+    private JsonNode readLockfile() throws IOException {
+        return Files.isRegularFile(getLockfilePath())
+                ? new ObjectMapper().readTree(getLockfilePath().toFile())
+                : null;
+    }
+
+    private void installAllure(final NpmPrefetch prefetch) throws IOException {
+        if (allurePackagePath == null && offline && !Files.isDirectory(getNpmCacheDirectory())) {
             throw new IOException(
                     String.format(
                             "Cannot install allure@%s while Maven is offline. Pre-populate %s "
-                                    + "and rerun without offline mode to install it.",
-                            allureVersion, getAllureHome()
+                                    + "or the npm cache %s and rerun without offline mode to "
+                                    + "install it.",
+                            allureVersion, getAllureHome(), getNpmCacheDirectory()
                     )
             );
         }
 
-        FileUtils.deleteQuietly(getAllureHome().toFile());
-        Files.createDirectories(getAllureHome());
-        writePackageJson();
+        if (prefetch != null
+                && (isNativeInstall() ? installNative(prefetch) : installPrefetched(prefetch))) {
+            return;
+        }
+
+        final List<String> registries = AllureInstallUtils.split(npmRegistry);
+        MirrorSelector.withFailover(
+                allurePackagePath == null
+                        ? getRankedRegistries()
+                        : registries.subList(0, Math.min(1, registries.size())),
+                "npm install", log, registry -> {
+                    final Path staging = AllureInstallUtils.createStagingDirectory(getAllureHome());
+                    try {
+                        runNpmInstall(staging, registry, false);
+                        AllureInstallUtils.publish(staging, getAllureHome());
+                    } finally {
+                        FileUtils.deleteQuietly(staging.toFile());
+                    }
+                    return registry;
+                }
+        );
+    }
+
+    /**
+     * Extracts the prefetched packages without npm, laid out as pinned by the lockfile or, on the
+     * first install, as resolved and then pinned. Returns {@code false} when this failed, so the
+     * caller falls back to npm.
+     */
+    private boolean installNative(final NpmPrefetch prefetch) throws IOException {
+        final Path staging = AllureInstallUtils.createStagingDirectory(getAllureHome());
+        try {
+            final List<NpmPackage> packages = prefetch.await();
+            final JsonNode lockfile = readLockfile();
+            final NpmInstaller installer = lockfile == null
+                    ? NpmInstaller.resolve("allure", allureVersion, packages, platform)
+                    : NpmInstaller.fromLockfile(lockfile, packages, platform);
+            writePackageJson(staging);
+            installer.install(staging);
+            checkInstalledCli(staging);
+            if (lockfile == null) {
+                writeLockfile(installer.toLockfile(
+                        RUNTIME_PACKAGE_NAME, "allure", allureVersion, getRankedRegistries().get(0)
+                ));
+            }
+            AllureInstallUtils.publish(staging, getAllureHome());
+            if (log != null) {
+                log.info(String.format(
+                        "Installed allure@%s from %d npm packages without npm",
+                        allureVersion, installer.getLayout().size()
+                ));
+            }
+            return true;
+        } catch (IOException e) {
+            if (log != null) {
+                log.warn(String.format(
+                        "Installing allure@%s without npm failed: %s. Installing with npm instead.",
+                        allureVersion, e.getMessage()
+                ));
+            }
+            return false;
+        } finally {
+            FileUtils.deleteQuietly(staging.toFile());
+        }
+    }
+
+    /**
+     * Installs the prefetched packages from a loopback registry. Returns {@code false} when the
+     * prefetch or the install failed, so the caller falls back to the configured registries.
+     */
+    private boolean installPrefetched(final NpmPrefetch prefetch) throws IOException {
+        final Path staging = AllureInstallUtils.createStagingDirectory(getAllureHome());
+        try {
+            final List<NpmPackage> packages = prefetch.await();
+            try (LocalNpmRegistry registry = LocalNpmRegistry.start(packages)) {
+                runNpmInstall(staging, registry.getUrl(), true);
+            }
+            AllureInstallUtils.publish(staging, getAllureHome());
+            if (log != null) {
+                log.info(String.format(
+                        "Installed allure@%s from %d prefetched npm packages",
+                        allureVersion, packages.size()
+                ));
+            }
+            return true;
+        } catch (IOException e) {
+            if (log != null) {
+                log.warn(String.format(
+                        "Installing prefetched allure@%s packages failed: %s. "
+                                + "Installing from the registry instead.",
+                        allureVersion, e.getMessage()
+                ));
+            }
+            return false;
+        } finally {
+            FileUtils.deleteQuietly(staging.toFile());
+        }
+    }
+
+    private List<String> getRankedRegistries() throws IOException {
+        if (rankedRegistries == null) {
+            rankedRegistries = MirrorSelector.rank(
+                    AllureInstallUtils.split(npmRegistry), registry -> new URL(
+                            Strings.CS.removeEnd(registry, "/") + "/allure"
+                    ), proxy, downloadProperties, log
+            );
+        }
+        return rankedRegistries;
+    }
+
+    /**
+     * Installs with {@code npm ci} from the pinned lockfile of this Allure version, which skips
+     * dependency resolution. Without a usable lockfile, {@code npm install} resolves the tree and
+     * its lockfile is pinned for the next install.
+     */
+    private void runNpmInstall(final Path prefix, final String registry, final boolean prefetched)
+            throws IOException {
+        writePackageJson(prefix);
+
+        final Path lockfile = getLockfilePath();
+        boolean installed = false;
+        if (allurePackagePath == null && Files.isRegularFile(lockfile)) {
+            Files.copy(lockfile, prefix.resolve(PACKAGE_LOCK_FILE_NAME), StandardCopyOption.REPLACE_EXISTING);
+            try {
+                executeNpm(newNpmCommandLine(prefix, "ci", registry, prefetched));
+                installed = true;
+            } catch (IOException e) {
+                if (log != null) {
+                    log.warn(String.format(
+                            "npm ci from the pinned lockfile %s failed: %s. "
+                                    + "Resolving the dependency tree again.",
+                            lockfile, e.getMessage()
+                    ));
+                }
+                FileUtils.deleteQuietly(prefix.resolve("node_modules").toFile());
+                Files.deleteIfExists(prefix.resolve(PACKAGE_LOCK_FILE_NAME));
+            }
+        }
+        if (!installed) {
+            executeNpm(newNpmCommandLine(prefix, "install", registry, prefetched));
+            if (allurePackagePath == null) {
+                pinLockfile(prefix.resolve(PACKAGE_LOCK_FILE_NAME), registry);
+            }
+        }
 
-        final Path installTarget = resolveInstallTarget();
+        checkInstalledCli(prefix);
+    }
 
+    private void checkInstalledCli(final Path prefix) throws IOException {
+        final Path installedCli = prefix.resolve(getAllureHome().relativize(getAllureCliPath()));
+        if (!Files.exists(installedCli)) {
+            throw new IOException("Cannot find installed Allure 3 CLI at " + installedCli);
+        }
+    }
+
+    private CommandLine newNpmCommandLine(final Path prefix, final String command,
+                                          final String registry, final boolean prefetched)
+            throws IOException {
         final CommandLine commandLine = new CommandLine(
                 platform.isWindows() && Files.exists(getNodeExecutable().resolveSibling("node.cmd"))
                         ? getNodeExecutable().resolveSibling("node.cmd").toFile()
@@ -278,45 +1007,93 @@ public class Allure3Commandline {
         );
         addPathArgument(commandLine, getNpmCliPath());
         commandLine.addArgument("--prefix");
-        addPathArgument(commandLine, getAllureHome());
-        commandLine.addArgument("install");
-        commandLine.addArgument("--no-package-lock");
-        commandLine.addArgument("--no-save");
-        commandLine.addArgument("--ignore-scripts");
-        addInstallTarget(commandLine, installTarget);
+        addPathArgument(commandLine, prefix);
+        commandLine.addArgument(command);
         if (allurePackagePath == null) {
+            commandLine.addArgument("--ignore-scripts");
             commandLine.addArgument("--registry");
-            commandLine.addArgument(npmRegistry);
-            addProxyArguments(commandLine);
+            commandLine.addArgument(registry);
+            if (prefetched) {
+                commandLine.addArgument("--noproxy");
+                commandLine.addArgument(new URL(registry).getHost());
+                commandLine.addArgument("--no-audit");
+                commandLine.addArgument("--no-fund");
+            } else {
+                addProxyArguments(commandLine);
+            }
+        } else {
+            commandLine.addArgument("--no-package-lock");
+            commandLine.addArgument("--no-save");
+            commandLine.addArgument("--ignore-scripts");
+            addPathArgument(commandLine, allurePackagePath.toAbsolutePath());
         }
+        commandLine.addArgument("--cache");
+        addPathArgument(commandLine, getNpmCacheDirectory());
+        commandLine.addArgument(offline ? "--offline" : "--prefer-offline");
+        commandLine.addArgument("--loglevel");
+        commandLine.addArgument("http");
+        return commandLine;
+    }
 
-        execute(commandLine, timeout);
-
-        if (!Files.exists(getAllureCliPath())) {
-            throw new IOException("Cannot find installed Allure 3 CLI at " + getAllureCliPath());
+    private void executeNpm(final CommandLine commandLine) throws IOException {
+        final NpmCacheStats stats = new NpmCacheStats(System.err, log);
+        logCommandLine(commandLine);
+        final DefaultExecutor executor = CommandLineExecutorFactory.newExecutor(timeout);
+        executor.setStreamHandler(new PumpStreamHandler(System.out, stats));
+        try {
+            executor.execute(commandLine);
+        } finally {
+            stats.close();
+            npmCacheStats = stats;
+            if (log != null) {
+                log.info(String.format("npm cache %s: %s", getNpmCacheDirectory(), stats));
+            }
         }
     }
 
-    private void writePackageJson() throws IOException {
-        final Path packageJson = getAllureHome().resolve("package.json");
-        Files.write(
-                packageJson, Arrays.asList(
-                        "{", "  \"name\": \"allure-maven-runtime\",",
-                        "  \"private\": true", "}"
-                ), StandardCharsets.UTF_8
-        );
+    /**
+     * Stores the lockfile written by {@code npm install} next to the install. Tarball URLs of the
+     * registry used are rewritten to the public registry, which npm maps back onto whatever
+     * registry a later {@code npm ci} runs against.
+     */
+    private void pinLockfile(final Path generated, final String registry) throws IOException {
+        if (!Files.isRegularFile(generated)) {
+            return;
+        }
+        final JsonNode lock = new ObjectMapper().readTree(generated.toFile());
+        for (JsonNode entry : lock.path("packages")) {
+            if (entry instanceof ObjectNode && entry.has("resolved")) {
+                ((ObjectNode) entry).put(
+                        "resolved", NpmPrefetch.toPublicUrl(registry, entry.get("resolved").asText())
+                );
+            }
+        }
+        writeLockfile(lock);
     }
 
-    private Path resolveInstallTarget() {
-        return allurePackagePath == null ? null : allurePackagePath.toAbsolutePath();
+    private void writeLockfile(final JsonNode lock) throws IOException {
+        try (InstallLock ignored = InstallLock.acquire(getRuntimeDirectory(), log)) {
+            AllureInstallUtils.write(
+                    getLockfilePath(),
+                    new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsBytes(lock), false
+            );
+        }
+        if (log != null) {
+            log.info(String.format("Pinned allure@%s dependencies in %s", allureVersion, getLockfilePath()));
+        }
     }
 
-    private void addInstallTarget(final CommandLine commandLine, final Path installTarget) {
-        if (installTarget == null) {
-            commandLine.addArgument("allure@" + allureVersion);
-        } else {
-            addPathArgument(commandLine, installTarget);
+    private void writePackageJson(final Path prefix) throws IOException {
+        final ObjectNode packageJson = new ObjectMapper().createObjectNode()
+                .put("name", RUNTIME_PACKAGE_NAME)
+                .put("private", true);
+        if (allurePackagePath == null) {
+            packageJson.putObject("dependencies").put("allure", allureVersion);
         }
+        Files.write(
+                prefix.resolve("package.json"),
+                new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsBytes(packageJson)
+        );
     }
 
     private void addProxyArguments(final CommandLine commandLine) {
@@ -345,102 +1122,75 @@ public class Allure3Commandline {
         );
     }
 
-    private String readChecksum(final URL checksumUrl, final String archiveFileName)
-            throws IOException {
-        final Path checksumFile = Files.createTempFile("node-" + nodeVersion, "-SHASUMS256.txt");
-        try {
-            AllureDownloadUtils.copy(checksumUrl, checksumFile, proxy, downloadProperties);
-            try (BufferedReader reader = Files.newBufferedReader(checksumFile)) {
-                final List<String> matches = reader.lines()
-                        .filter(
-                                line -> line.endsWith("  " + archiveFileName)
-                                        || line.endsWith(" *" + archiveFileName)
-                        )
-                        .collect(Collectors.toList());
-                if (matches.isEmpty()) {
-                    throw new IOException(
-                            "Cannot find checksum for Node.js archive " + archiveFileName
-                    );
-                }
-                return matches.get(0).split("\\s+")[0];
-            }
-        } finally {
-            Files.deleteIfExists(checksumFile);
+    /**
+     * Returns {@code SHASUMS256.txt} next to the archive on each mirror, in the order of the
+     * mirrors, followed by the checksum URL of the Node.js distribution. A mirror that is down
+     * therefore fails over for the checksum list just like for the archive.
+     */
+    private List<URL> getChecksumUrls(final List<URL> archiveUrls) throws IOException {
+        final Set<String> checksumUrls = new LinkedHashSet<>();
+        for (URL archiveUrl : archiveUrls) {
+            checksumUrls.add(new URL(archiveUrl, NODE_CHECKSUM_FILE_NAME).toExternalForm());
         }
-    }
-
-    private static void verifyChecksum(final Path file, final String expected,
-                                       final String archiveFileName)
-            throws IOException {
-        try {
-            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            try (InputStream input = new DigestInputStream(Files.newInputStream(file), digest)) {
-                final byte[] buffer = new byte[8192];
-                int bytesRead = input.read(buffer);
-                while (bytesRead >= 0) {
-                    bytesRead = input.read(buffer);
-                }
-            }
-            final String actual = toHex(digest.digest());
-            if (!expected.equalsIgnoreCase(actual)) {
-                throw new IOException(
-                        String.format(
-                                "Checksum mismatch for %s. Expected %s but got %s.",
-                                archiveFileName, expected, actual
-                        )
-                );
-            }
-        } catch (NoSuchAlgorithmException e) {
-            throw new IOException("SHA-256 is not available", e);
+        checksumUrls.add(String.format(nodeChecksumUrl, nodeVersion));
+        final List<URL> urls = new ArrayList<>();
+        for (String checksumUrl : checksumUrls) {
+            urls.add(new URL(checksumUrl));
         }
+        return urls;
     }
 
-    private static String toHex(final byte[] bytes) {
-        final StringBuilder builder = new StringBuilder(bytes.length * 2);
-        for (byte value : bytes) {
-            builder.append(String.format("%02x", value));
+    private String readChecksum(final URL checksumUrl, final String archiveFileName)
+            throws IOException {
+        final String checksums = AllureDownloadUtils.readText(
+                checksumUrl, proxy, downloadProperties
+        );
+        final List<String> matches = checksums.lines()
+                .filter(
+                        line -> line.endsWith("  " + archiveFileName)
+                                || line.endsWith(" *" + archiveFileName)
+                )
+                .collect(Collectors.toList());
+        if (matches.isEmpty()) {
+            throw new IOException("Cannot find checksum for Node.js archive " + archiveFileName);
         }
-        return builder.toString();
+        return matches.get(0).split("\\s+")[0];
     }
 
-    private void unpackNode(final File file) throws IOException {
-        if (platform.isWindows()) {
-            try (ZipFile zipFile = new ZipFile(file)) {
-                zipFile.extractAll(installationDirectory.toAbsolutePath().toString());
-            } catch (ZipException e) {
-                throw new IOException(e);
-            }
-            return;
+    private void verifyChecksum(final String actual, final String expected,
+                                final String archiveFileName)
+            throws IOException {
+        if (!expected.equalsIgnoreCase(actual)) {
+            throw new IOException(
+                    String.format(
+                            "Checksum mismatch for %s. Expected %s but got %s.",
+                            archiveFileName, expected, actual
+                    )
+            );
         }
-
-        try (InputStream input = Files.newInputStream(file.toPath());
-                GzipCompressorInputStream gzip = new GzipCompressorInputStream(input);
-                TarArchiveInputStream tar = new TarArchiveInputStream(gzip)) {
-            TarArchiveEntry entry = tar.getNextEntry();
-            while (entry != null) {
-                unpackTarEntry(tar, entry);
-                entry = tar.getNextEntry();
-            }
+        if (log != null && log.isDebugEnabled()) {
+            log.debug(String.format("Verified SHA-256 %s of %s", actual, archiveFileName));
         }
     }
 
-    private void unpackTarEntry(final TarArchiveInputStream tar, final TarArchiveEntry entry)
-            throws IOException {
-        final Path target = installationDirectory.resolve(entry.getName()).normalize();
-        if (!target.startsWith(installationDirectory.normalize())) {
-            throw new IOException(
-                    "Refusing to unpack archive entry outside "
-                            + installationDirectory + ": " + entry.getName()
+    private String getPackageFingerprint() {
+        try {
+            return getPackageHash().substring(0, 16);
+        } catch (IOException e) {
+            throw new UncheckedIOException(
+                    "Cannot fingerprint Allure 3 package archive " + allurePackagePath, e
             );
         }
-        if (entry.isDirectory()) {
-            Files.createDirectories(target);
-        } else {
-            Files.createDirectories(target.getParent());
-            Files.copy(tar, target);
+    }
+
+    private String getPackageHash() throws IOException {
+        if (packageHash == null) {
+            packageHash = AllureChecksums.sha256(allurePackagePath);
         }
+        return packageHash;
     }
 
+
     private Path prepareWorkDirectory(final Path buildDirectory) throws IOException {
         final Path workDirectory = buildDirectory.resolve("allure-maven").resolve("allure3");
         FileUtils.deleteQuietly(workDirectory.toFile());
@@ -474,16 +1224,26 @@ public class Allure3Commandline {
         return configPath;
     }
 
+    /**
+     * Writes a module importing the user config and overriding the report settings. A worker
+     * caches every module it imported by URL, so in worker mode the module and the import of the
+     * user config get a name unique to the job, otherwise the next job would reuse the config of
+     * the first one.
+     */
     private Path writeScriptConfig(final Path workDirectory, final Path reportPath,
                                    final boolean singleFile, final String reportName, final Path userConfigPath,
                                    final Map<String, Object> defaultConfig)
             throws IOException {
         final ObjectMapper mapper = new ObjectMapper();
-        final Path configPath = workDirectory.resolve("allurerc.mjs");
-        final List<String> lines = new java.util.ArrayList<>(
+        final String job = worker ? UUID.randomUUID().toString() : null;
+        final Path configPath = workDirectory.resolve(
+                job == null ? "allurerc.mjs" : "allurerc-" + job + ".mjs"
+        );
+        final String userConfigUrl = userConfigPath.toAbsolutePath().toUri().toString();
+        final List<String> lines = new ArrayList<>(
                 Arrays.asList(
                         "import userConfig from " + mapper.writeValueAsString(
-                                userConfigPath.toAbsolutePath().toUri().toString()
+                                job == null ? userConfigUrl : userConfigUrl + "?job=" + job
                         ) + ";",
                         "", "const config = userConfig ?? {};",
                         "const plugins = typeof config.plugins === \"object\" && config.plugins !== null",
@@ -577,6 +1337,24 @@ public class Allure3Commandline {
 
     private int executeGenerate(final List<Path> resultsPaths, final Path config)
             throws IOException {
+        if (worker) {
+            final List<String> arguments = new ArrayList<>();
+            arguments.add("generate");
+            for (Path resultsPath : resultsPaths) {
+                arguments.add(resultsPath.toAbsolutePath().toString());
+            }
+            arguments.add("--config");
+            arguments.add(config.toAbsolutePath().toString());
+            final Integer exitCode = Allure3Worker.run(
+                    getNodeExecutable(), getAllureCliPath(), arguments, timeout, workerMaxMemory, log
+            );
+            if (exitCode != null && exitCode != 0) {
+                throw new IOException("Allure report generation failed with exit code " + exitCode);
+            }
+            if (exitCode != null) {
+                return exitCode;
+            }
+        }
         final CommandLine commandLine = new CommandLine(getAllureExecutablePath().toFile());
         commandLine.addArgument("generate");
         addResultsArguments(commandLine, resultsPaths);
@@ -609,48 +1387,163 @@ public class Allure3Commandline {
         }
     }
 
+    private void recordUse() throws IOException {
+        if (getSystemNode() == null) {
+            InstallPruner.markUsed(getNodeHome());
+        }
+        InstallPruner.markUsed(getAllureHome());
+        if (pruner != null && pruner.isEnabled()) {
+            prune(pruner);
+        }
+    }
+
+    private void checkBundle(final Properties manifest, final Path bundle) throws IOException {
+        if (!allureVersion.equals(manifest.getProperty(BUNDLE_ALLURE_VERSION))
+                || !nodeVersion.equals(manifest.getProperty(BUNDLE_NODE_VERSION))
+                || !platform.getClassifier().equals(manifest.getProperty(BUNDLE_PLATFORM))) {
+            throw new IOException(String.format(
+                    "Allure 3 runtime bundle %s holds allure@%s with Node.js %s for %s, "
+                            + "but allure@%s with Node.js %s for %s is required",
+                    bundle, manifest.getProperty(BUNDLE_ALLURE_VERSION),
+                    manifest.getProperty(BUNDLE_NODE_VERSION), manifest.getProperty(BUNDLE_PLATFORM),
+                    allureVersion, nodeVersion, platform.getClassifier()
+            ));
+        }
+    }
+
+    private Dependency toBundleDependency(final String coordinates) throws IOException {
+        final String[] parts = coordinates.trim().split(":");
+        if (parts.length < 2 || parts.length > 3) {
+            throw new IOException(
+                    "Allure 3 runtime bundle coordinates must be groupId:artifactId[:version]: "
+                            + coordinates
+            );
+        }
+        final Dependency dependency = new Dependency();
+        dependency.setGroupId(parts[0]);
+        dependency.setArtifactId(parts[1]);
+        dependency.setVersion(parts.length == 3 ? parts[2] : allureVersion);
+        dependency.setClassifier(getBundleClassifier());
+        dependency.setType("zip");
+        return dependency;
+    }
+
+    private String getBundledNodeHome() {
+        return platform.getNodeHome(getRuntimeDirectory(), nodeVersion).getFileName().toString();
+    }
+
+    private Path discoverNode() {
+        if (nodeToolchainHomes == null) {
+            return null;
+        }
+        try {
+            final Path node = new NodeDiscovery(getRuntimeDirectory(), log).find(
+                    NodeDiscovery.getCandidates(nodeToolchainHomes, System.getenv("PATH"), platform),
+                    nodeVersion
+            );
+            if (log != null) {
+                log.info(node == null
+                        ? "No Node.js " + nodeVersion + " compatible runtime found, using the plugin-managed one"
+                        : "Using Node.js found at " + node);
+            }
+            return node;
+        } catch (IOException e) {
+            if (log != null) {
+                log.warn("Node.js discovery failed, using the plugin-managed runtime: " + e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    private String getBundledAllureHome() {
+        return "allure-" + allureVersion;
+    }
+
     private void addResultsArguments(final CommandLine commandLine, final List<Path> resultsPaths) {
         for (Path resultsPath : resultsPaths) {
             addPathArgument(commandLine, resultsPath);
         }
     }
 
+    /**
+     * Writes the launcher unless the receipt shows it already has this content. A deep verify
+     * also compares the launcher file itself. Writes hold the install lock, since acquiring it
+     * sweeps staged files such as the ones written here, and read the receipt again under it so
+     * the components recorded meanwhile by other builds are kept.
+     */
     private void ensureLaunchers() throws IOException {
-        if (!Files.isExecutable(getNodeExecutable()) || !Files.exists(getAllureCliPath())) {
+        final InstallReceipt current = getReceipt();
+        final boolean recorded = current.matches(NODE_COMPONENT, nodeVersion, getNodeHome())
+                && current.matches(ALLURE_COMPONENT, allureVersion, getAllureHome());
+        if (!recorded
+                && (!Files.isExecutable(getNodeExecutable()) || !Files.exists(getAllureCliPath()))) {
             return;
         }
 
         final Path launcher = getAllureExecutablePath();
-        Files.createDirectories(launcher.getParent());
-        if (platform.isWindows()) {
-            Files.write(launcher, createWindowsLauncher().getBytes(StandardCharsets.UTF_8));
+        final byte[] content = (platform.isWindows() ? createWindowsLauncher(false) : createUnixLauncher(false))
+                .getBytes(StandardCharsets.UTF_8);
+        final String hash = InstallReceipt.hash(content);
+        if (hash.equals(current.getLauncherHash())
+                && (!deepVerify || Files.exists(launcher)
+                        && hash.equals(InstallReceipt.hash(Files.readAllBytes(launcher))))) {
             return;
         }
-
-        Files.write(launcher, createUnixLauncher().getBytes(StandardCharsets.UTF_8));
-        launcher.toFile().setExecutable(true);
+        try (InstallLock ignored = InstallLock.acquire(getRuntimeDirectory(), log)) {
+            AllureInstallUtils.write(launcher, content, !platform.isWindows());
+            final InstallReceipt latest = InstallReceipt.read(getReceiptPath());
+            latest.setLauncherHash(hash);
+            latest.write(getReceiptPath());
+            receipt = latest;
+        }
     }
 
-    private String createUnixLauncher() {
+    /**
+     * Creates the launcher. A relocatable one resolves the runtime relative to its own directory
+     * even when this install uses a shared store.
+     */
+    private String createUnixLauncher(final boolean relocatable) {
+        final String nodeHome;
+        final String allureHome;
+        if (relocatable || storeDirectory == null) {
+            allureHome = "$INSTALL_DIR/" + getBundledAllureHome();
+        } else {
+            allureHome = escapeUnixPath(getAllureHome());
+        }
+        if (getSystemNode() == null && (relocatable || storeDirectory == null)) {
+            nodeHome = "$INSTALL_DIR/" + getBundledNodeHome();
+        } else {
+            nodeHome = escapeUnixPath(getNodeHome());
+        }
         return new StringBuilder().append("#!/bin/sh\n")
                 .append("SCRIPT_DIR=$(CDPATH= cd -- \"$(dirname \"$0\")\" && pwd)\n")
                 .append("INSTALL_DIR=$(CDPATH= cd -- \"$SCRIPT_DIR/..\" && pwd)\n")
-                .append("exec \"$INSTALL_DIR/")
-                .append(platform.getNodeHome(installationDirectory, nodeVersion).getFileName())
-                .append("/bin/node\" \"$INSTALL_DIR/allure-").append(allureVersion)
+                .append("exec \"").append(nodeHome).append("/bin/node\" \"").append(allureHome)
                 .append("/node_modules/allure/cli.js\" \"$@\"\n").toString();
     }
 
-    private String createWindowsLauncher() {
+    private String createWindowsLauncher(final boolean relocatable) {
+        final String nodeHome;
+        final String allureHome;
+        if (relocatable || storeDirectory == null) {
+            allureHome = "%~dp0..\\" + getBundledAllureHome();
+        } else {
+            allureHome = getAllureHome().toAbsolutePath().toString();
+        }
+        if (getSystemNode() == null && (relocatable || storeDirectory == null)) {
+            nodeHome = "%~dp0..\\" + getBundledNodeHome();
+        } else {
+            nodeHome = getNodeHome().toAbsolutePath().toString();
+        }
         return new StringBuilder().append("@echo off\r\n").append("setlocal\r\n")
-                .append("set \"NODE=%~dp0..\\")
-                .append(platform.getNodeHome(installationDirectory, nodeVersion).getFileName())
-                .append("\\node.exe\"\r\n").append("if exist \"%~dp0..\\")
-                .append(platform.getNodeHome(installationDirectory, nodeVersion).getFileName())
-                .append("\\node.cmd\" set \"NODE=%~dp0..\\")
-                .append(platform.getNodeHome(installationDirectory, nodeVersion).getFileName())
-                .append("\\node.cmd\"\r\n").append("\"%NODE%\" \"%~dp0..\\allure-")
-                .append(allureVersion).append("\\node_modules\\allure\\cli.js\" %*\r\n").toString();
+                .append("set \"NODE=").append(nodeHome).append("\\node.exe\"\r\n")
+                .append("if exist \"").append(nodeHome).append("\\node.cmd\" set \"NODE=")
+                .append(nodeHome).append("\\node.cmd\"\r\n").append("\"%NODE%\" \"")
+                .append(allureHome).append("\\node_modules\\allure\\cli.js\" %*\r\n").toString();
+    }
+
+    private static String escapeUnixPath(final Path path) {
+        return path.toAbsolutePath().toString().replaceAll("([\"$`\\\\])", "\\\\$1");
     }
 
     private int execute(final CommandLine commandLine, final int timeout) throws IOException {
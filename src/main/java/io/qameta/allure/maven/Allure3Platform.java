@@ -17,6 +17,8 @@ package io.qameta.allure.maven;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 
 /**
@@ -27,15 +29,21 @@ final class Allure3Platform {
 
     private static final String BIN_DIRECTORY = "bin";
 
+    private final String os;
+
+    private final String arch;
+
     private final String classifier;
 
     private final String archiveExtension;
 
     private final boolean windows;
 
-    private Allure3Platform(final String classifier, final String archiveExtension,
+    private Allure3Platform(final String os, final String arch, final String archiveExtension,
                             final boolean windows) {
-        this.classifier = classifier;
+        this.os = os;
+        this.arch = arch;
+        this.classifier = os + "-" + arch;
         this.archiveExtension = archiveExtension;
         this.windows = windows;
     }
@@ -48,7 +56,7 @@ final class Allure3Platform {
         final String os = normalizeOs(osName);
         final String arch = normalizeArch(osArch);
         final boolean isWindows = "win".equals(os);
-        return new Allure3Platform(os + "-" + arch, isWindows ? "zip" : "tar.gz", isWindows);
+        return new Allure3Platform(os, arch, isWindows ? "zip" : "tar.gz", isWindows);
     }
 
     private static String normalizeOs(final String osName) {
@@ -85,25 +93,60 @@ final class Allure3Platform {
     }
 
     Path getNodeExecutable(final Path installationDirectory, final String nodeVersion) {
-        final Path nodeHome = getNodeHome(installationDirectory, nodeVersion);
+        return getNodeExecutable(getNodeHome(installationDirectory, nodeVersion));
+    }
+
+    Path getNodeExecutable(final Path nodeHome) {
         return windows
-                ? nodeHome.resolve("node.exe")
-                : nodeHome.resolve(BIN_DIRECTORY).resolve("node");
+                ? nodeHome.resolve(getNodeExecutableName())
+                : nodeHome.resolve(BIN_DIRECTORY).resolve(getNodeExecutableName());
     }
 
     Path getNpmExecutable(final Path installationDirectory, final String nodeVersion) {
-        final Path nodeHome = getNodeHome(installationDirectory, nodeVersion);
+        return getNpmExecutable(getNodeHome(installationDirectory, nodeVersion));
+    }
+
+    Path getNpmExecutable(final Path nodeHome) {
         return windows
                 ? nodeHome.resolve("npm.cmd")
                 : nodeHome.resolve(BIN_DIRECTORY).resolve("npm");
     }
 
     Path getNpmCliPath(final Path installationDirectory, final String nodeVersion) {
-        final Path nodeHome = getNodeHome(installationDirectory, nodeVersion);
+        return getNpmCliPath(getNodeHome(installationDirectory, nodeVersion));
+    }
+
+    Path getNpmCliPath(final Path nodeHome) {
         final Path npmCliPath = Paths.get("node_modules", "npm", "bin", "npm-cli.js");
         return windows ? nodeHome.resolve(npmCliPath) : nodeHome.resolve("lib").resolve(npmCliPath);
     }
 
+    /**
+     * Returns the Node.js home an executable belongs to, the reverse of
+     * {@link #getNodeExecutable(Path)}.
+     */
+    Path getNodeHomeOf(final Path nodeExecutable) {
+        return windows ? nodeExecutable.getParent() : nodeExecutable.getParent().getParent();
+    }
+
+    /**
+     * Returns the paths, relative to the Node.js home, extracted from the distribution archive.
+     * Directories end with a slash and are extracted with everything below them.
+     */
+    List<String> getNodeDistributionManifest() {
+        return windows
+                ? Arrays.asList(
+                        "node.exe", "npm", "npm.cmd", "npx", "npx.cmd", "node_modules/npm/", "LICENSE"
+                )
+                : Arrays.asList(
+                        "bin/node", "bin/npm", "bin/npx", "lib/node_modules/npm/", "LICENSE"
+                );
+    }
+
+    String getNodeExecutableName() {
+        return windows ? "node.exe" : "node";
+    }
+
     Path getBinDirectory(final Path installationDirectory) {
         return installationDirectory.resolve(BIN_DIRECTORY);
     }
@@ -116,6 +159,20 @@ final class Allure3Platform {
         return classifier;
     }
 
+    /**
+     * Returns the operating system as npm's {@code os} package field names it.
+     */
+    String getNpmOs() {
+        return windows ? "win32" : os;
+    }
+
+    /**
+     * Returns the architecture as npm's {@code cpu} package field names it.
+     */
+    String getNpmCpu() {
+        return arch;
+    }
+
     String getArchiveExtension() {
         return archiveExtension;
     }
@@ -0,0 +1,144 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A relocatable archive of a provisioned Allure 3 runtime. It is laid out like an install
+ * directory, with the Node.js home, the Allure package tree, the pinned lockfile and a launcher
+ * using relative paths, next to a manifest naming the versions and the platform. Entries keep
+ * their Unix mode, so executables stay executable wherever the archive is restored.
+ */
+final class Allure3RuntimeBundle {
+
+    static final String MANIFEST_FILE_NAME = "allure-runtime.properties";
+
+    private static final String SEPARATOR = "/";
+
+    private static final int EXECUTABLE_MODE = 0x1ED;
+
+    private static final int FILE_MODE = 0x1A4;
+
+    private Allure3RuntimeBundle() {
+        throw new IllegalStateException("Do not instance");
+    }
+
+    /**
+     * Writes the bundle through a staged file. The trees are added under their map keys, the
+     * files with their given content.
+     */
+    static void write(final Path bundle, final Properties manifest, final Map<String, Path> trees,
+                      final Map<String, byte[]> files)
+            throws IOException {
+        final Path parent = bundle.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        final Path staged = Files.createTempFile(parent, "." + bundle.getFileName(), null);
+        try {
+            try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(staged)) {
+                final ByteArrayOutputStream properties = new ByteArrayOutputStream();
+                manifest.store(properties, "Allure 3 runtime bundle");
+                addBytes(zip, MANIFEST_FILE_NAME, properties.toByteArray(), false);
+                for (Map.Entry<String, Path> tree : trees.entrySet()) {
+                    addTree(zip, tree.getKey(), tree.getValue());
+                }
+                for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                    addBytes(zip, file.getKey(), file.getValue(), file.getKey().startsWith("bin/"));
+                }
+            }
+            Files.move(staged, bundle, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(staged);
+        }
+    }
+
+    /**
+     * Extracts the bundle into the directory and returns its manifest.
+     */
+    static Properties extract(final Path bundle, final Path targetDirectory) throws IOException {
+        ZipExtractor.extract(bundle, targetDirectory);
+        final Path manifestFile = targetDirectory.resolve(MANIFEST_FILE_NAME);
+        if (!Files.isRegularFile(manifestFile)) {
+            throw new IOException("Not an Allure 3 runtime bundle, " + MANIFEST_FILE_NAME
+                    + " is missing: " + bundle);
+        }
+        final Properties manifest = new Properties();
+        try (InputStream input = Files.newInputStream(manifestFile)) {
+            manifest.load(input);
+        }
+        return manifest;
+    }
+
+    private static void addTree(final ZipArchiveOutputStream zip, final String name,
+                                final Path directory)
+            throws IOException {
+        final List<Path> paths;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            paths = walk.sorted().collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            final String entryName = (name + SEPARATOR + directory.relativize(path))
+                    .replace('\\', '/');
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                addDirectory(zip, entryName);
+            } else if (Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+                addFile(zip, entryName, path);
+            }
+        }
+    }
+
+    private static void addDirectory(final ZipArchiveOutputStream zip, final String name)
+            throws IOException {
+        final ZipArchiveEntry entry = new ZipArchiveEntry(name.endsWith(SEPARATOR) ? name : name + SEPARATOR);
+        entry.setUnixMode(EXECUTABLE_MODE);
+        zip.putArchiveEntry(entry);
+        zip.closeArchiveEntry();
+    }
+
+    private static void addFile(final ZipArchiveOutputStream zip, final String name,
+                                final Path file)
+            throws IOException {
+        final ZipArchiveEntry entry = new ZipArchiveEntry(file, name);
+        entry.setUnixMode(Files.isExecutable(file) ? EXECUTABLE_MODE : FILE_MODE);
+        zip.putArchiveEntry(entry);
+        Files.copy(file, zip);
+        zip.closeArchiveEntry();
+    }
+
+    private static void addBytes(final ZipArchiveOutputStream zip, final String name,
+                                 final byte[] content, final boolean executable)
+            throws IOException {
+        final ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        entry.setUnixMode(executable ? EXECUTABLE_MODE : FILE_MODE);
+        zip.putArchiveEntry(entry);
+        zip.write(content);
+        zip.closeArchiveEntry();
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Node.js process that keeps the Allure 3 CLI module graph loaded and runs generate jobs fed
+ * to it as JSON lines on its standard input. Each job re-evaluates only {@code cli.js} with the
+ * job arguments, its dependencies stay cached in the worker, and the exit code the CLI sets is
+ * reported back on standard output behind a marker. Everything else the CLI prints is streamed
+ * to the build output like the output of a forked CLI.
+ *
+ * <p>Idle workers are pooled per Node.js executable and CLI, so parallel modules each get their
+ * own worker. A worker that exits or crashes is discarded and the next job starts a new one; a
+ * worker whose resident memory exceeds the ceiling after a job is shut down. Workers are closed
+ * when the Maven session ends, on JVM shutdown, and exit on their own once their standard input
+ * is closed.</p>
+ */
+final class Allure3Worker {
+
+    private static final String MARKER = "\u0000allure-worker ";
+
+    private static final String EXITED = "exited";
+
+    private static final ConcurrentMap<String, Deque<Allure3Worker>> IDLE = new ConcurrentHashMap<>();
+
+    private static final Set<Allure3Worker> WORKERS = ConcurrentHashMap.newKeySet();
+
+    private static final String SCRIPT = """
+            import { createInterface } from "node:readline";
+            import { pathToFileURL } from "node:url";
+
+            const cli = pathToFileURL(process.argv[2]).href;
+            const marker = "\\u0000allure-worker ";
+            const argv = process.argv.slice(0, 2);
+            let finish = null;
+            let poll = null;
+            let jobs = 0;
+
+            class WorkerExit extends Error {}
+
+            const done = (code) => {
+                clearInterval(poll);
+                if (finish !== null) {
+                    const resolve = finish;
+                    finish = null;
+                    resolve(Number(code ?? 0));
+                }
+            };
+            const fail = (error) => {
+                if (!(error instanceof WorkerExit)) {
+                    console.error(error);
+                    done(1);
+                }
+            };
+
+            process.exit = (code) => {
+                done(code);
+                throw new WorkerExit();
+            };
+            process.on("uncaughtException", fail);
+            process.on("unhandledRejection", fail);
+
+            for await (const line of createInterface({ input: process.stdin })) {
+                const job = JSON.parse(line);
+                const code = await new Promise((resolve) => {
+                    finish = resolve;
+                    jobs += 1;
+                    process.exitCode = undefined;
+                    process.argv = [...argv, ...job.args];
+                    poll = setInterval(() => {
+                        if (process.exitCode !== undefined) {
+                            done(process.exitCode);
+                        }
+                    }, 20);
+                    import(`${cli}?job=${jobs}`).catch(fail);
+                });
+                const rss = process.memoryUsage().rss;
+                process.stdout.write(`${marker}${JSON.stringify({ code, rss })}\\n`);
+            }
+            """;
+
+    private static final long MB = 1024 * 1024;
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(Allure3Worker::closeAll, "allure-worker-shutdown"));
+    }
+
+    private final Process process;
+
+    private final Path script;
+
+    private final BufferedWriter input;
+
+    private final BlockingQueue<String> results = new LinkedBlockingQueue<>();
+
+    private Allure3Worker(final Process process, final Path script) {
+        this.process = process;
+        this.script = script;
+        this.input = new BufferedWriter(
+                new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8)
+        );
+        pump(process.getInputStream(), System.out, results, "allure-worker-out");
+        pump(process.getErrorStream(), System.err, null, "allure-worker-err");
+    }
+
+    /**
+     * Runs the CLI with the arguments on an idle worker, or a new one, and returns its exit code.
+     * Returns {@code null} when no worker could be started or the worker died during the job, so
+     * the caller can fork the CLI instead.
+     *
+     * @param maxMemory the resident memory in megabytes after which the worker is shut down
+     * @throws IOException if the job does not finish within the timeout
+     */
+    static Integer run(final Path node, final Path cli, final List<String> arguments,
+                       final int timeout, final long maxMemory, final Log log)
+            throws IOException {
+        final Deque<Allure3Worker> idle = IDLE.computeIfAbsent(
+                node.toAbsolutePath() + "|" + cli.toAbsolutePath(), key -> new ConcurrentLinkedDeque<>()
+        );
+        final Allure3Worker worker = acquire(idle, node, cli, log);
+        if (worker == null) {
+            return null;
+        }
+        if (log != null && log.isDebugEnabled()) {
+            log.debug("Running Allure command on worker " + worker.process.pid() + ": " + arguments);
+        }
+        boolean reusable = false;
+        try {
+            final JsonNode result = worker.execute(arguments, timeout);
+            if (result == null) {
+                if (log != null) {
+                    log.warn("The Allure worker " + worker.process.pid()
+                            + " exited during the job, forking the CLI instead");
+                }
+                return null;
+            }
+            final long rss = result.path("rss").asLong() / MB;
+            reusable = rss <= maxMemory;
+            if (!reusable && log != null) {
+                log.info("Restarting the Allure worker, it uses " + rss + " MB of " + maxMemory + " MB");
+            }
+            return result.path("code").asInt(1);
+        } finally {
+            if (reusable) {
+                idle.offerFirst(worker);
+            } else {
+                worker.close();
+            }
+        }
+    }
+
+    /**
+     * Takes a live idle worker, or starts one. Returns {@code null} if none could be started.
+     */
+    private static Allure3Worker acquire(final Deque<Allure3Worker> idle, final Path node,
+                                         final Path cli, final Log log) {
+        Allure3Worker worker = idle.pollFirst();
+        while (worker != null && !worker.process.isAlive()) {
+            worker.close();
+            worker = idle.pollFirst();
+        }
+        if (worker != null) {
+            return worker;
+        }
+        try {
+            return start(node, cli, log);
+        } catch (IOException e) {
+            if (log != null) {
+                log.warn("Cannot start the Allure worker, forking the CLI instead: " + e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Shuts all workers down.
+     */
+    static void closeAll() {
+        IDLE.clear();
+        for (Allure3Worker worker : WORKERS) {
+            worker.close();
+        }
+    }
+
+    private static Allure3Worker start(final Path node, final Path cli, final Log log)
+            throws IOException {
+        final Path script = Files.createTempFile("allure-worker", ".mjs");
+        try {
+            Files.writeString(script, SCRIPT, StandardCharsets.UTF_8);
+            final Process process = new ProcessBuilder(
+                    node.toAbsolutePath().toString(), script.toString(), cli.toAbsolutePath().toString()
+            ).start();
+            final Allure3Worker worker = new Allure3Worker(process, script);
+            WORKERS.add(worker);
+            if (log != null) {
+                log.info("Started Allure worker " + process.pid() + " for " + cli.toAbsolutePath());
+            }
+            return worker;
+        } catch (IOException e) {
+            Files.deleteIfExists(script);
+            throw e;
+        }
+    }
+
+    /**
+     * Sends the job and waits for its result, or returns {@code null} if the worker exits first.
+     */
+    private JsonNode execute(final List<String> arguments, final int timeout) throws IOException {
+        try {
+            input.write(new ObjectMapper().writeValueAsString(Collections.singletonMap("args", arguments)));
+            input.newLine();
+            input.flush();
+        } catch (IOException e) {
+            return null;
+        }
+        final String result;
+        try {
+            result = results.poll(timeout, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the Allure worker", e);
+        }
+        if (result == null) {
+            throw new IOException("The Allure worker did not finish the job in " + timeout + " seconds");
+        }
+        return EXITED.equals(result) ? null : new ObjectMapper().readTree(result);
+    }
+
+    private void close() {
+        WORKERS.remove(this);
+        try {
+            input.close();
+        } catch (IOException ignored) {
+            // The worker is destroyed anyway.
+        }
+        process.destroy();
+        try {
+            if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroyForcibly();
+        }
+        FileUtils.deleteQuietly(script.toFile());
+    }
+
+    /**
+     * Copies the output of the worker line by line, passing result lines to the queue, and
+     * queues {@code exited} at the end of the stream.
+     */
+    private static void pump(final InputStream stream, final PrintStream output,
+                             final BlockingQueue<String> results, final String name) {
+        final Thread thread = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+                String line = reader.readLine();
+                while (line != null) {
+                    forward(line, output, results);
+                    line = reader.readLine();
+                }
+            } catch (IOException ignored) {
+                // The worker was destroyed.
+            } finally {
+                if (results != null) {
+                    results.add(EXITED);
+                }
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void forward(final String line, final PrintStream output,
+                                final BlockingQueue<String> results) {
+        final int marker = results == null ? -1 : line.indexOf(MARKER);
+        if (marker < 0) {
+            output.println(line);
+            return;
+        }
+        if (marker > 0) {
+            output.println(line.substring(0, marker));
+        }
+        results.add(line.substring(marker + MARKER.length()));
+    }
+}
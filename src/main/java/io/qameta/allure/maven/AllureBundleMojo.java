@@ -0,0 +1,99 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
+
+/**
+ * Installs the Allure 3 runtime and packs it into a relocatable bundle for this platform.
+ */
+@SuppressWarnings({"unused", "MultipleStringLiterals"})
+@Mojo(
+        name = "bundle",
+        defaultPhase = LifecyclePhase.PACKAGE
+)
+public class AllureBundleMojo extends AllureInstallMojo {
+
+    /**
+     * The bundle to write, by default {@code allure3-runtime-<version>-<classifier>.zip} in the
+     * build directory.
+     */
+    @Parameter(property = "allure.bundle.file")
+    private String bundleFile;
+
+    /**
+     * Attach the bundle to the project as a {@code zip} artifact classified by the platform, such
+     * as {@code linux-x64}, so it is installed and deployed with the project.
+     */
+    @Parameter(
+            property = "allure.bundle.attach",
+            defaultValue = "false"
+    )
+    private boolean attach;
+
+    @Parameter(
+            defaultValue = "${project.build.directory}",
+            readonly = true
+    )
+    private String buildDirectory;
+
+    @Parameter(
+            defaultValue = "${project}",
+            readonly = true
+    )
+    private MavenProject project;
+
+    @Component
+    private MavenProjectHelper projectHelper;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        try {
+            final AllureVersion allureVersion = resolveAllure3Version("bundle");
+            final Allure3Commandline commandline = installAllure3(allureVersion);
+            final Path bundlePath = StringUtils.isBlank(bundleFile)
+                    ? Paths.get(buildDirectory).resolve(String.format(
+                            "allure3-runtime-%s-%s.zip",
+                            commandline.getVersion(), commandline.getBundleClassifier()
+                    ))
+                    : Paths.get(bundleFile);
+            commandline.createBundle(bundlePath);
+            if (attach) {
+                projectHelper.attachArtifact(
+                        project, "zip", commandline.getBundleClassifier(), bundlePath.toFile()
+                );
+                getLog().info(String.format(
+                        "Attached Allure 3 runtime bundle with classifier %s",
+                        commandline.getBundleClassifier()
+                ));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            getLog().error("Bundle error", e);
+            throw new MojoExecutionException("Can't bundle allure", e);
+        }
+    }
+}
@@ -15,8 +15,6 @@
  */
 package io.qameta.allure.maven;
 
-import net.lingala.zip4j.ZipFile;
-import net.lingala.zip4j.exception.ZipException;
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -33,9 +31,11 @@ import org.apache.maven.shared.transfer.dependencies.resolve.DependencyResolverE
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
@@ -52,6 +52,8 @@ public class AllureCommandline {
 
     private static final int DEFAULT_TIMEOUT = 3600;
 
+    private static final String COMPONENT = "allure";
+
     private final String version;
 
     private final int timeout;
@@ -60,6 +62,12 @@ public class AllureCommandline {
 
     private final Log log;
 
+    private boolean deepVerify;
+
+    private InstallPruner pruner;
+
+    private boolean inProcess;
+
     public AllureCommandline(final Path installationDirectory, final String version) {
         this(installationDirectory, version, DEFAULT_TIMEOUT, null);
     }
@@ -84,26 +92,78 @@ public class AllureCommandline {
         this.log = log;
     }
 
+    /**
+     * Recounts the files of the installed commandline against its install receipt and hashes
+     * the launcher script instead of trusting the receipt.
+     */
+    AllureCommandline withDeepVerify(final boolean deepVerify) {
+        this.deepVerify = deepVerify;
+        return this;
+    }
+
+    /**
+     * Records the use of the commandline on each generate and serve, and prunes the installation
+     * directory to the limits of the pruner afterwards.
+     */
+    AllureCommandline withPruner(final InstallPruner pruner) {
+        this.pruner = pruner;
+        return this;
+    }
+
+    /**
+     * Generates reports inside the Maven JVM through a cached class loader over the jars of the
+     * commandline, forking {@code bin/allure} only when that fails.
+     */
+    AllureCommandline withInProcess(final boolean inProcess) {
+        this.inProcess = inProcess;
+        return this;
+    }
+
+    /**
+     * Deletes the trees exceeding the limits of the pruner from the installation directory,
+     * keeping this version.
+     */
+    public List<Path> prune(final InstallPruner installPruner) throws IOException {
+        return installPruner.prune(installationDirectory, Collections.singletonList(getAllureHome()));
+    }
+
     public int generateReport(final List<Path> resultsPaths, final Path reportPath,
                               final boolean singleFile)
             throws IOException {
 
         this.checkAllureExists();
+        recordUse();
 
         FileUtils.deleteQuietly(reportPath.toFile());
 
-        final CommandLine commandLine = createCommandLine("generate");
-        commandLine.addArgument("--clean");
+        final List<String> arguments = new ArrayList<>();
+        if (log != null && log.isDebugEnabled()) {
+            arguments.add("--verbose");
+        }
+        arguments.addAll(Arrays.asList("generate", "--clean"));
         if (singleFile) {
-            commandLine.addArgument("--single-file");
+            arguments.add("--single-file");
         }
-
         for (Path resultsPath : resultsPaths) {
-            addPathArgument(commandLine, resultsPath);
+            arguments.add(resultsPath.toAbsolutePath().toString());
         }
-        commandLine.addArgument("-o");
-        addPathArgument(commandLine, reportPath);
+        arguments.add("-o");
+        arguments.add(reportPath.toAbsolutePath().toString());
 
+        if (inProcess) {
+            final Integer exitCode = Allure2InProcess.run(getAllureHome(), arguments, timeout, log);
+            if (exitCode != null && exitCode != 0) {
+                throw new IOException("Allure report generation failed with exit code " + exitCode);
+            }
+            if (exitCode != null) {
+                return exitCode;
+            }
+        }
+
+        final CommandLine commandLine = new CommandLine(getAllureExecutablePath().toAbsolutePath().toFile());
+        for (String argument : arguments) {
+            commandLine.addArgument(argument, isWindows());
+        }
         return execute(commandLine, timeout);
     }
 
@@ -111,6 +171,7 @@ public class AllureCommandline {
             throws IOException {
 
         this.checkAllureExists();
+        recordUse();
 
         final CommandLine commandLine = createCommandLine("serve");
         if (serveHost != null && serveHost.matches("(\\d{1,3}\\.){3}\\d{1,3}")) {
@@ -136,8 +197,17 @@ public class AllureCommandline {
         }
     }
 
+    private void recordUse() throws IOException {
+        InstallPruner.markUsed(getAllureHome());
+        if (pruner != null && pruner.isEnabled()) {
+            prune(pruner);
+        }
+    }
+
     private int execute(final CommandLine commandLine, final int timeout) throws IOException {
-        logCommandLine(commandLine);
+        if (log != null && log.isDebugEnabled()) {
+            log.debug("Executing Allure command: " + Arrays.toString(commandLine.toStrings()));
+        }
         return CommandLineExecutorFactory.newExecutor(timeout).execute(commandLine);
     }
 
@@ -150,12 +220,6 @@ public class AllureCommandline {
         return commandLine;
     }
 
-    private void logCommandLine(final CommandLine commandLine) {
-        if (log != null && log.isDebugEnabled()) {
-            log.debug("Executing Allure command: " + Arrays.toString(commandLine.toStrings()));
-        }
-    }
-
     private void addPathArgument(final CommandLine commandLine, final Path path) {
         commandLine.addArgument(path.toAbsolutePath().toString(), isWindows());
     }
@@ -169,9 +233,31 @@ public class AllureCommandline {
         return installationDirectory.resolve(String.format("allure-%s", version));
     }
 
+    Path getReceiptPath() {
+        return installationDirectory.resolve(String.format(".allure-%s-receipt.properties", version));
+    }
+
+    /**
+     * Checks the install receipt, which takes a single small file read. Installs made before
+     * receipts were written are checked by probing the executable.
+     */
     public boolean allureExists() {
+        final InstallReceipt receipt = InstallReceipt.read(getReceiptPath());
         final Path allureExecutablePath = getAllureExecutablePath();
-        return Files.exists(allureExecutablePath) && Files.isExecutable(allureExecutablePath);
+        if (!receipt.matches(COMPONENT, version, getAllureHome())) {
+            return Files.exists(allureExecutablePath) && Files.isExecutable(allureExecutablePath);
+        }
+        if (!deepVerify) {
+            return true;
+        }
+        try {
+            return receipt.verifyFiles(COMPONENT, getAllureHome(), log)
+                    && Files.isExecutable(allureExecutablePath)
+                    && InstallReceipt.hash(Files.readAllBytes(allureExecutablePath))
+                            .equals(receipt.getLauncherHash());
+        } catch (IOException e) {
+            return false;
+        }
     }
 
     public boolean allureNotExists() {
@@ -190,7 +276,12 @@ public class AllureCommandline {
         cliDep.setVersion(version);
         cliDep.setType("zip");
 
-        try {
+        try (InstallLock ignored = InstallLock.acquire(
+                installationDirectory, getAllureHome().getFileName().toString(), log
+        )) {
+            if (allureExists()) {
+                return;
+            }
             final Iterator<ArtifactResult> resolved = dependencyResolver.resolveDependencies(
                     buildingRequest,
                     Collections.singletonList(cliDep), null, null
@@ -229,12 +320,24 @@ public class AllureCommandline {
             return;
         }
 
-        final Path allureZip = Files.createTempFile("allure", version);
-        try {
-            AllureDownloadUtils.copy(url, allureZip, mavenProxy, downloadProperties);
-            unpack(allureZip.toFile());
-        } finally {
-            Files.deleteIfExists(allureZip);
+        try (InstallLock ignored = InstallLock.acquire(
+                installationDirectory, getAllureHome().getFileName().toString(), log
+        )) {
+            if (allureExists()) {
+                return;
+            }
+            final Path allureZip = installationDirectory.resolve(
+                    "allure-commandline-" + version + ".zip" + ResumableDownload.PART_SUFFIX
+            );
+            ResumableDownload.read(url, allureZip, mavenProxy, downloadProperties, log, input -> {
+                input.transferTo(OutputStream.nullOutputStream());
+                return allureZip;
+            });
+            try {
+                unpack(allureZip.toFile());
+            } finally {
+                Files.deleteIfExists(allureZip);
+            }
         }
     }
 
@@ -243,15 +346,41 @@ public class AllureCommandline {
     }
 
     private void unpack(final File file) throws IOException {
-        try (ZipFile zipFile = new ZipFile(file)) {
-            zipFile.extractAll(getInstallationDirectory().toAbsolutePath().toString());
-        } catch (ZipException e) {
-            throw new IOException(e);
+        final Path allureHome = getAllureHome();
+        final Path staging = AllureInstallUtils.createStagingDirectory(allureHome);
+        try {
+            ZipExtractor.extract(file.toPath(), staging);
+
+            final Path stagedHome = staging.resolve(allureHome.getFileName());
+            if (!Files.isDirectory(stagedHome)) {
+                throw new IOException(
+                        "Allure commandline archive does not contain " + allureHome.getFileName()
+                );
+            }
+            final Path stagedExecutable = stagedHome.resolve(allureHome.relativize(getAllureExecutablePath()));
+            if (Files.exists(stagedExecutable)) {
+                stagedExecutable.toFile().setExecutable(true);
+            }
+            AllureInstallUtils.publish(stagedHome, allureHome);
+            writeReceipt(AllureChecksums.sha256(file.toPath()));
+        } finally {
+            FileUtils.deleteQuietly(staging.toFile());
         }
+    }
 
-        final Path allureExecutable = getAllureExecutablePath();
-        if (Files.exists(allureExecutable)) {
-            allureExecutable.toFile().setExecutable(true);
+    /**
+     * The receipt is written under the directory lock, since acquiring it sweeps staged files
+     * other than those of trees being installed.
+     */
+    private void writeReceipt(final String source) throws IOException {
+        final InstallReceipt receipt = InstallReceipt.read(getReceiptPath());
+        receipt.put(COMPONENT, version, getAllureHome(), source);
+        final Path allureExecutablePath = getAllureExecutablePath();
+        if (Files.exists(allureExecutablePath)) {
+            receipt.setLauncherHash(InstallReceipt.hash(Files.readAllBytes(allureExecutablePath)));
+        }
+        try (InstallLock ignored = InstallLock.acquire(installationDirectory, log)) {
+            receipt.write(getReceiptPath());
         }
     }
 
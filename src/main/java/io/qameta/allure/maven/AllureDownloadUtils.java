@@ -15,28 +15,16 @@
  */
 package io.qameta.allure.maven;
 
-import org.apache.commons.lang3.StringUtils;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.settings.Proxy;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.Authenticator;
-import java.net.InetSocketAddress;
-import java.net.PasswordAuthentication;
 import java.net.URL;
-import java.net.URLConnection;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
-import java.security.GeneralSecurityException;
-import java.security.SecureRandom;
+import java.nio.charset.StandardCharsets;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.Properties;
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
 /**
@@ -55,44 +43,36 @@ final class AllureDownloadUtils {
         throw new IllegalStateException("Do not instance");
     }
 
-    static void copy(final URL url, final Path destination, final Proxy mavenProxy,
-                     final Properties downloadProperties)
+    /**
+     * Opens the URL and passes the response body to the reader. HTTP and HTTPS downloads go
+     * through the pooled client in {@link AllureHttpClients}; other schemes such as {@code file:}
+     * use the JDK URL handler.
+     */
+    static <T> T read(final URL url, final Proxy mavenProxy, final Properties downloadProperties,
+                      final StreamReader<T> reader)
             throws IOException {
-        final AuthenticatorState authenticatorState = AuthenticatorState.capture();
-        boolean proxyAuthenticatorConfigured = false;
-
-        try {
-            java.net.Proxy proxy = null;
-            if (mavenProxy != null) {
-                final InetSocketAddress proxyAddress = new InetSocketAddress(mavenProxy.getHost(), mavenProxy.getPort());
-                proxy = new java.net.Proxy(java.net.Proxy.Type.HTTP, proxyAddress);
-                if (StringUtils.isNotBlank(mavenProxy.getUsername())
-                        && StringUtils.isNotBlank(mavenProxy.getPassword())) {
-                    final String proxyUser = mavenProxy.getUsername();
-                    final String proxyPassword = mavenProxy.getPassword();
-                    Authenticator.setDefault(new Authenticator() {
-                        @Override
-                        public PasswordAuthentication getPasswordAuthentication() {
-                            return new PasswordAuthentication(
-                                    proxyUser,
-                                    proxyPassword.toCharArray()
-                            );
-                        }
-                    });
-                    proxyAuthenticatorConfigured = true;
-                }
-            }
+        if (isHttp(url)) {
+            return AllureHttpClients.get(url, mavenProxy, downloadProperties, false, reader);
+        }
+        try (InputStream inputStream = url.openStream()) {
+            return reader.read(inputStream);
+        }
+    }
 
-            final WagonSslProperties sslProperties = WagonSslProperties.from(downloadProperties);
-            final URLConnection connection = openConnection(url, proxy, sslProperties);
-            try (InputStream inputStream = connection.getInputStream()) {
-                Files.copy(inputStream, destination, StandardCopyOption.REPLACE_EXISTING);
-            }
-        } finally {
-            if (proxyAuthenticatorConfigured) {
-                authenticatorState.restore();
-            }
+    /**
+     * Reads a small UTF-8 text resource such as {@code SHASUMS256.txt}. Unlike archive downloads,
+     * text resources may be transferred compressed.
+     */
+    static String readText(final URL url, final Proxy mavenProxy,
+                           final Properties downloadProperties)
+            throws IOException {
+        final StreamReader<String> reader = inputStream -> new String(
+                inputStream.readAllBytes(), StandardCharsets.UTF_8
+        );
+        if (isHttp(url)) {
+            return AllureHttpClients.get(url, mavenProxy, downloadProperties, true, reader);
         }
+        return read(url, mavenProxy, downloadProperties, reader);
     }
 
     static Properties getDownloadProperties(final MavenSession session) {
@@ -105,31 +85,20 @@ final class AllureDownloadUtils {
         return properties;
     }
 
-    private static URLConnection openConnection(final URL url, final java.net.Proxy proxy,
-                                                final WagonSslProperties sslProperties)
-            throws IOException {
-        final URLConnection connection = proxy == null ? url.openConnection() : url.openConnection(proxy);
-        if (!(connection instanceof HttpsURLConnection) || !sslProperties.isInsecure()) {
-            return connection;
-        }
+    static boolean isHttp(final URL url) {
+        return "http".equalsIgnoreCase(url.getProtocol())
+                || "https".equalsIgnoreCase(url.getProtocol());
+    }
 
-        try {
-            final HttpsURLConnection httpsConnection = (HttpsURLConnection) connection;
-            final SSLContext sslContext = SSLContext.getInstance("TLS");
-            sslContext.init(
-                    null,
-                    new TrustManager[]{
-                            new RelaxedX509TrustManager(sslProperties.isIgnoreValidityDates()),},
-                    new SecureRandom()
-            );
-            httpsConnection.setSSLSocketFactory(sslContext.getSocketFactory());
-            if (sslProperties.isAllowAll()) {
-                httpsConnection.setHostnameVerifier((hostname, session) -> true);
-            }
-            return httpsConnection;
-        } catch (GeneralSecurityException e) {
-            throw new IOException("Unable to configure SSL for Allure download.", e);
-        }
+    /**
+     * Consumer of a downloaded response body.
+     *
+     * @param <T> the type of the read result
+     */
+    @FunctionalInterface
+    interface StreamReader<T> {
+
+        T read(InputStream inputStream) throws IOException;
     }
 
     /**
@@ -214,25 +183,4 @@ final class AllureDownloadUtils {
             }
         }
     }
-
-    /**
-     * Captures the current JVM authenticator so download flows can restore it after temporary proxy
-     * credentials are installed.
-     */
-    static final class AuthenticatorState {
-
-        private final Authenticator authenticator;
-
-        private AuthenticatorState(final Authenticator authenticator) {
-            this.authenticator = authenticator;
-        }
-
-        static AuthenticatorState capture() {
-            return new AuthenticatorState(Authenticator.getDefault());
-        }
-
-        void restore() {
-            Authenticator.setDefault(authenticator);
-        }
-    }
 }
@@ -16,6 +16,9 @@
 package io.qameta.allure.maven;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.text.StringSubstitutor;
 import org.apache.maven.artifact.DependencyResolutionRequiredException;
@@ -38,6 +41,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -155,12 +159,20 @@ public abstract class AllureGenerateMojo extends AllureBaseMojo {
     )
     protected String nodeVersion;
 
+    /**
+     * The Node.js archive URL template. A comma-separated list configures mirrors: the fastest
+     * healthy one is used and the others are tried in turn if the download fails.
+     */
     @Parameter(
             property = "allure.node.download.url",
             defaultValue = NODE_DEFAULT_DOWNLOAD_URL
     )
     protected String nodeDownloadUrl;
 
+    /**
+     * The npm registry URL. A comma-separated list configures mirrors: the fastest healthy one is
+     * used and the others are tried in turn if {@code npm install} fails.
+     */
     @Parameter(
             property = "allure.npm.registry",
             defaultValue = NPM_DEFAULT_REGISTRY
@@ -173,6 +185,140 @@ public abstract class AllureGenerateMojo extends AllureBaseMojo {
     @Parameter(property = "allure.package.path")
     protected String packagePath;
 
+    /**
+     * Optional machine-wide directory for Node.js runtimes and Allure 3 packages shared by all
+     * projects. When set, the install directory only keeps launchers pointing into this store.
+     */
+    @Parameter(property = "allure.store.directory")
+    protected String storeDirectory;
+
+    /**
+     * Optional npm cache for Allure 3 installs, by default {@code npm-cache} in the runtime
+     * directory. Set it to a shared path to reuse downloaded packages across install directories.
+     */
+    @Parameter(property = "allure.npm.cache")
+    protected String npmCache;
+
+    /**
+     * Maven coordinates {@code groupId:artifactId[:version]} of an Allure 3 runtime bundle made by
+     * {@code allure:bundle}, restored for the platform classifier before anything is downloaded.
+     */
+    @Parameter(property = "allure.bundle")
+    protected String bundle;
+
+    /**
+     * Reuse a Node.js with the major version of {@code allure.node.version} from a {@code node}
+     * toolchain in {@code toolchains.xml} (configured by {@code nodeHome}) or from the
+     * {@code PATH} instead of downloading one.
+     */
+    @Parameter(
+            property = "allure.node.discover",
+            defaultValue = "false"
+    )
+    protected boolean nodeDiscover;
+
+    /**
+     * Maximum size in megabytes of the Node.js and Allure trees in the install (or store)
+     * directory. After each generate or serve, the least recently used trees are deleted until
+     * they fit. {@code 0} means no limit.
+     */
+    @Parameter(
+            property = "allure.install.max.size",
+            defaultValue = "0"
+    )
+    protected long installMaxSize;
+
+    /**
+     * Delete Node.js and Allure trees of the install (or store) directory that no generate or
+     * serve has used for this many days. {@code 0} means no limit.
+     */
+    @Parameter(
+            property = "allure.install.max.age",
+            defaultValue = "0"
+    )
+    protected int installMaxAge;
+
+    /**
+     * Recount the files of existing installs against their install receipts instead of trusting
+     * the receipts, and reinstall only what turns out to be incomplete.
+     */
+    @Parameter(
+            property = "allure.install.verify",
+            defaultValue = "false"
+    )
+    protected boolean installVerify;
+
+    /**
+     * Generate Allure 2 reports inside the Maven JVM instead of forking {@code bin/allure}. The
+     * commandline jars are loaded once per build and reused by every module; the fork remains
+     * the fallback when the installation cannot be loaded.
+     */
+    @Parameter(
+            property = "allure.report.inProcess",
+            defaultValue = "false"
+    )
+    protected boolean reportInProcess;
+
+    /**
+     * Generate Allure 3 reports on a warm Node.js worker started on first use and reused by the
+     * modules of the build, instead of starting the CLI for every report. The worker is shut down
+     * when the build ends; if it crashes, the report is generated by the CLI as before.
+     */
+    @Parameter(
+            property = "allure.worker",
+            defaultValue = "false"
+    )
+    protected boolean worker;
+
+    /**
+     * Memory in megabytes a worker may use after a report before it is restarted.
+     */
+    @Parameter(
+            property = "allure.worker.max.memory",
+            defaultValue = "1024"
+    )
+    protected long workerMaxMemory;
+
+    /**
+     * The number of reports the modules of a build generate at the same time, for example under
+     * {@code mvn -T}. By default it is the number of processors, bounded by the number of reports
+     * of {@code allure.report.memory} that fit in the physical memory. The first module to generate a
+     * report sizes it for the whole build.
+     */
+    @Parameter(
+            property = "allure.report.concurrency",
+            defaultValue = "0"
+    )
+    protected int reportConcurrency;
+
+    /**
+     * The memory in megabytes one report generation is expected to use, to size
+     * {@code allure.report.concurrency}.
+     */
+    @Parameter(
+            property = "allure.report.memory",
+            defaultValue = "1024"
+    )
+    protected long reportMemory;
+
+    /**
+     * URL of an {@code allure:server} service, for example {@code http://127.0.0.1:8490}. When
+     * set, reports are generated by the service, which keeps its runtimes warm for all builds of
+     * the host, and its log is streamed into the build log. Nothing is installed locally.
+     */
+    @Parameter(property = "allure.server.url")
+    protected String serverUrl;
+
+    /**
+     * The directory {@code allure:server} writes its token to, read to authenticate the jobs
+     * sent to {@code allure.server.url}.
+     */
+    @Parameter(
+            property = "allure.server.token.directory",
+            defaultValue = "${user.home}/.allure"
+    )
+    protected String serverTokenDirectory;
+
     /**
      * The path to the Allure 3 config file. Relative paths are resolved from the project root.
      */
@@ -221,7 +367,9 @@ public abstract class AllureGenerateMojo extends AllureBaseMojo {
             final AllureVersion allureVersion = AllureVersion.resolve(reportVersion);
             validateConfiguredParameters(allureVersion);
 
-            this.installAllure(allureVersion);
+            if (!isServerClient()) {
+                this.installAllure(allureVersion);
+            }
 
             getLog().info(
                     String.format(
@@ -243,7 +391,14 @@ public abstract class AllureGenerateMojo extends AllureBaseMojo {
             this.loadCategories(inputDirectories);
             this.copyExecutorInfo(inputDirectories);
             final List<Path> generationInputDirectories = prepareInputDirectoriesForGenerate(inputDirectories, allureVersion);
-            this.generateReport(generationInputDirectories, allureVersion);
+            if (isScheduled()) {
+                GenerationScheduler.get(session, reportConcurrency, reportMemory, getLog()).run(
+                        getProject(), getLog(),
+                        () -> this.generateReport(generationInputDirectories, allureVersion)
+                );
+            } else {
+                this.generateReport(generationInputDirectories, allureVersion);
+            }
             afterGenerateReport(generationInputDirectories, allureVersion);
 
             render(getSink(), getName(locale));
@@ -340,7 +495,7 @@ public abstract class AllureGenerateMojo extends AllureBaseMojo {
             final AllureCommandline commandline = new AllureCommandline(
                     Paths.get(installDirectory),
                     allureVersion.getVersion(), getLog()
-            );
+            ).withDeepVerify(installVerify);
             getLog().info(String.format("Allure installation directory %s", installDirectory));
             getLog().info(String.format("Try to finding out allure %s", commandline.getVersion()));
 
@@ -374,6 +529,9 @@ public abstract class AllureGenerateMojo extends AllureBaseMojo {
                             commandline.getVersion(), commandline.getNodeVersion()
                     )
             );
+            if (StringUtils.isNotBlank(bundle)) {
+                restoreBundle(commandline);
+            }
             commandline.install();
         } catch (IOException e) {
             getLog().error("Installation error", e);
@@ -381,15 +539,70 @@ public abstract class AllureGenerateMojo extends AllureBaseMojo {
         }
     }
 
+    private void restoreBundle(final Allure3Commandline commandline) {
+        try {
+            commandline.installBundleWithMaven(session, dependencyResolver, bundle);
+        } catch (IOException e) {
+            getLog().warn("Cannot restore Allure 3 runtime bundle " + bundle
+                    + ", installing from the mirrors instead: " + e.getMessage());
+        }
+    }
+
     protected void generateReport(final List<Path> resultsPaths, final AllureVersion allureVersion)
             throws MavenReportException {
-        if (allureVersion.isAllure3()) {
+        if (isServerClient()) {
+            generateOnServer(resultsPaths, allureVersion);
+        } else if (allureVersion.isAllure3()) {
             generateAllure3Report(resultsPaths, allureVersion);
         } else {
             generateAllure2Report(resultsPaths, allureVersion);
         }
     }
 
+    /**
+     * Returns whether the generation takes a slot of the session-wide scheduler.
+     */
+    protected boolean isScheduled() {
+        return !isServerClient();
+    }
+
+    /**
+     * Returns whether reports are generated by an {@code allure:server} service.
+     */
+    protected boolean isServerClient() {
+        return StringUtils.isNotBlank(serverUrl);
+    }
+
+    private void generateOnServer(final List<Path> resultsPaths, final AllureVersion allureVersion)
+            throws MavenReportException {
+        try {
+            final ObjectNode job = new ObjectMapper().createObjectNode();
+            job.put("version", allureVersion.getVersion());
+            final ArrayNode results = job.putArray("results");
+            resultsPaths.forEach(path -> results.add(path.toAbsolutePath().toString()));
+            job.put("report", Paths.get(getReportDirectory()).toAbsolutePath().toString());
+            job.put("singleFile", Boolean.TRUE.equals(singleFile));
+            if (allureVersion.isAllure3()) {
+                validateAllure3Configuration();
+                final Path allureConfig = resolveAllure3ConfigPath();
+                job.put("nodeVersion", nodeVersion);
+                job.put("buildDirectory", Paths.get(buildDirectory).toAbsolutePath().toString());
+                job.put("name", getName(Locale.getDefault()));
+                job.put("config", allureConfig == null ? null : allureConfig.toAbsolutePath().toString());
+                job.set("defaults", new ObjectMapper().valueToTree(getAllure3ConfigDefaults()));
+            }
+            getLog().info("Generate report to " + getReportDirectory() + " on " + serverUrl);
+            AllureServerClient.generate(
+                    serverUrl, Paths.get(serverTokenDirectory), job,
+                    AllureCommandline.getDownloadProperties(session), getLog()
+            );
+            getLog().info("Report generated successfully.");
+        } catch (IOException e) {
+            getLog().error("Generation error", e);
+            throw new MavenReportException("Can't generate allure report data", e);
+        }
+    }
+
     private void generateAllure2Report(final List<Path> resultsPaths,
                                        final AllureVersion allureVersion)
             throws MavenReportException {
@@ -399,7 +612,7 @@ public abstract class AllureGenerateMojo extends AllureBaseMojo {
             final AllureCommandline commandline = new AllureCommandline(
                     Paths.get(getInstallDirectory()),
                     allureVersion.getVersion(), reportTimeout, getLog()
-            );
+            ).withPruner(createInstallPruner()).withInProcess(reportInProcess);
 
             getLog().info("Generate report to " + reportPath);
             commandline.generateReport(resultsPaths, reportPath, Boolean.TRUE.equals(singleFile));
@@ -435,12 +648,30 @@ public abstract class AllureGenerateMojo extends AllureBaseMojo {
     protected Allure3Commandline createAllure3Commandline(final AllureVersion allureVersion,
                                                           final int timeout)
             throws IOException {
+        if (worker) {
+            SessionEndListener.register(
+                    session, Allure3Worker.class.getName(), Allure3Worker::closeAll, getLog()
+            );
+        }
         return new Allure3Commandline(
                 Paths.get(getInstallDirectory()), allureVersion.getVersion(),
                 nodeVersion, nodeDownloadUrl, npmRegistry, resolveAllurePackagePathOrNull(),
                 ProxyUtils.getProxy(session, decrypter),
                 AllureCommandline.getDownloadProperties(session),
                 session != null && session.isOffline(), timeout, getLog()
+        ).withStoreDirectory(AllureRuntimeOptions.resolveStoreDirectoryOrNull(storeDirectory, getLog()))
+                .withDeepVerify(installVerify)
+                .withNpmCacheDirectory(AllureRuntimeOptions.resolveNpmCacheDirectoryOrNull(npmCache))
+                .withNodeDiscovery(
+                        AllureRuntimeOptions.resolveNodeToolchainHomesOrNull(nodeDiscover, session)
+                ).withPruner(createInstallPruner())
+                .withWorker(worker, workerMaxMemory);
+    }
+
+    protected InstallPruner createInstallPruner() {
+        return new InstallPruner(
+                installMaxSize * FileUtils.ONE_MB,
+                installMaxAge > 0 ? Duration.ofDays(installMaxAge) : null, getLog()
         );
     }
 
@@ -0,0 +1,343 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.hc.client5.http.auth.AuthScope;
+import org.apache.hc.client5.http.auth.UsernamePasswordCredentials;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.classic.methods.HttpHead;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.impl.auth.BasicCredentialsProvider;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.client5.http.ssl.DefaultClientTlsStrategy;
+import org.apache.hc.client5.http.ssl.HostnameVerificationPolicy;
+import org.apache.hc.client5.http.ssl.NoopHostnameVerifier;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.apache.maven.settings.Proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+
+/**
+ * Pooled HTTP clients used for direct downloads and for jobs sent to {@code allure:server}.
+ * Clients are shared for the lifetime of the plugin class loader and keyed by proxy, SSL and
+ * timeout settings, so consecutive downloads from the same host reuse a kept-alive connection.
+ * Proxy credentials are passed per request instead of through the JVM-wide
+ * {@link java.net.Authenticator}.
+ */
+final class AllureHttpClients {
+
+    static final String CONNECT_TIMEOUT = "allure.download.connect.timeout";
+
+    static final String READ_TIMEOUT = "allure.download.read.timeout";
+
+    static final int MAX_CONNECTIONS_PER_ROUTE = 8;
+
+    private static final long DEFAULT_CONNECT_TIMEOUT_SECONDS = 30;
+
+    private static final long DEFAULT_READ_TIMEOUT_SECONDS = 60;
+
+    private static final int MAX_CONNECTIONS_TOTAL = 32;
+
+    private static final String IDENTITY_ENCODING = "identity";
+
+    private static final ConcurrentMap<String, CloseableHttpClient> CLIENTS =
+            new ConcurrentHashMap<>();
+
+    private AllureHttpClients() {
+        throw new IllegalStateException("Do not instance");
+    }
+
+    /**
+     * Executes a GET request and passes the response body to the reader. Compressed transfer is
+     * only negotiated when {@code compressed} is set, so binary archives are always received
+     * byte-for-byte as published.
+     */
+    static <T> T get(final URL url, final Proxy mavenProxy, final Properties downloadProperties,
+                     final boolean compressed, final AllureDownloadUtils.StreamReader<T> reader)
+            throws IOException {
+        return get(url, mavenProxy, downloadProperties, compressed, null, reader);
+    }
+
+    /**
+     * Executes a GET request like {@link #get(URL, Proxy, Properties, boolean,
+     * AllureDownloadUtils.StreamReader)}, asking for the given media types.
+     */
+    static <T> T get(final URL url, final Proxy mavenProxy, final Properties downloadProperties,
+                     final boolean compressed, final String accept,
+                     final AllureDownloadUtils.StreamReader<T> reader)
+            throws IOException {
+        final HttpGet request = createRequest(url);
+        if (!compressed) {
+            request.setHeader(HttpHeaders.ACCEPT_ENCODING, IDENTITY_ENCODING);
+        }
+        if (accept != null) {
+            request.setHeader(HttpHeaders.ACCEPT, accept);
+        }
+
+        final CloseableHttpClient client = getClient(mavenProxy, downloadProperties);
+        return client.execute(request, createContext(mavenProxy), response -> {
+            if (response.getCode() >= HttpStatus.SC_REDIRECTION) {
+                throw new IOException(
+                        String.format(
+                                "Unable to download %s: HTTP %d %s", url, response.getCode(),
+                                StringUtils.defaultString(response.getReasonPhrase())
+                        )
+                );
+            }
+            final HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                throw new IOException("Empty response for " + url);
+            }
+            try (InputStream inputStream = entity.getContent()) {
+                return reader.read(inputStream);
+            }
+        });
+    }
+
+    /**
+     * Starts an uncompressed GET request for the archive bytes from {@code offset} up to and
+     * including {@code end} ({@code -1} for the rest of the file) and returns the open response.
+     * A partial range is sent as a {@code Range} header; callers check the status and must close
+     * the response.
+     */
+    static CloseableHttpResponse open(final URL url, final Proxy mavenProxy,
+                                      final Properties downloadProperties, final long offset,
+                                      final long end)
+            throws IOException {
+        final HttpGet request = createRequest(url);
+        request.setHeader(HttpHeaders.ACCEPT_ENCODING, IDENTITY_ENCODING);
+        if (offset > 0 || end >= 0) {
+            request.setHeader(
+                    HttpHeaders.RANGE, "bytes=" + offset + "-" + (end < 0 ? "" : end)
+            );
+        }
+        return CloseableHttpResponse.adapt(
+                getClient(mavenProxy, downloadProperties)
+                        .executeOpen(null, request, createContext(mavenProxy))
+        );
+    }
+
+    /**
+     * Sends a {@code POST} request with a JSON body and the headers, and returns the open
+     * response. No proxy is used and the read timeout applies to each read, so a long response
+     * only fails when the server stops sending. Callers check the status and must close the
+     * response.
+     */
+    static CloseableHttpResponse post(final URL url, final Properties downloadProperties,
+                                      final Map<String, String> headers, final String json)
+            throws IOException {
+        final HttpPost request = new HttpPost(toUri(url));
+        headers.forEach(request::setHeader);
+        request.setEntity(new StringEntity(json, ContentType.APPLICATION_JSON));
+        return CloseableHttpResponse.adapt(
+                getClient(null, downloadProperties).executeOpen(null, request, createContext(null))
+        );
+    }
+
+    /**
+     * Sends an uncompressed {@code HEAD} request and passes the response to the handler.
+     */
+    static <T> T head(final URL url, final Proxy mavenProxy, final Properties downloadProperties,
+                      final HttpClientResponseHandler<T> handler)
+            throws IOException {
+        final HttpHead request = new HttpHead(toUri(url));
+        request.setHeader(HttpHeaders.ACCEPT_ENCODING, IDENTITY_ENCODING);
+        return getClient(mavenProxy, downloadProperties)
+                .execute(request, createContext(mavenProxy), handler);
+    }
+
+    /**
+     * Returns the content length when a {@code HEAD} request shows that the server serves byte
+     * ranges of the URL, or {@code -1} when it does not.
+     */
+    static long getRangeableLength(final URL url, final Proxy mavenProxy,
+                                   final Properties downloadProperties)
+            throws IOException {
+        return head(url, mavenProxy, downloadProperties, response -> {
+            final Header acceptRanges = response.getFirstHeader(HttpHeaders.ACCEPT_RANGES);
+            final Header contentLength = response.getFirstHeader(HttpHeaders.CONTENT_LENGTH);
+            if (response.getCode() != HttpStatus.SC_OK || acceptRanges == null
+                    || !"bytes".equalsIgnoreCase(acceptRanges.getValue().trim())
+                    || contentLength == null) {
+                return -1L;
+            }
+            try {
+                return Long.parseLong(contentLength.getValue().trim());
+            } catch (NumberFormatException e) {
+                return -1L;
+            }
+        });
+    }
+
+    private static HttpGet createRequest(final URL url) throws IOException {
+        return new HttpGet(toUri(url));
+    }
+
+    private static URI toUri(final URL url) throws IOException {
+        try {
+            return url.toURI();
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid download URL " + url, e);
+        }
+    }
+
+    private static HttpClientContext createContext(final Proxy mavenProxy) {
+        final HttpClientContext context = HttpClientContext.create();
+        if (mavenProxy != null && StringUtils.isNotBlank(mavenProxy.getUsername())
+                && StringUtils.isNotBlank(mavenProxy.getPassword())) {
+            final BasicCredentialsProvider credentials = new BasicCredentialsProvider();
+            credentials.setCredentials(
+                    new AuthScope(mavenProxy.getHost(), mavenProxy.getPort()),
+                    new UsernamePasswordCredentials(
+                            mavenProxy.getUsername(), mavenProxy.getPassword().toCharArray()
+                    )
+            );
+            context.setCredentialsProvider(credentials);
+        }
+        return context;
+    }
+
+    private static CloseableHttpClient getClient(final Proxy mavenProxy,
+                                                 final Properties downloadProperties)
+            throws IOException {
+        final AllureDownloadUtils.WagonSslProperties sslProperties =
+                AllureDownloadUtils.WagonSslProperties.from(downloadProperties);
+        final Timeout connectTimeout = getTimeout(
+                downloadProperties, CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT_SECONDS
+        );
+        final Timeout readTimeout = getTimeout(
+                downloadProperties, READ_TIMEOUT, DEFAULT_READ_TIMEOUT_SECONDS
+        );
+        final String key = String.join(
+                "|",
+                mavenProxy == null ? "" : mavenProxy.getHost() + ":" + mavenProxy.getPort(),
+                String.valueOf(sslProperties.isInsecure()),
+                String.valueOf(sslProperties.isAllowAll()),
+                String.valueOf(sslProperties.isIgnoreValidityDates()),
+                connectTimeout.toString(), readTimeout.toString()
+        );
+        final CloseableHttpClient existing = CLIENTS.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        final CloseableHttpClient created = createClient(
+                mavenProxy, sslProperties, connectTimeout, readTimeout
+        );
+        final CloseableHttpClient raced = CLIENTS.putIfAbsent(key, created);
+        if (raced == null) {
+            return created;
+        }
+        created.close();
+        return raced;
+    }
+
+    private static CloseableHttpClient createClient(
+            final Proxy mavenProxy,
+            final AllureDownloadUtils.WagonSslProperties sslProperties,
+            final Timeout connectTimeout, final Timeout readTimeout)
+            throws IOException {
+        final PoolingHttpClientConnectionManagerBuilder connectionManager =
+                PoolingHttpClientConnectionManagerBuilder.create()
+                        .useSystemProperties()
+                        .setMaxConnPerRoute(MAX_CONNECTIONS_PER_ROUTE)
+                        .setMaxConnTotal(MAX_CONNECTIONS_TOTAL)
+                        .setDefaultConnectionConfig(
+                                ConnectionConfig.custom()
+                                        .setConnectTimeout(connectTimeout)
+                                        .setSocketTimeout(readTimeout)
+                                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                                        .build()
+                        );
+        if (sslProperties.isInsecure()) {
+            connectionManager.setTlsSocketStrategy(createInsecureTlsStrategy(sslProperties));
+        }
+
+        final HttpClientBuilder builder = HttpClientBuilder.create()
+                .useSystemProperties()
+                .setConnectionManager(connectionManager.build());
+        if (mavenProxy != null) {
+            builder.setProxy(new HttpHost(mavenProxy.getHost(), mavenProxy.getPort()));
+        }
+        return builder.build();
+    }
+
+    private static DefaultClientTlsStrategy createInsecureTlsStrategy(
+            final AllureDownloadUtils.WagonSslProperties sslProperties)
+            throws IOException {
+        try {
+            final SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(
+                    null,
+                    new TrustManager[]{
+                            new AllureDownloadUtils.RelaxedX509TrustManager(
+                                    sslProperties.isIgnoreValidityDates()
+                            ),},
+                    new SecureRandom()
+            );
+            return sslProperties.isAllowAll()
+                    ? new DefaultClientTlsStrategy(
+                            sslContext, HostnameVerificationPolicy.CLIENT,
+                            NoopHostnameVerifier.INSTANCE
+                    )
+                    : new DefaultClientTlsStrategy(sslContext);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to configure SSL for Allure download.", e);
+        }
+    }
+
+    private static Timeout getTimeout(final Properties properties, final String name,
+                                      final long defaultSeconds)
+            throws IOException {
+        final String value = properties.getProperty(name);
+        if (StringUtils.isBlank(value)) {
+            return Timeout.ofSeconds(defaultSeconds);
+        }
+        try {
+            return Timeout.ofSeconds(Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            throw new IOException(
+                    String.format("Invalid %s value '%s'. Expected seconds.", name, value), e
+            );
+        }
+    }
+}
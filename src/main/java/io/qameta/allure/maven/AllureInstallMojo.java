@@ -19,12 +19,17 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
@@ -46,8 +51,10 @@ import static io.qameta.allure.maven.Allure3Commandline.NPM_DEFAULT_REGISTRY;
 )
 public class AllureInstallMojo extends AbstractMojo {
 
+    private static final int MAX_CONCURRENT_INSTALLS = 4;
+
     @Parameter(property = "report.version")
-    private String reportVersion;
+    protected String reportVersion;
 
     @Parameter(property = "allure.download.url")
     private String allureDownloadUrl;
@@ -56,20 +63,28 @@ public class AllureInstallMojo extends AbstractMojo {
             property = "allure.install.directory",
             defaultValue = "${project.basedir}/.allure"
     )
-    private String installDirectory;
+    protected String installDirectory;
 
     @Parameter(
             property = "allure.node.version",
             defaultValue = NODE_DEFAULT_VERSION
     )
-    private String nodeVersion;
+    protected String nodeVersion;
 
+    /**
+     * The Node.js archive URL template. A comma-separated list configures mirrors: the fastest
+     * healthy one is used and the others are tried in turn if the download fails.
+     */
     @Parameter(
             property = "allure.node.download.url",
             defaultValue = NODE_DEFAULT_DOWNLOAD_URL
     )
     private String nodeDownloadUrl;
 
+    /**
+     * The npm registry URL. A comma-separated list configures mirrors: the fastest healthy one is
+     * used and the others are tried in turn if {@code npm install} fails.
+     */
     @Parameter(
             property = "allure.npm.registry",
             defaultValue = NPM_DEFAULT_REGISTRY
@@ -79,6 +94,61 @@ public class AllureInstallMojo extends AbstractMojo {
     @Parameter(property = "allure.package.path")
     private String packagePath;
 
+    @Parameter(property = "allure.store.directory")
+    private String storeDirectory;
+
+    /**
+     * Optional npm cache for Allure 3 installs, by default {@code npm-cache} in the runtime
+     * directory. Set it to a shared path to reuse downloaded packages across install directories.
+     */
+    @Parameter(property = "allure.npm.cache")
+    private String npmCache;
+
+    /**
+     * Recount the files of existing installs against their install receipts instead of trusting
+     * the receipts, and reinstall only what turns out to be incomplete.
+     */
+    @Parameter(
+            property = "allure.install.verify",
+            defaultValue = "false"
+    )
+    private boolean installVerify;
+
+    /**
+     * Maven coordinates {@code groupId:artifactId[:version]} of an Allure 3 runtime bundle made by
+     * {@code allure:bundle}. The version defaults to the Allure version. The bundle for the
+     * platform classifier is resolved from the Maven repositories and restored before anything
+     * is downloaded from the Node.js and npm mirrors.
+     */
+    @Parameter(property = "allure.bundle")
+    protected String bundle;
+
+    /**
+     * Reuse a Node.js with the major version of {@code allure.node.version} from a {@code node}
+     * toolchain in {@code toolchains.xml} (configured by {@code nodeHome}) or from the
+     * {@code PATH} instead of downloading one.
+     */
+    @Parameter(
+            property = "allure.node.discover",
+            defaultValue = "false"
+    )
+    private boolean nodeDiscover;
+
+    /**
+     * Comma-separated Allure versions, 2.x and 3.x, to install concurrently before
+     * {@code reportVersion}, for example to warm up a CI image or a version matrix. Each Allure 3
+     * version is installed with every version of {@code allure.install.node.versions}.
+     */
+    @Parameter(property = "allure.install.versions")
+    private String installVersions;
+
+    /**
+     * Comma-separated Node.js versions for the Allure 3 versions of
+     * {@code allure.install.versions}, by default {@code allure.node.version}.
+     */
+    @Parameter(property = "allure.install.node.versions")
+    private String installNodeVersions;
+
     @Parameter(
             defaultValue = "${project.basedir}",
             readonly = true
@@ -90,35 +160,74 @@ public class AllureInstallMojo extends AbstractMojo {
             defaultValue = "${session}",
             readonly = true
     )
-    private MavenSession session;
+    protected MavenSession session;
 
     @Component(role = SettingsDecrypter.class)
     private SettingsDecrypter decrypter;
 
     @Component
-    private DependencyResolver dependencyResolver;
+    protected DependencyResolver dependencyResolver;
 
     @Override
     public void execute() throws MojoExecutionException {
         try {
-            final AllureVersion allureVersion = AllureVersion.resolve(reportVersion);
-            if (allureVersion.isAllure3()) {
-                installAllure3(allureVersion);
-            } else {
-                validateAllure2Configuration();
-                installAllure2(allureVersion);
-            }
+            installVersions();
+            install(AllureVersion.resolve(reportVersion), nodeVersion);
         } catch (IOException | IllegalArgumentException e) {
             getLog().error("Installation error", e);
             throw new MojoExecutionException("Can't install allure", e);
         }
     }
 
+    protected void install(final AllureVersion allureVersion, final String allureNodeVersion)
+            throws IOException {
+        if (allureVersion.isAllure3()) {
+            installAllure3(allureVersion, allureNodeVersion);
+        } else {
+            validateAllure2Configuration();
+            installAllure2(allureVersion);
+        }
+    }
+
+    /**
+     * Installs the versions of {@code allure.install.versions} on a bounded pool. Installs of the
+     * same Node.js or Allure home wait for each other and reuse it, while the others run at the
+     * same time. The report version is installed afterwards, so the launcher points to it.
+     */
+    private void installVersions() throws IOException {
+        final List<String> allureVersions = AllureInstallUtils.split(installVersions);
+        if (allureVersions.isEmpty()) {
+            return;
+        }
+        final List<String> nodeVersions = StringUtils.isBlank(installNodeVersions)
+                ? Collections.singletonList(nodeVersion)
+                : AllureInstallUtils.split(installNodeVersions);
+        final List<Callable<String>> installs = new ArrayList<>();
+        for (String version : allureVersions) {
+            final AllureVersion allureVersion = AllureVersion.resolve(version);
+            for (String allureNodeVersion : allureVersion.isAllure3()
+                    ? nodeVersions
+                    : Collections.singletonList(nodeVersion)) {
+                installs.add(() -> {
+                    install(allureVersion, allureNodeVersion);
+                    return allureVersion.isAllure3()
+                            ? allureVersion.getVersion() + " with Node.js " + allureNodeVersion
+                            : allureVersion.getVersion();
+                });
+            }
+        }
+        for (String installed : AllureInstallUtils.runConcurrently(
+                installs, MAX_CONCURRENT_INSTALLS, "allure-install"
+        )) {
+            getLog().info("Installed allure " + installed);
+        }
+    }
+
     private void installAllure2(final AllureVersion allureVersion) throws IOException {
         final AllureCommandline commandline = new AllureCommandline(
                 Paths.get(installDirectory),
                 allureVersion.getVersion(), getLog()
-        );
+        ).withDeepVerify(installVerify);
         getLog().info(String.format("Allure installation directory %s", installDirectory));
         getLog().info(String.format("Try to finding out allure %s", commandline.getVersion()));
 
@@ -136,7 +245,65 @@ public class AllureInstallMojo extends AbstractMojo {
         }
     }
 
-    private void installAllure3(final AllureVersion allureVersion) throws IOException {
+    protected Allure3Commandline installAllure3(final AllureVersion allureVersion)
+            throws IOException {
+        return installAllure3(allureVersion, nodeVersion);
+    }
+
+    private Allure3Commandline installAllure3(final AllureVersion allureVersion,
+                                              final String allureNodeVersion)
+            throws IOException {
+        final Allure3Commandline commandline = createAllure3Commandline(
+                allureVersion, allureNodeVersion
+        );
+        getLog().info(String.format("Allure installation directory %s", installDirectory));
+        getLog().info(
+                String.format(
+                        "Try to finding out allure %s using Node.js %s",
+                        commandline.getVersion(), commandline.getNodeVersion()
+                )
+        );
+        if (StringUtils.isNotBlank(bundle)) {
+            try {
+                commandline.installBundleWithMaven(session, dependencyResolver, bundle);
+            } catch (IOException e) {
+                getLog().warn("Cannot restore Allure 3 runtime bundle " + bundle
+                        + ", installing from the mirrors instead: " + e.getMessage());
+            }
+        }
+        commandline.install();
+        return commandline;
+    }
+
+    /**
+     * Resolves the report version for a goal that only supports Allure 3.
+     */
+    protected AllureVersion resolveAllure3Version(final String goal) throws IOException {
+        final AllureVersion allureVersion = AllureVersion.resolve(reportVersion);
+        if (!allureVersion.isAllure3()) {
+            throw new IOException(
+                    "Runtime bundles are only supported for Allure 3. "
+                            + "Configure reportVersion 3.x to use allure:" + goal + "."
+            );
+        }
+        return allureVersion;
+    }
+
+    protected Allure3Commandline createAllure3Commandline(final AllureVersion allureVersion)
+            throws IOException {
+        return createAllure3Commandline(allureVersion, nodeVersion);
+    }
+
+    private Allure3Commandline createAllure3Commandline(final AllureVersion allureVersion,
+                                                        final String allureNodeVersion)
+            throws IOException {
+        return createAllure3Commandline(allureVersion, allureNodeVersion, 3600, getLog());
+    }
+
+    protected Allure3Commandline createAllure3Commandline(final AllureVersion allureVersion,
+                                                          final String allureNodeVersion,
+                                                          final int timeout, final Log log)
+            throws IOException {
         if (StringUtils.isNotBlank(allureDownloadUrl)) {
             throw new IOException(
                     "Parameter allure.download.url is only supported for Allure 2. "
@@ -145,21 +312,18 @@ public class AllureInstallMojo extends AbstractMojo {
             );
         }
 
-        final Allure3Commandline commandline = new Allure3Commandline(
+        return new Allure3Commandline(
                 Paths.get(installDirectory),
-                allureVersion.getVersion(), nodeVersion, nodeDownloadUrl, npmRegistry,
+                allureVersion.getVersion(), allureNodeVersion, nodeDownloadUrl, npmRegistry,
                 resolveAllurePackagePathOrNull(), ProxyUtils.getProxy(session, decrypter),
                 AllureCommandline.getDownloadProperties(session),
-                session != null && session.isOffline(), 3600, getLog()
-        );
-        getLog().info(String.format("Allure installation directory %s", installDirectory));
-        getLog().info(
-                String.format(
-                        "Try to finding out allure %s using Node.js %s",
-                        commandline.getVersion(), commandline.getNodeVersion()
-                )
-        );
-        commandline.install();
+                session != null && session.isOffline(), timeout, log
+        ).withStoreDirectory(AllureRuntimeOptions.resolveStoreDirectoryOrNull(storeDirectory, getLog()))
+                .withDeepVerify(installVerify)
+                .withNpmCacheDirectory(AllureRuntimeOptions.resolveNpmCacheDirectoryOrNull(npmCache))
+                .withNodeDiscovery(
+                        AllureRuntimeOptions.resolveNodeToolchainHomesOrNull(nodeDiscover, session)
+                );
     }
 
     private void validateAllure2Configuration() throws IOException {
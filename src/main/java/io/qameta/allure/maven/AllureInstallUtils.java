@@ -0,0 +1,251 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * Helpers for staging installs next to their final location and publishing them with an atomic
+ * rename, so readers never observe a half-written runtime, and for reading the comma-separated
+ * install parameters such as mirror and version lists.
+ */
+final class AllureInstallUtils {
+
+    private static final String STAGING_MARKER = ".staging-";
+
+    private static final String HIDDEN = ".";
+
+    private static final String ANY = "*";
+
+    private static final String LIST_SEPARATOR = ",";
+
+    private static final int PERMISSION_BITS = 0x1FF;
+
+    private static final int OWNER_EXECUTE = 0x40;
+
+    private static final PosixFilePermission[] PERMISSIONS = PosixFilePermission.values();
+
+    private AllureInstallUtils() {
+        throw new IllegalStateException("Do not instance");
+    }
+
+    /**
+     * Splits a comma-separated parameter value, ignoring blank entries.
+     */
+    static List<String> split(final String values) {
+        return Arrays.stream(StringUtils.defaultString(values).split(LIST_SEPARATOR))
+                .map(String::trim)
+                .filter(StringUtils::isNotEmpty)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Creates an empty sibling directory of the given target to build the install in.
+     */
+    static Path createStagingDirectory(final Path target) throws IOException {
+        final Path parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        return Files.createTempDirectory(parent, getStagingPrefix(target));
+    }
+
+    /**
+     * Replaces the target with the staged directory. The previous target, if any, is moved aside
+     * first, so the target path always points either to the old or to the new complete tree.
+     */
+    static void publish(final Path staged, final Path target) throws IOException {
+        Path previous = null;
+        if (Files.exists(target)) {
+            previous = createStagingDirectory(target).resolve(target.getFileName());
+            move(target, previous);
+        }
+        try {
+            move(staged, target);
+        } catch (IOException e) {
+            if (previous != null) {
+                move(previous, target);
+            }
+            throw e;
+        }
+        if (previous != null) {
+            FileUtils.deleteQuietly(previous.getParent().toFile());
+        }
+    }
+
+    /**
+     * Writes the file through a staged copy, so concurrent readers see either the old or the new
+     * content.
+     */
+    static void write(final Path target, final byte[] content, final boolean executable)
+            throws IOException {
+        final Path parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        final Path staged = Files.createTempFile(parent, getStagingPrefix(target), null);
+        try {
+            Files.write(staged, content);
+            if (executable) {
+                staged.toFile().setExecutable(true);
+            }
+            move(staged, target);
+        } finally {
+            Files.deleteIfExists(staged);
+        }
+    }
+
+    /**
+     * Removes staging leftovers of interrupted installs. Must only be called while holding the
+     * {@link InstallLock} of the directory. Leftovers of a tree installed under its own lock are
+     * only removed while no install holds that lock.
+     */
+    static void deleteStagingDirectories(final Path directory) throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(
+                directory, HIDDEN + ANY + STAGING_MARKER + ANY
+        )) {
+            for (Path entry : entries) {
+                final String name = entry.getFileName().toString();
+                final String artifact = name.substring(1, name.indexOf(STAGING_MARKER));
+                if (InstallLock.hasArtifactLock(directory, artifact)) {
+                    deleteUnlocked(directory, artifact, entry);
+                } else {
+                    FileUtils.deleteQuietly(entry.toFile());
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes staging leftovers of a single tree. Must only be called while holding the
+     * {@link InstallLock} of that tree.
+     */
+    static void deleteStagingDirectories(final Path directory, final String artifact)
+            throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(
+                directory, HIDDEN + artifact + STAGING_MARKER + ANY
+        )) {
+            for (Path entry : entries) {
+                FileUtils.deleteQuietly(entry.toFile());
+            }
+        }
+    }
+
+    private static void deleteUnlocked(final Path directory, final String artifact,
+                                       final Path entry)
+            throws IOException {
+        try (InstallLock lock = InstallLock.tryAcquire(directory, artifact)) {
+            if (lock != null) {
+                FileUtils.deleteQuietly(entry.toFile());
+            }
+        }
+    }
+
+    /**
+     * Runs the installs on a pool of at most the given number of daemon threads and returns
+     * their results in order once all of them are done. The first failure is rethrown.
+     */
+    static <T> List<T> runConcurrently(final List<Callable<T>> installs, final int maxThreads,
+                                       final String threadName)
+            throws IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(installs.size(), maxThreads)), runnable -> {
+                    final Thread thread = new Thread(runnable, threadName);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+        try {
+            final List<T> results = new ArrayList<>();
+            for (Future<T> task : executor.invokeAll(installs)) {
+                results.add(join(task));
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while installing", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static <T> T join(final Future<T> task) throws IOException, InterruptedException {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e);
+        }
+    }
+
+    /**
+     * Applies the permission bits of a Unix mode recorded in an archive. A mode of {@code 0}
+     * means none was recorded and leaves the file as is. Without POSIX permissions, only the
+     * owner execute bit is applied.
+     */
+    static void setMode(final Path file, final int unixMode) throws IOException {
+        if (unixMode == 0) {
+            return;
+        }
+        if (file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.setPosixFilePermissions(file, toPermissions(unixMode));
+        } else if ((unixMode & OWNER_EXECUTE) != 0) {
+            file.toFile().setExecutable(true);
+        }
+    }
+
+    /**
+     * Maps the permission bits, {@link PosixFilePermission} being declared from owner read down
+     * to others execute.
+     */
+    private static Set<PosixFilePermission> toPermissions(final int unixMode) {
+        final Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        final int bits = unixMode & PERMISSION_BITS;
+        for (int i = 0; i < PERMISSIONS.length; i++) {
+            if ((bits & 1 << PERMISSIONS.length - 1 - i) != 0) {
+                permissions.add(PERMISSIONS[i]);
+            }
+        }
+        return permissions;
+    }
+
+    private static String getStagingPrefix(final Path target) {
+        return HIDDEN + target.getFileName() + STAGING_MARKER;
+    }
+
+    private static void move(final Path source, final Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
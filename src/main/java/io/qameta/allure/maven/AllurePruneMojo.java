@@ -0,0 +1,106 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Deletes Node.js and Allure trees from the install (or store) directory. Without limits nothing
+ * is deleted, unless {@code allure.prune.all} asks to delete every tree the configured report
+ * version does not use.
+ */
+@SuppressWarnings({"unused", "MultipleStringLiterals"})
+@Mojo(name = "prune")
+public class AllurePruneMojo extends AllureInstallMojo {
+
+    /**
+     * Maximum size in megabytes of the trees, deleting the least recently used ones first.
+     * {@code 0} means no limit.
+     */
+    @Parameter(
+            property = "allure.install.max.size",
+            defaultValue = "0"
+    )
+    private long installMaxSize;
+
+    /**
+     * Delete trees no generate or serve has used for this many days. {@code 0} means no limit.
+     */
+    @Parameter(
+            property = "allure.install.max.age",
+            defaultValue = "0"
+    )
+    private int installMaxAge;
+
+    /**
+     * Delete every tree the configured report version does not use, regardless of the limits.
+     * Trees used within the last hour are still kept, since another build may be using them.
+     */
+    @Parameter(
+            property = "allure.prune.all",
+            defaultValue = "false"
+    )
+    private boolean pruneAll;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        try {
+            final AllureVersion allureVersion = AllureVersion.resolve(reportVersion);
+            final InstallPruner pruner = createPruner();
+            if (pruner == null) {
+                getLog().info("No prune limits are set, configure allure.install.max.size, "
+                        + "allure.install.max.age or allure.prune.all");
+                return;
+            }
+            final List<Path> pruned = allureVersion.isAllure3()
+                    ? createAllure3Commandline(allureVersion).prune(pruner)
+                    : new AllureCommandline(
+                            Paths.get(installDirectory), allureVersion.getVersion(), getLog()
+                    ).prune(pruner);
+            getLog().info(pruned.isEmpty()
+                    ? "Nothing to prune in " + installDirectory
+                    : String.format("Pruned %d trees", pruned.size()));
+        } catch (IOException | IllegalArgumentException e) {
+            getLog().error("Prune error", e);
+            throw new MojoExecutionException("Can't prune allure installations", e);
+        }
+    }
+
+    /**
+     * Returns the pruner for the configured limits, or {@code null} when none is set.
+     */
+    private InstallPruner createPruner() {
+        if (pruneAll) {
+            return new InstallPruner(0, Duration.ZERO, getLog());
+        }
+        if (installMaxSize <= 0 && installMaxAge <= 0) {
+            return null;
+        }
+        return new InstallPruner(
+                installMaxSize * FileUtils.ONE_MB,
+                installMaxAge > 0 ? Duration.ofDays(installMaxAge) : null, getLog()
+        );
+    }
+}
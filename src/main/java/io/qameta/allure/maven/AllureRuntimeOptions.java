@@ -0,0 +1,64 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.logging.Log;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Resolves the Allure 3 runtime parameters shared by the install and report goals.
+ */
+final class AllureRuntimeOptions {
+
+    private AllureRuntimeOptions() {
+        throw new IllegalStateException("Do not instance");
+    }
+
+    /**
+     * Returns the Node.js homes of the configured toolchains, or {@code null} when discovery is
+     * off.
+     */
+    static List<Path> resolveNodeToolchainHomesOrNull(final boolean nodeDiscover,
+                                                      final MavenSession session) {
+        return nodeDiscover ? NodeDiscovery.getToolchainNodeHomes(session) : null;
+    }
+
+    /**
+     * Returns the absolute npm cache directory, or {@code null} for the default one.
+     */
+    static Path resolveNpmCacheDirectoryOrNull(final String npmCache) {
+        return StringUtils.isBlank(npmCache)
+                ? null
+                : Paths.get(npmCache).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Returns the absolute shared runtime store, or {@code null} when no store is configured.
+     */
+    static Path resolveStoreDirectoryOrNull(final String storeDirectory, final Log log) {
+        if (StringUtils.isBlank(storeDirectory)) {
+            return null;
+        }
+        final Path store = Paths.get(storeDirectory).toAbsolutePath().normalize();
+        log.info("Using shared Allure runtime store " + store);
+        return store;
+    }
+}
@@ -97,7 +97,7 @@ public class AllureServeMojo extends AllureGenerateMojo {
             final AllureCommandline commandline = new AllureCommandline(
                     Paths.get(getInstallDirectory()),
                     allureVersion.getVersion(), this.serveTimeout, getLog()
-            );
+            ).withPruner(createInstallPruner());
 
             getLog().info("Serve Allure report using a temporary directory managed by the CLI.");
             commandline.serve(resultsPaths, this.serveHost, this.servePort);
@@ -143,6 +143,22 @@ public class AllureServeMojo extends AllureGenerateMojo {
         }
     }
 
+    /**
+     * Serving needs the local runtime, so {@code allure.server.url} does not apply.
+     */
+    @Override
+    protected boolean isServerClient() {
+        return false;
+    }
+
+    /**
+     * Serving blocks until the server is stopped, so it does not take a generation slot.
+     */
+    @Override
+    protected boolean isScheduled() {
+        return false;
+    }
+
     @Override
     protected String getMojoName() {
         return "serve";
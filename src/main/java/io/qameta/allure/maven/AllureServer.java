@@ -0,0 +1,503 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A loopback HTTP service generating reports for the builds of a host. {@code POST /generate}
+ * takes a job as JSON and answers with the log of the job as plain text lines, streamed while it
+ * runs, followed by {@code exit <code>} or {@code error <message>}. Blank lines keep the
+ * connection alive while the job waits or runs without output. Jobs are queued and run on a
+ * bounded pool; a job identical to a queued or running one is not run again, its client follows
+ * the log of the running job instead. {@code POST /shutdown} stops the service.
+ *
+ * <p>Both requests must carry the token the service writes on start to a file only its user can
+ * read, see {@link #getTokenFile(Path, int)}, and a JSON content type. Other local users and web
+ * pages opened in a browser of the host can therefore neither submit jobs nor stop the
+ * service.</p>
+ */
+final class AllureServer implements Closeable {
+
+    static final String EXIT = "exit ";
+
+    static final String ERROR = "error ";
+
+    static final String TOKEN_HEADER = "X-Allure-Server-Token";
+
+    static final String JSON = "application/json";
+
+    private static final String POST = "POST";
+
+    private static final String CONTENT_TYPE = "Content-Type";
+
+    private static final String NEW_LINE = "\n";
+
+    private static final int TOKEN_BYTES = 32;
+
+    private static final long HEARTBEAT_SECONDS = 5;
+
+    private final HttpServer server;
+
+    private final ExecutorService handlers;
+
+    private final ExecutorService jobs;
+
+    private final Generator generator;
+
+    private final Log log;
+
+    private final ConcurrentMap<String, Job> running = new ConcurrentHashMap<>();
+
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    private final Path tokenFile;
+
+    private final String token;
+
+    private AllureServer(final HttpServer server, final int threads, final Generator generator,
+                         final Path tokenDirectory, final Log log) {
+        this.server = server;
+        this.tokenFile = getTokenFile(tokenDirectory, getPort());
+        final byte[] random = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(random);
+        this.token = HexFormat.of().formatHex(random);
+        this.handlers = Executors.newCachedThreadPool(runnable -> newThread(runnable, "allure-server"));
+        this.jobs = Executors.newFixedThreadPool(threads, runnable -> newThread(runnable, "allure-server-job"));
+        this.generator = generator;
+        this.log = log;
+    }
+
+    /**
+     * Starts the service on the loopback port, {@code 0} for any free port, running at most
+     * {@code threads} jobs at a time, and writes its token into the directory.
+     */
+    static AllureServer start(final int port, final int threads, final Generator generator,
+                              final Path tokenDirectory, final Log log)
+            throws IOException {
+        final HttpServer server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0
+        );
+        final AllureServer service = new AllureServer(server, threads, generator, tokenDirectory, log);
+        server.createContext("/generate", service::handleGenerate);
+        server.createContext("/shutdown", service::handleShutdown);
+        server.setExecutor(service.handlers);
+        server.start();
+        try {
+            service.writeToken();
+        } catch (IOException e) {
+            service.close();
+            throw e;
+        }
+        return service;
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns the file the service listening on the port keeps its token in.
+     */
+    static Path getTokenFile(final Path tokenDirectory, final int port) {
+        return tokenDirectory.resolve("server-" + port + ".token");
+    }
+
+    Path getTokenFile() {
+        return tokenFile;
+    }
+
+    /**
+     * Blocks until the service is shut down through {@code POST /shutdown} or {@link #close()}.
+     */
+    void awaitShutdown() throws InterruptedException {
+        stopped.await();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        jobs.shutdownNow();
+        handlers.shutdownNow();
+        stopped.countDown();
+        FileUtils.deleteQuietly(tokenFile.toFile());
+    }
+
+    /**
+     * Writes the random token of the service to a file readable by its user only.
+     */
+    private void writeToken() throws IOException {
+        Files.createDirectories(tokenFile.getParent());
+        Files.deleteIfExists(tokenFile);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(tokenFile, PosixFilePermissions.asFileAttribute(
+                    EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE)
+            ));
+        } else {
+            Files.createFile(tokenFile);
+        }
+        Files.writeString(tokenFile, token, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Answers requests that are no token-carrying JSON {@code POST} with an error status and
+     * returns whether the request is accepted.
+     */
+    private boolean accept(final HttpExchange exchange) throws IOException {
+        final String presented = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+        final String contentType = exchange.getRequestHeaders().getFirst(CONTENT_TYPE);
+        if (!POST.equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(405, -1);
+        } else if (presented == null || !MessageDigest.isEqual(
+                token.getBytes(StandardCharsets.UTF_8),
+                presented.trim().getBytes(StandardCharsets.UTF_8))) {
+            exchange.sendResponseHeaders(401, -1);
+        } else if (contentType == null
+                || !contentType.toLowerCase(Locale.ROOT).startsWith(JSON)) {
+            exchange.sendResponseHeaders(415, -1);
+        } else {
+            return true;
+        }
+        return false;
+    }
+
+    private void handleGenerate(final HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!accept(exchange)) {
+                return;
+            }
+            final JsonNode request;
+            try {
+                request = new ObjectMapper().readTree(exchange.getRequestBody());
+            } catch (IOException e) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            final Job job = submit(request);
+            exchange.getResponseHeaders().set(CONTENT_TYPE, "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);
+            job.stream(exchange.getResponseBody());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handleShutdown(final HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!accept(exchange)) {
+                return;
+            }
+            exchange.sendResponseHeaders(204, -1);
+        }
+        stopped.countDown();
+    }
+
+    /**
+     * Queues the job, or returns the queued or running job with the same request.
+     */
+    private Job submit(final JsonNode request) {
+        final String key = request.toString();
+        final Job job = new Job();
+        final Job existing = running.putIfAbsent(key, job);
+        if (existing != null) {
+            existing.add("An identical request joined the job");
+            return existing;
+        }
+        final long queued = System.nanoTime();
+        job.add("Queued the job, " + (running.size() - 1) + " other jobs in progress");
+        jobs.execute(() -> run(key, job, request, queued));
+        return job;
+    }
+
+    private void run(final String key, final Job job, final JsonNode request, final long queued) {
+        job.add(String.format("Started the job after %d ms in the queue",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queued)));
+        String result;
+        try {
+            result = EXIT + generator.generate(request, new JobLog(job, log));
+        } catch (Exception e) {
+            if (log != null) {
+                log.warn("Report generation failed: " + e.getMessage());
+            }
+            result = ERROR + e.getMessage();
+        } finally {
+            running.remove(key, job);
+        }
+        job.finish(result);
+    }
+
+    private static Thread newThread(final Runnable runnable, final String name) {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Generates the report a job describes, logging to the job.
+     */
+    @FunctionalInterface
+    interface Generator {
+        int generate(JsonNode request, Log log) throws Exception;
+    }
+
+    /**
+     * The log of a job, replayed to every client following it.
+     */
+    private static final class Job {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final Condition changed = lock.newCondition();
+
+        private final List<String> lines = new ArrayList<>();
+
+        private String result;
+
+        private void add(final String line) {
+            lock.lock();
+            try {
+                lines.add(line);
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void finish(final String jobResult) {
+            lock.lock();
+            try {
+                result = jobResult;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Writes the lines logged so far and then each new one, followed by the result. A blank
+         * line is written whenever nothing was logged for a while.
+         */
+        private void stream(final OutputStream output) throws IOException, InterruptedException {
+            int next = 0;
+            String last = null;
+            while (last == null) {
+                final List<String> batch;
+                lock.lock();
+                try {
+                    if (next == lines.size() && result == null) {
+                        changed.await(HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+                    }
+                    batch = List.copyOf(lines.subList(next, lines.size()));
+                    next = lines.size();
+                    last = result;
+                } finally {
+                    lock.unlock();
+                }
+                if (batch.isEmpty() && last == null) {
+                    output.write(NEW_LINE.getBytes(StandardCharsets.UTF_8));
+                }
+                for (String line : batch) {
+                    output.write((line + NEW_LINE).getBytes(StandardCharsets.UTF_8));
+                }
+                output.flush();
+            }
+            output.write((last + NEW_LINE).getBytes(StandardCharsets.UTF_8));
+            output.flush();
+        }
+    }
+
+    /**
+     * Forwards the messages of a job to its clients and to the log of the service.
+     */
+    private static final class JobLog implements Log {
+
+        private static final String DEBUG = "DEBUG";
+
+        private static final String INFO = "INFO";
+
+        private static final String WARNING = "WARNING";
+
+        private static final String ERROR_LEVEL = "ERROR";
+
+        private final Job job;
+
+        private final Log log;
+
+        private JobLog(final Job job, final Log log) {
+            this.job = job;
+            this.log = log;
+        }
+
+        private void add(final String level, final CharSequence content, final Throwable error) {
+            final StringBuilder line = new StringBuilder("[").append(level).append("] ");
+            if (content != null) {
+                line.append(content);
+            }
+            if (error != null) {
+                line.append(content == null ? "" : ": ").append(error);
+            }
+            job.add(line.toString());
+        }
+
+        @Override
+        public boolean isDebugEnabled() {
+            return log != null && log.isDebugEnabled();
+        }
+
+        @Override
+        public void debug(final CharSequence content) {
+            if (isDebugEnabled()) {
+                add(DEBUG, content, null);
+                log.debug(content);
+            }
+        }
+
+        @Override
+        public void debug(final CharSequence content, final Throwable error) {
+            if (isDebugEnabled()) {
+                add(DEBUG, content, error);
+                log.debug(content, error);
+            }
+        }
+
+        @Override
+        public void debug(final Throwable error) {
+            if (isDebugEnabled()) {
+                add(DEBUG, null, error);
+                log.debug(error);
+            }
+        }
+
+        @Override
+        public boolean isInfoEnabled() {
+            return true;
+        }
+
+        @Override
+        public void info(final CharSequence content) {
+            add(INFO, content, null);
+            if (log != null) {
+                log.info(content);
+            }
+        }
+
+        @Override
+        public void info(final CharSequence content, final Throwable error) {
+            add(INFO, content, error);
+            if (log != null) {
+                log.info(content, error);
+            }
+        }
+
+        @Override
+        public void info(final Throwable error) {
+            add(INFO, null, error);
+            if (log != null) {
+                log.info(error);
+            }
+        }
+
+        @Override
+        public boolean isWarnEnabled() {
+            return true;
+        }
+
+        @Override
+        public void warn(final CharSequence content) {
+            add(WARNING, content, null);
+            if (log != null) {
+                log.warn(content);
+            }
+        }
+
+        @Override
+        public void warn(final CharSequence content, final Throwable error) {
+            add(WARNING, content, error);
+            if (log != null) {
+                log.warn(content, error);
+            }
+        }
+
+        @Override
+        public void warn(final Throwable error) {
+            add(WARNING, null, error);
+            if (log != null) {
+                log.warn(error);
+            }
+        }
+
+        @Override
+        public boolean isErrorEnabled() {
+            return true;
+        }
+
+        @Override
+        public void error(final CharSequence content) {
+            add(ERROR_LEVEL, content, null);
+            if (log != null) {
+                log.error(content);
+            }
+        }
+
+        @Override
+        public void error(final CharSequence content, final Throwable error) {
+            add(ERROR_LEVEL, content, error);
+            if (log != null) {
+                log.error(content, error);
+            }
+        }
+
+        @Override
+        public void error(final Throwable error) {
+            add(ERROR_LEVEL, null, error);
+            if (log != null) {
+                log.error(error);
+            }
+        }
+    }
+}
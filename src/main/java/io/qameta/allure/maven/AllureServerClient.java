@@ -0,0 +1,120 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Submits generate jobs to an {@link AllureServer} and logs the lines it streams back. The token
+ * of the service is read from the token directory shared with it.
+ */
+final class AllureServerClient {
+
+    private static final String SLASH = "/";
+
+    private AllureServerClient() {
+        throw new IllegalStateException("Do not instance");
+    }
+
+    /**
+     * Submits the job and waits for it, logging its output. The job itself is bounded by the
+     * report timeout of the service, so only the connect and read timeouts of the download
+     * properties apply here, and time spent in the queue of the service does not count.
+     *
+     * @return the exit code of the generation
+     * @throws IOException if the service is unreachable, refuses the job or the job fails
+     */
+    static int generate(final String serverUrl, final Path tokenDirectory, final JsonNode job,
+                        final Properties downloadProperties, final Log log)
+            throws IOException {
+        final URL url = resolve(serverUrl, "generate");
+        final Map<String, String> headers = Map.of(
+                AllureServer.TOKEN_HEADER, readToken(serverUrl, tokenDirectory, url)
+        );
+        String last = null;
+        try (CloseableHttpResponse response = AllureHttpClients.post(
+                url, downloadProperties, headers, new ObjectMapper().writeValueAsString(job)
+        )) {
+            final HttpEntity entity = response.getEntity();
+            if (response.getCode() != 200 || entity == null) {
+                throw new IOException(String.format(
+                        "Allure server %s refused the job: HTTP %d", serverUrl, response.getCode()
+                ));
+            }
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(entity.getContent(), StandardCharsets.UTF_8))) {
+                String line = reader.readLine();
+                while (line != null) {
+                    if (line.startsWith(AllureServer.EXIT) || line.startsWith(AllureServer.ERROR)) {
+                        last = line;
+                    } else if (!line.isEmpty()) {
+                        log.info("[allure:server] " + line);
+                    }
+                    line = reader.readLine();
+                }
+            }
+        }
+        if (last == null) {
+            throw new IOException("Allure server " + serverUrl + " closed the connection during the job");
+        }
+        if (last.startsWith(AllureServer.ERROR)) {
+            throw new IOException("Allure server failed to generate the report: "
+                    + last.substring(AllureServer.ERROR.length()));
+        }
+        return Integer.parseInt(last.substring(AllureServer.EXIT.length()).trim());
+    }
+
+    private static String readToken(final String serverUrl, final Path tokenDirectory,
+                                    final URL url)
+            throws IOException {
+        final int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+        final Path tokenFile = AllureServer.getTokenFile(tokenDirectory, port);
+        try {
+            return Files.readString(tokenFile, StandardCharsets.UTF_8).trim();
+        } catch (NoSuchFileException e) {
+            throw new IOException(String.format(
+                    "Cannot find the token of Allure server %s in %s. Is the server running as "
+                            + "this user with the same allure.server.token.directory?",
+                    serverUrl, tokenFile
+            ), e);
+        }
+    }
+
+    private static URL resolve(final String serverUrl, final String path) throws IOException {
+        try {
+            return URI.create(serverUrl.endsWith(SLASH) ? serverUrl : serverUrl + SLASH)
+                    .resolve(path).toURL();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid Allure server URL " + serverUrl, e);
+        }
+    }
+}
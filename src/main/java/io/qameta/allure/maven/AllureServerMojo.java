@@ -0,0 +1,253 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Runs a report generation service for the builds of this host. The service listens on the
+ * loopback interface only, keeps the Allure 2 class loaders and Allure 3 workers warm between
+ * jobs, and runs until {@code POST /shutdown} is sent to it or the build is interrupted. Builds
+ * submit their reports to it with {@code allure.server.url}, authenticated by the token the
+ * service writes to {@code allure.server.token.directory}. Jobs with relative or non-normalized
+ * paths, a report directory containing the home, install, build or results directories, or a
+ * config that is not an Allure config file are refused.
+ */
+@SuppressWarnings({"unused", "MultipleStringLiterals"})
+@Mojo(
+        name = "server",
+        requiresProject = false
+)
+public class AllureServerMojo extends AllureInstallMojo {
+
+    private static final int MAX_DEFAULT_THREADS = 4;
+
+    private static final String REFUSED = "Refusing the job: ";
+
+    private static final Pattern VERSION = Pattern.compile("[0-9A-Za-z][0-9A-Za-z.+-]*");
+
+    private static final Pattern CONFIG_KEY = Pattern.compile("[A-Za-z_$][A-Za-z0-9_$]*");
+
+    private static final List<String> CONFIG_EXTENSIONS = Arrays.asList(
+            ".js", ".cjs", ".mjs", ".json", ".yaml", ".yml"
+    );
+
+    /**
+     * The loopback port to listen on.
+     */
+    @Parameter(
+            property = "allure.server.port",
+            defaultValue = "8490"
+    )
+    private int port;
+
+    /**
+     * The number of reports generated at the same time, by default the number of processors but
+     * at most 4. Further jobs wait in the queue.
+     */
+    @Parameter(
+            property = "allure.server.threads",
+            defaultValue = "0"
+    )
+    private int threads;
+
+    /**
+     * The directory to write the token of the service to. Clients read it from there.
+     */
+    @Parameter(
+            property = "allure.server.token.directory",
+            defaultValue = "${user.home}/.allure"
+    )
+    private String tokenDirectory;
+
+    @Parameter(
+            property = "allure.report.timeout",
+            defaultValue = "60"
+    )
+    private int reportTimeout;
+
+    @Parameter(
+            property = "allure.worker.max.memory",
+            defaultValue = "1024"
+    )
+    private long workerMaxMemory;
+
+    private final Set<String> installed = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        super.execute();
+        final int poolSize = threads > 0
+                ? threads
+                : Math.min(MAX_DEFAULT_THREADS, Runtime.getRuntime().availableProcessors());
+        try (AllureServer server = AllureServer.start(
+                port, poolSize, this::generate, Paths.get(tokenDirectory), getLog()
+        )) {
+            getLog().info(String.format(
+                    "Allure server listening on http://127.0.0.1:%d with %d threads, token in %s, "
+                            + "POST /shutdown with the token to stop it",
+                    server.getPort(), poolSize, server.getTokenFile()
+            ));
+            server.awaitShutdown();
+            getLog().info("Allure server stopped");
+        } catch (IOException e) {
+            getLog().error("Server error", e);
+            throw new MojoExecutionException("Can't run allure server", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Allure server interrupted", e);
+        } finally {
+            Allure3Worker.closeAll();
+        }
+    }
+
+    /**
+     * Generates the report of a job submitted by {@code allure.server.url}, installing its
+     * runtime on first use.
+     */
+    private int generate(final JsonNode job, final Log log) throws IOException {
+        checkJob(job, Paths.get(installDirectory).toAbsolutePath().normalize());
+        final AllureVersion allureVersion = AllureVersion.resolve(job.path("version").asText(null));
+        final String allureNodeVersion = job.path("nodeVersion").asText(nodeVersion);
+        final List<Path> resultsPaths = new ArrayList<>();
+        job.path("results").forEach(path -> resultsPaths.add(Paths.get(path.asText())));
+        final Path reportPath = Paths.get(job.path("report").asText());
+        final boolean singleFile = job.path("singleFile").asBoolean();
+        final String runtime = allureVersion.getVersion() + "|" + allureNodeVersion;
+        if (!installed.contains(runtime)) {
+            install(allureVersion, allureNodeVersion);
+            installed.add(runtime);
+        }
+
+        log.info("Generate report to " + reportPath);
+        if (!allureVersion.isAllure3()) {
+            return new AllureCommandline(
+                    Paths.get(installDirectory), allureVersion.getVersion(), reportTimeout, log
+            ).withInProcess(true).generateReport(resultsPaths, reportPath, singleFile);
+        }
+        final String config = job.path("config").asText(null);
+        final Map<String, Object> defaults = new ObjectMapper().convertValue(
+                job.path("defaults"), new TypeReference<Map<String, Object>>() { }
+        );
+        return createAllure3Commandline(allureVersion, allureNodeVersion, reportTimeout, log)
+                .withWorker(true, workerMaxMemory)
+                .generateReport(
+                        resultsPaths, reportPath, singleFile,
+                        Paths.get(job.path("buildDirectory").asText()), job.path("name").asText(),
+                        StringUtils.isBlank(config) ? null : Paths.get(config),
+                        defaults == null ? Collections.emptyMap() : defaults
+                );
+    }
+
+    /**
+     * Refuses a job that could make the service delete or import files other than those of a
+     * report: paths must be absolute and normalized, the report directory, which the generation
+     * deletes, must not be a root or contain the home, install, build or results directories, the
+     * config must be an Allure config file, and versions and config keys are plain names.
+     */
+    static void checkJob(final JsonNode job, final Path installDirectory) throws IOException {
+        final String version = job.path("version").asText(null);
+        checkName(version, VERSION, "version");
+        checkName(job.path("nodeVersion").asText(null), VERSION, "nodeVersion");
+        final List<Path> kept = new ArrayList<>();
+        kept.add(Paths.get(System.getProperty("user.home")).toAbsolutePath().normalize());
+        kept.add(installDirectory);
+        for (JsonNode path : job.path("results")) {
+            kept.add(getPath(path, "results"));
+        }
+        if (AllureVersion.resolve(version).isAllure3()) {
+            kept.add(getPath(job.path("buildDirectory"), "buildDirectory"));
+            checkConfig(job.path("config"));
+            for (Map.Entry<String, JsonNode> entry : job.path("defaults").properties()) {
+                checkName(entry.getKey(), CONFIG_KEY, "config key");
+            }
+        }
+        final Path report = getPath(job.path("report"), "report");
+        if (report.getParent() == null) {
+            throw new IOException(REFUSED + report + " is a root directory");
+        }
+        for (Path other : kept) {
+            if (other.startsWith(report)) {
+                throw new IOException(String.format(
+                        REFUSED + "the report directory %s contains %s", report, other
+                ));
+            }
+        }
+    }
+
+    private static void checkName(final String name, final Pattern pattern, final String field)
+            throws IOException {
+        if (name != null && !pattern.matcher(name).matches()) {
+            throw new IOException(REFUSED + "invalid " + field + " " + name);
+        }
+    }
+
+    /**
+     * Returns the path of the job field, which must be absolute and normalized.
+     */
+    private static Path getPath(final JsonNode value, final String field) throws IOException {
+        final String text = value.isTextual() ? value.asText() : null;
+        if (StringUtils.isBlank(text)) {
+            throw new IOException(REFUSED + "missing " + field + " path");
+        }
+        final Path path;
+        try {
+            path = Paths.get(text);
+        } catch (InvalidPathException e) {
+            throw new IOException(REFUSED + "invalid " + field + " path " + text, e);
+        }
+        if (!path.isAbsolute() || !path.equals(path.normalize())) {
+            throw new IOException(String.format(
+                    REFUSED + "the %s path %s is not absolute and normalized", field, text
+            ));
+        }
+        return path;
+    }
+
+    private static void checkConfig(final JsonNode value) throws IOException {
+        if (value.isNull() || value.isMissingNode()) {
+            return;
+        }
+        final Path config = getPath(value, "config");
+        final String fileName = config.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (!Files.isRegularFile(config)
+                || CONFIG_EXTENSIONS.stream().noneMatch(fileName::endsWith)) {
+            throw new IOException(REFUSED + config + " is not an Allure config file");
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Restores the Allure 3 runtime from a bundle made by {@code allure:bundle}, without downloading
+ * anything from the Node.js or npm mirrors.
+ */
+@SuppressWarnings({"unused", "MultipleStringLiterals"})
+@Mojo(
+        name = "unbundle",
+        defaultPhase = LifecyclePhase.GENERATE_RESOURCES
+)
+public class AllureUnbundleMojo extends AllureInstallMojo {
+
+    /**
+     * A bundle file to restore. If it is not set, the bundle is resolved by its
+     * {@code allure.bundle} coordinates.
+     */
+    @Parameter(property = "allure.bundle.file")
+    private String bundleFile;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        try {
+            final AllureVersion allureVersion = resolveAllure3Version("unbundle");
+            final Allure3Commandline commandline = createAllure3Commandline(allureVersion);
+            getLog().info(String.format("Allure installation directory %s", installDirectory));
+            restore(commandline);
+        } catch (IOException | IllegalArgumentException e) {
+            getLog().error("Installation error", e);
+            throw new MojoExecutionException("Can't unbundle allure", e);
+        }
+    }
+
+    private void restore(final Allure3Commandline commandline) throws IOException {
+        if (StringUtils.isNotBlank(bundleFile)) {
+            commandline.installBundle(Paths.get(bundleFile).toAbsolutePath());
+        } else if (StringUtils.isNotBlank(bundle)) {
+            if (!commandline.installBundleWithMaven(session, dependencyResolver, bundle)) {
+                getLog().info(String.format("Allure %s is already installed", commandline.getVersion()));
+            }
+        } else {
+            throw new IOException(
+                    "Configure allure.bundle or allure.bundle.file to restore an Allure 3 runtime bundle"
+            );
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.execution.ProjectDependencyGraph;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds the report generations of a Maven session. Under {@code mvn -T} every module that
+ * finishes its tests would otherwise start a generation at once. Generations take one of a fixed
+ * number of slots, sized from the processors and the physical memory of the host, and wait in a
+ * queue for a free one. The queue is ordered by the critical path: the module with the longest
+ * chain of modules waiting for it goes first, modules on equal chains go in arrival order.
+ *
+ * <p>The scheduler is shared through the session data of the repository session, so all modules
+ * of a build use the same one and the next build starts with a new one. Generations run on the
+ * builder thread of their module, which keeps their output in the log of the module.</p>
+ */
+final class GenerationScheduler {
+
+    private static final long MB = 1024 * 1024;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition released = lock.newCondition();
+
+    private final Queue<Ticket> queue = new PriorityQueue<>(Ticket::compare);
+
+    private final Map<MavenProject, Integer> depths = new HashMap<>();
+
+    private final ProjectDependencyGraph graph;
+
+    private final int slots;
+
+    private int running;
+
+    private long sequence;
+
+    GenerationScheduler(final ProjectDependencyGraph graph, final int slots) {
+        this.graph = graph;
+        this.slots = Math.max(1, slots);
+    }
+
+    /**
+     * Returns the scheduler of the session, creating it with the given sizing if this is the
+     * first generation of the session. Without a session every call gets its own scheduler.
+     *
+     * @param concurrency     the number of slots, or {@code 0} to size them from the host
+     * @param memoryPerReport the memory in megabytes one generation is expected to use
+     */
+    static GenerationScheduler get(final MavenSession session, final int concurrency,
+                                   final long memoryPerReport, final Log log) {
+        if (session == null || session.getRepositorySession() == null) {
+            return new GenerationScheduler(null, poolSize(concurrency, memoryPerReport));
+        }
+        return (GenerationScheduler) session.getRepositorySession().getData().computeIfAbsent(
+                GenerationScheduler.class.getName(), () -> {
+                    final int size = poolSize(concurrency, memoryPerReport);
+                    log.debug("Report generations of the session use " + size + " slots");
+                    return new GenerationScheduler(session.getProjectDependencyGraph(), size);
+                }
+        );
+    }
+
+    /**
+     * Returns the configured concurrency, or the number of processors bounded by the number of
+     * generations that fit in the physical memory. The total is used rather than the free memory,
+     * which on a busy host would often leave a single slot and serialize the whole build.
+     */
+    static int poolSize(final int concurrency, final long memoryPerReport) {
+        if (concurrency > 0) {
+            return concurrency;
+        }
+        final int processors = Runtime.getRuntime().availableProcessors();
+        final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (memoryPerReport <= 0 || !(os instanceof com.sun.management.OperatingSystemMXBean)) {
+            return processors;
+        }
+        final long total = ((com.sun.management.OperatingSystemMXBean) os).getTotalMemorySize() / MB;
+        return (int) Math.max(1, Math.min(processors, total / memoryPerReport));
+    }
+
+    int getSlots() {
+        return slots;
+    }
+
+    /**
+     * Runs the generation of the module in a free slot, waiting for one if needed, and logs
+     * how long it waited.
+     */
+    void run(final MavenProject project, final Log log, final Generation generation)
+            throws Exception {
+        final long queued = System.nanoTime();
+        final int depth;
+        final boolean waited;
+        lock.lock();
+        try {
+            depth = depth(project);
+            final Ticket ticket = new Ticket(depth, sequence++);
+            queue.add(ticket);
+            waited = running >= slots || !ticket.equals(queue.peek());
+            if (waited) {
+                log.info(String.format(
+                        "Queued report generation, %d of %d slots in use and %d waiting",
+                        running, slots, queue.size() - 1
+                ));
+            }
+            try {
+                while (running >= slots || !ticket.equals(queue.peek())) {
+                    released.await();
+                }
+            } catch (InterruptedException e) {
+                queue.remove(ticket);
+                released.signalAll();
+                Thread.currentThread().interrupt();
+                throw e;
+            }
+            queue.remove();
+            running++;
+        } finally {
+            lock.unlock();
+        }
+        final String message = String.format(
+                "Started report generation after %d ms in the queue (critical path %d)",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queued), depth
+        );
+        if (waited) {
+            log.info(message);
+        } else {
+            log.debug(message);
+        }
+        try {
+            generation.run();
+        } finally {
+            lock.lock();
+            try {
+                running--;
+                released.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * The number of modules on the longest chain of modules that depend on the module.
+     */
+    private int depth(final MavenProject project) {
+        if (graph == null || project == null) {
+            return 0;
+        }
+        final Integer known = depths.get(project);
+        if (known != null) {
+            return known;
+        }
+        int depth = 0;
+        for (MavenProject downstream : graph.getDownstreamProjects(project, false)) {
+            depth = Math.max(depth, depth(downstream) + 1);
+        }
+        depths.put(project, depth);
+        return depth;
+    }
+
+    /**
+     * A report generation.
+     */
+    @FunctionalInterface
+    interface Generation {
+        void run() throws Exception;
+    }
+
+    /**
+     * A place in the queue, ahead of places with a shorter critical path or a later arrival.
+     */
+    private static final class Ticket {
+
+        private final int depth;
+
+        private final long sequence;
+
+        private Ticket(final int depth, final long sequence) {
+            this.depth = depth;
+            this.sequence = sequence;
+        }
+
+        private static int compare(final Ticket first, final Ticket second) {
+            return first.depth == second.depth
+                    ? Long.compare(first.sequence, second.sequence)
+                    : Integer.compare(second.depth, first.depth);
+        }
+    }
+}
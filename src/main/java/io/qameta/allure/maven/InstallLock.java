@@ -0,0 +1,212 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock on an install directory shared by concurrent builds. Other processes are kept
+ * out by an OS file lock, while threads of the same Maven JVM (for example under {@code -T}) are
+ * serialized by an in-memory lock because file locks are held on behalf of the whole process.
+ *
+ * <p>Trees such as a Node.js or an Allure home are installed under a lock of their own, so
+ * different versions are installed at the same time. The directory lock is then only held to
+ * update shared files like the receipt and the launcher. Acquiring it sweeps staging leftovers,
+ * except those of trees whose lock is held by an install in progress.
+ */
+final class InstallLock implements AutoCloseable {
+
+    static final String LOCK_FILE_NAME = ".allure-install.lock";
+
+    private static final String ARTIFACT_LOCK_PREFIX = ".allure-install-";
+
+    private static final String LOCK_SUFFIX = ".lock";
+
+    private static final ConcurrentMap<Path, ReentrantLock> LOCAL_LOCKS = new ConcurrentHashMap<>();
+
+    private final ReentrantLock localLock;
+
+    private final FileChannel channel;
+
+    private final FileLock fileLock;
+
+    private InstallLock(final ReentrantLock localLock, final FileChannel channel,
+                        final FileLock fileLock) {
+        this.localLock = localLock;
+        this.channel = channel;
+        this.fileLock = fileLock;
+    }
+
+    static InstallLock acquire(final Path directory, final Log log) throws IOException {
+        final InstallLock lock = lock(directory, LOCK_FILE_NAME, directory.toString(), log);
+        sweep(lock, directory, null);
+        return lock;
+    }
+
+    /**
+     * Acquires the lock of a single tree of the directory, named by the file name of its home,
+     * and sweeps the staging leftovers of that tree.
+     */
+    static InstallLock acquire(final Path directory, final String artifact, final Log log)
+            throws IOException {
+        final InstallLock lock = lock(
+                directory, getArtifactLockFileName(artifact), directory.resolve(artifact).toString(),
+                log
+        );
+        sweep(lock, directory, artifact);
+        return lock;
+    }
+
+    /**
+     * Acquires the lock of a tree without waiting, or returns {@code null} when an install holds
+     * it, including one of the current thread.
+     */
+    static InstallLock tryAcquire(final Path directory, final String artifact) throws IOException {
+        final Path lockFile = getLockFile(directory, getArtifactLockFileName(artifact));
+        final ReentrantLock localLock = LOCAL_LOCKS.computeIfAbsent(
+                lockFile, key -> new ReentrantLock()
+        );
+        if (localLock.isHeldByCurrentThread() || !localLock.tryLock()) {
+            return null;
+        }
+        try {
+            final FileChannel channel = FileChannel.open(
+                    lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE
+            );
+            final FileLock fileLock = tryLock(channel);
+            if (fileLock == null) {
+                channel.close();
+                localLock.unlock();
+                return null;
+            }
+            return new InstallLock(localLock, channel, fileLock);
+        } catch (IOException | RuntimeException e) {
+            localLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns whether a tree of the directory was ever installed under its own lock.
+     */
+    static boolean hasArtifactLock(final Path directory, final String artifact) {
+        return Files.exists(directory.resolve(getArtifactLockFileName(artifact)));
+    }
+
+    private static InstallLock lock(final Path directory, final String lockFileName,
+                                    final String description, final Log log)
+            throws IOException {
+        Files.createDirectories(directory);
+        final Path lockFile = getLockFile(directory, lockFileName);
+        final ReentrantLock localLock = LOCAL_LOCKS.computeIfAbsent(
+                lockFile, key -> new ReentrantLock()
+        );
+        if (localLock.isHeldByCurrentThread()) {
+            localLock.lock();
+            return new InstallLock(localLock, null, null);
+        }
+        if (!localLock.tryLock()) {
+            logWaiting(log, description);
+            localLock.lock();
+        }
+        try {
+            final FileChannel channel = FileChannel.open(
+                    lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE
+            );
+            try {
+                FileLock fileLock = channel.tryLock();
+                if (fileLock == null) {
+                    logWaiting(log, description);
+                    fileLock = channel.lock();
+                }
+                return new InstallLock(localLock, channel, fileLock);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            localLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Sweeps staging leftovers once the lock is first taken, releasing it if that fails.
+     */
+    private static void sweep(final InstallLock lock, final Path directory, final String artifact)
+            throws IOException {
+        if (lock.fileLock == null) {
+            return;
+        }
+        try {
+            if (artifact == null) {
+                AllureInstallUtils.deleteStagingDirectories(directory);
+            } else {
+                AllureInstallUtils.deleteStagingDirectories(directory, artifact);
+            }
+        } catch (IOException | RuntimeException e) {
+            lock.close();
+            throw e;
+        }
+    }
+
+    private static FileLock tryLock(final FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    private static Path getLockFile(final Path directory, final String lockFileName) {
+        return directory.toAbsolutePath().normalize().resolve(lockFileName);
+    }
+
+    private static String getArtifactLockFileName(final String artifact) {
+        return ARTIFACT_LOCK_PREFIX + artifact + LOCK_SUFFIX;
+    }
+
+    private static void logWaiting(final Log log, final String description) {
+        if (log != null) {
+            log.info("Waiting for another build to finish installing into " + description);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (fileLock != null) {
+                fileLock.release();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } finally {
+            localLock.unlock();
+        }
+    }
+}
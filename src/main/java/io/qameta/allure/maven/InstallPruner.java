@@ -0,0 +1,255 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Keeps an install directory from growing with every Node.js and Allure version bump. Each
+ * generate and serve touches a marker for the trees it ran from, so the marker's modification
+ * time is the last use of the tree. Pruning deletes, under the install lock, the trees unused for
+ * longer than the maximum age, then the least recently used ones while the trees exceed the
+ * maximum size. The trees of the current build, trees an install is writing, and trees used
+ * within the last hour, which another build may still be generating from, are never deleted.
+ * Lockfiles and Allure 2 receipts left without a tree are deleted with it.
+ */
+final class InstallPruner {
+
+    static final String USAGE_DIRECTORY = ".allure-usage";
+
+    private static final Pattern LOCKFILE = Pattern.compile("\\.allure-(.+)-package-lock\\.json");
+
+    private static final Pattern ALLURE2_RECEIPT = Pattern.compile("\\.allure-(.+)-receipt\\.properties");
+
+    private static final String ALLURE_PREFIX = "allure-";
+
+    private static final Duration IN_USE = Duration.ofHours(1);
+
+    private final long maxSize;
+
+    private final Duration maxAge;
+
+    private final Log log;
+
+    /**
+     * @param maxSize the maximum size of the trees in bytes, or {@code 0} for no limit
+     * @param maxAge  the maximum time since the last use, or {@code null} for no limit
+     */
+    InstallPruner(final long maxSize, final Duration maxAge, final Log log) {
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+        this.log = log;
+    }
+
+    /**
+     * Records the use of a tree by touching its marker next to the tree. Builds using the tree at
+     * the same time may both create the marker, the one that finds it created touches it.
+     */
+    static void markUsed(final Path home) throws IOException {
+        final Path marker = getMarker(home);
+        Files.createDirectories(marker.getParent());
+        try {
+            Files.createFile(marker);
+        } catch (FileAlreadyExistsException e) {
+            Files.setLastModifiedTime(marker, FileTime.from(Instant.now()));
+        }
+    }
+
+    boolean isEnabled() {
+        return maxSize > 0 || maxAge != null;
+    }
+
+    /**
+     * Deletes the trees of the directory that exceed the limits and returns them.
+     */
+    List<Path> prune(final Path directory, final Collection<Path> keep) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return new ArrayList<>();
+        }
+        try (InstallLock ignored = InstallLock.acquire(directory, log)) {
+            final Set<Path> kept = new HashSet<>();
+            for (Path home : keep) {
+                kept.add(home.toAbsolutePath().normalize());
+            }
+            final List<Tree> trees = listTrees(directory);
+            long total = 0;
+            for (Tree tree : trees) {
+                total += tree.size;
+            }
+            final Instant now = Instant.now();
+            final Instant oldest = maxAge == null ? null : now.minus(maxAge);
+            final Instant inUse = now.minus(IN_USE);
+            final List<Path> pruned = new ArrayList<>();
+            for (Tree tree : trees) {
+                if (!kept.contains(tree.home) && tree.lastUsed.toInstant().isBefore(inUse)
+                        && isExpired(tree, oldest, total) && deleteUnlocked(directory, tree)) {
+                    total -= tree.size;
+                    pruned.add(tree.home);
+                }
+            }
+            if (!pruned.isEmpty()) {
+                deleteOrphans(directory);
+            }
+            return pruned;
+        }
+    }
+
+    private boolean isExpired(final Tree tree, final Instant oldest, final long total) {
+        return oldest != null && tree.lastUsed.toInstant().isBefore(oldest)
+                || maxSize > 0 && total > maxSize;
+    }
+
+    /**
+     * Deletes the tree unless an install holds its lock, returning whether it was deleted.
+     */
+    private boolean deleteUnlocked(final Path directory, final Tree tree) throws IOException {
+        try (InstallLock lock = InstallLock.tryAcquire(
+                directory, tree.home.getFileName().toString()
+        )) {
+            if (lock == null) {
+                return false;
+            }
+            delete(tree);
+            return true;
+        }
+    }
+
+    private void delete(final Tree tree) throws IOException {
+        FileUtils.deleteDirectory(tree.home.toFile());
+        Files.deleteIfExists(getMarker(tree.home));
+        if (log != null) {
+            log.info(String.format(
+                    "Pruned %s (%d MB, last used %s)",
+                    tree.home, tree.size / FileUtils.ONE_MB, tree.lastUsed
+            ));
+        }
+    }
+
+    /**
+     * Lists the Node.js and Allure trees, least recently used first.
+     */
+    private List<Tree> listTrees(final Path directory) throws IOException {
+        final List<Tree> trees = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(
+                directory, "{node-v,allure-}*"
+        )) {
+            for (Path entry : entries) {
+                if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                    trees.add(toTree(entry));
+                }
+            }
+        }
+        trees.sort(Comparator.comparing(tree -> tree.lastUsed));
+        return trees;
+    }
+
+    private Tree toTree(final Path home) throws IOException {
+        final Path marker = getMarker(home);
+        final FileTime lastUsed = Files.exists(marker)
+                ? Files.getLastModifiedTime(marker)
+                : Files.getLastModifiedTime(home);
+        return new Tree(home.toAbsolutePath().normalize(), lastUsed, maxSize > 0 ? sizeOf(home) : 0);
+    }
+
+    /**
+     * Deletes lockfiles of Allure versions without any remaining tree, and Allure 2 receipts
+     * whose tree was deleted, since they would otherwise still report the version as installed.
+     */
+    private void deleteOrphans(final Path directory) throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, ".allure-*")) {
+            for (Path entry : entries) {
+                final String name = entry.getFileName().toString();
+                final Matcher lockfile = LOCKFILE.matcher(name);
+                final Matcher receipt = ALLURE2_RECEIPT.matcher(name);
+                if (lockfile.matches() && !hasAllureTree(directory, lockfile.group(1))
+                        || receipt.matches()
+                        && !Files.isDirectory(directory.resolve(ALLURE_PREFIX + receipt.group(1)))) {
+                    Files.deleteIfExists(entry);
+                }
+            }
+        }
+    }
+
+    private static boolean hasAllureTree(final Path directory, final String version)
+            throws IOException {
+        final String name = ALLURE_PREFIX + version;
+        try (Stream<Path> entries = Files.list(directory)) {
+            return entries.map(entry -> entry.getFileName().toString())
+                    .anyMatch(entry -> entry.equals(name) || entry.startsWith(name + "-"));
+        }
+    }
+
+    private static long sizeOf(final Path home) throws IOException {
+        try (Stream<Path> files = Files.walk(home)) {
+            return files.mapToLong(InstallPruner::sizeOfFile).sum();
+        }
+    }
+
+    private static long sizeOfFile(final Path file) {
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(
+                    file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS
+            );
+            return attributes.isRegularFile() ? attributes.size() : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static Path getMarker(final Path home) {
+        final Path normalized = home.toAbsolutePath().normalize();
+        return normalized.getParent().resolve(USAGE_DIRECTORY).resolve(normalized.getFileName());
+    }
+
+    /**
+     * A tree of the install directory with its last use and size.
+     */
+    private static final class Tree {
+
+        private final Path home;
+
+        private final FileTime lastUsed;
+
+        private final long size;
+
+        private Tree(final Path home, final FileTime lastUsed, final long size) {
+            this.home = home;
+            this.lastUsed = lastUsed;
+            this.size = size;
+        }
+    }
+}
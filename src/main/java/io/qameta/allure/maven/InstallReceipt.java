@@ -0,0 +1,161 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * A small properties file written after a successful install. For each installed component it
+ * lists the version, home directory, source hash and file count. It also keeps the hash of the
+ * generated launcher and the subtrees of an archive left out of the install.
+ *
+ * <p>Reading the receipt replaces probing the installed trees. A deep verify recounts the files
+ * to detect a tree that was only partially written or deleted.</p>
+ */
+final class InstallReceipt {
+
+    private static final String LAUNCHER = "launcher.sha256";
+
+    private static final String VERSION = ".version";
+
+    private static final String HOME = ".home";
+
+    private static final String SOURCE = ".source";
+
+    private static final String FILES = ".files";
+
+    private static final String SKIPPED = ".skipped";
+
+    private final Properties properties;
+
+    private InstallReceipt(final Properties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Reads the receipt, returning an empty one when the file does not exist or is unreadable.
+     */
+    static InstallReceipt read(final Path file) {
+        final Properties properties = new Properties();
+        try (InputStream input = Files.newInputStream(file)) {
+            properties.load(input);
+        } catch (IOException | IllegalArgumentException e) {
+            properties.clear();
+        }
+        return new InstallReceipt(properties);
+    }
+
+    static String hash(final byte[] content) throws IOException {
+        return AllureChecksums.toHex(AllureChecksums.newSha256().digest(content));
+    }
+
+    /**
+     * Counts the regular files below the directory, or returns {@code 0} if it does not exist.
+     */
+    static long countFiles(final Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).count();
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    void write(final Path file) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        properties.store(output, "Allure install receipt");
+        AllureInstallUtils.write(file, output.toByteArray(), false);
+    }
+
+    /**
+     * Returns whether the receipt records this version of the component in this directory.
+     */
+    boolean matches(final String component, final String version, final Path home) {
+        return Objects.equals(version, properties.getProperty(component + VERSION))
+                && Objects.equals(toString(home), properties.getProperty(component + HOME));
+    }
+
+    /**
+     * Records an installed component, counting the files of its home directory.
+     */
+    void put(final String component, final String version, final Path home, final String source)
+            throws IOException {
+        properties.setProperty(component + VERSION, version);
+        properties.setProperty(component + HOME, toString(home));
+        properties.setProperty(component + SOURCE, source == null ? "" : source);
+        properties.setProperty(component + FILES, Long.toString(countFiles(home)));
+    }
+
+    String getSource(final String component) {
+        return properties.getProperty(component + SOURCE, "");
+    }
+
+    /**
+     * Recounts the files of the component and compares them with the receipt.
+     */
+    boolean verifyFiles(final String component, final Path home, final Log log)
+            throws IOException {
+        final String expected = properties.getProperty(component + FILES);
+        final long actual = countFiles(home);
+        if (Long.toString(actual).equals(expected)) {
+            return true;
+        }
+        if (log != null) {
+            log.warn(String.format(
+                    "Install of %s at %s is incomplete: expected %s files but found %d. "
+                            + "It will be reinstalled.", component, home, expected, actual
+            ));
+        }
+        return false;
+    }
+
+    /**
+     * Records the parts of the component's archive that were not extracted, removing the record
+     * when everything was.
+     */
+    void setSkipped(final String component, final String skipped) {
+        if (skipped == null || skipped.isEmpty()) {
+            properties.remove(component + SKIPPED);
+        } else {
+            properties.setProperty(component + SKIPPED, skipped);
+        }
+    }
+
+    String getSkipped(final String component) {
+        return properties.getProperty(component + SKIPPED, "");
+    }
+
+    String getLauncherHash() {
+        return properties.getProperty(LAUNCHER);
+    }
+
+    void setLauncherHash(final String hash) {
+        properties.setProperty(LAUNCHER, hash);
+    }
+
+    private static String toString(final Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+}
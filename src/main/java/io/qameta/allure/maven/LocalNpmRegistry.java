@@ -0,0 +1,177 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A loopback npm registry serving prefetched packages, so npm installs them without network
+ * access. Packuments list only the prefetched versions, which keeps npm's resolution within the
+ * downloaded tarballs; anything else is answered with {@code 404}. Tarballs are served under the
+ * public registry's {@code <name>/-/<name>-<version>.tgz} layout, so lockfile URLs recorded here
+ * only differ from registry ones by their host.
+ */
+final class LocalNpmRegistry implements Closeable {
+
+    private static final String SLASH = "/";
+
+    private static final String DIST_TAGS = "dist-tags";
+
+    private static final String VERSIONS = "versions";
+
+    private static final String LATEST = "latest";
+
+    private static final String CONTENT_TYPE = "Content-Type";
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private final Map<String, byte[]> packuments = new HashMap<>();
+
+    private final Map<String, Path> tarballs = new HashMap<>();
+
+    private LocalNpmRegistry(final HttpServer server, final ExecutorService executor) {
+        this.server = server;
+        this.executor = executor;
+    }
+
+    static LocalNpmRegistry start(final Collection<NpmPackage> packages) throws IOException {
+        final HttpServer server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0
+        );
+        final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "allure-npm-registry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final LocalNpmRegistry registry = new LocalNpmRegistry(server, executor);
+        registry.register(packages);
+        server.createContext(SLASH, registry::handle);
+        server.setExecutor(executor);
+        server.start();
+        return registry;
+    }
+
+    String getUrl() {
+        final InetAddress address = server.getAddress().getAddress();
+        final String host = address instanceof Inet6Address
+                ? "[" + address.getHostAddress() + "]"
+                : address.getHostAddress();
+        return String.format("http://%s:%d/", host, server.getAddress().getPort());
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void register(final Collection<NpmPackage> packages) throws IOException {
+        final ObjectMapper mapper = new ObjectMapper();
+        final Map<String, ObjectNode> byName = new LinkedHashMap<>();
+        for (NpmPackage npmPackage : packages) {
+            final ObjectNode packument = byName.computeIfAbsent(npmPackage.getName(), name -> {
+                final ObjectNode node = mapper.createObjectNode();
+                node.put("name", name);
+                node.putObject(DIST_TAGS);
+                node.putObject(VERSIONS);
+                return node;
+            });
+            final String tarballPath = getTarballPath(npmPackage.getName(), npmPackage.getVersion());
+            tarballs.put(SLASH + tarballPath, npmPackage.getTarball());
+
+            final ObjectNode manifest = npmPackage.getManifest().deepCopy();
+            manifest.withObjectProperty("dist").put("tarball", getUrl() + tarballPath);
+            ((ObjectNode) packument.get(VERSIONS)).set(npmPackage.getVersion(), manifest);
+            for (String tag : npmPackage.getTags()) {
+                ((ObjectNode) packument.get(DIST_TAGS)).put(tag, npmPackage.getVersion());
+            }
+        }
+        for (Map.Entry<String, ObjectNode> entry : byName.entrySet()) {
+            final ObjectNode tags = (ObjectNode) entry.getValue().get(DIST_TAGS);
+            if (!tags.has(LATEST)) {
+                tags.put(LATEST, getHighestVersion(entry.getValue()));
+            }
+            packuments.put(SLASH + entry.getKey(), mapper.writeValueAsBytes(entry.getValue()));
+        }
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try (exchange) {
+            final String path = exchange.getRequestURI().getPath();
+            final byte[] packument = packuments.get(path);
+            final Path tarball = tarballs.get(path);
+            if (packument != null) {
+                exchange.getResponseHeaders().set(CONTENT_TYPE, "application/json");
+                send(exchange, packument);
+            } else if (tarball != null) {
+                exchange.getResponseHeaders().set(CONTENT_TYPE, "application/octet-stream");
+                send(exchange, Files.readAllBytes(tarball));
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+            }
+        }
+    }
+
+    private static void send(final HttpExchange exchange, final byte[] body) throws IOException {
+        final boolean head = "HEAD".equals(exchange.getRequestMethod());
+        exchange.sendResponseHeaders(200, head ? -1 : body.length);
+        if (!head) {
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        }
+    }
+
+    /**
+     * Returns the registry path of a tarball, relative to the registry root.
+     */
+    static String getTarballPath(final String name, final String version) {
+        return name + "/-/" + name.substring(name.indexOf('/') + 1) + "-" + version + ".tgz";
+    }
+
+    private static String getHighestVersion(final ObjectNode packument) {
+        String highest = null;
+        NpmSemver.Version highestVersion = null;
+        for (String version : (Iterable<String>) () -> packument.get(VERSIONS).fieldNames()) {
+            final NpmSemver.Version parsed = NpmSemver.parse(version);
+            if (parsed != null && (highestVersion == null || parsed.compareTo(highestVersion) > 0)) {
+                highest = version;
+                highestVersion = parsed;
+            }
+        }
+        return highest;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.settings.Proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Picks between mirrors configured as a comma-separated list. All mirrors are probed
+ * concurrently and ordered fastest-first, so builds in different regions use their nearest
+ * mirror; the remaining mirrors serve as fallbacks when an install fails part-way.
+ */
+final class MirrorSelector {
+
+    private static final long PROBE_TIMEOUT_SECONDS = 10;
+
+    private MirrorSelector() {
+        throw new IllegalStateException("Do not instance");
+    }
+
+    /**
+     * Orders the mirrors by probe latency. Mirrors that fail the probe or do not answer within
+     * the probe timeout follow in their configured order, so they remain last-resort fallbacks.
+     * A single mirror is returned without probing.
+     */
+    static <T> List<T> rank(final List<T> mirrors, final ProbeTarget<T> target,
+                            final Proxy mavenProxy, final Properties downloadProperties,
+                            final Log log)
+            throws IOException {
+        if (mirrors.size() < 2) {
+            return mirrors;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(mirrors.size(), runnable -> {
+            final Thread thread = new Thread(runnable, "allure-mirror-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            final List<Callable<Long>> probes = new ArrayList<>();
+            for (T mirror : mirrors) {
+                final URL url = target.toUrl(mirror);
+                probes.add(() -> probe(url, mavenProxy, downloadProperties, log));
+            }
+            final List<Future<Long>> results = executor.invokeAll(
+                    probes, PROBE_TIMEOUT_SECONDS, TimeUnit.SECONDS
+            );
+            final List<Candidate<T>> candidates = new ArrayList<>();
+            for (int i = 0; i < mirrors.size(); i++) {
+                candidates.add(new Candidate<>(mirrors.get(i), i, getLatency(results.get(i))));
+            }
+            candidates.sort(Comparator.<Candidate<T>>comparingInt(c -> c.latency < 0 ? 1 : 0)
+                    .thenComparingLong(c -> c.latency < 0 ? c.index : c.latency));
+            logRanking(candidates, log);
+            return candidates.stream().map(c -> c.mirror).collect(Collectors.toList());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while probing mirrors", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs the action against each mirror in turn until one succeeds. The failures of earlier
+     * mirrors are attached as suppressed exceptions when all of them fail.
+     */
+    static <T, R> R withFailover(final List<T> mirrors, final String description, final Log log,
+                                 final MirrorAction<T, R> action)
+            throws IOException {
+        IOException failure = null;
+        for (int i = 0; i < mirrors.size(); i++) {
+            final T mirror = mirrors.get(i);
+            try {
+                return action.run(mirror);
+            } catch (IOException e) {
+                if (failure != null) {
+                    e.addSuppressed(failure);
+                }
+                failure = e;
+                if (log != null && i + 1 < mirrors.size()) {
+                    log.warn(String.format(
+                            "%s from %s failed: %s. Failing over to %s", description, mirror,
+                            e.getMessage(), mirrors.get(i + 1)
+                    ));
+                }
+            }
+        }
+        if (failure == null) {
+            throw new IOException("No mirrors configured for " + description);
+        }
+        throw failure;
+    }
+
+    /**
+     * Returns the probe latency in nanoseconds, or {@code -1} when the mirror is unhealthy.
+     * Servers that refuse {@code HEAD} are probed for the first byte instead.
+     */
+    private static long probe(final URL url, final Proxy mavenProxy,
+                              final Properties downloadProperties, final Log log) {
+        final long started = System.nanoTime();
+        try {
+            if (!AllureDownloadUtils.isHttp(url)) {
+                try (InputStream ignored = url.openStream()) {
+                    return System.nanoTime() - started;
+                }
+            }
+            int status = AllureHttpClients.head(
+                    url, mavenProxy, downloadProperties, HttpResponse::getCode
+            );
+            if (status == HttpStatus.SC_METHOD_NOT_ALLOWED || status == HttpStatus.SC_NOT_IMPLEMENTED) {
+                final CloseableHttpResponse response = AllureHttpClients.open(
+                        url, mavenProxy, downloadProperties, 0, 0
+                );
+                status = response.getCode();
+                response.close(CloseMode.IMMEDIATE);
+            }
+            if (status >= HttpStatus.SC_BAD_REQUEST) {
+                debug(log, String.format("Mirror %s answered HTTP %d", url, status));
+                return -1;
+            }
+            return System.nanoTime() - started;
+        } catch (IOException e) {
+            debug(log, String.format("Mirror %s is unreachable: %s", url, e.getMessage()));
+            return -1;
+        }
+    }
+
+    private static long getLatency(final Future<Long> result) throws InterruptedException {
+        try {
+            return result.get();
+        } catch (CancellationException | ExecutionException e) {
+            return -1;
+        }
+    }
+
+    private static <T> void logRanking(final List<Candidate<T>> candidates, final Log log) {
+        if (log == null) {
+            return;
+        }
+        final Candidate<T> selected = candidates.get(0);
+        if (selected.latency < 0) {
+            log.warn("No mirror answered the probe, trying them in configured order");
+            return;
+        }
+        log.info(String.format(
+                "Using mirror %s (%d ms)", selected.mirror,
+                TimeUnit.NANOSECONDS.toMillis(selected.latency)
+        ));
+        debug(log, "Mirror order: " + candidates.stream()
+                .map(c -> c.mirror + (c.latency < 0
+                        ? " (unhealthy)"
+                        : " (" + TimeUnit.NANOSECONDS.toMillis(c.latency) + " ms)"))
+                .collect(Collectors.joining(", ")));
+    }
+
+    private static void debug(final Log log, final String message) {
+        if (log != null && log.isDebugEnabled()) {
+            log.debug(message);
+        }
+    }
+
+    /**
+     * Maps a mirror to the URL that is probed for it.
+     *
+     * @param <T> the mirror type
+     */
+    @FunctionalInterface
+    interface ProbeTarget<T> {
+
+        URL toUrl(T mirror) throws IOException;
+    }
+
+    /**
+     * Install step run against a single mirror.
+     *
+     * @param <T> the mirror type
+     * @param <R> the result type
+     */
+    @FunctionalInterface
+    interface MirrorAction<T, R> {
+
+        R run(T mirror) throws IOException;
+    }
+
+    /**
+     * Probe result of a single mirror.
+     */
+    private static final class Candidate<T> {
+
+        private final T mirror;
+
+        private final int index;
+
+        private final long latency;
+
+        private Candidate(final T mirror, final int index, final long latency) {
+            this.mirror = mirror;
+            this.index = index;
+            this.latency = latency;
+        }
+    }
+}
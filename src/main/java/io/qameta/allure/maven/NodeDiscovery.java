@@ -0,0 +1,229 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.commons.exec.CommandLine;
+import org.apache.commons.exec.DefaultExecutor;
+import org.apache.commons.exec.PumpStreamHandler;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Strings;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.toolchain.model.ToolchainModel;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Looks for a Node.js runtime already present on the agent, in a {@code node} toolchain of
+ * {@code toolchains.xml} or on the {@code PATH}, whose major version matches the configured
+ * one. Each candidate is probed with {@code node --version} once. The result is cached in the
+ * runtime directory keyed by the real path and modification time of the executable, so later
+ * builds only look at the file attributes of the candidates.
+ */
+final class NodeDiscovery {
+
+    static final String TOOLCHAIN_TYPE = "node";
+
+    static final String TOOLCHAIN_NODE_HOME = "nodeHome";
+
+    private static final String CACHE_FILE_NAME = ".node-discovery.properties";
+
+    private static final String STAMP_SEPARATOR = " ";
+
+    private static final int PROBE_TIMEOUT = 10;
+
+    private final Path cacheFile;
+
+    private final Properties cache;
+
+    private final Log log;
+
+    private boolean changed;
+
+    NodeDiscovery(final Path runtimeDirectory, final Log log) {
+        this.cacheFile = runtimeDirectory.resolve(CACHE_FILE_NAME);
+        this.cache = readCache(cacheFile);
+        this.log = log;
+    }
+
+    /**
+     * Returns the node homes configured by {@code node} toolchains, given as a
+     * {@code nodeHome} configuration entry.
+     */
+    static List<Path> getToolchainNodeHomes(final MavenSession session) {
+        if (session == null || session.getRequest() == null
+                || session.getRequest().getToolchains() == null) {
+            return Collections.emptyList();
+        }
+        final List<ToolchainModel> toolchains = session.getRequest().getToolchains()
+                .getOrDefault(TOOLCHAIN_TYPE, Collections.emptyList());
+        final List<Path> homes = new ArrayList<>();
+        for (ToolchainModel toolchain : toolchains) {
+            final String home = getConfigurationValue(toolchain, TOOLCHAIN_NODE_HOME);
+            if (StringUtils.isNotBlank(home)) {
+                homes.add(Paths.get(home.trim()));
+            }
+        }
+        return homes;
+    }
+
+    /**
+     * Lists the executables to probe: the toolchain homes first, then the {@code PATH} entries in
+     * their order.
+     */
+    static List<Path> getCandidates(final List<Path> toolchainNodeHomes, final String searchPath,
+                                    final Allure3Platform platform) {
+        final List<Path> candidates = new ArrayList<>();
+        for (Path home : toolchainNodeHomes) {
+            candidates.add(platform.getNodeExecutable(home));
+        }
+        if (searchPath != null) {
+            for (String directory : searchPath.split(File.pathSeparator)) {
+                addPathCandidate(candidates, directory, platform);
+            }
+        }
+        return candidates;
+    }
+
+    static boolean isCompatible(final String probedVersion, final String nodeVersion) {
+        return StringUtils.isNotBlank(probedVersion)
+                && getMajorVersion(probedVersion).equals(getMajorVersion(nodeVersion));
+    }
+
+    /**
+     * Returns the real path of the first candidate with the same major version, or {@code null}
+     * if there is none.
+     */
+    Path find(final List<Path> candidates, final String nodeVersion) throws IOException {
+        Path found = null;
+        for (Path candidate : candidates) {
+            if (Files.isRegularFile(candidate) && Files.isExecutable(candidate)) {
+                final Path node = candidate.toRealPath();
+                final String version = getVersion(node);
+                if (isCompatible(version, nodeVersion)) {
+                    found = node;
+                    break;
+                }
+                debug(String.format("Skipping Node.js %s at %s", version, node));
+            }
+        }
+        if (changed) {
+            writeCache();
+        }
+        return found;
+    }
+
+    private String getVersion(final Path node) throws IOException {
+        final String stamp = Long.toString(Files.getLastModifiedTime(node).toMillis());
+        final String cached = cache.getProperty(node.toString());
+        if (cached != null && cached.startsWith(stamp + STAMP_SEPARATOR)) {
+            return cached.substring(stamp.length() + 1);
+        }
+        final String version = probe(node);
+        cache.setProperty(node.toString(), stamp + STAMP_SEPARATOR + version);
+        changed = true;
+        return version;
+    }
+
+    private String probe(final Path node) {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final DefaultExecutor executor = CommandLineExecutorFactory.newExecutor(PROBE_TIMEOUT);
+        executor.setStreamHandler(new PumpStreamHandler(output, OutputStream.nullOutputStream()));
+        try {
+            executor.execute(new CommandLine(node.toFile()).addArgument("--version"));
+            return new String(output.toByteArray(), StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            debug(String.format("Cannot probe Node.js at %s: %s", node, e.getMessage()));
+            return "";
+        }
+    }
+
+    /**
+     * The cache is written under the install lock, since acquiring it sweeps staged files such as
+     * the one written here.
+     */
+    private void writeCache() throws IOException {
+        try (InstallLock ignored = InstallLock.acquire(cacheFile.getParent(), log)) {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            cache.store(output, "Node.js versions by executable and modification time");
+            AllureInstallUtils.write(cacheFile, output.toByteArray(), false);
+        }
+    }
+
+    private void debug(final String message) {
+        if (log != null && log.isDebugEnabled()) {
+            log.debug(message);
+        }
+    }
+
+    private static Properties readCache(final Path cacheFile) {
+        final Properties properties = new Properties();
+        try (InputStream input = Files.newInputStream(cacheFile)) {
+            properties.load(input);
+        } catch (IOException | IllegalArgumentException e) {
+            properties.clear();
+        }
+        return properties;
+    }
+
+    private static String getConfigurationValue(final ToolchainModel toolchain, final String name) {
+        if (toolchain.getConfiguration() instanceof Xpp3Dom) {
+            final Xpp3Dom child = ((Xpp3Dom) toolchain.getConfiguration()).getChild(name);
+            return child == null ? null : child.getValue();
+        }
+        return null;
+    }
+
+    private static void addPathCandidate(final List<Path> candidates, final String directory,
+                                         final Allure3Platform platform) {
+        final Path candidate = toPathOrNull(directory);
+        if (candidate != null) {
+            candidates.add(candidate.resolve(platform.getNodeExecutableName()));
+        }
+    }
+
+    /**
+     * Returns {@code null} for blank {@code PATH} entries and for ones that are not valid paths.
+     */
+    private static Path toPathOrNull(final String directory) {
+        if (StringUtils.isBlank(directory)) {
+            return null;
+        }
+        try {
+            return Paths.get(directory);
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    private static String getMajorVersion(final String version) {
+        return StringUtils.substringBefore(Strings.CS.removeStart(version.trim(), "v"), ".");
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Selects the entries of a Node.js distribution archive Allure needs, as listed by the manifest
+ * of the platform: the node executable, npm and the license. Headers, documentation, man pages
+ * and corepack are skipped, and the skipped files are counted by subtree so the install receipt
+ * can record them. Entry names are matched below the top-level directory of the archive.
+ */
+final class NodeDistributionFilter implements Predicate<String> {
+
+    /**
+     * Download property selecting what to extract, {@code minimal} by default. {@code full}
+     * extracts the whole distribution.
+     */
+    static final String EXTRACT = "allure.node.extract";
+
+    static final String FULL = "full";
+
+    private static final String SEPARATOR = "/";
+
+    private static final String NODE_MODULES = "node_modules";
+
+    private final List<String> includes;
+
+    private final Map<String, Integer> skipped = new TreeMap<>();
+
+    NodeDistributionFilter(final List<String> includes) {
+        this.includes = includes;
+    }
+
+    /**
+     * Returns the filter for the platform, or {@code null} when the full distribution is
+     * extracted.
+     */
+    static NodeDistributionFilter create(final Allure3Platform platform,
+                                         final Properties downloadProperties) {
+        return FULL.equalsIgnoreCase(downloadProperties.getProperty(EXTRACT))
+                ? null
+                : new NodeDistributionFilter(platform.getNodeDistributionManifest());
+    }
+
+    /**
+     * Accepts the included files and directories, and the directories leading to them.
+     */
+    @Override
+    public boolean test(final String entryName) {
+        final String name = entryName.replace('\\', '/');
+        final int root = name.indexOf('/');
+        final String relative = root < 0 ? "" : name.substring(root + 1);
+        if (relative.isEmpty()) {
+            return true;
+        }
+        final boolean directory = relative.endsWith(SEPARATOR);
+        for (String include : includes) {
+            if (relative.equals(include)
+                    || include.endsWith(SEPARATOR) && relative.startsWith(include)
+                    || directory && include.startsWith(relative)) {
+                return true;
+            }
+        }
+        if (!directory) {
+            skipped.merge(getSubtree(relative), 1, Integer::sum);
+        }
+        return false;
+    }
+
+    /**
+     * Returns the skipped subtrees with their file counts, as {@code subtree:count} pairs
+     * separated by commas, or an empty string when nothing was skipped.
+     */
+    String getSkipped() {
+        return skipped.entrySet().stream()
+                .map(entry -> entry.getKey() + ":" + entry.getValue())
+                .collect(Collectors.joining(","));
+    }
+
+    /**
+     * Groups files by their top-level directory, or by package below {@code node_modules}.
+     */
+    private static String getSubtree(final String relative) {
+        final String[] segments = relative.split(SEPARATOR);
+        int end = 1;
+        for (int i = 0; i < segments.length - 1; i++) {
+            if (NODE_MODULES.equals(segments[i])) {
+                end = i + 2;
+                break;
+            }
+        }
+        return String.join(SEPARATOR, Arrays.copyOf(segments, Math.min(end, segments.length)));
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.commons.exec.LogOutputStream;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.PrintStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Counts how the registry requests of an {@code npm install} were served, from the
+ * {@code npm http fetch} lines npm logs at {@code --loglevel http}. Those lines go to the debug
+ * log; any other output is passed through.
+ */
+final class NpmCacheStats extends LogOutputStream {
+
+    private static final Pattern FETCH = Pattern.compile(
+            "npm http fetch .*?(?:\\(cache ([a-z]+)\\))?\\s*"
+    );
+
+    private final PrintStream passthrough;
+
+    private final Log log;
+
+    private int hits;
+
+    private int revalidated;
+
+    private int misses;
+
+    NpmCacheStats(final PrintStream passthrough, final Log log) {
+        super();
+        this.passthrough = passthrough;
+        this.log = log;
+    }
+
+    int getHits() {
+        return hits;
+    }
+
+    int getRevalidated() {
+        return revalidated;
+    }
+
+    int getMisses() {
+        return misses;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%d cache hits, %d revalidated, %d misses", hits, revalidated, misses
+        );
+    }
+
+    /**
+     * A {@code hit} or {@code stale} entry was served without contacting the registry;
+     * {@code revalidated} took a conditional request; anything else was downloaded.
+     */
+    @Override
+    protected void processLine(final String line, final int logLevel) {
+        final Matcher matcher = FETCH.matcher(line);
+        if (!matcher.matches()) {
+            passthrough.println(line);
+            return;
+        }
+        final String status = matcher.group(1);
+        if ("hit".equals(status) || "stale".equals(status)) {
+            hits++;
+        } else if ("revalidated".equals(status)) {
+            revalidated++;
+        } else {
+            misses++;
+        }
+        if (log != null && log.isDebugEnabled()) {
+            log.debug(line);
+        }
+    }
+}
@@ -0,0 +1,434 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * Installs a prefetched npm package tree without npm. The packages are laid out in a
+ * {@code node_modules} hierarchy hoisted like npm does, either by resolving the dependencies of
+ * the root package or as pinned by a lockfile, and their tarballs are extracted concurrently.
+ * Like the {@code --ignore-scripts} installs of the plugin, no lifecycle scripts run, and no
+ * {@code .bin} links are created since the CLI is started by its path.
+ */
+@SuppressWarnings("PMD.GodClass")
+final class NpmInstaller {
+
+    static final String INSTALLER = "allure.npm.installer";
+
+    static final String NATIVE = "native";
+
+    private static final String NODE_MODULES = "node_modules/";
+
+    private static final String SLASH = "/";
+
+    private static final String PEER_DEPENDENCIES_META = "peerDependenciesMeta";
+
+    private static final String OS = "os";
+
+    private static final String CPU = "cpu";
+
+    private static final String PACKAGES = "packages";
+
+    private static final String VERSION = "version";
+
+    private static final String NAME = "name";
+
+    private static final String DIST = "dist";
+
+    private static final String INTEGRITY = "integrity";
+
+    private static final String BUNDLE_DEPENDENCIES = "bundleDependencies";
+
+    private static final String NOT = "!";
+
+    private static final String NESTED_NODE_MODULES = SLASH + NODE_MODULES;
+
+    private static final String DEPENDENCIES = "dependencies";
+
+    private static final String OPTIONAL_DEPENDENCIES = "optionalDependencies";
+
+    private static final String PEER_DEPENDENCIES = "peerDependencies";
+
+    private static final String OPTIONAL = "optional";
+
+    private static final int OWNER_EXECUTE = 0x40;
+
+    private static final String[] LOCKED_FIELDS = {
+        DEPENDENCIES, OPTIONAL_DEPENDENCIES, PEER_DEPENDENCIES, PEER_DEPENDENCIES_META, "bin",
+        "engines", OS, CPU,
+    };
+
+    private final SortedMap<String, NpmPackage> layout = new TreeMap<>();
+
+    private final Set<String> optional = new HashSet<>();
+
+    private final Allure3Platform platform;
+
+    private NpmInstaller(final Allure3Platform platform) {
+        this.platform = platform;
+    }
+
+    /**
+     * Lays out {@code name@spec} and its dependencies. Each package is hoisted to the top-level
+     * {@code node_modules} unless another version of it is already visible from its dependent,
+     * in which case it is nested below the dependent. Optional packages for other platforms and
+     * optional packages that failed to prefetch are left out.
+     */
+    static NpmInstaller resolve(final String name, final String spec,
+                                final Collection<NpmPackage> packages,
+                                final Allure3Platform platform)
+            throws IOException {
+        final NpmInstaller installer = new NpmInstaller(platform);
+        final Map<String, List<NpmPackage>> byName = packages.stream()
+                .collect(Collectors.groupingBy(NpmPackage::getName));
+        final Deque<String> pending = new ArrayDeque<>();
+        installer.place("", name, spec, false, byName, pending);
+        while (!pending.isEmpty()) {
+            final String dependent = pending.removeFirst();
+            installer.placeDependencies(dependent, byName, pending);
+        }
+        return installer;
+    }
+
+    /**
+     * Lays out the packages at the paths pinned by an npm lockfile.
+     */
+    static NpmInstaller fromLockfile(final JsonNode lockfile, final Collection<NpmPackage> packages,
+                                     final Allure3Platform platform)
+            throws IOException {
+        final NpmInstaller installer = new NpmInstaller(platform);
+        final Map<String, NpmPackage> byId = new HashMap<>();
+        for (NpmPackage npmPackage : packages) {
+            byId.put(npmPackage.toString(), npmPackage);
+        }
+        for (Map.Entry<String, JsonNode> entry : lockfile.path(PACKAGES).properties()) {
+            final String path = entry.getKey();
+            final JsonNode locked = entry.getValue();
+            if (!path.contains(NODE_MODULES) || locked.path("link").asBoolean()) {
+                continue;
+            }
+            final String name = getLockedName(path, locked);
+            final NpmPackage npmPackage = byId.get(name + "@" + locked.path(VERSION).asText());
+            final boolean optionalPackage = locked.path(OPTIONAL).asBoolean();
+            if (optionalPackage && (npmPackage == null || !installer.isSupported(locked))) {
+                continue;
+            }
+            if (npmPackage == null) {
+                throw new IOException(String.format(
+                        "Locked npm package %s@%s at %s was not downloaded",
+                        name, locked.path(VERSION).asText(), path
+                ));
+            }
+            installer.layout.put(path, npmPackage);
+            if (optionalPackage) {
+                installer.optional.add(path);
+            }
+        }
+        return installer;
+    }
+
+    /**
+     * Returns the package name of a lockfile entry. Aliased entries name the real package, others
+     * are named by their path.
+     */
+    static String getLockedName(final String path, final JsonNode locked) {
+        return locked.has(NAME)
+                ? locked.get(NAME).asText()
+                : StringUtils.substringAfterLast(path, NODE_MODULES);
+    }
+
+    /**
+     * Returns the packages by their path below the install prefix.
+     */
+    SortedMap<String, NpmPackage> getLayout() {
+        return Collections.unmodifiableSortedMap(layout);
+    }
+
+    /**
+     * Extracts every package of the layout into its directory below the prefix. Packages are
+     * extracted concurrently.
+     */
+    void install(final Path prefix) throws IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(layout.size(), Runtime.getRuntime().availableProcessors())),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, "allure-npm-extract");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+        try {
+            final List<Future<Void>> tasks = new ArrayList<>();
+            for (Map.Entry<String, NpmPackage> entry : layout.entrySet()) {
+                tasks.add(executor.submit(() -> {
+                    extract(entry.getValue(), prefix.resolve(entry.getKey()));
+                    return null;
+                }));
+            }
+            for (Future<Void> task : tasks) {
+                join(task);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Describes the layout as an npm v3 lockfile for a root project depending on
+     * {@code name@version}. Tarball URLs of the registry are recorded for the public registry,
+     * like npm does.
+     */
+    ObjectNode toLockfile(final String rootName, final String name, final String version,
+                          final String registry) {
+        final ObjectNode lockfile = new ObjectMapper().createObjectNode()
+                .put(NAME, rootName)
+                .put("lockfileVersion", 3)
+                .put("requires", true);
+        final ObjectNode packages = lockfile.putObject(PACKAGES);
+        packages.putObject("").put(NAME, rootName).putObject(DEPENDENCIES).put(name, version);
+        for (Map.Entry<String, NpmPackage> entry : layout.entrySet()) {
+            final NpmPackage npmPackage = entry.getValue();
+            final ObjectNode manifest = npmPackage.getManifest();
+            final ObjectNode locked = packages.putObject(entry.getKey());
+            if (!entry.getKey().endsWith(NODE_MODULES + npmPackage.getName())) {
+                locked.put(NAME, npmPackage.getName());
+            }
+            locked.put(VERSION, npmPackage.getVersion())
+                    .put("resolved", NpmPrefetch.toPublicUrl(
+                            registry, manifest.path(DIST).path("tarball").asText()
+                    ));
+            if (manifest.path(DIST).has(INTEGRITY)) {
+                locked.put(INTEGRITY, manifest.path(DIST).path(INTEGRITY).asText());
+            }
+            if (optional.contains(entry.getKey())) {
+                locked.put(OPTIONAL, true);
+            }
+            for (String field : LOCKED_FIELDS) {
+                if (manifest.has(field)) {
+                    locked.set(field, manifest.get(field).deepCopy());
+                }
+            }
+        }
+        return lockfile;
+    }
+
+    private void placeDependencies(final String dependent, final Map<String, List<NpmPackage>> byName,
+                                   final Deque<String> pending)
+            throws IOException {
+        final JsonNode manifest = layout.get(dependent).getManifest();
+        final boolean optionalDependent = optional.contains(dependent);
+        final Set<String> bundled = new HashSet<>();
+        for (JsonNode entry : manifest.has(BUNDLE_DEPENDENCIES)
+                ? manifest.path(BUNDLE_DEPENDENCIES) : manifest.path("bundledDependencies")) {
+            bundled.add(entry.asText());
+        }
+        final JsonNode optionalDependencies = manifest.path(OPTIONAL_DEPENDENCIES);
+        for (Map.Entry<String, JsonNode> entry : manifest.path(DEPENDENCIES).properties()) {
+            if (!bundled.contains(entry.getKey()) && !optionalDependencies.has(entry.getKey())) {
+                place(dependent, entry.getKey(), entry.getValue().asText(), optionalDependent,
+                        byName, pending);
+            }
+        }
+        for (Map.Entry<String, JsonNode> entry : optionalDependencies.properties()) {
+            if (!bundled.contains(entry.getKey())) {
+                place(dependent, entry.getKey(), entry.getValue().asText(), true, byName, pending);
+            }
+        }
+        for (Map.Entry<String, JsonNode> entry : manifest.path(PEER_DEPENDENCIES).properties()) {
+            if (!manifest.path(PEER_DEPENDENCIES_META).path(entry.getKey()).path(OPTIONAL)
+                    .asBoolean()) {
+                place(dependent, entry.getKey(), entry.getValue().asText(), optionalDependent,
+                        byName, pending);
+            }
+        }
+    }
+
+    /**
+     * Places the package a dependent needs. Node.js looks a package up in the
+     * {@code node_modules} of the dependent and then of each ancestor, so the nearest copy on
+     * that path is the one the dependent gets.
+     */
+    private void place(final String dependent, final String name, final String spec,
+                       final boolean optionalEdge, final Map<String, List<NpmPackage>> byName,
+                       final Deque<String> pending)
+            throws IOException {
+        final NpmPackage npmPackage = select(byName.get(name), spec);
+        if (npmPackage == null || optionalEdge && !isSupported(npmPackage.getManifest())) {
+            if (optionalEdge) {
+                return;
+            }
+            throw new IOException(String.format(
+                    "No prefetched version of %s matches '%s'", name, spec
+            ));
+        }
+        final String nearest = findNearest(dependent, name);
+        if (nearest != null && layout.get(nearest).equals(npmPackage)) {
+            if (!optionalEdge) {
+                optional.remove(nearest);
+            }
+            return;
+        }
+        final String path = nearest == null ? child("", name) : child(dependent, name);
+        if (layout.containsKey(path)) {
+            return;
+        }
+        layout.put(path, npmPackage);
+        if (optionalEdge) {
+            optional.add(path);
+        }
+        pending.addLast(path);
+    }
+
+    private String findNearest(final String dependent, final String name) {
+        String level = dependent;
+        while (true) {
+            final String candidate = child(level, name);
+            if (layout.containsKey(candidate)) {
+                return candidate;
+            }
+            if (level.isEmpty()) {
+                return null;
+            }
+            level = level.contains(NESTED_NODE_MODULES)
+                    ? level.substring(0, level.lastIndexOf(NESTED_NODE_MODULES))
+                    : "";
+        }
+    }
+
+    /**
+     * Checks the {@code os} and {@code cpu} fields of a manifest, where entries starting with
+     * {@code !} exclude a platform.
+     */
+    private boolean isSupported(final JsonNode manifest) {
+        return matches(manifest.path(OS), platform.getNpmOs())
+                && matches(manifest.path(CPU), platform.getNpmCpu());
+    }
+
+    private static boolean matches(final JsonNode allowed, final String value) {
+        boolean listed = false;
+        boolean included = false;
+        for (JsonNode entry : allowed) {
+            final String text = entry.asText();
+            if ((NOT + value).equals(text)) {
+                return false;
+            }
+            if (!text.startsWith(NOT)) {
+                listed = true;
+                included = included || text.equals(value);
+            }
+        }
+        return !listed || included;
+    }
+
+    private static NpmPackage select(final List<NpmPackage> candidates, final String spec)
+            throws IOException {
+        if (candidates == null) {
+            return null;
+        }
+        if (!NpmSemver.isRange(spec)) {
+            return candidates.stream()
+                    .filter(candidate -> candidate.getTags().contains(spec))
+                    .findFirst().orElse(null);
+        }
+        final List<String> versions = new ArrayList<>();
+        for (NpmPackage candidate : candidates) {
+            versions.add(candidate.getVersion());
+        }
+        final String version = NpmSemver.maxSatisfying(versions, spec);
+        return candidates.stream()
+                .filter(candidate -> candidate.getVersion().equals(version))
+                .findFirst().orElse(null);
+    }
+
+    private static String child(final String level, final String name) {
+        return level.isEmpty() ? NODE_MODULES + name : level + NESTED_NODE_MODULES + name;
+    }
+
+    /**
+     * Extracts a package tarball, dropping the top-level directory every entry is nested in.
+     * Links are skipped, as npm does for package tarballs.
+     */
+    private static void extract(final NpmPackage npmPackage, final Path target) throws IOException {
+        final Path root = target.normalize();
+        Files.createDirectories(root);
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(npmPackage.getTarball()));
+             TarArchiveInputStream tar = new TarArchiveInputStream(new GzipCompressorInputStream(input))) {
+            TarArchiveEntry entry = tar.getNextEntry();
+            while (entry != null) {
+                final String name = StringUtils.substringAfter(entry.getName(), SLASH);
+                final Path path = root.resolve(name).normalize();
+                if (!path.startsWith(root)) {
+                    throw new IOException(String.format(
+                            "Refusing to unpack %s entry outside its package: %s",
+                            npmPackage, entry.getName()
+                    ));
+                }
+                if (entry.isDirectory()) {
+                    Files.createDirectories(path);
+                } else if (entry.isFile() && !name.isEmpty()) {
+                    Files.createDirectories(path.getParent());
+                    Files.copy(tar, path, StandardCopyOption.REPLACE_EXISTING);
+                    if ((entry.getMode() & OWNER_EXECUTE) != 0) {
+                        path.toFile().setExecutable(true);
+                    }
+                }
+                entry = tar.getNextEntry();
+            }
+        }
+    }
+
+    private static void join(final Future<?> task) throws IOException {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while extracting npm packages", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A resolved version of an npm package: its manifest from the registry packument, the dist-tags
+ * pointing to it and the local copy of its tarball.
+ */
+final class NpmPackage {
+
+    private final String name;
+
+    private final String version;
+
+    private final ObjectNode manifest;
+
+    private final List<String> tags;
+
+    private final Path tarball;
+
+    NpmPackage(final String name, final String version, final ObjectNode manifest,
+               final List<String> tags, final Path tarball) {
+        this.name = name;
+        this.version = version;
+        this.manifest = manifest;
+        this.tags = Collections.unmodifiableList(tags);
+        this.tarball = tarball;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getVersion() {
+        return version;
+    }
+
+    ObjectNode getManifest() {
+        return manifest;
+    }
+
+    List<String> getTags() {
+        return tags;
+    }
+
+    Path getTarball() {
+        return tarball;
+    }
+
+    @Override
+    public String toString() {
+        return name + "@" + version;
+    }
+}
@@ -0,0 +1,512 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Strings;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.settings.Proxy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves the dependency tree of an npm package from registry packuments and downloads all of
+ * its tarballs concurrently, so they are on disk by the time Node.js is ready to install them.
+ * Versions are picked like npm does: the {@code latest} tag if it matches the range, otherwise
+ * the highest matching version, preferring versions that are not deprecated.
+ */
+@SuppressWarnings("PMD.GodClass")
+final class NpmPrefetch implements Closeable {
+
+    static final String PREFETCH = "allure.npm.prefetch";
+
+    private static final String ABBREVIATED_METADATA =
+            "application/vnd.npm.install-v1+json; q=1.0, application/json; q=0.8, */*";
+
+    private static final String DEPENDENCIES = "dependencies";
+
+    private static final String OPTIONAL_DEPENDENCIES = "optionalDependencies";
+
+    private static final String PEER_DEPENDENCIES = "peerDependencies";
+
+    private static final String LATEST = "latest";
+
+    private static final String NODE_MODULES = "node_modules/";
+
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    private static final String SLASH = "/";
+
+    private static final String VERSIONS = "versions";
+
+    private static final String DIST_TAGS = "dist-tags";
+
+    private static final String AT = "@";
+
+    private static final String DIST = "dist";
+
+    private static final String TARBALL = "tarball";
+
+    private static final String INTEGRITY = "integrity";
+
+    private static final String OPTIONAL = "optional";
+
+    private static final String BUNDLE_DEPENDENCIES = "bundleDependencies";
+
+    private static final String DASH = "-";
+
+    private static final String SHA_1 = "SHA-1";
+
+    private final String registry;
+
+    private final Path directory;
+
+    private final Proxy proxy;
+
+    private final Properties downloadProperties;
+
+    private final Log log;
+
+    private final ExecutorService executor;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final ConcurrentMap<String, CompletableFuture<JsonNode>> packuments =
+            new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, NpmPackage> packages = new ConcurrentHashMap<>();
+
+    private final List<Future<?>> tasks = new CopyOnWriteArrayList<>();
+
+    private NpmPrefetch(final String registry, final Path directory, final Proxy proxy,
+                        final Properties downloadProperties, final Log log) {
+        this.registry = Strings.CS.removeEnd(registry, SLASH);
+        this.directory = directory;
+        this.proxy = proxy;
+        this.downloadProperties = downloadProperties;
+        this.log = log;
+        this.executor = Executors.newFixedThreadPool(
+                AllureHttpClients.MAX_CONNECTIONS_PER_ROUTE, runnable -> {
+                    final Thread thread = new Thread(runnable, "allure-npm-prefetch");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+    }
+
+    /**
+     * Starts resolving and downloading {@code name@spec} and its dependencies into the
+     * directory in the background. The directory is deleted on {@link #close()}.
+     */
+    static NpmPrefetch start(final String registry, final String name, final String spec,
+                             final Path directory, final Proxy proxy,
+                             final Properties downloadProperties, final Log log) {
+        final NpmPrefetch prefetch = new NpmPrefetch(
+                registry, directory, proxy, downloadProperties, log
+        );
+        prefetch.resolve(name, spec, false);
+        return prefetch;
+    }
+
+    /**
+     * Starts downloading the packages pinned by an npm lockfile into the directory in the
+     * background, without resolving anything. Like npm, tarball URLs of the public registry are
+     * redirected to the registry.
+     */
+    static NpmPrefetch startLocked(final String registry, final JsonNode lockfile,
+                                   final Path directory, final Proxy proxy,
+                                   final Properties downloadProperties, final Log log) {
+        final NpmPrefetch prefetch = new NpmPrefetch(
+                registry, directory, proxy, downloadProperties, log
+        );
+        for (Map.Entry<String, JsonNode> entry : lockfile.path("packages").properties()) {
+            if (entry.getKey().contains(NODE_MODULES) && !entry.getValue().path("link").asBoolean()) {
+                prefetch.fetchLocked(entry.getKey(), entry.getValue());
+            }
+        }
+        return prefetch;
+    }
+
+    /**
+     * Maps a tarball URL recorded for the public registry onto the registry.
+     */
+    static String toRegistryUrl(final String registry, final String tarballUrl) {
+        final String publicRegistry = Allure3Commandline.NPM_DEFAULT_REGISTRY + SLASH;
+        return tarballUrl.startsWith(publicRegistry)
+                ? Strings.CS.removeEnd(registry, SLASH) + SLASH + tarballUrl.substring(publicRegistry.length())
+                : tarballUrl;
+    }
+
+    /**
+     * Maps a tarball URL of the registry onto the public registry, the form npm records in
+     * lockfiles so they work with any registry.
+     */
+    static String toPublicUrl(final String registry, final String tarballUrl) {
+        final String registryRoot = Strings.CS.removeEnd(registry, SLASH) + SLASH;
+        return tarballUrl.startsWith(registryRoot)
+                ? Allure3Commandline.NPM_DEFAULT_REGISTRY + SLASH + tarballUrl.substring(registryRoot.length())
+                : tarballUrl;
+    }
+
+    /**
+     * Picks the version of a packument that npm would install for the range or dist-tag.
+     */
+    static String selectVersion(final String name, final String spec, final JsonNode packument)
+            throws IOException {
+        final JsonNode versions = packument.path(VERSIONS);
+        final JsonNode tags = packument.path(DIST_TAGS);
+        if (!NpmSemver.isRange(spec)) {
+            final String tagged = tags.path(spec).textValue();
+            if (tagged == null || !versions.has(tagged)) {
+                throw new IOException(String.format("No version of %s is tagged '%s'", name, spec));
+            }
+            return tagged;
+        }
+        final String latest = tags.path(LATEST).textValue();
+        if (latest != null && versions.has(latest) && !isDeprecated(versions.get(latest))
+                && NpmSemver.satisfies(NpmSemver.parse(latest), spec)) {
+            return latest;
+        }
+        final List<String> all = new ArrayList<>();
+        final List<String> current = new ArrayList<>();
+        for (Map.Entry<String, JsonNode> entry : versions.properties()) {
+            all.add(entry.getKey());
+            if (!isDeprecated(entry.getValue())) {
+                current.add(entry.getKey());
+            }
+        }
+        final String selected = StringUtils.defaultIfEmpty(
+                NpmSemver.maxSatisfying(current, spec), NpmSemver.maxSatisfying(all, spec)
+        );
+        if (selected == null) {
+            throw new IOException(String.format("No version of %s matches '%s'", name, spec));
+        }
+        return selected;
+    }
+
+    /**
+     * Waits until the whole tree is resolved and downloaded and returns its packages.
+     */
+    List<NpmPackage> await() throws IOException {
+        int completed = 0;
+        while (completed < tasks.size()) {
+            join(tasks.get(completed));
+            completed++;
+        }
+        final List<NpmPackage> result = new ArrayList<>(packages.values());
+        result.sort(Comparator.comparing(NpmPackage::toString));
+        return result;
+    }
+
+    /**
+     * Stops the downloads and deletes the directory once they have stopped writing to it.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                debug("npm prefetch downloads did not stop in " + CLOSE_TIMEOUT_SECONDS + " seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        FileUtils.deleteQuietly(directory.toFile());
+    }
+
+    private void resolve(final String name, final String spec, final boolean optional) {
+        final CompletableFuture<Void> task = getPackument(name).thenAccept(packument -> {
+            try {
+                select(name, spec, packument, optional);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+        track(optional ? task.exceptionally(e -> {
+            debug(String.format("Skipping optional npm dependency %s@%s: %s", name, spec, e));
+            return null;
+        }) : task);
+    }
+
+    private CompletableFuture<JsonNode> getPackument(final String name) {
+        return packuments.computeIfAbsent(name, key -> CompletableFuture.supplyAsync(() -> {
+            try {
+                return fetchPackument(key);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor));
+    }
+
+    private JsonNode fetchPackument(final String name) throws IOException {
+        final URL url = new URL(registry + SLASH + name.replace(SLASH, "%2f"));
+        if (AllureDownloadUtils.isHttp(url)) {
+            return AllureHttpClients.get(
+                    url, proxy, downloadProperties, true, ABBREVIATED_METADATA, mapper::readTree
+            );
+        }
+        return AllureDownloadUtils.read(url, proxy, downloadProperties, mapper::readTree);
+    }
+
+    private void select(final String name, final String spec, final JsonNode packument,
+                        final boolean optional)
+            throws IOException {
+        final String version = selectVersion(name, spec, packument);
+        final JsonNode manifest = packument.path(VERSIONS).path(version);
+        if (!manifest.isObject()) {
+            throw new IOException("Invalid packument of " + name + AT + version);
+        }
+        final List<String> tags = new ArrayList<>();
+        for (Map.Entry<String, JsonNode> entry : packument.path(DIST_TAGS).properties()) {
+            if (version.equals(entry.getValue().textValue())) {
+                tags.add(entry.getKey());
+            }
+        }
+        final NpmPackage npmPackage = new NpmPackage(
+                name, version, (ObjectNode) manifest, tags,
+                directory.resolve(getTarballFileName(name, version))
+        );
+        if (fetch(npmPackage, optional)) {
+            resolveDependencies(manifest, optional);
+        }
+    }
+
+    /**
+     * Schedules the download of a package unless it is already known. Failed downloads of
+     * optional packages drop them from the result instead of failing it.
+     */
+    private boolean fetch(final NpmPackage npmPackage, final boolean optional) {
+        if (packages.putIfAbsent(npmPackage.toString(), npmPackage) != null) {
+            return false;
+        }
+        final CompletableFuture<Void> download = CompletableFuture.runAsync(() -> {
+            try {
+                download(npmPackage);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+        track(optional ? download.exceptionally(e -> {
+            packages.remove(npmPackage.toString());
+            debug(String.format("Skipping optional npm dependency %s: %s", npmPackage, e));
+            return null;
+        }) : download);
+        return true;
+    }
+
+    /**
+     * Turns a lockfile entry into a package whose manifest carries the pinned tarball and
+     * integrity.
+     */
+    private void fetchLocked(final String path, final JsonNode locked) {
+        final String name = NpmInstaller.getLockedName(path, locked);
+        final String version = locked.path("version").asText();
+        final ObjectNode manifest = locked.deepCopy();
+        manifest.put("name", name);
+        final ObjectNode dist = manifest.putObject(DIST)
+                .put(TARBALL, toRegistryUrl(registry, locked.path("resolved").asText()));
+        if (locked.has(INTEGRITY)) {
+            dist.put(INTEGRITY, locked.get(INTEGRITY).asText());
+        }
+        fetch(
+                new NpmPackage(
+                        name, version, manifest, new ArrayList<>(),
+                        directory.resolve(getTarballFileName(name, version))
+                ), locked.path(OPTIONAL).asBoolean()
+        );
+    }
+
+    /**
+     * Follows regular, optional and required peer dependencies, which npm installs
+     * automatically. Bundled dependencies ship inside the tarball and are skipped.
+     */
+    private void resolveDependencies(final JsonNode manifest, final boolean optional) {
+        final Set<String> bundled = new HashSet<>();
+        for (JsonNode entry : manifest.has(BUNDLE_DEPENDENCIES)
+                ? manifest.path(BUNDLE_DEPENDENCIES) : manifest.path("bundledDependencies")) {
+            bundled.add(entry.asText());
+        }
+        final JsonNode optionalDependencies = manifest.path(OPTIONAL_DEPENDENCIES);
+        for (Map.Entry<String, JsonNode> entry : optionalDependencies.properties()) {
+            if (!bundled.contains(entry.getKey())) {
+                resolve(entry.getKey(), entry.getValue().asText(), true);
+            }
+        }
+        for (Map.Entry<String, JsonNode> entry : manifest.path(DEPENDENCIES).properties()) {
+            if (!bundled.contains(entry.getKey())
+                    && !optionalDependencies.has(entry.getKey())) {
+                resolve(entry.getKey(), entry.getValue().asText(), optional);
+            }
+        }
+        for (Map.Entry<String, JsonNode> entry : manifest.path(PEER_DEPENDENCIES).properties()) {
+            if (!manifest.path("peerDependenciesMeta").path(entry.getKey()).path(OPTIONAL)
+                    .asBoolean()) {
+                resolve(entry.getKey(), entry.getValue().asText(), optional);
+            }
+        }
+    }
+
+    private void download(final NpmPackage npmPackage) throws IOException {
+        final JsonNode dist = npmPackage.getManifest().path(DIST);
+        final String tarballUrl = dist.path(TARBALL).textValue();
+        if (tarballUrl == null) {
+            throw new IOException("No tarball URL in the packument of " + npmPackage);
+        }
+        final Integrity integrity = Integrity.from(dist);
+        final MessageDigest digest = integrity == null ? null : integrity.newDigest();
+        final Path target = npmPackage.getTarball();
+        AllureDownloadUtils.read(new URL(tarballUrl), proxy, downloadProperties, input -> {
+            try (OutputStream output = Files.newOutputStream(target)) {
+                (digest == null ? input : new DigestInputStream(input, digest)).transferTo(output);
+            }
+            return target;
+        });
+        if (integrity != null) {
+            integrity.verify(digest.digest(), npmPackage);
+        }
+    }
+
+    /**
+     * Registers a task. Dependencies are tracked from the callback of their dependent before
+     * that completes, so {@link #await()} sees the whole tree.
+     */
+    private void track(final Future<?> task) {
+        tasks.add(task);
+    }
+
+    private void debug(final String message) {
+        if (log != null && log.isDebugEnabled()) {
+            log.debug(message);
+        }
+    }
+
+    private static void join(final Future<?> task) throws IOException {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while prefetching npm packages", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e);
+        }
+    }
+
+    private static boolean isDeprecated(final JsonNode manifest) {
+        final JsonNode deprecated = manifest.path("deprecated");
+        return deprecated.isTextual() && !deprecated.textValue().isEmpty();
+    }
+
+    private static String getTarballFileName(final String name, final String version) {
+        return (Strings.CS.removeStart(name, AT) + DASH + version)
+                .replaceAll("[^A-Za-z0-9._-]", "_") + ".tgz";
+    }
+
+    /**
+     * The strongest hash of a {@code dist.integrity} Subresource Integrity string, or the legacy
+     * {@code dist.shasum}.
+     */
+    private static final class Integrity {
+
+        private static final String[][] ALGORITHMS = {
+            {"sha512", "SHA-512"}, {"sha384", "SHA-384"}, {"sha256", "SHA-256"}, {"sha1", SHA_1},
+        };
+
+        private final String algorithm;
+
+        private final byte[] expected;
+
+        private Integrity(final String algorithm, final byte[] expected) {
+            this.algorithm = algorithm;
+            this.expected = expected;
+        }
+
+        static Integrity from(final JsonNode dist) throws IOException {
+            final String integrity = StringUtils.defaultString(dist.path(INTEGRITY).textValue());
+            for (String[] algorithm : ALGORITHMS) {
+                for (String hash : StringUtils.split(integrity)) {
+                    if (hash.startsWith(algorithm[0] + DASH)) {
+                        return new Integrity(algorithm[1], decode(hash, algorithm[0]));
+                    }
+                }
+            }
+            final String shasum = dist.path("shasum").textValue();
+            if (shasum == null || !shasum.matches("[0-9a-fA-F]{40}")) {
+                return null;
+            }
+            final byte[] expected = new byte[shasum.length() / 2];
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = (byte) Integer.parseInt(shasum.substring(i * 2, i * 2 + 2), 16);
+            }
+            return new Integrity(SHA_1, expected);
+        }
+
+        MessageDigest newDigest() throws IOException {
+            try {
+                return MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(algorithm + " is not available", e);
+            }
+        }
+
+        void verify(final byte[] actual, final NpmPackage npmPackage) throws IOException {
+            if (!MessageDigest.isEqual(expected, actual)) {
+                throw new IOException(String.format(
+                        "Integrity check failed for %s: %s of the tarball does not match the "
+                                + "registry", npmPackage, algorithm
+                ));
+            }
+        }
+
+        private static byte[] decode(final String hash, final String algorithm) throws IOException {
+            final String value = hash.substring(algorithm.length() + 1).split("\\?")[0];
+            try {
+                return Base64.getDecoder().decode(value);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid integrity " + hash, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,475 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The subset of npm's semantic versioning used to resolve registry dependencies: versions with
+ * prerelease tags and the range syntax of {@code package.json} (comparators, hyphen, x, tilde
+ * and caret ranges joined with {@code ||}).
+ */
+@SuppressWarnings("PMD.GodClass")
+final class NpmSemver {
+
+    private static final Pattern VERSION = Pattern.compile(
+            "v?(\\d+)\\.(\\d+)\\.(\\d+)(?:-([0-9A-Za-z.-]+))?(?:\\+[0-9A-Za-z.-]+)?"
+    );
+
+    private static final Pattern PARTIAL = Pattern.compile(
+            "v?(\\d+|[xX*])(?:\\.(\\d+|[xX*])(?:\\.(\\d+|[xX*])"
+                    + "(?:-([0-9A-Za-z.-]+))?(?:\\+[0-9A-Za-z.-]+)?)?)?"
+    );
+
+    private static final Pattern COMPARATOR = Pattern.compile("(<=|>=|<|>|=|~>|~|\\^)?(.*)");
+
+    private static final Pattern HYPHEN = Pattern.compile("(\\S+)\\s+-\\s+(\\S+)");
+
+    private static final Pattern OPERATOR_SPACE = Pattern.compile("(<=|>=|<|>|=|~>|~|\\^)\\s+");
+
+    private static final String GTE = ">=";
+
+    private static final String LTE = "<=";
+
+    private static final String LT = "<";
+
+    private static final String GT = ">";
+
+    private static final String EQ = "=";
+
+    private static final String DOT = ".";
+
+    private static final String LOWEST_PRERELEASE = "0";
+
+    private NpmSemver() {
+        throw new IllegalStateException("Do not instance");
+    }
+
+    /**
+     * Parses a version, returning {@code null} when it is not a valid semantic version.
+     */
+    static Version parse(final String version) {
+        final Matcher matcher = VERSION.matcher(StringUtils.trimToEmpty(version));
+        if (!matcher.matches()) {
+            return null;
+        }
+        return new Version(
+                Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)),
+                Long.parseLong(matcher.group(3)), splitPrerelease(matcher.group(4))
+        );
+    }
+
+    /**
+     * Returns whether the string is a range this class understands, as opposed to a dist-tag or
+     * a non-registry specifier such as a git URL.
+     */
+    static boolean isRange(final String range) {
+        try {
+            parseRange(range);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    static boolean satisfies(final Version version, final String range) throws IOException {
+        for (List<Comparator> set : parseRange(range)) {
+            if (satisfiesSet(version, set)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the highest of the versions matching the range, or {@code null} if none does.
+     */
+    static String maxSatisfying(final Collection<String> versions, final String range)
+            throws IOException {
+        final List<List<Comparator>> sets = parseRange(range);
+        Version best = null;
+        String bestString = null;
+        for (String candidate : versions) {
+            final Version version = parse(candidate);
+            if (version != null && (best == null || version.compareTo(best) > 0)
+                    && satisfiesAny(version, sets)) {
+                best = version;
+                bestString = candidate;
+            }
+        }
+        return bestString;
+    }
+
+    private static boolean satisfiesAny(final Version version, final List<List<Comparator>> sets) {
+        for (List<Comparator> set : sets) {
+            if (satisfiesSet(version, set)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A prerelease only matches when one of the comparators of the set names a prerelease of the
+     * same major, minor and patch version, as in npm.
+     */
+    private static boolean satisfiesSet(final Version version, final List<Comparator> set) {
+        for (Comparator comparator : set) {
+            if (!comparator.test(version)) {
+                return false;
+            }
+        }
+        if (version.prerelease.length == 0) {
+            return true;
+        }
+        for (Comparator comparator : set) {
+            if (comparator.version.prerelease.length > 0
+                    && comparator.version.sameRelease(version)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<List<Comparator>> parseRange(final String range) throws IOException {
+        final List<List<Comparator>> sets = new ArrayList<>();
+        for (String part : StringUtils.defaultString(range).split("\\|\\|", -1)) {
+            sets.add(parseSet(part.trim(), range));
+        }
+        return sets;
+    }
+
+    private static List<Comparator> parseSet(final String set, final String range)
+            throws IOException {
+        final List<Comparator> comparators = new ArrayList<>();
+        final Matcher hyphen = HYPHEN.matcher(set);
+        if (hyphen.matches()) {
+            final Partial from = parsePartial(hyphen.group(1), range);
+            final Partial to = parsePartial(hyphen.group(2), range);
+            if (from.major >= 0) {
+                comparators.add(new Comparator(GTE, from.lower()));
+            }
+            addUpperBound(comparators, to, true);
+            return comparators;
+        }
+        final String normalized = OPERATOR_SPACE.matcher(set).replaceAll("$1");
+        if (normalized.isEmpty()) {
+            return comparators;
+        }
+        for (String token : normalized.split("\\s+")) {
+            final Matcher matcher = COMPARATOR.matcher(token);
+            if (!matcher.matches()) {
+                throw unsupported(range);
+            }
+            addComparators(
+                    comparators, StringUtils.defaultString(matcher.group(1)),
+                    parsePartial(matcher.group(2), range)
+            );
+        }
+        return comparators;
+    }
+
+    private static void addComparators(final List<Comparator> comparators, final String operator,
+                                       final Partial partial) {
+        switch (operator) {
+            case "~":
+            case "~>":
+                comparators.add(new Comparator(GTE, partial.lower()));
+                if (partial.major >= 0) {
+                    comparators.add(new Comparator(
+                            LT, partial.minor < 0
+                                    ? Version.upper(partial.major + 1, 0, 0)
+                                    : Version.upper(partial.major, partial.minor + 1, 0)
+                    ));
+                }
+                break;
+            case "^":
+                comparators.add(new Comparator(GTE, partial.lower()));
+                addCaretUpperBound(comparators, partial);
+                break;
+            case GT:
+                comparators.add(getLowerBoundAbove(partial));
+                break;
+            case GTE:
+                comparators.add(new Comparator(GTE, partial.lower()));
+                break;
+            case LT:
+                comparators.add(new Comparator(
+                        LT, partial.isComplete() ? partial.lower() : partial.lowerPrerelease()
+                ));
+                break;
+            case LTE:
+                addUpperBound(comparators, partial, true);
+                break;
+            default:
+                if (partial.isComplete()) {
+                    comparators.add(new Comparator(EQ, partial.lower()));
+                } else if (partial.major >= 0) {
+                    comparators.add(new Comparator(GTE, partial.lower()));
+                    addUpperBound(comparators, partial, false);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Returns the bound above all versions covered by the partial version.
+     */
+    private static Comparator getLowerBoundAbove(final Partial partial) {
+        if (partial.major < 0) {
+            return new Comparator(LT, Version.upper(0, 0, 0));
+        }
+        if (partial.minor < 0) {
+            return new Comparator(GTE, new Version(partial.major + 1, 0, 0));
+        }
+        if (partial.patch < 0) {
+            return new Comparator(GTE, new Version(partial.major, partial.minor + 1, 0));
+        }
+        return new Comparator(GT, partial.lower());
+    }
+
+    private static void addCaretUpperBound(final List<Comparator> comparators,
+                                           final Partial partial) {
+        if (partial.major < 0) {
+            return;
+        }
+        final Version upper;
+        if (partial.major > 0 || partial.minor < 0) {
+            upper = Version.upper(partial.major + 1, 0, 0);
+        } else if (partial.minor > 0 || partial.patch < 0) {
+            upper = Version.upper(0, partial.minor + 1, 0);
+        } else {
+            upper = Version.upper(0, 0, partial.patch + 1);
+        }
+        comparators.add(new Comparator(LT, upper));
+    }
+
+    /**
+     * Adds the bound below the next version not covered by the partial version, or an inclusive
+     * bound when the version is complete.
+     */
+    private static void addUpperBound(final List<Comparator> comparators, final Partial partial,
+                                      final boolean inclusive) {
+        if (partial.major < 0) {
+            return;
+        }
+        if (partial.minor < 0) {
+            comparators.add(new Comparator(LT, Version.upper(partial.major + 1, 0, 0)));
+        } else if (partial.patch < 0) {
+            comparators.add(new Comparator(
+                    LT, Version.upper(partial.major, partial.minor + 1, 0)
+            ));
+        } else {
+            comparators.add(new Comparator(inclusive ? LTE : EQ, partial.lower()));
+        }
+    }
+
+    private static Partial parsePartial(final String value, final String range)
+            throws IOException {
+        if (StringUtils.isBlank(value)) {
+            return new Partial(-1, -1, -1);
+        }
+        final Matcher matcher = PARTIAL.matcher(value.trim());
+        if (!matcher.matches()) {
+            throw unsupported(range);
+        }
+        final long major = parseNumber(matcher.group(1));
+        final long minor = major < 0 ? -1 : parseNumber(matcher.group(2));
+        final long patch = minor < 0 ? -1 : parseNumber(matcher.group(3));
+        return new Partial(
+                major, minor, patch, patch < 0 ? new String[0] : splitPrerelease(matcher.group(4))
+        );
+    }
+
+    private static long parseNumber(final String value) {
+        if (value == null || "x".equals(value.toLowerCase(Locale.ROOT)) || "*".equals(value)) {
+            return -1;
+        }
+        return Long.parseLong(value);
+    }
+
+    private static String[] splitPrerelease(final String prerelease) {
+        return prerelease == null ? new String[0] : prerelease.split("\\.");
+    }
+
+    private static IOException unsupported(final String range) {
+        return new IOException("Unsupported npm version range '" + range + "'");
+    }
+
+    /**
+     * A semantic version ordered by npm precedence.
+     */
+    static final class Version implements Comparable<Version> {
+
+        private final long major;
+
+        private final long minor;
+
+        private final long patch;
+
+        private final String[] prerelease;
+
+        Version(final long major, final long minor, final long patch, final String... prerelease) {
+            this.major = major;
+            this.minor = minor;
+            this.patch = patch;
+            this.prerelease = prerelease;
+        }
+
+        /**
+         * Returns the lowest prerelease of the version, which excludes prereleases of it when
+         * used as an exclusive upper bound.
+         */
+        static Version upper(final long major, final long minor, final long patch) {
+            return new Version(major, minor, patch, LOWEST_PRERELEASE);
+        }
+
+        boolean isPrerelease() {
+            return prerelease.length > 0;
+        }
+
+        boolean sameRelease(final Version other) {
+            return major == other.major && minor == other.minor && patch == other.patch;
+        }
+
+        @Override
+        public int compareTo(final Version other) {
+            int result = Long.compare(major, other.major);
+            if (result == 0) {
+                result = Long.compare(minor, other.minor);
+            }
+            if (result == 0) {
+                result = Long.compare(patch, other.patch);
+            }
+            return result == 0 ? comparePrerelease(prerelease, other.prerelease) : result;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof Version && compareTo((Version) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(major * 31 * 31 + minor * 31 + patch);
+        }
+
+        @Override
+        public String toString() {
+            final String release = major + DOT + minor + DOT + patch;
+            return isPrerelease() ? release + "-" + String.join(DOT, prerelease) : release;
+        }
+
+        private static int comparePrerelease(final String[] left, final String[] right) {
+            if (left.length == 0 || right.length == 0) {
+                return Integer.compare(right.length, left.length);
+            }
+            for (int i = 0; i < Math.min(left.length, right.length); i++) {
+                final int result = compareIdentifier(left[i], right[i]);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return Integer.compare(left.length, right.length);
+        }
+
+        private static int compareIdentifier(final String left, final String right) {
+            final boolean leftNumeric = StringUtils.isNumeric(left);
+            final boolean rightNumeric = StringUtils.isNumeric(right);
+            if (leftNumeric && rightNumeric) {
+                return Long.compare(Long.parseLong(left), Long.parseLong(right));
+            }
+            if (leftNumeric || rightNumeric) {
+                return leftNumeric ? -1 : 1;
+            }
+            return left.compareTo(right);
+        }
+    }
+
+    /**
+     * A version with missing or wildcard parts, stored as {@code -1}.
+     */
+    private static final class Partial {
+
+        private final long major;
+
+        private final long minor;
+
+        private final long patch;
+
+        private final String[] prerelease;
+
+        Partial(final long major, final long minor, final long patch, final String... prerelease) {
+            this.major = major;
+            this.minor = minor;
+            this.patch = patch;
+            this.prerelease = prerelease;
+        }
+
+        boolean isComplete() {
+            return patch >= 0;
+        }
+
+        Version lower() {
+            return new Version(
+                    Math.max(major, 0), Math.max(minor, 0), Math.max(patch, 0), prerelease
+            );
+        }
+
+        Version lowerPrerelease() {
+            return Version.upper(Math.max(major, 0), Math.max(minor, 0), Math.max(patch, 0));
+        }
+    }
+
+    /**
+     * A single {@code <}, {@code <=}, {@code >}, {@code >=} or {@code =} comparison.
+     */
+    private static final class Comparator {
+
+        private final String operator;
+
+        private final Version version;
+
+        Comparator(final String operator, final Version version) {
+            this.operator = operator;
+            this.version = version;
+        }
+
+        boolean test(final Version candidate) {
+            final int result = candidate.compareTo(version);
+            switch (operator) {
+                case LT:
+                    return result < 0;
+                case LTE:
+                    return result <= 0;
+                case GT:
+                    return result > 0;
+                case GTE:
+                    return result >= 0;
+                default:
+                    return result == 0;
+            }
+        }
+    }
+}
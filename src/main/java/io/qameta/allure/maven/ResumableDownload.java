@@ -0,0 +1,417 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.settings.Proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Download that survives dropped connections. Downloaded bytes are appended to a partial file in
+ * the install directory while they are handed to the reader. A dropped connection is resumed
+ * from the current offset with a {@code Range} request after an exponential backoff with jitter,
+ * and a later build replays the partial file before continuing from the network. Callers verify
+ * the complete content (checksum or archive structure) and delete the partial file afterwards.
+ * When {@value SegmentedDownload#SEGMENTS} asks for more than one segment, a fresh download is
+ * fetched as concurrent byte ranges by {@link SegmentedDownload} instead.
+ */
+final class ResumableDownload {
+
+    static final String PART_SUFFIX = ".part";
+
+    static final String RETRIES = "allure.download.retries";
+
+    static final String RETRY_DELAY = "allure.download.retry.delay";
+
+    private static final int DEFAULT_RETRIES = 3;
+
+    private static final long DEFAULT_RETRY_DELAY_MILLIS = 500;
+
+    private static final long MAX_RETRY_DELAY_MILLIS = 10_000;
+
+    private ResumableDownload() {
+        throw new IllegalStateException("Do not instance");
+    }
+
+    /**
+     * Passes the complete content of the URL to the reader, starting with any bytes already held
+     * by {@code partFile}. When retries are exhausted an {@link InterruptedDownloadException} is
+     * thrown and the partial file is kept; any other failure discards it.
+     */
+    static <T> T read(final URL url, final Path partFile, final Proxy mavenProxy,
+                      final Properties downloadProperties, final Log log,
+                      final AllureDownloadUtils.StreamReader<T> reader)
+            throws IOException {
+        Files.createDirectories(partFile.toAbsolutePath().getParent());
+        final int retries = (int) getLongProperty(downloadProperties, RETRIES, DEFAULT_RETRIES);
+        final long retryDelay = getLongProperty(
+                downloadProperties, RETRY_DELAY, DEFAULT_RETRY_DELAY_MILLIS
+        );
+        final long segments = getLongProperty(downloadProperties, SegmentedDownload.SEGMENTS, 1);
+        if (segments > 1 && AllureDownloadUtils.isHttp(url) && Files.notExists(partFile)
+                && SegmentedDownload.download(
+                        url, partFile, mavenProxy, downloadProperties, log, (int) segments,
+                        retries, retryDelay
+                )) {
+            try (InputStream input = Files.newInputStream(partFile)) {
+                return reader.read(input);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(partFile);
+                throw e;
+            }
+        }
+        try (ResumableInputStream input = new ResumableInputStream(
+                url, partFile, mavenProxy, downloadProperties, log, retries, retryDelay
+        )) {
+            return reader.read(input);
+        } catch (InterruptedDownloadException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(partFile);
+            throw e;
+        }
+    }
+
+    static long getLongProperty(final Properties properties, final String name,
+                                final long defaultValue)
+            throws IOException {
+        final String value = properties.getProperty(name);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        final String message = String.format(
+                "Invalid %s value '%s'. Expected a non-negative number.", name, value
+        );
+        final long parsed;
+        try {
+            parsed = Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException(message, e);
+        }
+        if (parsed < 0) {
+            throw new IOException(message);
+        }
+        return parsed;
+    }
+
+    /**
+     * Rejects error responses. Server errors and {@code 429} may be retried, other statuses fail
+     * the download immediately.
+     */
+    static void checkStatus(final URL url, final CloseableHttpResponse response)
+            throws IOException {
+        final int code = response.getCode();
+        if (code < HttpStatus.SC_REDIRECTION) {
+            return;
+        }
+        final String message = String.format(
+                "Unable to download %s: HTTP %d %s", url, code,
+                StringUtils.defaultString(response.getReasonPhrase())
+        );
+        if (code >= HttpStatus.SC_SERVER_ERROR || code == HttpStatus.SC_TOO_MANY_REQUESTS) {
+            throw new IOException(message);
+        }
+        throw new NonRetryableException(message);
+    }
+
+    static void checkContentRange(final URL url, final CloseableHttpResponse response,
+                                  final long offset)
+            throws IOException {
+        final Header contentRange = response.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+        final String expected = "bytes " + offset + "-";
+        if (response.getCode() != HttpStatus.SC_PARTIAL_CONTENT || contentRange == null
+                || !contentRange.getValue().startsWith(expected)) {
+            throw new NonRetryableException(
+                    String.format(
+                            "Unexpected Content-Range '%s' for %s, expected %s...",
+                            contentRange == null ? "" : contentRange.getValue(), url, expected
+                    )
+            );
+        }
+    }
+
+    /**
+     * Sleeps before the next attempt. The delay doubles with every consecutive failure up to a
+     * ceiling, and a random half of it is jittered so parallel builds do not retry in lockstep.
+     */
+    static void backoff(final URL url, final long position, final int failures,
+                        final int retries, final long retryDelay, final IOException cause,
+                        final Log log)
+            throws IOException {
+        final long ceiling = Math.min(
+                MAX_RETRY_DELAY_MILLIS, retryDelay << Math.min(failures - 1, 20)
+        );
+        final long delay = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        if (log != null) {
+            log.warn(String.format(
+                    "Download of %s interrupted at byte %d (%s). Retrying in %d ms "
+                            + "(attempt %d of %d).",
+                    url, position, cause.getMessage(), delay, failures, retries
+            ));
+        }
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to resume " + url, e);
+        }
+    }
+
+    /**
+     * Thrown when a download kept failing after all retries. The partial file is kept so the next
+     * attempt resumes where this one stopped.
+     */
+    static final class InterruptedDownloadException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        InterruptedDownloadException(final String message, final Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * Response that must not be retried, such as {@code 404} or a mismatching content range.
+     */
+    static final class NonRetryableException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        NonRetryableException(final String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Stream over the partial file followed by the remaining bytes from the network.
+     */
+    private static final class ResumableInputStream extends InputStream {
+
+        private final URL url;
+
+        private final Path partFile;
+
+        private final Proxy mavenProxy;
+
+        private final Properties downloadProperties;
+
+        private final Log log;
+
+        private final int retries;
+
+        private final long retryDelay;
+
+        private final OutputStream part;
+
+        private InputStream replay;
+
+        private CloseableHttpResponse response;
+
+        private InputStream network;
+
+        private long position;
+
+        private int failures;
+
+        private boolean finished;
+
+        ResumableInputStream(final URL url, final Path partFile, final Proxy mavenProxy,
+                             final Properties downloadProperties, final Log log,
+                             final int retries, final long retryDelay)
+                throws IOException {
+            this.url = url;
+            this.partFile = partFile;
+            this.mavenProxy = mavenProxy;
+            this.downloadProperties = downloadProperties;
+            this.log = log;
+            this.retries = retries;
+            this.retryDelay = retryDelay;
+            if (Files.isRegularFile(partFile) && Files.size(partFile) > 0) {
+                this.replay = Files.newInputStream(partFile);
+                debug(String.format(
+                        "Resuming download of %s from %d bytes in %s", url, Files.size(partFile),
+                        partFile
+                ));
+            }
+            this.part = Files.newOutputStream(
+                    partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND
+            );
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] single = new byte[1];
+            final int read = read(single, 0, 1);
+            return read < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length)
+                throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (replay != null) {
+                final int read = replay.read(buffer, offset, length);
+                if (read >= 0) {
+                    position += read;
+                    return read;
+                }
+                replay.close();
+                replay = null;
+            }
+            while (!finished) {
+                final int read = readNetwork(buffer, offset, length);
+                if (read > 0) {
+                    part.write(buffer, offset, read);
+                    position += read;
+                    return read;
+                }
+                if (read < 0) {
+                    finished = true;
+                    closeNetwork();
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (replay != null) {
+                    replay.close();
+                }
+                closeNetwork();
+            } finally {
+                part.close();
+            }
+        }
+
+        private int readNetwork(final byte[] buffer, final int offset, final int length)
+                throws IOException {
+            try {
+                if (network == null) {
+                    network = openAt(position);
+                }
+                final int read = network.read(buffer, offset, length);
+                if (read > 0) {
+                    failures = 0;
+                }
+                return read;
+            } catch (NonRetryableException e) {
+                closeNetwork();
+                throw e;
+            } catch (IOException e) {
+                closeNetworkQuietly();
+                failures++;
+                if (failures > retries) {
+                    throw new InterruptedDownloadException(
+                            String.format(
+                                    "Download of %s failed after %d bytes. The partial file %s "
+                                            + "is kept and resumed by the next attempt.",
+                                    url, position, partFile
+                            ),
+                            e
+                    );
+                }
+                backoff(url, position, failures, retries, retryDelay, e, log);
+                return 0;
+            }
+        }
+
+        private InputStream openAt(final long offset) throws IOException {
+            if (!AllureDownloadUtils.isHttp(url)) {
+                final InputStream stream = url.openStream();
+                IOUtils.skipFully(stream, offset);
+                return stream;
+            }
+
+            response = AllureHttpClients.open(url, mavenProxy, downloadProperties, offset, -1);
+            final int code = response.getCode();
+            if (offset > 0 && code == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+                debug(String.format("%s already holds the complete download", partFile));
+                return nullInputStream();
+            }
+            checkStatus(url, response);
+            final HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                throw new IOException("Empty response for " + url);
+            }
+            final InputStream content = entity.getContent();
+            if (offset > 0 && code == HttpStatus.SC_PARTIAL_CONTENT) {
+                checkContentRange(url, response, offset);
+            } else if (offset > 0) {
+                debug(String.format(
+                        "%s does not support range requests, skipping %d bytes", url, offset
+                ));
+                IOUtils.skipFully(content, offset);
+            }
+            return content;
+        }
+
+        /**
+         * Releases the current response. An unfinished transfer is aborted instead of being
+         * drained, so a failed reader does not pull the rest of a large archive.
+         */
+        private void closeNetwork() throws IOException {
+            final InputStream stream = network;
+            final CloseableHttpResponse current = response;
+            network = null;
+            response = null;
+            if (current == null) {
+                if (stream != null) {
+                    stream.close();
+                }
+            } else if (finished) {
+                current.close();
+            } else {
+                current.close(CloseMode.IMMEDIATE);
+            }
+        }
+
+        private void closeNetworkQuietly() {
+            try {
+                closeNetwork();
+            } catch (IOException ignored) {
+                // the connection is already broken
+            }
+        }
+
+        private void debug(final String message) {
+            if (log != null && log.isDebugEnabled()) {
+                log.debug(message);
+            }
+        }
+    }
+}
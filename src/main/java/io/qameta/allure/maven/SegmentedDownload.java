@@ -0,0 +1,245 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.settings.Proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads a file as several byte ranges fetched concurrently into a preallocated partial file.
+ * A single TCP stream to a distant proxy often cannot use the available bandwidth; parallel
+ * ranges can. Only used when the server advertises {@code Accept-Ranges: bytes} and a content
+ * length, otherwise callers fall back to a single resumable stream.
+ */
+final class SegmentedDownload {
+
+    static final String SEGMENTS = "allure.download.segments";
+
+    static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final URL url;
+
+    private final Path partFile;
+
+    private final Proxy mavenProxy;
+
+    private final Properties downloadProperties;
+
+    private final Log log;
+
+    private final int retries;
+
+    private final long retryDelay;
+
+    private SegmentedDownload(final URL url, final Path partFile, final Proxy mavenProxy,
+                              final Properties downloadProperties, final Log log,
+                              final int retries, final long retryDelay) {
+        this.url = url;
+        this.partFile = partFile;
+        this.mavenProxy = mavenProxy;
+        this.downloadProperties = downloadProperties;
+        this.log = log;
+        this.retries = retries;
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * Downloads the URL into {@code partFile} with up to {@code segments} concurrent range
+     * requests. Returns {@code false} without touching the file when the server does not serve
+     * ranges or the file is too small to split. A failed segment discards the partial file,
+     * because its holes cannot be resumed by a single stream.
+     */
+    static boolean download(final URL url, final Path partFile, final Proxy mavenProxy,
+                            final Properties downloadProperties, final Log log,
+                            final int segments, final int retries, final long retryDelay)
+            throws IOException {
+        final long length = AllureHttpClients.getRangeableLength(url, mavenProxy, downloadProperties);
+        final int count = (int) Math.min(
+                Math.min(segments, AllureHttpClients.MAX_CONNECTIONS_PER_ROUTE),
+                Math.max(length, 0) / MIN_SEGMENT_SIZE
+        );
+        if (count < 2) {
+            if (log != null && log.isDebugEnabled()) {
+                log.debug(String.format(
+                        "%s is not split into segments (length %d), using a single stream",
+                        url, length
+                ));
+            }
+            return false;
+        }
+        new SegmentedDownload(
+                url, partFile, mavenProxy, downloadProperties, log, retries, retryDelay
+        ).download(length, count);
+        return true;
+    }
+
+    private void download(final long length, final int count) throws IOException {
+        if (log != null && log.isDebugEnabled()) {
+            log.debug(String.format(
+                    "Downloading %s (%d bytes) in %d segments", url, length, count
+            ));
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(count, runnable -> {
+            final Thread thread = new Thread(runnable, "allure-download-segment");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (FileChannel channel = FileChannel.open(
+                partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING
+        )) {
+            channel.write(ByteBuffer.allocate(1), length - 1);
+            final long segmentSize = (length + count - 1) / count;
+            final List<Future<?>> futures = new ArrayList<>();
+            for (long start = 0; start < length; start += segmentSize) {
+                final long from = start;
+                final long to = Math.min(length, start + segmentSize) - 1;
+                futures.add(executor.submit(() -> {
+                    fetch(channel, from, to);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                await(future);
+            }
+        } catch (IOException | RuntimeException e) {
+            executor.shutdownNow();
+            Files.deleteIfExists(partFile);
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void fetch(final FileChannel channel, final long start, final long end)
+            throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        final SegmentProgress progress = new SegmentProgress(start);
+        int failures = 0;
+        while (progress.position <= end) {
+            final long before = progress.position;
+            try {
+                fetchRange(channel, buffer, progress, end);
+            } catch (ResumableDownload.NonRetryableException e) {
+                throw e;
+            } catch (IOException e) {
+                failures = before == progress.position ? failures + 1 : 1;
+                if (failures > retries) {
+                    throw new IOException(
+                            String.format(
+                                    "Segment %d-%d of %s failed at byte %d", start, end, url,
+                                    progress.position
+                            ),
+                            e
+                    );
+                }
+                ResumableDownload.backoff(
+                        url, progress.position, failures, retries, retryDelay, e, log
+                );
+            }
+        }
+    }
+
+    /**
+     * Fetches {@code [progress.position, end]} and writes it at the same offsets of the channel,
+     * advancing the progress as bytes arrive so a retry only requests what is still missing.
+     */
+    private void fetchRange(final FileChannel channel, final byte[] buffer,
+                            final SegmentProgress progress, final long end)
+            throws IOException {
+        final CloseableHttpResponse response = AllureHttpClients.open(
+                url, mavenProxy, downloadProperties, progress.position, end
+        );
+        boolean complete = false;
+        try {
+            ResumableDownload.checkStatus(url, response);
+            ResumableDownload.checkContentRange(url, response, progress.position);
+            final HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                throw new IOException("Empty response for " + url);
+            }
+            final InputStream content = entity.getContent();
+            while (progress.position <= end) {
+                final int read = content.read(
+                        buffer, 0, (int) Math.min(buffer.length, end - progress.position + 1)
+                );
+                if (read < 0) {
+                    throw new IOException("Connection closed at byte " + progress.position);
+                }
+                write(channel, buffer, read, progress.position);
+                progress.position += read;
+            }
+            complete = content.read() < 0;
+        } finally {
+            response.close(complete ? CloseMode.GRACEFUL : CloseMode.IMMEDIATE);
+        }
+    }
+
+    private static void write(final FileChannel channel, final byte[] buffer, final int length,
+                              final long position)
+            throws IOException {
+        final ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, length);
+        long offset = position;
+        while (bytes.hasRemaining()) {
+            offset += channel.write(bytes, offset);
+        }
+    }
+
+    private static void await(final Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while downloading segments", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause() == null ? e : e.getCause();
+            throw new IOException(cause.getMessage(), e);
+        }
+    }
+
+    /**
+     * Next byte of a segment still to be written.
+     */
+    private static final class SegmentProgress {
+
+        private long position;
+
+        private SegmentProgress(final long position) {
+            this.position = position;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.maven.execution.ExecutionEvent;
+import org.apache.maven.execution.ExecutionListener;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.logging.Log;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs cleanup actions when the Maven session ends. The listener wraps the execution listener of
+ * the request, which Maven looks up for every event, and forwards all events to it. Actions are
+ * registered by key, so each module of a build can register the same action once. An action that
+ * fails is logged and does not keep the others from running.
+ */
+final class SessionEndListener implements ExecutionListener {
+
+    private static final ReentrantLock LOCK = new ReentrantLock();
+
+    private final ExecutionListener delegate;
+
+    private final Map<String, Runnable> actions = new ConcurrentHashMap<>();
+
+    private SessionEndListener(final ExecutionListener delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Runs the action when the session ends, unless an action with the same key is already
+     * registered. Does nothing without a session.
+     */
+    static void register(final MavenSession session, final String key, final Runnable action,
+                         final Log log) {
+        if (session == null || session.getRequest() == null) {
+            return;
+        }
+        final MavenExecutionRequest request = session.getRequest();
+        LOCK.lock();
+        try {
+            final ExecutionListener current = request.getExecutionListener();
+            final SessionEndListener listener;
+            if (current instanceof SessionEndListener) {
+                listener = (SessionEndListener) current;
+            } else {
+                listener = new SessionEndListener(current);
+                request.setExecutionListener(listener);
+            }
+            listener.actions.putIfAbsent(key, () -> run(key, action, log));
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    @Override
+    public void sessionEnded(final ExecutionEvent event) {
+        try {
+            if (delegate != null) {
+                delegate.sessionEnded(event);
+            }
+        } finally {
+            actions.values().forEach(Runnable::run);
+            actions.clear();
+        }
+    }
+
+    private static void run(final String key, final Runnable action, final Log log) {
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            if (log != null) {
+                log.warn("Session end action " + key + " failed", e);
+            }
+        }
+    }
+
+    @Override
+    public void projectDiscoveryStarted(final ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.projectDiscoveryStarted(event);
+        }
+    }
+
+    @Override
+    public void sessionStarted(final ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.sessionStarted(event);
+        }
+    }
+
+    @Override
+    public void projectSkipped(final ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.projectSkipped(event);
+        }
+    }
+
+    @Override
+    public void projectStarted(final ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.projectStarted(event);
+        }
+    }
+
+    @Override
+    public void projectSucceeded(final ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.projectSucceeded(event);
+        }
+    }
+
+    @Override
+    public void projectFailed(final ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.projectFailed(event);
+        }
+    }
+
+    @Override
+    public void mojoSkipped(final ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.mojoSkipped(event);
+        }
+    }
+
+    @Override
+    public void mojoStarted(final ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.mojoStarted(event);
+        }
+    }
+
+    @Override
+    public void mojoSucceeded(final ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.mojoSucceeded(event);
+        }
+    }
+
+    @Override
+    public void mojoFailed(final ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.mojoFailed(event);
+        }
+    }
+
+    @Override
+    public void forkStarted(final ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.forkStarted(event);
+        }
+    }
+
+    @Override
+    public void forkSucceeded(final ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.forkSucceeded(event);
+        }
+    }
+
+    @Override
+    public void forkFailed(final ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.forkFailed(event);
+        }
+    }
+
+    @Override
+    public void forkedProjectStarted(final ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.forkedProjectStarted(event);
+        }
+    }
+
+    @Override
+    public void forkedProjectSucceeded(final ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.forkedProjectSucceeded(event);
+        }
+    }
+
+    @Override
+    public void forkedProjectFailed(final ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.forkedProjectFailed(event);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Extracts a tar stream the way {@code tar} does. Symbolic and hard links are recreated as links
+ * once all files are written, falling back to copies where the file system does not support
+ * them. Unix modes are applied in one pass at the end, files first and then directories from the
+ * deepest up, so a read-only directory does not block the files below it. File contents go
+ * through one large buffer reused for every entry. Every entry, and the target of every link,
+ * must stay inside the target directory.
+ */
+final class TarExtractor {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final Path target;
+
+    private final Predicate<String> filter;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private final Map<Path, Integer> fileModes = new LinkedHashMap<>();
+
+    private final Map<Path, Integer> directoryModes = new TreeMap<>(Comparator.reverseOrder());
+
+    private final List<Link> links = new ArrayList<>();
+
+    private TarExtractor(final Path target, final Predicate<String> filter) {
+        this.target = target;
+        this.filter = filter;
+    }
+
+    /**
+     * Extracts the entries of the stream whose names the filter accepts.
+     */
+    static void extract(final TarArchiveInputStream tar, final Path targetDirectory,
+                        final Predicate<String> filter)
+            throws IOException {
+        final TarExtractor extractor = new TarExtractor(
+                targetDirectory.toAbsolutePath().normalize(), filter
+        );
+        TarArchiveEntry entry = tar.getNextEntry();
+        while (entry != null) {
+            extractor.extractEntry(tar, entry);
+            entry = tar.getNextEntry();
+        }
+        extractor.finish();
+    }
+
+    private void extractEntry(final TarArchiveInputStream tar, final TarArchiveEntry entry)
+            throws IOException {
+        final Path path = resolve(target, entry.getName(), entry.getName());
+        if (!filter.test(entry.getName())) {
+            return;
+        }
+        if (entry.isDirectory()) {
+            Files.createDirectories(path);
+            directoryModes.put(path, entry.getMode());
+        } else if (entry.isSymbolicLink()) {
+            links.add(new Link(path, resolve(path.getParent(), entry.getLinkName(), entry.getName()),
+                    entry.getLinkName(), true));
+        } else if (entry.isLink()) {
+            links.add(new Link(path, resolve(target, entry.getLinkName(), entry.getName()),
+                    entry.getLinkName(), false));
+        } else if (entry.isFile()) {
+            Files.createDirectories(path.getParent());
+            write(tar, path);
+            fileModes.put(path, entry.getMode());
+        }
+    }
+
+    private void write(final TarArchiveInputStream tar, final Path path) throws IOException {
+        try (OutputStream output = Files.newOutputStream(path)) {
+            int bytesRead = tar.read(buffer);
+            while (bytesRead >= 0) {
+                output.write(buffer, 0, bytesRead);
+                bytesRead = tar.read(buffer);
+            }
+        }
+    }
+
+    private void finish() throws IOException {
+        for (Link link : links) {
+            Files.createDirectories(link.path.getParent());
+            Files.deleteIfExists(link.path);
+            createLink(link);
+        }
+        for (Map.Entry<Path, Integer> file : fileModes.entrySet()) {
+            AllureInstallUtils.setMode(file.getKey(), file.getValue());
+        }
+        for (Map.Entry<Path, Integer> directory : directoryModes.entrySet()) {
+            AllureInstallUtils.setMode(directory.getKey(), directory.getValue());
+        }
+    }
+
+    private static void createLink(final Link link) throws IOException {
+        try {
+            if (link.symbolic) {
+                Files.createSymbolicLink(link.path, link.path.getFileSystem().getPath(link.name));
+            } else {
+                Files.createLink(link.path, link.source);
+            }
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            copy(link);
+        }
+    }
+
+    /**
+     * Copies the link source instead, for file systems or users that cannot create links.
+     */
+    private static void copy(final Link link) throws IOException {
+        if (Files.isDirectory(link.source)) {
+            FileUtils.copyDirectory(link.source.toFile(), link.path.toFile());
+        } else if (Files.exists(link.source)) {
+            Files.copy(link.source, link.path, StandardCopyOption.COPY_ATTRIBUTES);
+        } else {
+            throw new IOException("Cannot link " + link.path + " to missing " + link.source);
+        }
+    }
+
+    /**
+     * Resolves an entry name or a link target against the directory, refusing anything that
+     * ends up outside the target directory.
+     */
+    private Path resolve(final Path directory, final String name, final String entryName)
+            throws IOException {
+        final Path path = directory.resolve(name).normalize();
+        if (!path.startsWith(target)) {
+            throw new IOException(
+                    "Refusing to unpack archive entry outside " + target + ": " + entryName
+            );
+        }
+        return path;
+    }
+
+    /**
+     * A link entry, created once all files are written.
+     */
+    private static final class Link {
+
+        private final Path path;
+
+        private final Path source;
+
+        private final String name;
+
+        private final boolean symbolic;
+
+        private Link(final Path path, final Path source, final String name, final boolean symbolic) {
+            this.path = path;
+            this.source = source;
+            this.name = name;
+            this.symbolic = symbolic;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+/**
+ * Extracts ZIP archives on a bounded pool of threads. The archive directory is read once to check
+ * that every entry stays inside the target directory, to drop the entries a filter rejects and to
+ * create the directories, before any file is written. The files are then split into buckets of
+ * about the same uncompressed size, and each thread reads its bucket through its own random-access
+ * {@link ZipFile}. Unix modes recorded in the archive are restored, and symbolic links are skipped.
+ */
+final class ZipExtractor {
+
+    private static final int MAX_THREADS = 8;
+
+    private ZipExtractor() {
+        throw new IllegalStateException("Do not instance");
+    }
+
+    /**
+     * Extracts the archive into the directory, replacing existing files.
+     */
+    static void extract(final Path archive, final Path targetDirectory) throws IOException {
+        extract(archive, targetDirectory, name -> true);
+    }
+
+    /**
+     * Extracts the entries of the archive whose names the filter accepts.
+     */
+    static void extract(final Path archive, final Path targetDirectory,
+                        final Predicate<String> filter)
+            throws IOException {
+        extract(archive, targetDirectory, filter,
+                Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Extracts the accepted entries with at most the given number of threads.
+     */
+    static void extract(final Path archive, final Path targetDirectory,
+                        final Predicate<String> filter, final int maxThreads)
+            throws IOException {
+        final Path target = targetDirectory.toAbsolutePath().normalize();
+        final List<ZipArchiveEntry> files = new ArrayList<>();
+        final Set<Path> directories = new TreeSet<>();
+        directories.add(target);
+        try (ZipFile zip = open(archive)) {
+            final Enumeration<ZipArchiveEntry> entries = zip.getEntries();
+            while (entries.hasMoreElements()) {
+                final ZipArchiveEntry entry = entries.nextElement();
+                final Path path = resolve(target, entry);
+                if (!filter.test(entry.getName())) {
+                    continue;
+                }
+                if (entry.isDirectory()) {
+                    directories.add(path);
+                } else if (!entry.isUnixSymlink()) {
+                    directories.add(path.getParent());
+                    files.add(entry);
+                }
+            }
+        }
+        for (Path directory : directories) {
+            Files.createDirectories(directory);
+        }
+        final List<List<ZipArchiveEntry>> buckets = split(files, Math.max(1, Math.min(files.size(), maxThreads)));
+        if (buckets.size() == 1) {
+            extractAll(archive, target, buckets.get(0));
+            return;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(buckets.size(), runnable -> {
+            final Thread thread = new Thread(runnable, "allure-zip-extract");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            final List<Future<?>> tasks = new ArrayList<>();
+            for (List<ZipArchiveEntry> bucket : buckets) {
+                tasks.add(executor.submit(() -> {
+                    extractAll(archive, target, bucket);
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                join(task);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Deals the files, largest first, to the bucket with the least bytes so far.
+     */
+    private static List<List<ZipArchiveEntry>> split(final List<ZipArchiveEntry> files,
+                                                     final int count) {
+        final List<List<ZipArchiveEntry>> buckets = new ArrayList<>();
+        final long[] sizes = new long[count];
+        for (int i = 0; i < count; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        final List<ZipArchiveEntry> sorted = new ArrayList<>(files);
+        sorted.sort(Comparator.comparingLong(ZipExtractor::getSize).reversed());
+        for (ZipArchiveEntry entry : sorted) {
+            int lightest = 0;
+            for (int i = 1; i < count; i++) {
+                if (sizes[i] < sizes[lightest]) {
+                    lightest = i;
+                }
+            }
+            buckets.get(lightest).add(entry);
+            sizes[lightest] += getSize(entry);
+        }
+        return buckets;
+    }
+
+    private static void extractAll(final Path archive, final Path target,
+                                   final List<ZipArchiveEntry> bucket)
+            throws IOException {
+        try (ZipFile zip = open(archive)) {
+            for (ZipArchiveEntry listed : bucket) {
+                final ZipArchiveEntry entry = zip.getEntry(listed.getName());
+                final Path path = target.resolve(entry.getName()).normalize();
+                try (InputStream input = zip.getInputStream(entry)) {
+                    Files.copy(input, path, StandardCopyOption.REPLACE_EXISTING);
+                }
+                AllureInstallUtils.setMode(path, entry.getUnixMode());
+            }
+        }
+    }
+
+    private static Path resolve(final Path target, final ZipArchiveEntry entry) throws IOException {
+        final Path path = target.resolve(entry.getName()).normalize();
+        if (!path.startsWith(target) || path.equals(target) && !entry.isDirectory()) {
+            throw new IOException(
+                    "Refusing to unpack archive entry outside " + target + ": " + entry.getName()
+            );
+        }
+        return path;
+    }
+
+    private static long getSize(final ZipArchiveEntry entry) {
+        return Math.max(0, entry.getSize());
+    }
+
+    private static ZipFile open(final Path archive) throws IOException {
+        return ZipFile.builder().setPath(archive).get();
+    }
+
+    private static void join(final Future<?> task) throws IOException {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while extracting archive", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e);
+        }
+    }
+}
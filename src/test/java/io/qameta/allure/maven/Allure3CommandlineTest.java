@@ -26,13 +26,21 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import static io.qameta.allure.Allure.addAttachment;
 import static io.qameta.allure.Allure.step;
@@ -68,14 +76,21 @@ class Allure3CommandlineTest {
             step("Verify npm arguments and installed binaries", () -> {
                 final List<String> args = Files.readAllLines(capturedArgs, StandardCharsets.UTF_8);
                 addAttachment("Captured npm arguments", String.join(System.lineSeparator(), args));
+                assertThat(args).hasSize(12);
+                assertThat(args.get(2)).startsWith(
+                        "arg=" + commandline.getAllureHome().toAbsolutePath().getParent()
+                                .resolve(".allure-3.4.1.staging-")
+                );
                 assertThat(args).isEqualTo(
                         Arrays.asList(
                                 "cli=" + commandline.getNpmCliPath().toAbsolutePath(), "arg=--prefix",
-                                "arg=" + commandline.getAllureHome().toAbsolutePath(), "arg=install",
-                                "arg=--no-package-lock", "arg=--no-save", "arg=--ignore-scripts",
-                                "arg=allure@3.4.1", "arg=--registry", "arg=https://registry.npmjs.org"
+                                args.get(2), "arg=install", "arg=--ignore-scripts",
+                                "arg=--registry", "arg=https://registry.npmjs.org",
+                                "arg=--cache", "arg=" + commandline.getNpmCacheDirectory().toAbsolutePath(),
+                                "arg=--prefer-offline", "arg=--loglevel", "arg=http"
                         )
                 );
+                assertThat(Paths.get(args.get(2).substring("arg=".length()))).doesNotExist();
                 assertThat(commandline.getAllureCliPath()).exists();
                 assertThat(commandline.getAllureExecutablePath()).exists();
             });
@@ -84,6 +99,159 @@ class Allure3CommandlineTest {
         }
     }
 
+    @Test
+    void shouldPinLockfileAndInstallWithNpmCiFromIt() throws Exception {
+        assumeFalse(isWindows());
+
+        final Path testDirectory = Files.createTempDirectory("allure3-commandline");
+        try {
+            final Path installDirectory = testDirectory.resolve("install");
+            final Path capturedArgs = testDirectory.resolve("node-args.txt");
+            Allure3SetupHelper.prepareFakeInstallRuntime(installDirectory, capturedArgs);
+            final Allure3Commandline commandline = new Allure3Commandline(
+                    installDirectory, "3.4.1", Allure3Commandline.NODE_DEFAULT_VERSION,
+                    Allure3Commandline.NODE_DEFAULT_DOWNLOAD_URL, "https://mirror.test/npm/",
+                    null, null, npmInstallerProperties(), false, 10, null
+            );
+
+            step("Install Allure 3 without a lockfile", commandline::install);
+
+            step("Verify npm install resolved the tree and its lockfile was pinned", () -> {
+                addAttachment(
+                        "Pinned lockfile",
+                        new String(Files.readAllBytes(commandline.getLockfilePath()), StandardCharsets.UTF_8)
+                );
+                assertThat(Files.readAllLines(capturedArgs)).contains("arg=install")
+                        .doesNotContain("arg=ci");
+                assertThat(commandline.getLockfilePath()).content()
+                        .contains("https://registry.npmjs.org/allure/-/allure-3.4.1.tgz")
+                        .doesNotContain("mirror.test");
+            });
+
+            FileUtils.deleteDirectory(commandline.getAllureHome().toFile());
+            Files.delete(commandline.getReceiptPath());
+
+            step("Install Allure 3 again", commandline::install);
+
+            step("Verify npm ci installed from the pinned lockfile", () -> {
+                final List<String> args = Files.readAllLines(capturedArgs);
+                addAttachment("Captured npm arguments", String.join(System.lineSeparator(), args));
+                assertThat(args).contains("arg=ci", "arg=https://mirror.test/npm/")
+                        .doesNotContain("arg=install");
+                assertThat(commandline.getAllureCliPath()).exists();
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    @Test
+    void shouldInstallAllure3WithoutNpmAndReuseThePinnedTree() throws Exception {
+        assumeFalse(isWindows());
+
+        final Path testDirectory = Files.createTempDirectory("allure3-commandline");
+        final byte[] tarball = Allure3SetupHelper.createAllurePackageTarball("3.4.1");
+        try (LocalHttpServer registry = LocalHttpServer.http()
+                .serve("/allure/-/allure-3.4.1.tgz", tarball)) {
+            registry.serve("/allure", String.format(
+                    "{\"name\":\"allure\",\"dist-tags\":{\"latest\":\"3.4.1\"},"
+                            + "\"versions\":{\"3.4.1\":{\"name\":\"allure\",\"version\":\"3.4.1\","
+                            + "\"dist\":{\"tarball\":\"%s\",\"integrity\":\"sha512-%s\"}}}}",
+                    registry.url("/allure/-/allure-3.4.1.tgz"),
+                    Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-512").digest(tarball))
+            ).getBytes(StandardCharsets.UTF_8));
+            final Path installDirectory = testDirectory.resolve("install");
+            final Path capturedArgs = testDirectory.resolve("node-args.txt");
+            Allure3SetupHelper.prepareFakeInstallRuntime(installDirectory, capturedArgs);
+            final Properties downloadProperties = new Properties();
+            downloadProperties.setProperty(NpmInstaller.INSTALLER, NpmInstaller.NATIVE);
+            final Allure3Commandline commandline = new Allure3Commandline(
+                    installDirectory, "3.4.1", Allure3Commandline.NODE_DEFAULT_VERSION,
+                    Allure3Commandline.NODE_DEFAULT_DOWNLOAD_URL, registry.baseUrl(),
+                    null, null, downloadProperties, false, 10, null
+            );
+
+            step("Install Allure 3 from the registry with the native installer", commandline::install);
+
+            step("Verify npm did not run and the tree was pinned", () -> {
+                assertThat(capturedArgs).doesNotExist();
+                assertThat(commandline.getAllureCliPath()).hasContent("console.log(\"fake allure\");");
+                assertThat(commandline.getLockfilePath()).content()
+                        .contains("https://registry.npmjs.org/allure/-/allure-3.4.1.tgz");
+            });
+
+            FileUtils.deleteDirectory(commandline.getAllureHome().toFile());
+            Files.delete(commandline.getReceiptPath());
+            final int requests = registry.getRequests().size();
+
+            step("Install Allure 3 again", commandline::install);
+
+            step("Verify only the pinned tarball was downloaded", () -> {
+                assertThat(capturedArgs).doesNotExist();
+                assertThat(commandline.getAllureCliPath()).exists();
+                assertThat(registry.getRequests().subList(requests, registry.getRequests().size()))
+                        .extracting(LocalHttpServer.RecordedRequest::getPath)
+                        .containsExactly("/allure/-/allure-3.4.1.tgz");
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    @Test
+    void shouldSkipWarmInstallByReceiptAndReinstallIncompleteTreeOnDeepVerify() throws Exception {
+        assumeFalse(isWindows());
+
+        final Path testDirectory = Files.createTempDirectory("allure3-commandline");
+        try {
+            final Path installDirectory = testDirectory.resolve("install");
+            final Path capturedArgs = testDirectory.resolve("node-args.txt");
+            Allure3SetupHelper.prepareFakeInstallRuntime(installDirectory, capturedArgs);
+
+            step("Install Allure 3 runtime", newCommandline(installDirectory, null, false, 10)::install);
+
+            final Allure3Commandline commandline = newCommandline(installDirectory, null, false, 10);
+            final Path launcher = commandline.getAllureExecutablePath();
+            final FileTime launcherWritten = FileTime.fromMillis(0);
+            Files.setLastModifiedTime(launcher, launcherWritten);
+            Files.delete(capturedArgs);
+
+            step("Install again with a warm cache", commandline::install);
+
+            step("Verify neither npm nor the launcher were touched", () -> {
+                addAttachment(
+                        "Receipt", String.join(
+                                System.lineSeparator(), Files.readAllLines(commandline.getReceiptPath())
+                        )
+                );
+                assertThat(capturedArgs).doesNotExist();
+                assertThat(Files.getLastModifiedTime(launcher)).isEqualTo(launcherWritten);
+                assertThat(commandline.getReceiptPath()).content()
+                        .contains("allure.version=3.4.1", "node.version=", "allure.files=",
+                                "launcher.sha256=" + InstallReceipt.hash(Files.readAllBytes(launcher)));
+            });
+
+            Files.delete(commandline.getAllureCliPath());
+
+            step("Verify only a deep verify notices the missing CLI", () -> {
+                assertThat(newCommandline(installDirectory, null, false, 10).allureExists()).isTrue();
+                assertThat(newCommandline(installDirectory, null, false, 10).withDeepVerify(true)
+                        .allureExists()).isFalse();
+            });
+
+            step("Install with deep verify", newCommandline(installDirectory, null, false, 10)
+                    .withDeepVerify(true)::install);
+
+            step("Verify only the Allure package was reinstalled", () -> {
+                assertThat(capturedArgs).exists();
+                assertThat(commandline.getAllureCliPath()).exists();
+                assertThat(Files.getLastModifiedTime(launcher)).isEqualTo(launcherWritten);
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
     @Test
     void shouldInstallAllure3FromLocalPackageArchiveWithoutRegistry() throws Exception {
         assumeFalse(isWindows());
@@ -125,6 +293,369 @@ class Allure3CommandlineTest {
         }
     }
 
+    @Test
+    void shouldReinstallLocalPackageArchiveOnlyWhenItChanges() throws Exception {
+        assumeFalse(isWindows());
+
+        final Path testDirectory = Files.createTempDirectory("allure3-commandline");
+        try {
+            final Path installDirectory = testDirectory.resolve("install");
+            final Path capturedArgs = testDirectory.resolve("node-args.txt");
+            final Path packageArchive = testDirectory.resolve("custom-allure.tgz");
+            Allure3SetupHelper.prepareFakeInstallRuntime(installDirectory, capturedArgs);
+            Allure3SetupHelper.prepareFakePackageArchive(packageArchive);
+
+            step("Install Allure 3 from local package archive",
+                    newCommandline(installDirectory, packageArchive, false, 10)::install);
+            Files.delete(capturedArgs);
+
+            step("Install again from the unchanged archive",
+                    newCommandline(installDirectory, packageArchive, false, 10)::install);
+
+            step("Verify npm did not run", () -> assertThat(capturedArgs).doesNotExist());
+
+            Files.write(packageArchive, "rebuilt package\n".getBytes(StandardCharsets.UTF_8));
+            final Allure3Commandline commandline = newCommandline(installDirectory, packageArchive, false, 10);
+
+            step("Verify the rebuilt archive is not reported as installed", () ->
+                    assertThat(commandline.allureExists()).isFalse());
+
+            step("Install from the rebuilt archive", commandline::install);
+
+            step("Verify npm reinstalled the archive and the receipt holds its hash", () -> {
+                addAttachment(
+                        "Receipt", String.join(
+                                System.lineSeparator(), Files.readAllLines(commandline.getReceiptPath())
+                        )
+                );
+                assertThat(capturedArgs).exists();
+                assertThat(commandline.getAllureCliPath()).exists();
+                assertThat(commandline.getReceiptPath()).content()
+                        .contains("allure.source=" + AllureChecksums.sha256(packageArchive));
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    @Test
+    void shouldShareRuntimeStoreBetweenInstallDirectories() throws Exception {
+        assumeFalse(isWindows());
+
+        final Path testDirectory = Files.createTempDirectory("allure3-commandline");
+        try {
+            final Path storeDirectory = testDirectory.resolve("store with space");
+            final Path firstProject = testDirectory.resolve("first").resolve(".allure");
+            final Path secondProject = testDirectory.resolve("second").resolve(".allure");
+            final Path capturedArgs = testDirectory.resolve("node-args.txt");
+            final Allure3Commandline first = newCommandline(firstProject, null, false, 10)
+                    .withStoreDirectory(storeDirectory);
+            final Allure3Commandline second = newCommandline(secondProject, null, false, 10)
+                    .withStoreDirectory(storeDirectory);
+
+            step("Prepare fake runtime in the shared store", () -> {
+                Allure3SetupHelper.prepareFakeInstallRuntime(storeDirectory, capturedArgs);
+                addAttachment(
+                        "Shared store setup", "storeDirectory=" + storeDirectory
+                                + System.lineSeparator() + "capturedArgs=" + capturedArgs
+                );
+            });
+
+            step("Install Allure 3 for the first project", first::install);
+
+            step("Verify the package is installed into the store", () -> {
+                final List<String> args = Files.readAllLines(capturedArgs, StandardCharsets.UTF_8);
+                addAttachment("Captured npm arguments", String.join(System.lineSeparator(), args));
+                assertThat(first.getAllureHome()).startsWith(storeDirectory);
+                assertThat(args).anyMatch(
+                        arg -> arg.startsWith("arg=" + storeDirectory.toAbsolutePath().resolve("."))
+                );
+                assertThat(first.getAllureCliPath()).exists();
+                assertThat(firstProject.resolve("allure-3.4.1")).doesNotExist();
+                assertThat(Files.readString(first.getAllureExecutablePath()))
+                        .contains(storeDirectory.toAbsolutePath().toString());
+            });
+
+            step("Install Allure 3 for the second project from the warm store", () -> {
+                Files.delete(capturedArgs);
+                second.install();
+            });
+
+            step("Verify the second project only receives a launcher", () -> {
+                assertThat(capturedArgs).doesNotExist();
+                assertThat(second.allureExists()).isTrue();
+                assertThat(second.getAllureExecutablePath()).startsWith(secondProject);
+                assertThat(Files.readString(second.getAllureExecutablePath()))
+                        .contains(second.getAllureCliPath().toAbsolutePath().toString());
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    @Test
+    void shouldInstallOnceWhenBuildsShareInstallDirectory() throws Exception {
+        assumeFalse(isWindows());
+
+        final Path testDirectory = Files.createTempDirectory("allure3-commandline");
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final Path installDirectory = testDirectory.resolve("install");
+            final Path capturedArgs = testDirectory.resolve("node-args.txt");
+
+            step("Prepare fake install runtime", () -> {
+                Allure3SetupHelper.prepareFakeInstallRuntime(installDirectory, capturedArgs);
+            });
+
+            step("Install Allure 3 from four concurrent builds", () -> {
+                final List<Future<?>> installs = new java.util.ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    installs.add(executor.submit(() -> {
+                        newCommandline(installDirectory, null, false, 10).install();
+                        return null;
+                    }));
+                }
+                for (Future<?> install : installs) {
+                    install.get(30, TimeUnit.SECONDS);
+                }
+            });
+
+            step("Verify the runtime was published once without staging leftovers", () -> {
+                final Allure3Commandline commandline = newCommandline(installDirectory, null, false, 10);
+                final List<String> leftovers;
+                try (Stream<Path> entries = Files.list(installDirectory)) {
+                    leftovers = entries.map(path -> path.getFileName().toString())
+                            .filter(name -> name.contains(".staging-"))
+                            .collect(java.util.stream.Collectors.toList());
+                }
+                addAttachment("Staging leftovers", String.join(System.lineSeparator(), leftovers));
+                assertThat(leftovers).isEmpty();
+                assertThat(commandline.allureExists()).isTrue();
+                assertThat(commandline.getAllureExecutablePath()).isExecutable();
+            });
+        } finally {
+            executor.shutdownNow();
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    @Test
+    void shouldInstallOtherVersionWhileOneVersionIsLocked() throws Exception {
+        assumeFalse(isWindows());
+
+        final Path testDirectory = Files.createTempDirectory("allure3-commandline");
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Path installDirectory = testDirectory.resolve("install");
+            final Path capturedArgs = testDirectory.resolve("node-args.txt");
+            Allure3SetupHelper.prepareFakeInstallRuntime(installDirectory, capturedArgs);
+            final Allure3Commandline locked = newCommandline(installDirectory, "3.4.0");
+            final Allure3Commandline other = newCommandline(installDirectory, "3.4.1");
+
+            step("Install allure 3.4.1 while another build installs allure 3.4.0", () -> {
+                try (InstallLock ignored = InstallLock.acquire(installDirectory, "allure-3.4.0", null)) {
+                    executor.submit(() -> {
+                        other.install();
+                        return null;
+                    }).get(30, TimeUnit.SECONDS);
+                    assertThat(other.allureExists()).isTrue();
+                    assertThat(locked.allureExists()).isFalse();
+                }
+            });
+
+            step("Install allure 3.4.0 once its lock is released", locked::install);
+
+            step("Verify both versions share the Node.js home", () -> {
+                assertThat(locked.allureExists()).isTrue();
+                assertThat(other.allureExists()).isTrue();
+                assertThat(locked.getNodeHome()).isEqualTo(other.getNodeHome());
+                try (Stream<Path> entries = Files.list(installDirectory)) {
+                    assertThat(entries.map(path -> path.getFileName().toString()))
+                            .noneMatch(name -> name.contains(".staging-"));
+                }
+            });
+        } finally {
+            executor.shutdownNow();
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    @Test
+    void shouldStreamNodeTarballIntoStagingAndVerifyChecksum() throws Exception {
+        assumeFalse(isWindows());
+
+        final Path testDirectory = Files.createTempDirectory("allure3-commandline");
+        final Path capturedArgs = testDirectory.resolve("node-args.txt");
+        final byte[] tarball = Allure3SetupHelper.createFakeNodeTarball(
+                Allure3Commandline.NODE_DEFAULT_VERSION, capturedArgs
+        );
+        try (LocalHttpServer server = startNodeDistServer(tarball, sha256(tarball))) {
+            final Path installDirectory = testDirectory.resolve("install");
+            final Allure3Commandline commandline = newNodeDistCommandline(installDirectory, server);
+            server.dropAfter(nodeArchivePath(), tarball.length / 2, 1);
+
+            step("Install Node.js from a server that drops the connection once", commandline::install);
+
+            step("Verify the streamed runtime was published and used by npm", () -> {
+                addAttachment(
+                        "Captured npm arguments",
+                        String.join(System.lineSeparator(), Files.readAllLines(capturedArgs))
+                );
+                assertThat(commandline.getNodeExecutable()).isExecutable();
+                assertThat(commandline.getNodeHome().resolve("include")).doesNotExist();
+                assertThat(InstallReceipt.read(commandline.getReceiptPath()).getSkipped("node"))
+                        .isEqualTo("include:1");
+                assertThat(commandline.getAllureCliPath()).exists();
+                assertThat(capturedArgs).exists();
+                assertThat(server.getRequests())
+                        .extracting(LocalHttpServer.RecordedRequest::getRange)
+                        .contains("bytes=" + tarball.length / 2 + "-");
+                assertThat(installDirectory.resolve(
+                        Allure3Platform.detect().getArchiveFileName(
+                                Allure3Commandline.NODE_DEFAULT_VERSION
+                        ) + ResumableDownload.PART_SUFFIX
+                )).doesNotExist();
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    @Test
+    void shouldPrefetchAllurePackagesWhileNodeDownloads() throws Exception {
+        assumeFalse(isWindows());
+
+        final Path testDirectory = Files.createTempDirectory("allure3-commandline");
+        final Path capturedArgs = testDirectory.resolve("node-args.txt");
+        final byte[] tarball = Allure3SetupHelper.createFakeNodeTarball(
+                Allure3Commandline.NODE_DEFAULT_VERSION, capturedArgs
+        );
+        final byte[] allurePackage = "allure package".getBytes(StandardCharsets.UTF_8);
+        try (LocalHttpServer server = startNodeDistServer(tarball, sha256(tarball))) {
+            server.serve("/registry/-/allure-3.4.1.tgz", allurePackage).serve(
+                    "/registry/allure", String.format(
+                            "{\"name\":\"allure\",\"dist-tags\":{\"latest\":\"3.4.1\"},"
+                                    + "\"versions\":{\"3.4.1\":{\"name\":\"allure\","
+                                    + "\"version\":\"3.4.1\",\"dist\":{\"tarball\":\"%s\"}}}}",
+                            server.url("/registry/-/allure-3.4.1.tgz")
+                    ).getBytes(StandardCharsets.UTF_8)
+            );
+            final Allure3Commandline commandline = newNodeDistCommandline(
+                    testDirectory.resolve("install"), server, server.baseUrl() + "/registry",
+                    npmInstallerProperties()
+            );
+
+            step("Install Node.js and Allure 3 from scratch", commandline::install);
+
+            step("Verify npm installed from the loopback registry", () -> {
+                final List<String> args = Files.readAllLines(capturedArgs);
+                addAttachment("Captured npm arguments", String.join(System.lineSeparator(), args));
+                assertThat(commandline.getAllureCliPath()).exists();
+                assertThat(args).contains("arg=install", "arg=--no-audit")
+                        .doesNotContain("arg=" + server.baseUrl() + "/registry");
+                assertThat(args.get(args.indexOf("arg=--registry") + 1))
+                        .matches("arg=http://127\\.0\\.0\\.1:\\d+/");
+                assertThat(server.getRequests())
+                        .extracting(LocalHttpServer.RecordedRequest::getPath)
+                        .contains("/registry/allure", "/registry/-/allure-3.4.1.tgz");
+                try (Stream<Path> entries = Files.list(testDirectory.resolve("install"))) {
+                    assertThat(entries.map(entry -> entry.getFileName().toString()))
+                            .noneMatch(name -> name.contains(".staging-"));
+                }
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    @Test
+    void shouldDiscardStreamedNodeTarballWithChecksumMismatch() throws Exception {
+        assumeFalse(isWindows());
+
+        final Path testDirectory = Files.createTempDirectory("allure3-commandline");
+        final byte[] tarball = Allure3SetupHelper.createFakeNodeTarball(
+                Allure3Commandline.NODE_DEFAULT_VERSION, testDirectory.resolve("node-args.txt")
+        );
+        try (LocalHttpServer server = startNodeDistServer(tarball, sha256(new byte[0]))) {
+            final Path installDirectory = testDirectory.resolve("install");
+            final Allure3Commandline commandline = newNodeDistCommandline(installDirectory, server);
+
+            final IOException error = step(
+                    "Install Node.js with a mismatching checksum",
+                    () -> assertThrows(IOException.class, commandline::install)
+            );
+
+            step("Verify nothing was published", () -> {
+                addAttachment("Install error", error.getMessage());
+                assertThat(error).hasMessageContaining("Checksum mismatch");
+                assertThat(commandline.getNodeHome()).doesNotExist();
+                try (Stream<Path> entries = Files.list(installDirectory)) {
+                    assertThat(entries.map(path -> path.getFileName().toString()))
+                            .containsExactlyInAnyOrder(
+                                    ".allure-install-allure-3.4.1.lock",
+                                    ".allure-install-node-v" + Allure3Commandline.NODE_DEFAULT_VERSION
+                                            + "-" + Allure3Platform.detect().getClassifier() + ".lock"
+                            );
+                }
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    @Test
+    void shouldFailOverToNextNodeMirrorAndNpmRegistry() throws Exception {
+        assumeFalse(isWindows());
+
+        final Path testDirectory = Files.createTempDirectory("allure3-commandline");
+        final Path capturedArgs = testDirectory.resolve("node-args.txt");
+        final byte[] tarball = Allure3SetupHelper.createFakeNodeTarball(
+                Allure3Commandline.NODE_DEFAULT_VERSION, capturedArgs
+        );
+        final byte[] packument = "{}".getBytes(StandardCharsets.UTF_8);
+        try (LocalHttpServer flaky = LocalHttpServer.http()
+                .serve(nodeArchivePath(), tarball)
+                .dropAfter(nodeArchivePath(), tarball.length / 2, 10)
+                .serve("/broken-registry/allure", packument);
+             LocalHttpServer healthy = startNodeDistServer(tarball, sha256(tarball))
+                     .serve("/registry/allure", packument)
+                     .delay(200)) {
+            final String nodeMirror = "/dist/v%s/node-v%s-%s.%s";
+            final Properties downloadProperties = new Properties();
+            downloadProperties.setProperty(ResumableDownload.RETRIES, "0");
+            downloadProperties.setProperty(NpmPrefetch.PREFETCH, "false");
+            final Allure3Commandline commandline = new Allure3Commandline(
+                    testDirectory.resolve("install"), "3.4.1",
+                    Allure3Commandline.NODE_DEFAULT_VERSION,
+                    flaky.baseUrl() + nodeMirror + ", " + healthy.baseUrl() + nodeMirror,
+                    flaky.baseUrl() + "/broken-registry," + healthy.baseUrl() + "/registry",
+                    null, null, downloadProperties, false, 10, null
+            ).withNodeChecksumUrl(flaky.baseUrl() + "/missing/v%s/SHASUMS256.txt");
+
+            step("Install from the faster mirrors that fail part-way", commandline::install);
+
+            step("Verify the install resumed and completed on the slower mirrors", () -> {
+                final List<String> args = Files.readAllLines(capturedArgs);
+                addAttachment("Captured npm arguments", String.join(System.lineSeparator(), args));
+                assertThat(commandline.getNodeExecutable()).isExecutable();
+                assertThat(commandline.getAllureCliPath()).exists();
+                assertThat(healthy.getRequests())
+                        .filteredOn(request -> nodeArchivePath().equals(request.getPath()))
+                        .extracting(LocalHttpServer.RecordedRequest::getRange)
+                        .contains("bytes=" + tarball.length / 2 + "-");
+                assertThat(args).contains("arg=" + healthy.baseUrl() + "/registry");
+                assertThat(flaky.getRequests())
+                        .extracting(LocalHttpServer.RecordedRequest::getPath)
+                        .contains(checksumPath());
+                assertThat(healthy.getRequests())
+                        .extracting(LocalHttpServer.RecordedRequest::getPath)
+                        .contains(checksumPath());
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
     @Test
     void shouldGenerateReportWithDirectResultsAndAwesomeConfig() throws Exception {
         assumeFalse(isWindows());
@@ -575,6 +1106,155 @@ class Allure3CommandlineTest {
         }
     }
 
+    @Test
+    void shouldInstallOfflineFromNpmCacheAndReportCacheHits() throws Exception {
+        assumeFalse(isWindows());
+
+        final Path testDirectory = Files.createTempDirectory("allure3-commandline");
+        try {
+            final Path installDirectory = testDirectory.resolve("install");
+            final Path capturedArgs = testDirectory.resolve("node-args.txt");
+            final Path npmCache = testDirectory.resolve("shared-npm-cache");
+            Allure3SetupHelper.prepareFakeInstallRuntime(installDirectory, capturedArgs);
+            final Allure3Commandline offline = newCommandline(installDirectory, null, true, 10)
+                    .withNpmCacheDirectory(npmCache);
+
+            step("Fail offline while the npm cache is empty", () -> {
+                final IOException error = assertThrows(IOException.class, offline::install);
+                addAttachment("Install error", error.getMessage());
+                assertThat(error).hasMessageContaining(npmCache.toString());
+            });
+
+            Files.createDirectories(npmCache);
+            step("Install offline from the shared npm cache", offline::install);
+
+            step("Verify npm ran offline against the cache and the hits were counted", () -> {
+                final List<String> args = Files.readAllLines(capturedArgs);
+                addAttachment("Captured npm arguments", String.join(System.lineSeparator(), args));
+                assertThat(args).containsSubsequence(
+                        "arg=--cache", "arg=" + npmCache.toAbsolutePath(), "arg=--offline"
+                ).doesNotContain("arg=--prefer-offline");
+                assertThat(offline.getAllureCliPath()).exists();
+                final NpmCacheStats stats = offline.getNpmCacheStats();
+                addAttachment("npm cache stats", stats.toString());
+                assertThat(stats.getHits()).isEqualTo(1);
+                assertThat(stats.getRevalidated()).isZero();
+                assertThat(stats.getMisses()).isEqualTo(1);
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    @Test
+    void shouldBundleRuntimeAndRestoreItInAnotherDirectory() throws Exception {
+        final Path testDirectory = Files.createTempDirectory("allure3-commandline");
+        try {
+            final Path sourceDirectory = testDirectory.resolve("source");
+            Allure3SetupHelper.prepareFakeReportRuntime(
+                    sourceDirectory, testDirectory.resolve("node-args.txt"),
+                    testDirectory.resolve("report"), false
+            );
+            final Path bundle = testDirectory.resolve("allure3-runtime.zip");
+            step("Bundle the installed runtime", () ->
+                    newCommandline(sourceDirectory, null, true, 10).createBundle(bundle));
+            FileUtils.deleteDirectory(sourceDirectory.toFile());
+
+            final Path restoredDirectory = testDirectory.resolve("restored");
+            final Allure3Commandline restored = newCommandline(restoredDirectory, null, true, 10);
+            step("Restore the bundle offline", () -> restored.installBundle(bundle));
+
+            step("Verify the runtime and a relative launcher were restored", () -> {
+                addAttachment(
+                        "Launcher", String.join(
+                                System.lineSeparator(), Files.readAllLines(restored.getAllureExecutablePath())
+                        )
+                );
+                assertThat(restored.allureExists()).isTrue();
+                assertThat(restored.getAllureCliPath()).exists();
+                assertThat(restored.getReceiptPath()).content()
+                        .contains("allure.version=3.4.1", "node.source=" + sha256(Files.readAllBytes(bundle)));
+                if (!isWindows()) {
+                    assertThat(restored.getNodeExecutable()).isExecutable();
+                    assertThat(restored.getAllureExecutablePath()).content()
+                            .contains("$INSTALL_DIR/allure-3.4.1/node_modules/allure/cli.js");
+                }
+            });
+
+            step("Verify a bundle for another Node.js version is rejected", () -> {
+                final Allure3Commandline otherNode = new Allure3Commandline(
+                        testDirectory.resolve("other"), "3.4.1", "22.0.0",
+                        Allure3Commandline.NODE_DEFAULT_DOWNLOAD_URL,
+                        Allure3Commandline.NPM_DEFAULT_REGISTRY, null, null, new Properties(), true, 10
+                );
+                final IOException error = assertThrows(IOException.class, () -> otherNode.installBundle(bundle));
+                assertThat(error).hasMessageContaining("Node.js 22.0.0");
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    @Test
+    void shouldReuseToolchainNodeAndCacheItsProbeByModificationTime() throws Exception {
+        assumeFalse(isWindows());
+
+        final Path testDirectory = Files.createTempDirectory("allure3-commandline");
+        try {
+            final Path toolchainHome = testDirectory.resolve("toolchain-node");
+            final Path probes = testDirectory.resolve("probes.txt");
+            final Path toolchainNode = toolchainHome.resolve("bin").resolve("node");
+            Files.createDirectories(toolchainNode.getParent());
+            writeFakeNode(toolchainNode, probes, "v24.0.0");
+            final FileTime written = Files.getLastModifiedTime(toolchainNode);
+
+            final Path installDirectory = testDirectory.resolve("install");
+            final Path allureCli = installDirectory.resolve("allure-3.4.1/node_modules/allure/cli.js");
+            Files.createDirectories(allureCli.getParent());
+            Files.write(allureCli, "console.log(\"fake allure\");\n".getBytes(StandardCharsets.UTF_8));
+
+            final Allure3Commandline commandline = newCommandline(installDirectory, null, true, 10)
+                    .withNodeDiscovery(Collections.singletonList(toolchainHome));
+            step("Install offline with Node.js discovery", commandline::install);
+
+            step("Verify the toolchain Node.js is used and nothing was downloaded", () -> {
+                addAttachment(
+                        "Launcher", String.join(
+                                System.lineSeparator(), Files.readAllLines(commandline.getAllureExecutablePath())
+                        )
+                );
+                assertThat(commandline.getSystemNode()).isEqualTo(toolchainNode.toRealPath());
+                assertThat(commandline.getAllureExecutablePath()).content()
+                        .contains(toolchainHome.toRealPath() + "/bin/node");
+                assertThat(installDirectory.resolve(
+                        "node-v" + Allure3Commandline.NODE_DEFAULT_VERSION + "-" + commandline.getBundleClassifier()
+                )).doesNotExist();
+                assertThat(Files.readAllLines(probes)).hasSize(1);
+            });
+
+            writeFakeNode(toolchainNode, probes, "v22.0.0");
+            Files.setLastModifiedTime(toolchainNode, written);
+
+            step("Verify an unchanged executable is not probed again", () -> {
+                assertThat(newCommandline(installDirectory, null, true, 10)
+                        .withNodeDiscovery(Collections.singletonList(toolchainHome)).getSystemNode())
+                        .isEqualTo(toolchainNode.toRealPath());
+                assertThat(Files.readAllLines(probes)).hasSize(1);
+            });
+
+            Files.setLastModifiedTime(toolchainNode, FileTime.fromMillis(written.toMillis() + 1000));
+
+            step("Verify a modified executable is probed again and rejected", () -> {
+                assertThat(newCommandline(installDirectory, null, true, 10)
+                        .withNodeDiscovery(Collections.singletonList(toolchainHome)).getSystemNode())
+                        .isNotEqualTo(toolchainNode.toRealPath());
+                assertThat(Files.readAllLines(probes)).hasSize(2);
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
     @Test
     void shouldFailOfflineWhenPrivateNodeIsMissing() throws Exception {
         final Path testDirectory = Files.createTempDirectory("allure3-commandline");
@@ -600,11 +1280,82 @@ class Allure3CommandlineTest {
                 installDirectory, "3.4.1",
                 Allure3Commandline.NODE_DEFAULT_VERSION,
                 Allure3Commandline.NODE_DEFAULT_DOWNLOAD_URL,
-                Allure3Commandline.NPM_DEFAULT_REGISTRY, packageArchive, null, new Properties(),
+                Allure3Commandline.NPM_DEFAULT_REGISTRY, packageArchive, null, npmInstallerProperties(),
                 offline, timeout, log
         );
     }
 
+    private static Allure3Commandline newCommandline(final Path installDirectory,
+                                                     final String allureVersion) {
+        return new Allure3Commandline(
+                installDirectory, allureVersion,
+                Allure3Commandline.NODE_DEFAULT_VERSION,
+                Allure3Commandline.NODE_DEFAULT_DOWNLOAD_URL,
+                Allure3Commandline.NPM_DEFAULT_REGISTRY, null, null, npmInstallerProperties(),
+                false, 10, null
+        );
+    }
+
+    private static Properties npmInstallerProperties() {
+        final Properties downloadProperties = new Properties();
+        downloadProperties.setProperty(NpmInstaller.INSTALLER, "npm");
+        return downloadProperties;
+    }
+
+    private static Allure3Commandline newNodeDistCommandline(final Path installDirectory,
+                                                             final LocalHttpServer server) {
+        final Properties downloadProperties = new Properties();
+        downloadProperties.setProperty(NpmPrefetch.PREFETCH, "false");
+        return newNodeDistCommandline(
+                installDirectory, server, Allure3Commandline.NPM_DEFAULT_REGISTRY, downloadProperties
+        );
+    }
+
+    private static Allure3Commandline newNodeDistCommandline(final Path installDirectory,
+                                                             final LocalHttpServer server,
+                                                             final String npmRegistry,
+                                                             final Properties downloadProperties) {
+        final String distUrl = server.baseUrl() + "/dist/v%s/";
+        return new Allure3Commandline(
+                installDirectory, "3.4.1",
+                Allure3Commandline.NODE_DEFAULT_VERSION, distUrl + "node-v%s-%s.%s",
+                npmRegistry, null, null, downloadProperties, false, 10, null
+        ).withNodeChecksumUrl(distUrl + "SHASUMS256.txt");
+    }
+
+    private static String checksumPath() {
+        return "/dist/v" + Allure3Commandline.NODE_DEFAULT_VERSION + "/SHASUMS256.txt";
+    }
+
+    private static String nodeArchivePath() {
+        final String nodeVersion = Allure3Commandline.NODE_DEFAULT_VERSION;
+        return "/dist/v" + nodeVersion + "/" + Allure3Platform.detect().getArchiveFileName(nodeVersion);
+    }
+
+    private static LocalHttpServer startNodeDistServer(final byte[] tarball, final String checksum)
+            throws IOException {
+        final String nodeVersion = Allure3Commandline.NODE_DEFAULT_VERSION;
+        final String archiveFileName = Allure3Platform.detect().getArchiveFileName(nodeVersion);
+        final String distPath = "/dist/v" + nodeVersion + "/";
+        return LocalHttpServer.http()
+                .serve(nodeArchivePath(), tarball)
+                .serveCompressible(
+                        distPath + "SHASUMS256.txt",
+                        (checksum + "  " + archiveFileName + "\n").getBytes(StandardCharsets.UTF_8)
+                );
+    }
+
+    private static void writeFakeNode(final Path node, final Path probes, final String version)
+            throws IOException {
+        Files.write(node, ("#!/bin/sh\necho probe >> \"" + probes + "\"\necho " + version + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+        node.toFile().setExecutable(true);
+    }
+
+    private static String sha256(final byte[] content) throws IOException {
+        return AllureChecksums.toHex(AllureChecksums.newSha256().digest(content));
+    }
+
     private static boolean isWindows() {
         return System.getProperty("os.name").toLowerCase().contains("win");
     }
@@ -65,4 +65,42 @@ class Allure3PlatformTest {
         assertThat(platform.getAllureExecutable(Paths.get("C:\\allure")))
                 .isEqualTo(Paths.get("C:\\allure", "bin", "allure.bat"));
     }
+
+    @Test
+    void shouldExtractOnlyNodeAndNpmFromTheLinuxDistribution() {
+        final NodeDistributionFilter filter = new NodeDistributionFilter(
+                Allure3Platform.detect("Linux", "amd64").getNodeDistributionManifest()
+        );
+        final String home = "node-v24.14.1-linux-x64/";
+
+        assertThat(filter.test(home)).isTrue();
+        assertThat(filter.test(home + "bin/")).isTrue();
+        assertThat(filter.test(home + "bin/node")).isTrue();
+        assertThat(filter.test(home + "lib/")).isTrue();
+        assertThat(filter.test(home + "lib/node_modules/npm/bin/npm-cli.js")).isTrue();
+        assertThat(filter.test(home + "bin/corepack")).isFalse();
+        assertThat(filter.test(home + "include/node/node.h")).isFalse();
+        assertThat(filter.test(home + "include/node/v8.h")).isFalse();
+        assertThat(filter.test(home + "lib/node_modules/corepack/")).isFalse();
+        assertThat(filter.test(home + "lib/node_modules/corepack/package.json")).isFalse();
+        assertThat(filter.test(home + "share/man/man1/node.1")).isFalse();
+        assertThat(filter.getSkipped())
+                .isEqualTo("bin:1,include:2,lib/node_modules/corepack:1,share:1");
+    }
+
+    @Test
+    void shouldExtractOnlyNodeAndNpmFromTheWindowsDistribution() {
+        final NodeDistributionFilter filter = new NodeDistributionFilter(
+                Allure3Platform.detect("Windows 11", "x86_64").getNodeDistributionManifest()
+        );
+        final String home = "node-v24.14.1-win-x64/";
+
+        assertThat(filter.test(home + "node.exe")).isTrue();
+        assertThat(filter.test(home + "npm.cmd")).isTrue();
+        assertThat(filter.test(home + "node_modules/npm/bin/npm-cli.js")).isTrue();
+        assertThat(filter.test(home + "node_modules/corepack/dist/corepack.js")).isFalse();
+        assertThat(filter.test(home + "install_tools.bat")).isFalse();
+        assertThat(filter.getSkipped())
+                .isEqualTo("install_tools.bat:1,node_modules/corepack:1");
+    }
 }
@@ -15,6 +15,11 @@
  */
 package io.qameta.allure.maven;
 
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
@@ -100,6 +105,57 @@ final class Allure3SetupHelper {
         nodeExecutable.toFile().setExecutable(true);
     }
 
+    /**
+     * Creates a Node.js distribution tarball for the current platform whose {@code bin/node}
+     * behaves like the fake install runtime. Its npm fails for registries whose URL contains
+     * {@code broken-registry}.
+     */
+    static byte[] createFakeNodeTarball(final String nodeVersion, final Path captureFile)
+            throws IOException {
+        final String nodeHome = "node-v" + nodeVersion + "-" + Allure3Platform.detect().getClassifier();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+                new GzipCompressorOutputStream(output)
+        )) {
+            addTarEntry(tar, nodeHome + "/bin/node", createUnixInstallNode(captureFile));
+            addTarEntry(
+                    tar, nodeHome + "/lib/node_modules/npm/bin/npm-cli.js",
+                    "console.log(\"fake npm\");\n"
+            );
+            addTarEntry(tar, nodeHome + "/include/node/node.h", "/* header */\n");
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Creates an npm package tarball of {@code allure} with a {@code cli.js}, as served by a
+     * registry.
+     */
+    static byte[] createAllurePackageTarball(final String version) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+                new GzipCompressorOutputStream(output)
+        )) {
+            addTarEntry(
+                    tar, "package/package.json",
+                    "{\"name\":\"allure\",\"version\":\"" + version + "\"}"
+            );
+            addTarEntry(tar, "package/cli.js", "console.log(\"fake allure\");\n");
+        }
+        return output.toByteArray();
+    }
+
+    private static void addTarEntry(final TarArchiveOutputStream tar, final String name,
+                                    final String content)
+            throws IOException {
+        final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        final TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(bytes.length);
+        tar.putArchiveEntry(entry);
+        tar.write(bytes);
+        tar.closeArchiveEntry();
+    }
+
     static void prepareFakePackageArchive(final Path packageArchive) throws IOException {
         if (packageArchive.getParent() != null) {
             Files.createDirectories(packageArchive.getParent());
@@ -167,15 +223,30 @@ final class Allure3SetupHelper {
     private static String createUnixInstallNode(final Path captureFile) {
         return new StringBuilder().append("#!/bin/sh\n").append("set -eu\n").append("mkdir -p '")
                 .append(captureFile.getParent()).append("'\n").append("cli=\"$1\"\n")
-                .append("shift\n").append("prefix=''\n").append("prev=''\n").append("{\n")
+                .append("shift\n").append("prefix=''\n").append("registry=''\n").append("prev=''\n")
+                .append("broken=''\n")
+                .append("{\n")
                 .append("  printf 'cli=%s\\n' \"$cli\"\n").append("  for arg in \"$@\"; do\n")
                 .append("    printf 'arg=%s\\n' \"$arg\"\n")
                 .append("    if [ \"$prev\" = '--prefix' ]; then\n")
-                .append("      prefix=\"$arg\"\n").append("    fi\n").append("    prev=\"$arg\"\n")
+                .append("      prefix=\"$arg\"\n").append("    fi\n")
+                .append("    if [ \"$prev\" = '--registry' ]; then\n")
+                .append("      registry=\"${arg%/}\"\n").append("    fi\n")
+                .append("    case \"$arg\" in *broken-registry*) broken=1 ;; esac\n")
+                .append("    prev=\"$arg\"\n")
                 .append("  done\n").append("} > '").append(captureFile).append("'\n")
+                .append("if [ -n \"$broken\" ]; then\n").append("  exit 1\n").append("fi\n")
+                .append("echo 'npm http fetch GET 200 https://registry.test/allure 3ms (cache hit)' >&2\n")
+                .append("echo 'npm http fetch GET 200 https://registry.test/dep 9ms (cache miss)' >&2\n")
+                .append("echo 'npm warn fake install' >&2\n")
                 .append("mkdir -p \"$prefix/node_modules/allure\"\n")
                 .append("printf '%s\\n' 'console.log(\"fake allure\")' > ")
-                .append("\"$prefix/node_modules/allure/cli.js\"\n").append("exit 0\n").toString();
+                .append("\"$prefix/node_modules/allure/cli.js\"\n")
+                .append("if [ ! -f \"$prefix/package-lock.json\" ]; then\n")
+                .append("  printf '{\"lockfileVersion\":3,\"packages\":{\"node_modules/allure\":")
+                .append("{\"version\":\"3.4.1\",\"resolved\":\"%s/allure/-/allure-3.4.1.tgz\"}}}\\n' ")
+                .append("\"$registry\" > \"$prefix/package-lock.json\"\n").append("fi\n")
+                .append("exit 0\n").toString();
     }
 
     private static String createWindowsInstallNode(final Path captureFile) throws IOException {
@@ -0,0 +1,235 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+
+import static io.qameta.allure.Allure.addAttachment;
+import static io.qameta.allure.Allure.step;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+@Tag("unit")
+@Tag("allure3")
+/**
+ * Tests for {@link Allure3Worker} against a stand-in CLI run by the Node.js on the {@code PATH}.
+ */
+class Allure3WorkerTest {
+
+    private static final String CLI = String.join(
+            "\n",
+            "import { state } from './state.mjs';",
+            "globalThis.runs = (globalThis.runs ?? 0) + 1;",
+            "const [command, output, code] = process.argv.slice(2);",
+            "if (command === 'crash') { process.kill(process.pid, 'SIGKILL'); }",
+            "const { writeFileSync } = await import('node:fs');",
+            "writeFileSync(output, `${globalThis.runs} ${state.loads} ${process.pid}`);",
+            "console.log('generated', output);",
+            "const run = async () => Number(code);",
+            "(async () => { process.exitCode = await run(); })();",
+            ""
+    );
+
+    private static final String CONFIG_CLI = String.join(
+            "\n",
+            "import { mkdirSync, writeFileSync } from 'node:fs';",
+            "import { pathToFileURL } from 'node:url';",
+            "const args = process.argv.slice(2);",
+            "const path = args[args.indexOf('--config') + 1];",
+            "const { default: config } = await import(pathToFileURL(path).href);",
+            "const language = config.plugins.awesome.options.reportLanguage;",
+            "mkdirSync(config.output, { recursive: true });",
+            "writeFileSync(`${config.output}/config.txt`, `${config.name} ${language} ${process.pid}`);",
+            "process.exitCode = 0;",
+            ""
+    );
+
+    private static final String STATE = "export const state = { loads: 0 };\nstate.loads += 1;\n";
+
+    @Test
+    void shouldRunJobsOnOneWarmWorker() throws Exception {
+        final Path node = findNode();
+        assumeTrue(node != null);
+
+        final Path directory = Files.createTempDirectory("allure-worker");
+        try {
+            final Path cli = writeCli(directory);
+            final Path first = directory.resolve("first.txt");
+            final Path second = directory.resolve("second.txt");
+
+            step("Run two jobs and a failing one", () -> {
+                assertThat(run(node, cli, "generate", first, "0", 1024)).isEqualTo(0);
+                assertThat(run(node, cli, "generate", second, "0", 1024)).isEqualTo(0);
+                assertThat(run(node, cli, "generate", directory.resolve("third.txt"), "3", 1024))
+                        .isEqualTo(3);
+            });
+
+            step("Verify the jobs shared the process and the loaded modules", () -> {
+                final String[] firstRun = Files.readString(first).split(" ");
+                final String[] secondRun = Files.readString(second).split(" ");
+                addAttachment("Runs", String.join(" ", firstRun) + "\n" + String.join(" ", secondRun));
+                assertThat(firstRun).containsExactly("1", "1", secondRun[2]);
+                assertThat(secondRun[0]).isEqualTo("2");
+                assertThat(secondRun[1]).isEqualTo("1");
+            });
+        } finally {
+            Allure3Worker.closeAll();
+            FileUtils.deleteQuietly(directory.toFile());
+        }
+    }
+
+    @Test
+    void shouldRestartWorkerAfterCrashOrMemoryCeiling() throws Exception {
+        final Path node = findNode();
+        assumeTrue(node != null);
+
+        final Path directory = Files.createTempDirectory("allure-worker");
+        try {
+            final Path cli = writeCli(directory);
+            final Path first = directory.resolve("first.txt");
+            final Path second = directory.resolve("second.txt");
+            final Path third = directory.resolve("third.txt");
+
+            step("Crash a worker and verify the caller is told to fork", () -> {
+                assertThat(run(node, cli, "generate", first, "0", 1024)).isEqualTo(0);
+                assertThat(run(node, cli, "crash", first, "0", 1024)).isNull();
+            });
+
+            step("Run jobs on a worker with a memory ceiling below its footprint", () -> {
+                assertThat(run(node, cli, "generate", second, "0", 0)).isEqualTo(0);
+                assertThat(run(node, cli, "generate", third, "0", 0)).isEqualTo(0);
+            });
+
+            step("Verify every job after the crash got a fresh worker", () -> {
+                final String firstPid = Files.readString(first).split(" ")[2];
+                final String[] secondRun = Files.readString(second).split(" ");
+                final String[] thirdRun = Files.readString(third).split(" ");
+                assertThat(secondRun[0]).isEqualTo("1");
+                assertThat(thirdRun[0]).isEqualTo("1");
+                assertThat(Arrays.asList(firstPid, secondRun[2], thirdRun[2])).doesNotHaveDuplicates();
+            });
+        } finally {
+            Allure3Worker.closeAll();
+            FileUtils.deleteQuietly(directory.toFile());
+        }
+    }
+
+    @Test
+    void shouldLoadTheConfigOfEachJobOnOneWorker() throws Exception {
+        final Path node = findNode();
+        assumeTrue(node != null);
+
+        final Path directory = Files.createTempDirectory("allure-worker");
+        try {
+            final Path installDirectory = directory.resolve("install");
+            final Path buildDirectory = directory.resolve("build");
+            final Path results = directory.resolve("results");
+            final Allure3Commandline commandline = new Allure3Commandline(
+                    installDirectory, AllureVersion.ALLURE3_DEFAULT_VERSION,
+                    Allure3Commandline.NODE_DEFAULT_VERSION,
+                    Allure3Commandline.NODE_DEFAULT_DOWNLOAD_URL,
+                    Allure3Commandline.NPM_DEFAULT_REGISTRY, null, null, new Properties(),
+                    true, 30, null
+            ).withWorker(true, 1024);
+            step("Install a stand-in CLI run by the Node.js on the PATH", () -> {
+                final Path nodeExecutable = Allure3Platform.detect().getNodeExecutable(
+                        installDirectory, Allure3Commandline.NODE_DEFAULT_VERSION
+                );
+                Files.createDirectories(nodeExecutable.getParent());
+                Files.createSymbolicLink(nodeExecutable, node);
+                final Path cli = installDirectory.resolve("allure-" + AllureVersion.ALLURE3_DEFAULT_VERSION)
+                        .resolve(Paths.get("node_modules", "allure", "cli.js"));
+                Files.createDirectories(cli.getParent());
+                Files.writeString(cli, CONFIG_CLI, StandardCharsets.UTF_8);
+                Files.createDirectories(results);
+            });
+
+            final Path first = directory.resolve("first");
+            final Path second = directory.resolve("second");
+            step("Generate two reports with different configs", () -> {
+                generate(commandline, results, first, buildDirectory, "First", directory, "en");
+                generate(commandline, results, second, buildDirectory, "Second", directory, "de");
+            });
+
+            step("Verify each job read its own config on the same worker", () -> {
+                final String[] firstRun = Files.readString(first.resolve("config.txt")).split(" ");
+                final String[] secondRun = Files.readString(second.resolve("config.txt")).split(" ");
+                addAttachment("Runs", String.join(" ", firstRun) + "\n" + String.join(" ", secondRun));
+                assertThat(firstRun).containsExactly("First", "en", secondRun[2]);
+                assertThat(secondRun).startsWith("Second", "de");
+            });
+        } finally {
+            Allure3Worker.closeAll();
+            FileUtils.deleteQuietly(directory.toFile());
+        }
+    }
+
+    private static void generate(final Allure3Commandline commandline, final Path results,
+                                 final Path report, final Path buildDirectory, final String name,
+                                 final Path directory, final String language)
+            throws Exception {
+        final Path config = directory.resolve("allurerc.mjs");
+        Files.writeString(
+                config,
+                "export default { plugins: { awesome: { options: { reportLanguage: \"" + language
+                        + "\" } } } };\n",
+                StandardCharsets.UTF_8
+        );
+        commandline.generateReport(
+                Collections.singletonList(results), report, false, buildDirectory, name, config,
+                Collections.emptyMap()
+        );
+    }
+
+    private static Integer run(final Path node, final Path cli, final String command,
+                               final Path output, final String code, final long maxMemory)
+            throws Exception {
+        return Allure3Worker.run(
+                node, cli, Arrays.asList(command, output.toString(), code), 30, maxMemory, null
+        );
+    }
+
+    private static Path writeCli(final Path directory) throws Exception {
+        final Path cli = directory.resolve("cli.mjs");
+        Files.writeString(cli, CLI, StandardCharsets.UTF_8);
+        Files.writeString(directory.resolve("state.mjs"), STATE, StandardCharsets.UTF_8);
+        return cli;
+    }
+
+    private static Path findNode() {
+        final String executable = System.getProperty("os.name").toLowerCase().contains("win")
+                ? "node.exe"
+                : "node";
+        for (String entry : System.getenv().getOrDefault("PATH", "").split(File.pathSeparator)) {
+            final Path candidate = Paths.get(entry).resolve(executable);
+            if (Files.isExecutable(candidate)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+}
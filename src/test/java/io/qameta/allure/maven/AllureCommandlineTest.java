@@ -20,18 +20,11 @@ import org.apache.maven.plugin.logging.Log;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
-import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLSocketFactory;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
-import java.net.Proxy;
 import java.net.URL;
-import java.net.URLConnection;
-import java.net.URLStreamHandler;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -50,9 +43,13 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
+import javax.tools.ToolProvider;
 
 import static io.qameta.allure.Allure.addAttachment;
 import static io.qameta.allure.Allure.step;
@@ -71,23 +68,19 @@ class AllureCommandlineTest {
 
     @Test
     void shouldApplyMavenWagonSslOverridesForHttpsDownloads() throws Exception {
-        final Path installDirectory = Files.createTempDirectory("allure-install");
-        try {
-            final String version = "2.30.0";
-            final RecordingHttpsConnection connection = new RecordingHttpsConnection(
-                    new URL("https://example.test/allure.zip"), createAllureArchive(version)
-            );
-            final URL url = new URL(
-                    null, "https://example.test/allure.zip",
-                    new RecordingUrlStreamHandler(connection)
-            );
+        final Path testDirectory = Files.createTempDirectory("allure-install");
+        final String version = "2.30.0";
+        try (LocalHttpServer server = LocalHttpServer.https(testDirectory)
+                .serve("/allure.zip", createAllureArchive(version))) {
+            final Path installDirectory = testDirectory.resolve("install");
+            final URL url = server.url("/allure.zip");
 
             final Properties downloadProperties = new Properties();
             downloadProperties.setProperty("maven.wagon.http.ssl.insecure", "true");
             downloadProperties.setProperty("maven.wagon.http.ssl.allowall", "true");
             final Path launcher = installDirectory.resolve("allure-" + version).resolve("bin").resolve("allure");
 
-            step("Prepare fake HTTPS archive and Maven wagon SSL overrides", () -> {
+            step("Prepare self-signed HTTPS archive and Maven wagon SSL overrides", () -> {
                 addAttachment(
                         "HTTPS download inputs",
                         String.join(
@@ -100,29 +93,121 @@ class AllureCommandlineTest {
             });
 
             final AllureCommandline commandline = new AllureCommandline(installDirectory, version);
+            step(
+                    "Reject the self-signed certificate without overrides",
+                    () -> assertThrows(
+                            IOException.class,
+                            () -> commandline.download(url, null, new Properties())
+                    )
+            );
             step(
                     "Download and unpack Allure commandline",
                     () -> commandline.download(url, null, downloadProperties)
             );
 
-            step("Verify SSL overrides and extracted launcher", () -> {
-                addAttachment(
-                        "Captured SSL overrides",
-                        String.join(
-                                System.lineSeparator(),
-                                "socketFactory=" + connection.getCustomSocketFactory(),
-                                "hostnameVerifier=" + connection.getCustomHostnameVerifier(),
-                                "launcher=" + launcher
-                        )
-                );
-                assertThat(connection.getCustomSocketFactory()).isNotNull();
-                assertThat(connection.getCustomHostnameVerifier()).isNotNull();
-                assertThat(connection.getCustomHostnameVerifier().verify("example.test", null))
-                        .isTrue();
+            step("Verify extracted launcher", () -> {
+                addAttachment("Launcher", launcher.toString());
                 assertThat(launcher).exists();
             });
         } finally {
-            FileUtils.deleteQuietly(installDirectory.toFile());
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    @Test
+    void shouldPublishStagedInstallOnceForConcurrentDownloads() throws Exception {
+        final Path testDirectory = Files.createTempDirectory("allure-install");
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final String version = "2.30.0";
+            final Path installDirectory = testDirectory.resolve("install");
+            final Path archive = testDirectory.resolve("allure.zip");
+            Files.write(archive, createAllureArchive(version));
+
+            step("Download the same commandline from four concurrent builds", () -> {
+                final List<Future<?>> downloads = new java.util.ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    downloads.add(executor.submit(() -> {
+                        new AllureCommandline(installDirectory, version)
+                                .download(archive.toUri().toURL(), null, new Properties());
+                        return null;
+                    }));
+                }
+                for (Future<?> download : downloads) {
+                    download.get(30, TimeUnit.SECONDS);
+                }
+            });
+
+            step("Verify the published install and absence of staging leftovers", () -> {
+                final List<String> entries;
+                try (java.util.stream.Stream<Path> files = Files.list(installDirectory)) {
+                    entries = files.map(path -> path.getFileName().toString()).sorted()
+                            .collect(java.util.stream.Collectors.toList());
+                }
+                addAttachment("Install directory entries", String.join(System.lineSeparator(), entries));
+                assertThat(entries).containsExactly(
+                        ".allure-" + version + "-receipt.properties",
+                        ".allure-install-allure-" + version + ".lock", ".allure-install.lock",
+                        "allure-" + version
+                );
+                assertThat(new AllureCommandline(installDirectory, version).allureExists()).isTrue();
+            });
+        } finally {
+            executor.shutdownNow();
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    @Test
+    void shouldTrustInstallReceiptUnlessDeepVerifyFindsMissingFiles() throws Exception {
+        final Path testDirectory = Files.createTempDirectory("allure-install");
+        try {
+            final String version = "2.30.0";
+            final Path installDirectory = testDirectory.resolve("install");
+            final Path archive = testDirectory.resolve("allure.zip");
+            Files.write(archive, createAllureArchive(version));
+            final URL url = archive.toUri().toURL();
+            final AllureCommandline commandline = new AllureCommandline(installDirectory, version);
+
+            step("Download and unpack Allure commandline", () -> commandline.download(
+                    url, null, new Properties()
+            ));
+
+            step("Verify the receipt lists the install", () -> {
+                final Properties receipt = new Properties();
+                try (InputStream input = Files.newInputStream(commandline.getReceiptPath())) {
+                    receipt.load(input);
+                }
+                addAttachment("Receipt", receipt.toString());
+                assertThat(receipt).containsEntry("allure.version", version)
+                        .containsEntry("allure.files", "2")
+                        .containsEntry("allure.source", AllureChecksums.sha256(archive))
+                        .containsEntry("launcher.sha256", InstallReceipt.hash(
+                                "echo allure".getBytes(StandardCharsets.UTF_8)
+                        ));
+            });
+
+            final Path windowsLauncher = installDirectory.resolve("allure-" + version)
+                    .resolve("bin").resolve("allure.bat");
+            Files.delete(windowsLauncher);
+
+            step("Verify only a deep verify notices the missing file", () -> {
+                assertThat(new AllureCommandline(installDirectory, version).allureExists()).isTrue();
+                assertThat(new AllureCommandline(installDirectory, version).withDeepVerify(true)
+                        .allureExists()).isFalse();
+            });
+
+            step("Reinstall after the failed deep verify", () -> new AllureCommandline(
+                    installDirectory, version
+            ).withDeepVerify(true).download(url, null, new Properties()));
+
+            step("Verify the tree was restored", () -> {
+                assertThat(windowsLauncher).exists();
+                assertThat(new AllureCommandline(installDirectory, version).withDeepVerify(true)
+                        .allureExists()).isTrue();
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
         }
     }
 
@@ -281,23 +366,20 @@ class AllureCommandlineTest {
         assumeTrue(isWindows());
 
         final Path testDirectory = Files.createTempDirectory("allure commandline");
-        try {
+        try (LocalHttpServer server = LocalHttpServer.http()) {
             final String version = "2.30.0";
             final Path installDirectory = testDirectory.resolve("install with space");
             final Path resultsDirectory = testDirectory.resolve("results with space");
             final Path capturedArgs = testDirectory.resolve("captured args.txt");
             Files.createDirectories(resultsDirectory);
 
-            final RecordingHttpsConnection connection = new RecordingHttpsConnection(
-                    new URL("https://example.test/allure.zip"), createAllureArchive(
+            server.serve(
+                    "/allure.zip", createAllureArchive(
                             version,
                             "echo allure", createWindowsArgumentCapturingLauncher(capturedArgs)
                     )
             );
-            final URL url = new URL(
-                    null, "https://example.test/allure.zip",
-                    new RecordingUrlStreamHandler(connection)
-            );
+            final URL url = server.url("/allure.zip");
 
             final AllureCommandline commandline = new AllureCommandline(installDirectory, version);
             step("Prepare Windows runtime and results directory", () -> {
@@ -384,6 +466,166 @@ class AllureCommandlineTest {
         }
     }
 
+    @Test
+    void shouldGenerateInProcessWithCachedClassLoaderAndFallBackToFork() throws Exception {
+        assumeFalse(isWindows());
+
+        final Path testDirectory = Files.createTempDirectory("allure-commandline");
+        try {
+            final Path installDirectory = testDirectory.resolve("install");
+            final Path resultsDirectory = testDirectory.resolve("results");
+            final Path forked = testDirectory.resolve("forked.txt");
+            step("Prepare an installation with a commandline jar and one without", () -> {
+                Files.createDirectories(resultsDirectory);
+                for (String version : Arrays.asList("2.30.0", "2.31.0")) {
+                    createUnixAllureExecutable(
+                            installDirectory, version, "#!/bin/sh",
+                            "printf '%s\\n' \"$@\" > '" + forked + "'", "exit 0"
+                    );
+                }
+                writeCommandlineJar(
+                        testDirectory.resolve("classes"),
+                        installDirectory.resolve("allure-2.30.0/lib/allure-commandline.jar")
+                );
+                final Path otherLib = installDirectory.resolve("allure-2.31.0/lib");
+                Files.createDirectories(otherLib);
+                Files.write(otherLib.resolve("other.jar"), createAllureArchive("2.31.0"));
+            });
+
+            final Path firstReport = testDirectory.resolve("first");
+            final Path secondReport = testDirectory.resolve("second");
+            step("Generate two reports in-process", () -> {
+                for (Path report : Arrays.asList(firstReport, secondReport)) {
+                    new AllureCommandline(installDirectory, "2.30.0").withInProcess(true)
+                            .generateReport(Collections.singletonList(resultsDirectory), report, false);
+                }
+            });
+
+            step("Verify both runs shared the class loader without forking", () -> {
+                assertThat(firstReport.resolve("index.html")).hasContent("runs=1");
+                assertThat(secondReport.resolve("index.html")).hasContent("runs=2");
+                assertThat(forked).doesNotExist();
+            });
+
+            step("Verify an installation without the commandline class is forked", () -> {
+                new AllureCommandline(installDirectory, "2.31.0").withInProcess(true)
+                        .generateReport(Collections.singletonList(resultsDirectory), firstReport, false);
+                assertThat(Files.readAllLines(forked, StandardCharsets.UTF_8))
+                        .startsWith("generate", "--clean");
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    @Test
+    void shouldFailInProcessGenerationWithoutForking() throws Exception {
+        assumeFalse(isWindows());
+
+        final Path testDirectory = Files.createTempDirectory("allure-commandline");
+        try {
+            final Path installDirectory = testDirectory.resolve("install");
+            final Path resultsDirectory = testDirectory.resolve("results");
+            final Path forked = testDirectory.resolve("forked.txt");
+            step("Prepare an installation with a commandline jar", () -> {
+                Files.createDirectories(resultsDirectory);
+                createUnixAllureExecutable(
+                        installDirectory, "2.32.0", "#!/bin/sh",
+                        "printf '%s\\n' \"$@\" > '" + forked + "'", "exit 0"
+                );
+                writeCommandlineJar(
+                        testDirectory.resolve("classes"),
+                        installDirectory.resolve("allure-2.32.0/lib/allure-commandline.jar")
+                );
+            });
+
+            step("Verify a failing generator fails the report", () -> {
+                final IOException error = assertThrows(IOException.class, () ->
+                        new AllureCommandline(installDirectory, "2.32.0", 30).withInProcess(true)
+                                .generateReport(Collections.singletonList(resultsDirectory),
+                                        testDirectory.resolve("failing"), false)
+                );
+                assertThat(error).hasMessageContaining("Cannot read results");
+            });
+
+            step("Verify a generator running past the timeout is stopped", () -> {
+                final IOException error = assertThrows(IOException.class, () ->
+                        new AllureCommandline(installDirectory, "2.32.0", 1).withInProcess(true)
+                                .generateReport(Collections.singletonList(resultsDirectory),
+                                        testDirectory.resolve("hanging"), false)
+                );
+                assertThat(error).hasMessageContaining("timed out after 1 seconds");
+            });
+
+            step("Verify neither run was forked and the next run gets a fresh class loader", () -> {
+                assertThat(forked).doesNotExist();
+                final Path report = testDirectory.resolve("report");
+                new AllureCommandline(installDirectory, "2.32.0", 30).withInProcess(true)
+                        .generateReport(Collections.singletonList(resultsDirectory), report, false);
+                assertThat(report.resolve("index.html")).hasContent("runs=1");
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    /**
+     * Compiles a stand-in for the Allure 2 commandline that counts its runs in a static field and
+     * writes the count into the report.
+     */
+    private static void writeCommandlineJar(final Path classes, final Path jar) throws IOException {
+        final Path source = classes.resolve("io/qameta/allure/CommandLine.java");
+        Files.createDirectories(source.getParent());
+        Files.writeString(source, String.join(
+                System.lineSeparator(),
+                "package io.qameta.allure;",
+                "public class CommandLine {",
+                "    private static int runs;",
+                "    private String[] args;",
+                "    public CommandLine(final java.nio.file.Path home) { }",
+                "    public java.util.Optional<ExitCode> parse(final String... args) {",
+                "        this.args = args;",
+                "        return java.util.Optional.empty();",
+                "    }",
+                "    public ExitCode run() throws InterruptedException {",
+                "        runs++;",
+                "        final java.nio.file.Path report = java.nio.file.Path.of(args[args.length - 1]);",
+                "        if (report.endsWith(\"failing\")) {",
+                "            throw new IllegalStateException(\"Cannot read results\");",
+                "        }",
+                "        if (report.endsWith(\"hanging\")) {",
+                "            Thread.sleep(60_000);",
+                "        }",
+                "        try {",
+                "            java.nio.file.Files.createDirectories(report);",
+                "            java.nio.file.Files.writeString(report.resolve(\"index.html\"), \"runs=\" + runs);",
+                "        } catch (java.io.IOException e) {",
+                "            return ExitCode.GENERIC_ERROR;",
+                "        }",
+                "        return ExitCode.NO_ERROR;",
+                "    }",
+                "    public enum ExitCode {",
+                "        NO_ERROR(0), GENERIC_ERROR(1);",
+                "        private final int code;",
+                "        ExitCode(final int code) { this.code = code; }",
+                "        public int getCode() { return code; }",
+                "    }",
+                "}"
+        ), StandardCharsets.UTF_8);
+        final int result = ToolProvider.getSystemJavaCompiler().run(
+                null, null, null, "-d", classes.toString(), source.toString()
+        );
+        assertThat(result).isZero();
+        Files.createDirectories(jar.getParent());
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(jar))) {
+            for (String name : Arrays.asList("CommandLine.class", "CommandLine$ExitCode.class")) {
+                zip.putNextEntry(new ZipEntry("io/qameta/allure/" + name));
+                zip.write(Files.readAllBytes(classes.resolve("io/qameta/allure").resolve(name)));
+                zip.closeEntry();
+            }
+        }
+    }
+
     private static void createUnixAllureExecutable(final Path installDirectory,
                                                    final String version, final String... lines)
             throws IOException {
@@ -519,115 +761,6 @@ class AllureCommandlineTest {
         }
     }
 
-    /**
-     * URL stream handler that always returns the preconfigured test connection.
-     */
-    private static final class RecordingUrlStreamHandler extends URLStreamHandler {
-
-        private final RecordingHttpsConnection connection;
-
-        private RecordingUrlStreamHandler(final RecordingHttpsConnection connection) {
-            this.connection = connection;
-        }
-
-        @Override
-        protected URLConnection openConnection(final URL url) {
-            return connection;
-        }
-
-        @Override
-        protected URLConnection openConnection(final URL url, final Proxy proxy) {
-            connection.setProxyUsed(proxy != null);
-            return connection;
-        }
-    }
-
-    /**
-     * Minimal HTTPS connection used to capture SSL customizations applied by the downloader.
-     */
-    private static final class RecordingHttpsConnection extends HttpsURLConnection {
-
-        private final byte[] response;
-
-        private SSLSocketFactory customSocketFactory;
-
-        private HostnameVerifier customHostnameVerifier;
-
-        private final AtomicBoolean proxyUsed = new AtomicBoolean();
-
-        private RecordingHttpsConnection(final URL url, final byte[] response) {
-            super(url);
-            this.response = response;
-        }
-
-        @Override
-        public void disconnect() {
-            // do nothing
-        }
-
-        @Override
-        public boolean usingProxy() {
-            return proxyUsed.get();
-        }
-
-        @Override
-        public void connect() {
-            // do nothing
-        }
-
-        @Override
-        public InputStream getInputStream() {
-            return new ByteArrayInputStream(response);
-        }
-
-        @Override
-        public void setSSLSocketFactory(final SSLSocketFactory sf) {
-            this.customSocketFactory = sf;
-        }
-
-        @Override
-        public void setHostnameVerifier(final HostnameVerifier hostnameVerifier) {
-            this.customHostnameVerifier = hostnameVerifier;
-        }
-
-        @Override
-        public String getCipherSuite() {
-            return null;
-        }
-
-        @Override
-        public java.security.cert.Certificate[] getLocalCertificates() {
-            return new java.security.cert.Certificate[0];
-        }
-
-        @Override
-        public java.security.cert.Certificate[] getServerCertificates() {
-            return new java.security.cert.Certificate[0];
-        }
-
-        @Override
-        public Principal getPeerPrincipal() {
-            return null;
-        }
-
-        @Override
-        public Principal getLocalPrincipal() {
-            return null;
-        }
-
-        private SSLSocketFactory getCustomSocketFactory() {
-            return customSocketFactory;
-        }
-
-        private HostnameVerifier getCustomHostnameVerifier() {
-            return customHostnameVerifier;
-        }
-
-        private void setProxyUsed(final boolean used) {
-            proxyUsed.set(used);
-        }
-    }
-
     /**
      * Stub certificate that can simulate expired validity checks for trust manager tests.
      */
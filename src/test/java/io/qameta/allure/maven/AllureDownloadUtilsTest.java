@@ -0,0 +1,244 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static io.qameta.allure.Allure.addAttachment;
+import static io.qameta.allure.Allure.step;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@Tag("unit")
+@Tag("download")
+/**
+ * Tests for {@link AllureDownloadUtils} against a local stand-in HTTP server.
+ */
+class AllureDownloadUtilsTest {
+
+    private static final String ARCHIVE_PATH = "/archive";
+
+    private static final int MIB = 1024 * 1024;
+
+    private static final int ROUNDS = 3;
+
+    @Test
+    void shouldReuseConnectionForChecksumAndArchive() throws Exception {
+        final Path testDirectory = Files.createTempDirectory("allure-download");
+        final byte[] checksums = "0123abcd  node.tar.gz\n".repeat(64).getBytes(StandardCharsets.UTF_8);
+        final byte[] archive = randomBytes(64 * 1024);
+        try (LocalHttpServer server = LocalHttpServer.http()
+                .serveCompressible("/SHASUMS256.txt", checksums)
+                .serve(ARCHIVE_PATH, archive)) {
+            final Properties properties = new Properties();
+
+            final String text = step(
+                    "Fetch the checksum list and then the archive",
+                    () -> {
+                        final String result = AllureDownloadUtils.readText(
+                                server.url("/SHASUMS256.txt"), null, properties
+                        );
+                        download(server.url(ARCHIVE_PATH), testDirectory.resolve("node.tar.gz"),
+                                properties);
+                        return result;
+                    }
+            );
+
+            step("Verify both requests shared one connection", () -> {
+                final List<LocalHttpServer.RecordedRequest> requests = server.getRequests();
+                addAttachment(
+                        "Recorded requests",
+                        requests.stream().map(Object::toString)
+                                .collect(Collectors.joining(System.lineSeparator()))
+                );
+                assertThat(text).isEqualTo(new String(checksums, StandardCharsets.UTF_8));
+                assertThat(requests).hasSize(2);
+                assertThat(requests.get(0).getAcceptEncoding()).contains("gzip");
+                assertThat(requests.get(1).getAcceptEncoding()).isEqualTo("identity");
+                assertThat(requests.stream().map(LocalHttpServer.RecordedRequest::getClientPort)
+                        .distinct()).hasSize(1);
+                assertThat(testDirectory.resolve("node.tar.gz")).hasBinaryContent(archive);
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    @Test
+    void shouldFailOnHttpErrorStatus() throws Exception {
+        final Path testDirectory = Files.createTempDirectory("allure-download");
+        try (LocalHttpServer server = LocalHttpServer.http()) {
+            final URL url = server.url("/missing.tar.gz");
+
+            final IOException error = step(
+                    "Download a missing archive",
+                    () -> assertThrows(
+                            IOException.class,
+                            () -> download(
+                                    url, testDirectory.resolve("missing.tar.gz"), new Properties()
+                            )
+                    )
+            );
+
+            step("Verify the HTTP status is reported", () -> {
+                addAttachment("Download error", error.getMessage());
+                assertThat(error).hasMessageContaining("HTTP 404");
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    void shouldInstallFasterInOnePassThanInThree() throws Exception {
+        final Path testDirectory = Files.createTempDirectory("allure-download");
+        final byte[] archive = tarball(32);
+        try (LocalHttpServer server = LocalHttpServer.http()
+                .serve(ARCHIVE_PATH, archive)
+                .throttle(32L * MIB)) {
+            final URL url = server.url(ARCHIVE_PATH);
+            final String expected = AllureChecksums.toHex(
+                    AllureChecksums.newSha256().digest(archive)
+            );
+
+            final long threePasses = step(
+                    "Measure a throttled download, then the checksum, then extraction",
+                    () -> fastest(round -> {
+                        final Path roundDirectory = testDirectory.resolve("three-" + round);
+                        final Path file = download(url, Files.createDirectories(roundDirectory)
+                                .resolve("node.tar.gz"), new Properties());
+                        assertThat(AllureChecksums.sha256(file)).isEqualTo(expected);
+                        try (InputStream input = Files.newInputStream(file)) {
+                            untar(input, roundDirectory.resolve("staging"));
+                        }
+                    })
+            );
+            final long onePass = step(
+                    "Measure extraction while the throttled download is hashed",
+                    () -> fastest(round -> {
+                        final Path roundDirectory = testDirectory.resolve("one-" + round);
+                        final MessageDigest digest = AllureChecksums.newSha256();
+                        ResumableDownload.read(
+                                url, roundDirectory.resolve("node.tar.gz.part"), null, new Properties(),
+                                null, input -> {
+                                    final DigestInputStream digestInput =
+                                            new DigestInputStream(input, digest);
+                                    untar(digestInput, roundDirectory.resolve("staging"));
+                                    digestInput.transferTo(OutputStream.nullOutputStream());
+                                    return roundDirectory;
+                                }
+                        );
+                        assertThat(AllureChecksums.toHex(digest.digest())).isEqualTo(expected);
+                    })
+            );
+
+            step("Compare the install times", () -> {
+                addAttachment(
+                        "Install time",
+                        String.format(
+                                Locale.ROOT, "three passes: %d ms%none pass: %d ms",
+                                threePasses / 1_000_000, onePass / 1_000_000
+                        )
+                );
+                assertThat(onePass).isLessThan(threePasses);
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    private static Path download(final URL url, final Path destination,
+                                 final Properties properties)
+            throws IOException {
+        return AllureDownloadUtils.read(url, null, properties, inputStream -> {
+            Files.copy(inputStream, destination, StandardCopyOption.REPLACE_EXISTING);
+            return destination;
+        });
+    }
+
+    private static long fastest(final Round round) throws Exception {
+        long fastest = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            final long started = System.nanoTime();
+            round.run(i);
+            fastest = Math.min(fastest, System.nanoTime() - started);
+        }
+        return fastest;
+    }
+
+    private static void untar(final InputStream input, final Path target) throws IOException {
+        try (GzipCompressorInputStream gzip = new GzipCompressorInputStream(input);
+                TarArchiveInputStream tar = new TarArchiveInputStream(gzip)) {
+            TarExtractor.extract(tar, target, name -> true);
+        }
+    }
+
+    private static byte[] tarball(final int files) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final byte[] content = randomBytes(MIB);
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+                new GzipCompressorOutputStream(output)
+        )) {
+            for (int i = 0; i < files; i++) {
+                final TarArchiveEntry entry = new TarArchiveEntry("node/lib/file-" + i);
+                entry.setSize(content.length);
+                tar.putArchiveEntry(entry);
+                tar.write(content);
+                tar.closeArchiveEntry();
+            }
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] randomBytes(final int size) {
+        final byte[] bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * One measured round of an install strategy.
+     */
+    @FunctionalInterface
+    private interface Round {
+        void run(int round) throws Exception;
+    }
+}
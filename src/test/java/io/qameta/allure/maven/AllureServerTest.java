@@ -0,0 +1,281 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.qameta.allure.Allure.addAttachment;
+import static io.qameta.allure.Allure.step;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Tag("unit")
+@Tag("server")
+/**
+ * Tests for {@link AllureServer} and {@link AllureServerClient} with a stand-in generator, and
+ * for the job checks of {@link AllureServerMojo}.
+ */
+class AllureServerTest {
+
+    @Test
+    void shouldCoalesceIdenticalJobsAndStreamTheirLog() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch joined = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AllureServer.Generator generator = (job, log) -> {
+            runs.incrementAndGet();
+            log.info("Generating " + job.path("report").asText());
+            joined.countDown();
+            release.await(30, TimeUnit.SECONDS);
+            return job.path("code").asInt();
+        };
+
+        final Path tokens = Files.createTempDirectory("allure-server");
+        try (AllureServer server = AllureServer.start(0, 2, generator, tokens, null)) {
+            final String url = "http://127.0.0.1:" + server.getPort();
+            final JsonNode job = job("target/site/allure-maven-plugin", 0);
+            final RecordingLog firstLog = new RecordingLog();
+            final RecordingLog secondLog = new RecordingLog();
+
+            final CompletableFuture<Integer> first = submit(url, tokens, job, firstLog);
+            joined.await(30, TimeUnit.SECONDS);
+            final CompletableFuture<Integer> second = submit(url, tokens, job, secondLog);
+            step("Release the job once the identical request joined it", () -> {
+                while (secondLog.lines.stream().noneMatch(line -> line.contains("joined"))) {
+                    Thread.sleep(10);
+                }
+                release.countDown();
+            });
+
+            step("Verify the job ran once and both clients got its log and exit code", () -> {
+                assertThat(first.get(30, TimeUnit.SECONDS)).isEqualTo(0);
+                assertThat(second.get(30, TimeUnit.SECONDS)).isEqualTo(0);
+                addAttachment("First client", String.join("\n", firstLog.lines));
+                addAttachment("Second client", String.join("\n", secondLog.lines));
+                assertThat(runs.get()).isEqualTo(1);
+                assertThat(firstLog.lines).anyMatch(line -> line.contains("in the queue"));
+                assertThat(firstLog.lines).contains("[allure:server] [INFO] Generating target/site/allure-maven-plugin");
+                assertThat(secondLog.lines).contains("[allure:server] [INFO] Generating target/site/allure-maven-plugin");
+            });
+
+            step("Verify a finished job is run again and its exit code is returned", () ->
+                    assertThat(AllureServerClient.generate(
+                            url, tokens, job("other", 2), new Properties(), new RecordingLog()
+                    )).isEqualTo(2)
+            );
+            assertThat(runs.get()).isEqualTo(2);
+        } finally {
+            FileUtils.deleteQuietly(tokens.toFile());
+        }
+    }
+
+    @Test
+    void shouldReportGeneratorFailureToClient() throws Exception {
+        final AllureServer.Generator generator = (job, log) -> {
+            throw new IOException("Cannot find results");
+        };
+        final Path tokens = Files.createTempDirectory("allure-server");
+        try (AllureServer server = AllureServer.start(0, 1, generator, tokens, new SystemStreamLog())) {
+            final String url = "http://127.0.0.1:" + server.getPort();
+            step("Verify the client fails with the message of the service", () ->
+                    assertThatThrownBy(() -> AllureServerClient.generate(url, tokens, job("report", 0),
+                            new Properties(), new RecordingLog()))
+                            .isInstanceOf(IOException.class)
+                            .hasMessageContaining("Cannot find results")
+            );
+        } finally {
+            FileUtils.deleteQuietly(tokens.toFile());
+        }
+    }
+
+    @Test
+    void shouldRefuseRequestsWithoutTokenOrJsonContent() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        final AllureServer.Generator generator = (job, log) -> runs.incrementAndGet();
+        final Path tokens = Files.createTempDirectory("allure-server");
+        try (AllureServer server = AllureServer.start(0, 1, generator, tokens, null)) {
+            final String url = "http://127.0.0.1:" + server.getPort();
+            final Path tokenFile = AllureServer.getTokenFile(tokens, server.getPort());
+            final String token = Files.readString(tokenFile).trim();
+
+            step("Verify the token file is readable by its owner only", () -> {
+                assertThat(tokenFile).isEqualTo(server.getTokenFile());
+                assertThat(token).hasSize(64);
+                if (!isWindows()) {
+                    assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(tokenFile)))
+                            .isEqualTo("rw-------");
+                }
+            });
+
+            step("Verify requests without the token or a JSON body are refused", () -> {
+                assertThat(post(url + "/generate", null, AllureServer.JSON)).isEqualTo(401);
+                assertThat(post(url + "/generate", "wrong", AllureServer.JSON)).isEqualTo(401);
+                assertThat(post(url + "/generate", token, "text/plain")).isEqualTo(415);
+                assertThat(post(url + "/shutdown", null, AllureServer.JSON)).isEqualTo(401);
+                assertThat(runs.get()).isZero();
+                addAttachment("Token file", tokenFile.toString());
+            });
+
+            step("Verify a client without the token file is refused", () -> {
+                final Path otherTokens = tokens.resolve("other");
+                assertThatThrownBy(() -> AllureServerClient.generate(url, otherTokens, job("report", 0),
+                        new Properties(), new RecordingLog()))
+                        .isInstanceOf(IOException.class)
+                        .hasMessageContaining("Cannot find the token");
+            });
+
+            step("Verify the token stops the service and its file is removed", () -> {
+                assertThat(post(url + "/shutdown", token, AllureServer.JSON)).isEqualTo(204);
+                server.awaitShutdown();
+                server.close();
+                assertThat(tokenFile).doesNotExist();
+            });
+        } finally {
+            FileUtils.deleteQuietly(tokens.toFile());
+        }
+    }
+
+    @Test
+    void shouldRefuseJobsThatCouldDeleteOrImportOtherFiles() throws Exception {
+        final Path directory = Files.createTempDirectory("allure-server").toRealPath();
+        try {
+            final Path install = directory.resolve(".allure");
+            final Path build = directory.resolve("target");
+            final Path results = build.resolve("allure-results");
+            final Path config = directory.resolve("allurerc.mjs");
+            final Path script = directory.resolve("payload.sh");
+            Files.write(config, new byte[0]);
+            Files.write(script, new byte[0]);
+
+            step("Verify a job of a regular build is accepted", () ->
+                    AllureServerMojo.checkJob(allure3Job(results, build.resolve("site/allure"), build, config),
+                            install)
+            );
+
+            step("Verify jobs deleting or importing other files are refused", () -> {
+                for (ObjectNode job : Arrays.asList(
+                        allure3Job(results, build, build, config),
+                        allure3Job(results, directory, build, config),
+                        allure3Job(results, build.getRoot(), build, config),
+                        allure3Job(results, build.resolve("site/../.."), build, config),
+                        allure3Job(results, Paths.get(System.getProperty("user.home")), build, config),
+                        allure3Job(results, build.resolve("site"), build, script),
+                        allure3Job(results, build.resolve("site"), build, directory.resolve("missing.mjs")),
+                        allure3Job(results, build.resolve("site"), build, config).put("nodeVersion", "../22"),
+                        allure3Job(results, build.resolve("site"), build, config).put("report", "site"),
+                        withDefault(allure3Job(results, build.resolve("site"), build, config),
+                                "x: process.exit(1), y")
+                )) {
+                    assertThatThrownBy(() -> AllureServerMojo.checkJob(job, install))
+                            .as(job.toString())
+                            .isInstanceOf(IOException.class)
+                            .hasMessageStartingWith("Refusing the job: ");
+                }
+            });
+        } finally {
+            FileUtils.deleteQuietly(directory.toFile());
+        }
+    }
+
+    private static ObjectNode allure3Job(final Path results, final Path report, final Path build,
+                                         final Path config) {
+        final ObjectNode job = new ObjectMapper().createObjectNode()
+                .put("version", "3.4.1")
+                .put("report", report.toString())
+                .put("buildDirectory", build.toString())
+                .put("config", config.toString());
+        job.putArray("results").add(results.toString());
+        job.putObject("defaults").put("appendHistory", true);
+        return job;
+    }
+
+    private static ObjectNode withDefault(final ObjectNode job, final String key) {
+        ((ObjectNode) job.path("defaults")).put(key, true);
+        return job;
+    }
+
+    private static int post(final String url, final String token, final String contentType)
+            throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", contentType);
+            if (token != null) {
+                connection.setRequestProperty(AllureServer.TOKEN_HEADER, token);
+            }
+            connection.getOutputStream().write("{}".getBytes(StandardCharsets.UTF_8));
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static boolean isWindows() {
+        return System.getProperty("os.name").toLowerCase().contains("win");
+    }
+
+    private static CompletableFuture<Integer> submit(final String url, final Path tokens,
+                                                     final JsonNode job, final RecordingLog log) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return AllureServerClient.generate(url, tokens, job, new Properties(), log);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private static JsonNode job(final String report, final int code) {
+        return new ObjectMapper().createObjectNode().put("report", report).put("code", code);
+    }
+
+    /**
+     * Records the info lines the client logs.
+     */
+    private static final class RecordingLog extends SystemStreamLog {
+
+        private final List<String> lines = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void info(final CharSequence content) {
+            lines.add(content.toString());
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.maven.execution.ProjectDependencyGraph;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.project.MavenProject;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static io.qameta.allure.Allure.addAttachment;
+import static io.qameta.allure.Allure.step;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Tag("unit")
+@Tag("scheduler")
+/**
+ * Tests for {@link GenerationScheduler}.
+ */
+class GenerationSchedulerTest {
+
+    @Test
+    void shouldRunQueuedGenerationsByCriticalPath() throws Exception {
+        final MavenProject core = project("core");
+        final MavenProject api = project("api");
+        final MavenProject app = project("app");
+        final MavenProject docs = project("docs");
+        final GenerationScheduler scheduler = new GenerationScheduler(
+                graph(Map.of(core, List.of(api), api, List.of(app))), 1
+        );
+        final List<String> order = new CopyOnWriteArrayList<>();
+        final RecordingLog log = new RecordingLog();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final CompletableFuture<Void> busy = run(scheduler, app, log, () -> {
+            started.countDown();
+            release.await(30, TimeUnit.SECONDS);
+        });
+        started.await(30, TimeUnit.SECONDS);
+        final CompletableFuture<Void> leaf = run(scheduler, docs, log, () -> order.add("docs"));
+        waitForQueued(log, 1);
+        final CompletableFuture<Void> root = run(scheduler, core, log, () -> order.add("core"));
+        waitForQueued(log, 2);
+
+        step("Release the slot and verify the longest chain generates first", () -> {
+            release.countDown();
+            CompletableFuture.allOf(busy, leaf, root).get(30, TimeUnit.SECONDS);
+            addAttachment("Log", String.join("\n", log.lines));
+            assertThat(order).containsExactly("core", "docs");
+        });
+
+        step("Verify the queue wait is logged", () -> {
+            assertThat(log.lines).contains("Queued report generation, 1 of 1 slots in use and 1 waiting");
+            assertThat(log.lines).anyMatch(line -> line.startsWith("Started report generation after ")
+                    && line.endsWith("(critical path 2)"));
+            assertThat(log.lines).anyMatch(line -> line.endsWith("(critical path 0)"));
+        });
+    }
+
+    @Test
+    void shouldSizeSlotsFromConfigurationOrHost() {
+        step("Verify configured and memory-bounded slots", () -> {
+            assertThat(GenerationScheduler.poolSize(3, 1024)).isEqualTo(3);
+            assertThat(GenerationScheduler.poolSize(0, Long.MAX_VALUE)).isEqualTo(1);
+            assertThat(GenerationScheduler.poolSize(0, 1))
+                    .isEqualTo(Runtime.getRuntime().availableProcessors());
+            assertThat(GenerationScheduler.poolSize(0, 0))
+                    .isEqualTo(Runtime.getRuntime().availableProcessors());
+            assertThat(GenerationScheduler.get(null, 2, 1024, new RecordingLog()).getSlots())
+                    .isEqualTo(2);
+        });
+    }
+
+    @Test
+    void shouldKeepTheInterruptWhenWaitingForASlot() throws Exception {
+        final GenerationScheduler scheduler = new GenerationScheduler(null, 1);
+        final RecordingLog log = new RecordingLog();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CompletableFuture<Void> busy = run(scheduler, project("core"), log, () -> {
+            started.countDown();
+            release.await(30, TimeUnit.SECONDS);
+        });
+        started.await(30, TimeUnit.SECONDS);
+
+        final CompletableFuture<Boolean> interrupted = new CompletableFuture<>();
+        final Thread waiting = new Thread(() -> {
+            try {
+                scheduler.run(project("api"), log, () -> { });
+                interrupted.complete(false);
+            } catch (InterruptedException e) {
+                interrupted.complete(Thread.currentThread().isInterrupted());
+            } catch (Exception e) {
+                interrupted.completeExceptionally(e);
+            }
+        });
+        waiting.start();
+        waitForQueued(log, 1);
+
+        step("Interrupt the queued generation and verify the flag is restored", () -> {
+            waiting.interrupt();
+            assertThat(interrupted.get(30, TimeUnit.SECONDS)).isTrue();
+            release.countDown();
+            busy.get(30, TimeUnit.SECONDS);
+        });
+    }
+
+    private static CompletableFuture<Void> run(final GenerationScheduler scheduler,
+                                               final MavenProject project, final RecordingLog log,
+                                               final GenerationScheduler.Generation generation) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                scheduler.run(project, log, generation);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private static void waitForQueued(final RecordingLog log, final int count)
+            throws InterruptedException {
+        while (log.lines.stream().filter(line -> line.startsWith("Queued")).count() < count) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static MavenProject project(final String artifactId) {
+        final MavenProject project = new MavenProject();
+        project.setGroupId("io.qameta.allure");
+        project.setArtifactId(artifactId);
+        return project;
+    }
+
+    private static ProjectDependencyGraph graph(final Map<MavenProject, List<MavenProject>> downstream) {
+        return new ProjectDependencyGraph() {
+            @Override
+            public List<MavenProject> getAllProjects() {
+                return getSortedProjects();
+            }
+
+            @Override
+            public List<MavenProject> getSortedProjects() {
+                return Arrays.asList(downstream.keySet().toArray(new MavenProject[0]));
+            }
+
+            @Override
+            public List<MavenProject> getDownstreamProjects(final MavenProject project,
+                                                            final boolean transitive) {
+                return downstream.getOrDefault(project, Collections.emptyList());
+            }
+
+            @Override
+            public List<MavenProject> getUpstreamProjects(final MavenProject project,
+                                                          final boolean transitive) {
+                return Collections.emptyList();
+            }
+        };
+    }
+
+    /**
+     * Records the info lines of the scheduler.
+     */
+    private static final class RecordingLog extends SystemStreamLog {
+
+        private final List<String> lines = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void info(final CharSequence content) {
+            lines.add(content.toString());
+        }
+    }
+}
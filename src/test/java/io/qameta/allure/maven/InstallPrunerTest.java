@@ -0,0 +1,177 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static io.qameta.allure.Allure.addAttachment;
+import static io.qameta.allure.Allure.step;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Tag("unit")
+@Tag("install")
+/**
+ * Tests for {@link InstallPruner}.
+ */
+class InstallPrunerTest {
+
+    @Test
+    void shouldEvictLeastRecentlyUsedTreesUntilTheDirectoryFits() throws Exception {
+        final Path directory = Files.createTempDirectory("allure-prune");
+        try {
+            final Path oldNode = createTree(directory, "node-v22.0.0-linux-x64", 3000, 3);
+            final Path recentAllure = createTree(directory, "allure-3.4.0", 2000, 1);
+            final Path currentAllure = createTree(directory, "allure-3.4.1", 1000, 30);
+            Files.write(directory.resolve(".allure-3.4.0-package-lock.json"), new byte[0]);
+            Files.write(directory.resolve(".allure-3.3.0-package-lock.json"), new byte[0]);
+
+            final List<Path> pruned = step("Prune to 4000 bytes keeping the current tree", () ->
+                    new InstallPruner(4000, null, null).prune(
+                            directory, Collections.singletonList(currentAllure)
+                    ));
+
+            step("Verify only the least recently used tree was evicted", () -> {
+                addAttachment("Pruned", pruned.toString());
+                assertThat(pruned).containsExactly(oldNode.toAbsolutePath().normalize());
+                assertThat(oldNode).doesNotExist();
+                assertThat(directory.resolve(InstallPruner.USAGE_DIRECTORY).resolve(oldNode.getFileName()))
+                        .doesNotExist();
+                assertThat(recentAllure).exists();
+                assertThat(currentAllure).exists();
+            });
+
+            step("Verify only lockfiles without a tree were deleted", () -> {
+                assertThat(directory.resolve(".allure-3.4.0-package-lock.json")).exists();
+                assertThat(directory.resolve(".allure-3.3.0-package-lock.json")).doesNotExist();
+            });
+        } finally {
+            FileUtils.deleteQuietly(directory.toFile());
+        }
+    }
+
+    @Test
+    void shouldEvictExpiredAllure2TreesWithTheirReceipts() throws Exception {
+        final Path directory = Files.createTempDirectory("allure-prune");
+        try {
+            createTree(directory, "allure-2.30.0", 10, 10);
+            final Path current = createTree(directory, "allure-2.36.0", 10, 0);
+            Files.write(directory.resolve(".allure-2.30.0-receipt.properties"), new byte[0]);
+            Files.write(directory.resolve(".allure-2.36.0-receipt.properties"), new byte[0]);
+            final AllureCommandline expired = new AllureCommandline(directory, "2.30.0");
+
+            step("Prune trees unused for a week", () ->
+                    new AllureCommandline(directory, "2.36.0").prune(
+                            new InstallPruner(0, Duration.ofDays(7), null)
+                    ));
+
+            step("Verify the expired tree no longer counts as installed", () -> {
+                assertThat(directory.resolve("allure-2.30.0")).doesNotExist();
+                assertThat(directory.resolve(".allure-2.30.0-receipt.properties")).doesNotExist();
+                assertThat(expired.allureExists()).isFalse();
+                assertThat(current).exists();
+                assertThat(directory.resolve(".allure-2.36.0-receipt.properties")).exists();
+            });
+        } finally {
+            FileUtils.deleteQuietly(directory.toFile());
+        }
+    }
+
+    @Test
+    void shouldKeepTreesUsedWithinTheLastHour() throws Exception {
+        final Path directory = Files.createTempDirectory("allure-prune");
+        try {
+            final Path oldAllure = createTree(directory, "allure-3.3.0", 10, 3);
+            final Path busyAllure = createTree(directory, "allure-3.4.0", 10, 0);
+            final Path currentAllure = createTree(directory, "allure-3.4.1", 10, 0);
+
+            final List<Path> pruned = step("Prune every tree but the current one", () ->
+                    new InstallPruner(0, Duration.ZERO, null).prune(
+                            directory, Collections.singletonList(currentAllure)
+                    ));
+
+            step("Verify the tree another build just used was kept", () -> {
+                addAttachment("Pruned", pruned.toString());
+                assertThat(pruned).containsExactly(oldAllure.toAbsolutePath().normalize());
+                assertThat(busyAllure).exists();
+                assertThat(currentAllure).exists();
+            });
+        } finally {
+            FileUtils.deleteQuietly(directory.toFile());
+        }
+    }
+
+    @Test
+    void shouldMarkTreeUsedFromConcurrentBuilds() throws Exception {
+        final Path directory = Files.createTempDirectory("allure-prune");
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final Path home = directory.resolve("allure-3.4.1");
+            final Path marker = directory.resolve(InstallPruner.USAGE_DIRECTORY).resolve("allure-3.4.1");
+            final List<Future<Void>> marks = new ArrayList<>();
+            step("Mark the tree used from 32 builds at once", () -> {
+                for (int i = 0; i < 32; i++) {
+                    marks.add(executor.submit(() -> {
+                        InstallPruner.markUsed(home);
+                        return null;
+                    }));
+                }
+                for (Future<Void> mark : marks) {
+                    mark.get(30, TimeUnit.SECONDS);
+                }
+            });
+            Files.setLastModifiedTime(marker, FileTime.from(Instant.now().minus(Duration.ofDays(3))));
+
+            step("Verify marking an existing tree touches its marker", () -> {
+                InstallPruner.markUsed(home);
+                assertThat(Files.getLastModifiedTime(marker).toInstant())
+                        .isAfter(Instant.now().minus(Duration.ofDays(1)));
+            });
+        } finally {
+            executor.shutdownNow();
+            FileUtils.deleteQuietly(directory.toFile());
+        }
+    }
+
+    private static Path createTree(final Path directory, final String name, final int size,
+                                   final int daysSinceUse)
+            throws IOException {
+        final Path home = directory.resolve(name);
+        Files.createDirectories(home.resolve("bin"));
+        Files.write(home.resolve("bin").resolve("file"), new byte[size]);
+        InstallPruner.markUsed(home);
+        Files.setLastModifiedTime(
+                directory.resolve(InstallPruner.USAGE_DIRECTORY).resolve(name),
+                FileTime.from(Instant.now().minus(Duration.ofDays(daysSinceUse)))
+        );
+        return home;
+    }
+}
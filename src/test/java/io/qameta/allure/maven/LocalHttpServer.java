@@ -0,0 +1,383 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for download servers used by the tests. Serves registered resources on the
+ * loopback interface, answers {@code Range} requests, can drop connections mid-stream and records
+ * every request it receives.
+ */
+final class LocalHttpServer implements AutoCloseable {
+
+    private static final String KEYSTORE_PASSWORD = "changeit";
+
+    private final HttpServer server;
+
+    private final String scheme;
+
+    private final Map<String, Resource> resources = new ConcurrentHashMap<>();
+
+    private final List<RecordedRequest> requests = new CopyOnWriteArrayList<>();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private volatile long bytesPerSecond;
+
+    private volatile long delayMillis;
+
+    private volatile boolean headAllowed = true;
+
+    private LocalHttpServer(final HttpServer server, final String scheme) {
+        this.server = server;
+        this.scheme = scheme;
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    static LocalHttpServer http() throws IOException {
+        return new LocalHttpServer(HttpServer.create(loopback(), 0), "http");
+    }
+
+    /**
+     * Starts an HTTPS server with a self-signed certificate for {@code example.test}, so clients
+     * only accept it with relaxed trust and hostname checks.
+     */
+    static LocalHttpServer https(final Path workDirectory) throws IOException {
+        final HttpsServer server = HttpsServer.create(loopback(), 0);
+        server.setHttpsConfigurator(new HttpsConfigurator(createSslContext(workDirectory)));
+        return new LocalHttpServer(server, "https");
+    }
+
+    LocalHttpServer serve(final String path, final byte[] content) {
+        resources.put(path, new Resource(content, false, true));
+        return this;
+    }
+
+    /**
+     * Serves a text resource gzip-encoded to clients that accept it.
+     */
+    LocalHttpServer serveCompressible(final String path, final byte[] content) {
+        resources.put(path, new Resource(content, true, false));
+        return this;
+    }
+
+    /**
+     * Serves a resource like a server that ignores {@code Range} headers.
+     */
+    LocalHttpServer serveWithoutRanges(final String path, final byte[] content) {
+        resources.put(path, new Resource(content, false, false));
+        return this;
+    }
+
+    /**
+     * Makes the next {@code times} responses for the path close the connection after
+     * {@code bytes} bytes of the body.
+     */
+    LocalHttpServer dropAfter(final String path, final int bytes, final int times) {
+        final Resource resource = resources.get(path);
+        resource.dropAfter = bytes;
+        resource.drops.set(times);
+        return this;
+    }
+
+    /**
+     * Limits every response body to the given rate, like a distant server where a single
+     * connection cannot use the available bandwidth.
+     */
+    LocalHttpServer throttle(final long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Delays every response, like a distant mirror.
+     */
+    LocalHttpServer delay(final long millis) {
+        this.delayMillis = millis;
+        return this;
+    }
+
+    /**
+     * Answers {@code HEAD} requests with {@code 405 Method Not Allowed}.
+     */
+    LocalHttpServer refuseHead() {
+        this.headAllowed = false;
+        return this;
+    }
+
+    URL url(final String path) throws IOException {
+        return new URL(baseUrl() + path);
+    }
+
+    String baseUrl() {
+        return scheme + "://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    List<RecordedRequest> getRequests() {
+        return new ArrayList<>(requests);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        final String path = exchange.getRequestURI().getPath();
+        final String acceptEncoding = StringUtils.defaultString(
+                exchange.getRequestHeaders().getFirst("Accept-Encoding")
+        );
+        final String range = exchange.getRequestHeaders().getFirst("Range");
+        requests.add(new RecordedRequest(
+                exchange.getRequestMethod(), path, exchange.getRemoteAddress().getPort(),
+                acceptEncoding, range
+        ));
+        try (InputStream ignored = exchange.getRequestBody();
+             OutputStream output = exchange.getResponseBody()) {
+            sleep(delayMillis);
+            final boolean head = "HEAD".equals(exchange.getRequestMethod());
+            if (head && !headAllowed) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            final Resource resource = resources.get(path);
+            if (resource == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            byte[] body = resource.content;
+            int status = 200;
+            if (resource.compressible && acceptEncoding.contains("gzip")) {
+                body = gzip(body);
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            if (resource.ranges) {
+                exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            }
+            if (head) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(body.length));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            if (resource.ranges) {
+                if (range != null && range.startsWith("bytes=")) {
+                    final int dash = range.indexOf('-');
+                    final int start = Integer.parseInt(range.substring("bytes=".length(), dash));
+                    final int end = dash == range.length() - 1
+                            ? body.length - 1
+                            : Math.min(body.length - 1, Integer.parseInt(range.substring(dash + 1)));
+                    if (start >= body.length) {
+                        exchange.sendResponseHeaders(416, -1);
+                        return;
+                    }
+                    exchange.getResponseHeaders().set(
+                            "Content-Range", "bytes " + start + "-" + end + "/" + body.length
+                    );
+                    body = Arrays.copyOfRange(body, start, end + 1);
+                    status = 206;
+                }
+            }
+            exchange.sendResponseHeaders(status, body.length);
+            if (resource.drops.getAndDecrement() > 0) {
+                output.write(body, 0, Math.min(resource.dropAfter, body.length));
+                output.flush();
+                throw new IOException("Dropping connection for " + path);
+            }
+            write(output, body);
+        }
+    }
+
+    private void write(final OutputStream output, final byte[] body) throws IOException {
+        final long rate = bytesPerSecond;
+        if (rate <= 0) {
+            output.write(body);
+            return;
+        }
+        final int chunk = 16 * 1024;
+        final long started = System.nanoTime();
+        for (int offset = 0; offset < body.length; offset += chunk) {
+            final int length = Math.min(chunk, body.length - offset);
+            output.write(body, offset, length);
+            final long dueNanos = (offset + length) * 1_000_000_000L / rate;
+            sleep((dueNanos - (System.nanoTime() - started)) / 1_000_000L);
+        }
+    }
+
+    private static void sleep(final long millis) throws IOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private static byte[] gzip(final byte[] content) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+            gzip.write(content);
+        }
+        return output.toByteArray();
+    }
+
+    private static InetSocketAddress loopback() {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+    }
+
+    private static SSLContext createSslContext(final Path workDirectory) throws IOException {
+        final Path keystore = workDirectory.resolve("server.p12");
+        final Process keytool = new ProcessBuilder(
+                Paths.get(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "server", "-keyalg", "RSA", "-keysize", "2048",
+                "-dname", "CN=example.test", "-validity", "2", "-storetype", "PKCS12",
+                "-keystore", keystore.toString(),
+                "-storepass", KEYSTORE_PASSWORD, "-keypass", KEYSTORE_PASSWORD
+        ).redirectErrorStream(true).start();
+        try {
+            keytool.getInputStream().transferTo(OutputStream.nullOutputStream());
+            if (!keytool.waitFor(60, TimeUnit.SECONDS) || keytool.exitValue() != 0) {
+                throw new IOException("keytool failed to create " + keystore);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+
+        try (InputStream input = Files.newInputStream(keystore)) {
+            final KeyStore store = KeyStore.getInstance("PKCS12");
+            store.load(input, KEYSTORE_PASSWORD.toCharArray());
+            final KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(
+                    KeyManagerFactory.getDefaultAlgorithm()
+            );
+            keyManagers.init(store, KEYSTORE_PASSWORD.toCharArray());
+            final SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(keyManagers.getKeyManagers(), null, null);
+            return sslContext;
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Registered response body.
+     */
+    private static final class Resource {
+
+        private final byte[] content;
+
+        private final boolean compressible;
+
+        private final boolean ranges;
+
+        private final AtomicInteger drops = new AtomicInteger();
+
+        private volatile int dropAfter;
+
+        private Resource(final byte[] content, final boolean compressible, final boolean ranges) {
+            this.content = content;
+            this.compressible = compressible;
+            this.ranges = ranges;
+        }
+    }
+
+    /**
+     * Request observed by the server.
+     */
+    static final class RecordedRequest {
+
+        private final String method;
+
+        private final String path;
+
+        private final int clientPort;
+
+        private final String acceptEncoding;
+
+        private final String range;
+
+        private RecordedRequest(final String method, final String path, final int clientPort,
+                                final String acceptEncoding, final String range) {
+            this.method = method;
+            this.path = path;
+            this.clientPort = clientPort;
+            this.acceptEncoding = acceptEncoding;
+            this.range = range;
+        }
+
+        String getMethod() {
+            return method;
+        }
+
+        String getPath() {
+            return path;
+        }
+
+        int getClientPort() {
+            return clientPort;
+        }
+
+        String getAcceptEncoding() {
+            return acceptEncoding;
+        }
+
+        String getRange() {
+            return range;
+        }
+
+        @Override
+        public String toString() {
+            return method + " " + path + " from port " + clientPort + " accepting '" + acceptEncoding + "'"
+                    + (range == null ? "" : " with " + range);
+        }
+    }
+}
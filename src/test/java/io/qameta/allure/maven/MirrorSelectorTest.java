@@ -0,0 +1,137 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static io.qameta.allure.Allure.addAttachment;
+import static io.qameta.allure.Allure.step;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@Tag("unit")
+@Tag("download")
+/**
+ * Tests for {@link MirrorSelector}.
+ */
+class MirrorSelectorTest {
+
+    private static final String ARCHIVE_PATH = "/node.tar.gz";
+
+    private static final byte[] CONTENT = "archive".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void shouldSplitCommaSeparatedMirrors() {
+        final List<String> mirrors = step(
+                "Split a mirror list with blanks",
+                () -> AllureInstallUtils.split(" https://a.test/ ,, https://b.test ,")
+        );
+
+        step("Verify trimmed entries in configured order", () -> {
+            addAttachment("Mirrors", String.join(System.lineSeparator(), mirrors));
+            assertThat(mirrors).containsExactly("https://a.test/", "https://b.test");
+        });
+    }
+
+    @Test
+    void shouldRankHealthyMirrorsByLatencyBeforeUnhealthyOnes() throws Exception {
+        try (LocalHttpServer slow = LocalHttpServer.http().serve(ARCHIVE_PATH, CONTENT).delay(300);
+             LocalHttpServer fast = LocalHttpServer.http().serve(ARCHIVE_PATH, CONTENT);
+             LocalHttpServer missing = LocalHttpServer.http();
+             LocalHttpServer headless = LocalHttpServer.http().serve(ARCHIVE_PATH, CONTENT)
+                     .refuseHead().delay(50)) {
+            final URL dead;
+            try (LocalHttpServer stopped = LocalHttpServer.http()) {
+                dead = stopped.url(ARCHIVE_PATH);
+            }
+            final List<URL> mirrors = Arrays.asList(
+                    dead, missing.url(ARCHIVE_PATH), slow.url(ARCHIVE_PATH),
+                    headless.url(ARCHIVE_PATH), fast.url(ARCHIVE_PATH)
+            );
+
+            final List<URL> ranked = step(
+                    "Probe five mirrors concurrently",
+                    () -> MirrorSelector.rank(mirrors, url -> url, null, new Properties(), null)
+            );
+
+            step("Verify fastest-first order with unhealthy mirrors last", () -> {
+                addAttachment("Ranking", ranked.toString());
+                assertThat(ranked).containsExactly(
+                        fast.url(ARCHIVE_PATH), headless.url(ARCHIVE_PATH), slow.url(ARCHIVE_PATH),
+                        dead, missing.url(ARCHIVE_PATH)
+                );
+                assertThat(headless.getRequests())
+                        .extracting(LocalHttpServer.RecordedRequest::getRange)
+                        .containsExactly(null, "bytes=0-0");
+            });
+        }
+    }
+
+    @Test
+    void shouldFailOverToNextMirror() throws Exception {
+        final List<String> attempts = new ArrayList<>();
+
+        final String result = step(
+                "Run an action that fails on the first mirror",
+                () -> MirrorSelector.withFailover(
+                        Arrays.asList("first", "second"), "download", null, mirror -> {
+                            attempts.add(mirror);
+                            if ("first".equals(mirror)) {
+                                throw new IOException("first is down");
+                            }
+                            return mirror;
+                        }
+                )
+        );
+
+        step("Verify the second mirror was used", () -> {
+            addAttachment("Attempts", attempts.toString());
+            assertThat(result).isEqualTo("second");
+            assertThat(attempts).containsExactly("first", "second");
+        });
+    }
+
+    @Test
+    void shouldReportAllMirrorFailures() {
+        final IOException error = step(
+                "Run an action that fails on every mirror",
+                () -> assertThrows(
+                        IOException.class,
+                        () -> MirrorSelector.withFailover(
+                                Arrays.asList("first", "second"), "download", null, mirror -> {
+                                    throw new IOException(mirror + " is down");
+                                }
+                        )
+                )
+        );
+
+        step("Verify the last failure carries the earlier one", () -> {
+            addAttachment("Failure", error.getMessage());
+            assertThat(error).hasMessage("second is down");
+            assertThat(error.getSuppressed()).extracting(Throwable::getMessage)
+                    .containsExactly("first is down");
+        });
+    }
+}
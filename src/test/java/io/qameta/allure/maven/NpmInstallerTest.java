@@ -0,0 +1,216 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Properties;
+
+import static io.qameta.allure.Allure.addAttachment;
+import static io.qameta.allure.Allure.step;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Tag("unit")
+@Tag("npm")
+/**
+ * Tests for {@link NpmInstaller} against a local stand-in registry.
+ */
+class NpmInstallerTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final Allure3Platform PLATFORM = Allure3Platform.detect();
+
+    @Test
+    void shouldHoistTreeLikeNpmAndExtractPackages() throws Exception {
+        final Path directory = Files.createTempDirectory("allure-npm-installer");
+        try (LocalHttpServer registry = startRegistry();
+             NpmPrefetch prefetch = NpmPrefetch.start(
+                     registry.baseUrl(), "allure", "3.4.1",
+                     Files.createDirectories(directory.resolve("tarballs")), null, new Properties(), null
+             )) {
+            final NpmInstaller installer = step("Resolve the layout of allure@3.4.1", () ->
+                    NpmInstaller.resolve("allure", "3.4.1", prefetch.await(), PLATFORM));
+            final Path prefix = directory.resolve("prefix");
+            step("Extract the packages", () -> installer.install(prefix));
+
+            step("Verify conflicting versions are nested and other platforms are skipped", () -> {
+                addAttachment("Layout", installer.getLayout().toString());
+                assertThat(installer.getLayout()).hasSize(5);
+                assertThat(installer.getLayout()).extractingFromEntries(
+                        entry -> entry.getKey() + "=" + entry.getValue()
+                ).containsExactly(
+                        "node_modules/a=a@1.0.0", "node_modules/allure=allure@3.4.1",
+                        "node_modules/b=b@1.0.0", "node_modules/b/node_modules/a=a@2.0.0",
+                        "node_modules/native-here=native-here@1.0.0"
+                );
+                assertThat(prefix.resolve("node_modules/b/node_modules/a/index.js"))
+                        .hasContent("module.exports = 'a@2.0.0';");
+                assertThat(prefix.resolve("node_modules/allure/package.json")).exists();
+                assertThat(prefix.resolve("node_modules/native-other")).doesNotExist();
+                if (!PLATFORM.isWindows()) {
+                    assertThat(prefix.resolve("node_modules/allure/bin/run")).isExecutable();
+                }
+            });
+
+            step("Verify the lockfile records the layout for the public registry", () -> {
+                final ObjectNode lockfile = installer.toLockfile(
+                        "allure-maven-runtime", "allure", "3.4.1", registry.baseUrl()
+                );
+                addAttachment("Lockfile", "application/json", lockfile.toPrettyString(), ".json");
+                assertThat(lockfile.at("/packages//dependencies/allure").asText()).isEqualTo("3.4.1");
+                assertThat(lockfile.at("/packages/node_modules~1b~1node_modules~1a/resolved").asText())
+                        .isEqualTo("https://registry.npmjs.org/a/-/a-2.0.0.tgz");
+                assertThat(lockfile.at("/packages/node_modules~1native-here/optional").asBoolean())
+                        .isTrue();
+                assertThat(lockfile.at("/packages/node_modules~1b/dependencies/a").asText())
+                        .isEqualTo("^2.0.0");
+            });
+        } finally {
+            FileUtils.deleteQuietly(directory.toFile());
+        }
+    }
+
+    @Test
+    void shouldInstallLockedTreeWithoutFetchingPackuments() throws Exception {
+        final Path directory = Files.createTempDirectory("allure-npm-installer");
+        try (LocalHttpServer registry = startRegistry()) {
+            final ObjectNode lockfile;
+            try (NpmPrefetch prefetch = NpmPrefetch.start(
+                    registry.baseUrl(), "allure", "3.4.1",
+                    Files.createDirectories(directory.resolve("resolved")), null, new Properties(), null
+            )) {
+                lockfile = NpmInstaller.resolve("allure", "3.4.1", prefetch.await(), PLATFORM)
+                        .toLockfile("allure-maven-runtime", "allure", "3.4.1", registry.baseUrl());
+            }
+            final int resolveRequests = registry.getRequests().size();
+
+            final NpmInstaller installer;
+            try (NpmPrefetch prefetch = NpmPrefetch.startLocked(
+                    registry.baseUrl(), lockfile,
+                    Files.createDirectories(directory.resolve("locked")), null, new Properties(), null
+            )) {
+                installer = step("Lay out the locked packages", () ->
+                        NpmInstaller.fromLockfile(lockfile, prefetch.await(), PLATFORM));
+                step("Extract the locked packages", () -> installer.install(directory.resolve("prefix")));
+            }
+
+            step("Verify only tarballs were requested and the tree matches the lockfile", () -> {
+                addAttachment("Requests", registry.getRequests().toString());
+                assertThat(registry.getRequests().subList(resolveRequests, registry.getRequests().size()))
+                        .extracting(LocalHttpServer.RecordedRequest::getPath)
+                        .hasSize(5)
+                        .allMatch(path -> path.endsWith(".tgz"));
+                assertThat(installer.getLayout().keySet()).containsExactly(
+                        "node_modules/a", "node_modules/allure", "node_modules/b",
+                        "node_modules/b/node_modules/a", "node_modules/native-here"
+                );
+                assertThat(directory.resolve("prefix/node_modules/a/index.js"))
+                        .hasContent("module.exports = 'a@1.0.0';");
+            });
+        } finally {
+            FileUtils.deleteQuietly(directory.toFile());
+        }
+    }
+
+    private static LocalHttpServer startRegistry() throws Exception {
+        final LocalHttpServer registry = LocalHttpServer.http();
+        final ObjectNode allure = version(registry, "allure", "3.4.1");
+        allure.putObject("dependencies").put("a", "^1.0.0").put("b", "1.0.0");
+        allure.putObject("optionalDependencies").put("native-here", "1.0.0")
+                .put("native-other", "1.0.0");
+        serve(registry, "allure", "3.4.1", allure);
+
+        final ObjectNode b = version(registry, "b", "1.0.0");
+        b.putObject("dependencies").put("a", "^2.0.0");
+        serve(registry, "b", "1.0.0", b);
+        serve(registry, "a", "2.0.0", version(registry, "a", "1.0.0"), version(registry, "a", "2.0.0"));
+
+        final ObjectNode here = version(registry, "native-here", "1.0.0");
+        here.putArray("os").add(PLATFORM.getNpmOs());
+        serve(registry, "native-here", "1.0.0", here);
+        final ObjectNode other = version(registry, "native-other", "1.0.0");
+        other.putArray("os").add("!" + PLATFORM.getNpmOs());
+        serve(registry, "native-other", "1.0.0", other);
+        return registry;
+    }
+
+    private static ObjectNode version(final LocalHttpServer registry, final String name,
+                                      final String version)
+            throws Exception {
+        final byte[] tarball = tarball(name, version);
+        final String tarballPath = "/" + name + "/-/" + name + "-" + version + ".tgz";
+        registry.serve(tarballPath, tarball);
+        final ObjectNode manifest = MAPPER.createObjectNode().put("name", name).put("version", version);
+        manifest.putObject("dist").put("tarball", registry.url(tarballPath).toString())
+                .put("integrity", "sha512-" + Base64.getEncoder().encodeToString(
+                        MessageDigest.getInstance("SHA-512").digest(tarball)
+                ));
+        return manifest;
+    }
+
+    private static void serve(final LocalHttpServer registry, final String name,
+                              final String latest, final ObjectNode... versions)
+            throws IOException {
+        final ObjectNode packument = MAPPER.createObjectNode().put("name", name);
+        packument.putObject("dist-tags").put("latest", latest);
+        final ObjectNode versionsNode = packument.putObject("versions");
+        for (ObjectNode version : versions) {
+            versionsNode.set(version.get("version").asText(), version);
+        }
+        registry.serve("/" + name, MAPPER.writeValueAsBytes(packument));
+    }
+
+    private static byte[] tarball(final String name, final String version) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+                new GzipCompressorOutputStream(output)
+        )) {
+            addEntry(tar, "package/package.json", String.format(
+                    "{\"name\":\"%s\",\"version\":\"%s\"}", name, version
+            ), 0644);
+            addEntry(tar, "package/index.js", "module.exports = '" + name + "@" + version + "';", 0644);
+            addEntry(tar, "package/bin/run", "#!/bin/sh\n", 0755);
+        }
+        return output.toByteArray();
+    }
+
+    private static void addEntry(final TarArchiveOutputStream tar, final String name,
+                                 final String content, final int mode)
+            throws IOException {
+        final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        final TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(bytes.length);
+        entry.setMode(mode);
+        tar.putArchiveEntry(entry);
+        tar.write(bytes);
+        tar.closeArchiveEntry();
+    }
+}
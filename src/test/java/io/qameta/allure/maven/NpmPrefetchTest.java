@@ -0,0 +1,184 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.List;
+import java.util.Properties;
+
+import static io.qameta.allure.Allure.addAttachment;
+import static io.qameta.allure.Allure.step;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@Tag("unit")
+@Tag("npm")
+/**
+ * Tests for {@link NpmPrefetch} and {@link LocalNpmRegistry}.
+ */
+class NpmPrefetchTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    void shouldResolveAndDownloadDependencyTreeConcurrently() throws Exception {
+        final Path directory = Files.createTempDirectory("allure-npm-prefetch");
+        try (LocalHttpServer registry = startRegistry()) {
+            final List<NpmPackage> packages;
+            try (NpmPrefetch prefetch = NpmPrefetch.start(
+                    registry.baseUrl(), "allure", "3.4.1", directory, null, new Properties(), null
+            )) {
+                packages = step("Prefetch allure@3.4.1", prefetch::await);
+
+                step("Verify npm's version choices and the downloaded tarballs", () -> {
+                    addAttachment("Packages", packages.toString());
+                    assertThat(packages).extracting(NpmPackage::toString).containsExactly(
+                            "@scope/util@2.0.1", "allure@3.4.1", "left-pad@1.2.0", "peer@1.0.0"
+                    );
+                    for (NpmPackage npmPackage : packages) {
+                        assertThat(npmPackage.getTarball()).hasBinaryContent(
+                                tarball(npmPackage.getName(), npmPackage.getVersion())
+                        );
+                    }
+                    assertThat(registry.getRequests())
+                            .extracting(LocalHttpServer.RecordedRequest::getPath)
+                            .contains("/missing-optional")
+                            .doesNotContain("/bundled", "/optional-peer");
+                });
+            }
+            step("Verify the prefetch directory is removed on close",
+                    () -> assertThat(directory).doesNotExist());
+        } finally {
+            FileUtils.deleteQuietly(directory.toFile());
+        }
+    }
+
+    @Test
+    void shouldServePrefetchedPackagesFromLoopbackRegistry() throws Exception {
+        final Path directory = Files.createTempDirectory("allure-npm-prefetch");
+        try (LocalHttpServer upstream = startRegistry();
+             NpmPrefetch prefetch = NpmPrefetch.start(
+                     upstream.baseUrl(), "allure", "3.4.1", directory, null, new Properties(), null
+             );
+             LocalNpmRegistry registry = step(
+                     "Start a loopback registry", () -> LocalNpmRegistry.start(prefetch.await())
+             )) {
+            final JsonNode packument = step("Read the packument of a scoped package", () -> MAPPER
+                    .readTree(new URL(registry.getUrl() + "@scope%2futil")));
+
+            step("Verify only the prefetched version is listed with a loopback tarball", () -> {
+                addAttachment("Packument", "application/json", packument.toPrettyString(), ".json");
+                assertThat(packument.path("versions").fieldNames())
+                        .toIterable().containsExactly("2.0.1");
+                assertThat(packument.path("dist-tags").path("latest").asText()).isEqualTo("2.0.1");
+                final String tarballUrl = packument.at("/versions/2.0.1/dist/tarball").asText();
+                assertThat(tarballUrl).startsWith(registry.getUrl());
+                assertThat(new URL(tarballUrl).openStream().readAllBytes())
+                        .isEqualTo(tarball("@scope/util", "2.0.1"));
+            });
+        } finally {
+            FileUtils.deleteQuietly(directory.toFile());
+        }
+    }
+
+    @Test
+    void shouldRejectTarballWithWrongIntegrity() throws Exception {
+        final Path directory = Files.createTempDirectory("allure-npm-prefetch");
+        try (LocalHttpServer registry = startRegistry()
+                .serve("/tarballs/left-pad-1.2.0.tgz", "tampered".getBytes(StandardCharsets.UTF_8));
+             NpmPrefetch prefetch = NpmPrefetch.start(
+                     registry.baseUrl(), "allure", "3.4.1", directory, null, new Properties(), null
+             )) {
+            final IOException failure = step(
+                    "Prefetch a tree with a tampered tarball",
+                    () -> assertThrows(IOException.class, prefetch::await)
+            );
+
+            step("Verify the integrity failure names the package", () -> {
+                addAttachment("Failure", failure.getMessage());
+                assertThat(failure).hasMessageContaining("left-pad@1.2.0")
+                        .hasMessageContaining("SHA-512");
+            });
+        } finally {
+            FileUtils.deleteQuietly(directory.toFile());
+        }
+    }
+
+    private static LocalHttpServer startRegistry() throws Exception {
+        final LocalHttpServer registry = LocalHttpServer.http();
+        final ObjectNode allure = version(registry, "allure", "3.4.1");
+        allure.putObject("dependencies").put("left-pad", "^1.1.0").put("@scope/util", "~2.0.0")
+                .put("bundled", "^1.0.0");
+        allure.putArray("bundleDependencies").add("bundled");
+        allure.putObject("optionalDependencies").put("missing-optional", "^1.0.0");
+        allure.putObject("peerDependencies").put("peer", "1.x").put("optional-peer", "*");
+        allure.putObject("peerDependenciesMeta").putObject("optional-peer").put("optional", true);
+        serve(registry, "allure", "3.4.1", allure);
+
+        final ObjectNode deprecated = version(registry, "left-pad", "1.3.0");
+        deprecated.put("deprecated", "use String.prototype.padStart()");
+        serve(registry, "left-pad", "2.0.0", version(registry, "left-pad", "1.1.0"),
+                version(registry, "left-pad", "1.2.0"), deprecated,
+                version(registry, "left-pad", "2.0.0"));
+        serve(registry, "@scope/util", "2.1.0", version(registry, "@scope/util", "2.0.1"),
+                version(registry, "@scope/util", "2.1.0"));
+        serve(registry, "peer", "1.0.0", version(registry, "peer", "1.0.0"));
+        return registry;
+    }
+
+    private static ObjectNode version(final LocalHttpServer registry, final String name,
+                                      final String version)
+            throws Exception {
+        final byte[] tarball = tarball(name, version);
+        final String tarballPath = "/tarballs/" + name.replace("/", "-") + "-" + version + ".tgz";
+        registry.serve(tarballPath, tarball);
+        final ObjectNode manifest = MAPPER.createObjectNode().put("name", name).put("version", version);
+        manifest.putObject("dist").put("tarball", registry.url(tarballPath).toString())
+                .put("integrity", "sha512-" + Base64.getEncoder().encodeToString(
+                        MessageDigest.getInstance("SHA-512").digest(tarball)
+                ));
+        return manifest;
+    }
+
+    private static void serve(final LocalHttpServer registry, final String name,
+                              final String latest, final ObjectNode... versions)
+            throws IOException {
+        final ObjectNode packument = MAPPER.createObjectNode().put("name", name);
+        packument.putObject("dist-tags").put("latest", latest);
+        final ObjectNode versionsNode = packument.putObject("versions");
+        for (ObjectNode version : versions) {
+            versionsNode.set(version.get("version").asText(), version);
+        }
+        registry.serve("/" + name, MAPPER.writeValueAsBytes(packument));
+    }
+
+    private static byte[] tarball(final String name, final String version) {
+        return (name + "@" + version).getBytes(StandardCharsets.UTF_8);
+    }
+}
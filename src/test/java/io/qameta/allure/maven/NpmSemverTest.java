@@ -0,0 +1,82 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.util.Arrays;
+
+import static io.qameta.allure.Allure.step;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Tag("unit")
+@Tag("npm")
+/**
+ * Tests for {@link NpmSemver}.
+ */
+class NpmSemverTest {
+
+    @ParameterizedTest
+    @CsvSource(delimiter = ';', value = {
+        "^1.2.3;1.9.0;true", "^1.2.3;2.0.0;false", "^1.2.3;1.2.2;false",
+        "^0.2.3;0.2.9;true", "^0.2.3;0.3.0;false", "^0.0.3;0.0.4;false", "^0.x;0.9.1;true",
+        "~1.2.3;1.2.9;true", "~1.2.3;1.3.0;false", "~1;1.9.9;true",
+        "1.2.x;1.2.7;true", "1.x;2.0.0;false", "*;3.1.4;true", ";3.1.4;true",
+        ">=1.2.0 <1.4.0;1.3.5;true", ">= 1.2.0 < 1.4.0;1.4.0;false", ">1.2;1.2.9;false",
+        "<=1.2;1.2.9;true", "<1.2;1.1.9;true", "1.2.0 - 1.4;1.4.8;true",
+        "1.2.0 - 1.4.0;1.4.1;false", "^1.0.0 || ^2.0.0;2.5.0;true", "=1.0.0;1.0.0;true",
+        "^1.2.3;1.5.0-beta.1;false", "^1.2.3-beta.1;1.2.3-beta.2;true",
+        "^1.2.3-beta.1;1.2.3;true", "^1.2.3-beta.2;1.2.3-beta.1;false",
+        "^1.2.3-beta.1;1.2.4-beta.1;false", "<2.0.0;2.0.0-rc.1;false",
+    })
+    void shouldMatchRangesLikeNpm(final String range, final String version, final boolean expected)
+            throws Exception {
+        final boolean actual = step(
+                String.format("Match %s against '%s'", version, range),
+                () -> NpmSemver.satisfies(NpmSemver.parse(version), range == null ? "" : range)
+        );
+
+        step("Verify the result", () -> assertThat(actual).isEqualTo(expected));
+    }
+
+    @ParameterizedTest
+    @CsvSource(delimiter = ';', value = {
+        "^1.0.0;1.10.0", "~1.2.0;1.2.10", "*;2.0.0", "^3.0.0;",
+    })
+    void shouldPickHighestMatchingVersion(final String range, final String expected)
+            throws Exception {
+        final String actual = step(
+                "Pick the highest version matching " + range,
+                () -> NpmSemver.maxSatisfying(
+                        Arrays.asList("1.2.0", "1.2.10", "1.10.0", "1.9.0", "2.0.0", "2.1.0-beta.1"),
+                        range
+                )
+        );
+
+        step("Verify the selected version", () -> assertThat(actual).isEqualTo(expected));
+    }
+
+    @ParameterizedTest
+    @CsvSource(delimiter = ';', value = {
+        "latest;false", "next;false", "git+https://example.test/repo.git;false",
+        "npm:other@^1.0.0;false", "file:../local;false", "^1.0.0;true", "1.x || >=3;true",
+    })
+    void shouldTellRangesFromOtherSpecifiers(final String spec, final boolean expected) {
+        step("Verify " + spec, () -> assertThat(NpmSemver.isRange(spec)).isEqualTo(expected));
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static io.qameta.allure.Allure.addAttachment;
+import static io.qameta.allure.Allure.step;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@Tag("unit")
+@Tag("download")
+/**
+ * Tests for {@link ResumableDownload} against a local stand-in server that drops connections.
+ */
+class ResumableDownloadTest {
+
+    private static final String ARCHIVE_PATH = "/archive.tar.gz";
+
+    private static final int DROP_AFTER = 100_000;
+
+    @Test
+    void shouldResumeDroppedDownloadWithRangeRequests() throws Exception {
+        final Path testDirectory = Files.createTempDirectory("allure-download");
+        final byte[] content = randomBytes(512 * 1024);
+        try (LocalHttpServer server = LocalHttpServer.http()
+                .serve(ARCHIVE_PATH, content)
+                .dropAfter(ARCHIVE_PATH, DROP_AFTER, 2)) {
+            final Path partFile = testDirectory.resolve("archive.tar.gz.part");
+
+            final byte[] downloaded = step(
+                    "Download an archive whose connection drops twice",
+                    () -> ResumableDownload.read(
+                            server.url(ARCHIVE_PATH), partFile, null, fastRetries(3), null,
+                            input -> input.readAllBytes()
+                    )
+            );
+
+            step("Verify the download resumed from each drop offset", () -> {
+                attachRequests(server);
+                assertThat(downloaded).isEqualTo(content);
+                assertThat(partFile).hasBinaryContent(content);
+                assertThat(server.getRequests())
+                        .extracting(LocalHttpServer.RecordedRequest::getRange)
+                        .containsExactly(null, "bytes=100000-", "bytes=200000-");
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    @Test
+    void shouldKeepPartialFileAndResumeInNextAttempt() throws Exception {
+        final Path testDirectory = Files.createTempDirectory("allure-download");
+        final byte[] content = randomBytes(512 * 1024);
+        try (LocalHttpServer server = LocalHttpServer.http()
+                .serve(ARCHIVE_PATH, content)
+                .dropAfter(ARCHIVE_PATH, DROP_AFTER, 1)) {
+            final Path partFile = testDirectory.resolve("archive.tar.gz.part");
+            final URL url = server.url(ARCHIVE_PATH);
+
+            final IOException error = step(
+                    "Give up without retrying",
+                    () -> assertThrows(
+                            ResumableDownload.InterruptedDownloadException.class,
+                            () -> ResumableDownload.read(
+                                    url, partFile, null, fastRetries(0), null,
+                                    input -> input.readAllBytes()
+                            )
+                    )
+            );
+            step("Verify the partial file is kept", () -> {
+                addAttachment("Download error", error.getMessage());
+                assertThat(partFile).exists();
+                assertThat(Files.size(partFile)).isEqualTo((long) DROP_AFTER);
+            });
+
+            final byte[] downloaded = step(
+                    "Resume the download in a later attempt",
+                    () -> ResumableDownload.read(
+                            url, partFile, null, fastRetries(1), null,
+                            input -> input.readAllBytes()
+                    )
+            );
+
+            step("Verify only the missing bytes were requested", () -> {
+                attachRequests(server);
+                final List<LocalHttpServer.RecordedRequest> requests = server.getRequests();
+                assertThat(downloaded).isEqualTo(content);
+                assertThat(requests.get(requests.size() - 1).getRange())
+                        .isEqualTo("bytes=100000-");
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    @Test
+    void shouldSkipDownloadedBytesWhenServerIgnoresRanges() throws Exception {
+        final Path testDirectory = Files.createTempDirectory("allure-download");
+        final byte[] content = randomBytes(256 * 1024);
+        try (LocalHttpServer server = LocalHttpServer.http()
+                .serveWithoutRanges(ARCHIVE_PATH, content)
+                .dropAfter(ARCHIVE_PATH, DROP_AFTER, 1)) {
+            final Path partFile = testDirectory.resolve("archive.tar.gz.part");
+
+            final byte[] downloaded = step(
+                    "Download from a server without range support",
+                    () -> ResumableDownload.read(
+                            server.url(ARCHIVE_PATH), partFile, null, fastRetries(3), null,
+                            input -> input.readAllBytes()
+                    )
+            );
+
+            step("Verify the restarted response was aligned to the resume offset", () -> {
+                attachRequests(server);
+                assertThat(downloaded).isEqualTo(content);
+                assertThat(partFile).hasBinaryContent(content);
+                assertThat(server.getRequests()).hasSize(2);
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    @Test
+    void shouldDiscardPartialFileWhenDownloadCannotBeResumed() throws Exception {
+        final Path testDirectory = Files.createTempDirectory("allure-download");
+        try (LocalHttpServer server = LocalHttpServer.http()
+                .serve(ARCHIVE_PATH, randomBytes(64 * 1024))) {
+            final Path partFile = testDirectory.resolve("archive.tar.gz.part");
+
+            step("Fail on a missing archive without retrying", () -> {
+                final IOException error = assertThrows(
+                        IOException.class,
+                        () -> ResumableDownload.read(
+                                server.url("/missing.tar.gz"), partFile, null, fastRetries(3),
+                                null, input -> input.readAllBytes()
+                        )
+                );
+                addAttachment("Download error", error.getMessage());
+                assertThat(error).hasMessageContaining("HTTP 404");
+                assertThat(server.getRequests()).hasSize(1);
+                assertThat(partFile).doesNotExist();
+            });
+
+            step("Discard the partial file when the reader rejects the content", () -> {
+                assertThrows(
+                        IOException.class,
+                        () -> ResumableDownload.read(
+                                server.url(ARCHIVE_PATH), partFile, null, fastRetries(3), null,
+                                input -> {
+                                    input.readAllBytes();
+                                    throw new IOException("Corrupt archive");
+                                }
+                        )
+                );
+                assertThat(partFile).doesNotExist();
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    private static Properties fastRetries(final int retries) {
+        final Properties properties = new Properties();
+        properties.setProperty(ResumableDownload.RETRIES, String.valueOf(retries));
+        properties.setProperty(ResumableDownload.RETRY_DELAY, "1");
+        return properties;
+    }
+
+    private static void attachRequests(final LocalHttpServer server) {
+        addAttachment(
+                "Recorded requests",
+                server.getRequests().stream().map(Object::toString)
+                        .collect(Collectors.joining(System.lineSeparator()))
+        );
+    }
+
+    private static byte[] randomBytes(final int size) {
+        final byte[] bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+}
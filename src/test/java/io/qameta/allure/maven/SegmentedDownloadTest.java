@@ -0,0 +1,199 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static io.qameta.allure.Allure.addAttachment;
+import static io.qameta.allure.Allure.step;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Tag("unit")
+@Tag("download")
+/**
+ * Tests for {@link SegmentedDownload} against a local stand-in HTTP server.
+ */
+class SegmentedDownloadTest {
+
+    private static final String ARCHIVE_PATH = "/node.tar.gz";
+
+    private static final int MIB = 1024 * 1024;
+
+    @Test
+    void shouldFetchRangesConcurrentlyIntoPartFile() throws Exception {
+        final Path testDirectory = Files.createTempDirectory("allure-download");
+        final byte[] content = randomBytes(4 * MIB + 17);
+        try (LocalHttpServer server = LocalHttpServer.http().serve(ARCHIVE_PATH, content)) {
+            final Path partFile = testDirectory.resolve("node.tar.gz.part");
+
+            final byte[] downloaded = step(
+                    "Download the archive in four segments",
+                    () -> ResumableDownload.read(
+                            server.url(ARCHIVE_PATH), partFile, null, segmented(4), null,
+                            input -> input.readAllBytes()
+                    )
+            );
+
+            step("Verify the segments and the assembled content", () -> {
+                attachRequests(server);
+                assertThat(downloaded).isEqualTo(content);
+                assertThat(server.getRequests())
+                        .extracting(LocalHttpServer.RecordedRequest::getRange)
+                        .containsExactlyInAnyOrder(
+                                null, "bytes=0-1048580", "bytes=1048581-2097161",
+                                "bytes=2097162-3145742", "bytes=3145743-4194320"
+                        );
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    @Test
+    void shouldFallBackToSingleStreamWithoutRangeSupport() throws Exception {
+        final Path testDirectory = Files.createTempDirectory("allure-download");
+        final byte[] content = randomBytes(2 * MIB);
+        try (LocalHttpServer server = LocalHttpServer.http()
+                .serveWithoutRanges(ARCHIVE_PATH, content)) {
+            final Path partFile = testDirectory.resolve("node.tar.gz.part");
+
+            final byte[] downloaded = step(
+                    "Download from a server without Accept-Ranges",
+                    () -> ResumableDownload.read(
+                            server.url(ARCHIVE_PATH), partFile, null, segmented(4), null,
+                            input -> input.readAllBytes()
+                    )
+            );
+
+            step("Verify a single GET was used after the probe", () -> {
+                attachRequests(server);
+                assertThat(downloaded).isEqualTo(content);
+                assertThat(server.getRequests())
+                        .extracting(LocalHttpServer.RecordedRequest::getMethod)
+                        .containsExactly("HEAD", "GET");
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    @Test
+    void shouldRetryDroppedSegmentFromItsLastByte() throws Exception {
+        final Path testDirectory = Files.createTempDirectory("allure-download");
+        final byte[] content = randomBytes(2 * MIB);
+        try (LocalHttpServer server = LocalHttpServer.http()
+                .serve(ARCHIVE_PATH, content)
+                .dropAfter(ARCHIVE_PATH, 100_000, 1)) {
+            final Path partFile = testDirectory.resolve("node.tar.gz.part");
+
+            final byte[] downloaded = step(
+                    "Download two segments while one connection drops",
+                    () -> ResumableDownload.read(
+                            server.url(ARCHIVE_PATH), partFile, null, segmented(2), null,
+                            input -> input.readAllBytes()
+                    )
+            );
+
+            step("Verify the dropped segment resumed where it stopped", () -> {
+                attachRequests(server);
+                assertThat(downloaded).isEqualTo(content);
+                assertThat(server.getRequests())
+                        .extracting(LocalHttpServer.RecordedRequest::getRange)
+                        .containsAnyOf("bytes=100000-1048575", "bytes=1148576-2097151")
+                        .hasSize(4);
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    void shouldOutperformSingleStreamOnThrottledConnections() throws Exception {
+        final Path testDirectory = Files.createTempDirectory("allure-download");
+        final byte[] content = randomBytes(8 * MIB);
+        try (LocalHttpServer server = LocalHttpServer.http()
+                .serve(ARCHIVE_PATH, content)
+                .throttle(4L * MIB)) {
+            final URL url = server.url(ARCHIVE_PATH);
+
+            final double single = step(
+                    "Measure a single throttled stream",
+                    () -> measure(url, testDirectory.resolve("single.part"), segmented(1), content)
+            );
+            final double segmented = step(
+                    "Measure four throttled segments",
+                    () -> measure(url, testDirectory.resolve("segmented.part"), segmented(4), content)
+            );
+
+            step("Compare throughput", () -> {
+                addAttachment(
+                        "Throughput",
+                        String.format(
+                                Locale.ROOT, "single stream: %.1f MiB/s%nfour segments: %.1f MiB/s",
+                                single, segmented
+                        )
+                );
+                assertThat(segmented).isGreaterThan(single * 1.5);
+            });
+        } finally {
+            FileUtils.deleteQuietly(testDirectory.toFile());
+        }
+    }
+
+    private static double measure(final URL url, final Path partFile,
+                                  final Properties properties, final byte[] expected)
+            throws Exception {
+        final long started = System.nanoTime();
+        final byte[] downloaded = ResumableDownload.read(
+                url, partFile, null, properties, null, input -> input.readAllBytes()
+        );
+        final double seconds = (System.nanoTime() - started) / 1e9;
+        assertThat(downloaded).isEqualTo(expected);
+        return downloaded.length / (double) MIB / seconds;
+    }
+
+    private static Properties segmented(final int segments) {
+        final Properties properties = new Properties();
+        properties.setProperty(SegmentedDownload.SEGMENTS, String.valueOf(segments));
+        properties.setProperty(ResumableDownload.RETRY_DELAY, "1");
+        return properties;
+    }
+
+    private static void attachRequests(final LocalHttpServer server) {
+        addAttachment(
+                "Recorded requests",
+                server.getRequests().stream().map(Object::toString)
+                        .collect(Collectors.joining(System.lineSeparator()))
+        );
+    }
+
+    private static byte[] randomBytes(final int size) {
+        final byte[] bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+}
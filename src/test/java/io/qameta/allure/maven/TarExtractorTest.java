@@ -0,0 +1,154 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static io.qameta.allure.Allure.step;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+@Tag("unit")
+@Tag("install")
+/**
+ * Tests for {@link TarExtractor}.
+ */
+class TarExtractorTest {
+
+    private static final String HOME = "node-v24.14.1-linux-x64/";
+
+    @Test
+    void shouldRecreateLinksAndModes() throws Exception {
+        assumeFalse(isWindows());
+
+        final Path directory = Files.createTempDirectory("allure-tar");
+        try {
+            final byte[] tarball = step("Write a tarball with links and modes", () -> {
+                final ByteArrayOutputStream output = new ByteArrayOutputStream();
+                try (TarArchiveOutputStream tar = new TarArchiveOutputStream(output)) {
+                    addDirectory(tar, HOME + "bin/");
+                    addFile(tar, HOME + "bin/node", "node", 0x1ED);
+                    addFile(tar, HOME + "lib/node_modules/npm/bin/npm-cli.js", "npm", 0x1ED);
+                    addFile(tar, HOME + "README.md", "readme", 0x124);
+                    addLink(tar, HOME + "bin/npm", "../lib/node_modules/npm/bin/npm-cli.js",
+                            TarConstants.LF_SYMLINK);
+                    addLink(tar, HOME + "bin/nodejs", HOME + "bin/node", TarConstants.LF_LINK);
+                }
+                return output.toByteArray();
+            });
+
+            final Path target = directory.resolve("target");
+            step("Extract the tarball", () -> extract(tarball, target));
+
+            step("Verify links are links and modes are kept", () -> {
+                final Path home = target.resolve(HOME);
+                assertThat(Files.isSymbolicLink(home.resolve("bin/npm"))).isTrue();
+                assertThat(Files.readSymbolicLink(home.resolve("bin/npm")))
+                        .isEqualTo(Paths.get("../lib/node_modules/npm/bin/npm-cli.js"));
+                assertThat(home.resolve("bin/npm")).hasContent("npm");
+                assertThat(Files.isSameFile(home.resolve("bin/nodejs"), home.resolve("bin/node")))
+                        .isTrue();
+                assertThat(PosixFilePermissions.toString(
+                        Files.getPosixFilePermissions(home.resolve("bin/node"))
+                )).isEqualTo("rwxr-xr-x");
+                assertThat(PosixFilePermissions.toString(
+                        Files.getPosixFilePermissions(home.resolve("README.md"))
+                )).isEqualTo("r--r--r--");
+            });
+        } finally {
+            FileUtils.deleteQuietly(directory.toFile());
+        }
+    }
+
+    @Test
+    void shouldRejectLinksPointingOutsideTheTarget() throws Exception {
+        final Path directory = Files.createTempDirectory("allure-tar");
+        try {
+            final byte[] tarball = step("Write a tarball with a link escaping the target", () -> {
+                final ByteArrayOutputStream output = new ByteArrayOutputStream();
+                try (TarArchiveOutputStream tar = new TarArchiveOutputStream(output)) {
+                    addLink(tar, HOME + "bin/npm", "../../../etc/passwd", TarConstants.LF_SYMLINK);
+                }
+                return output.toByteArray();
+            });
+
+            final Path target = directory.resolve("target");
+            step("Verify the tarball is refused", () -> {
+                assertThatThrownBy(() -> extract(tarball, target))
+                        .isInstanceOf(IOException.class)
+                        .hasMessageContaining("Refusing to unpack");
+                assertThat(target.resolve(HOME + "bin/npm")).doesNotExist();
+            });
+        } finally {
+            FileUtils.deleteQuietly(directory.toFile());
+        }
+    }
+
+    private static void extract(final byte[] tarball, final Path target) throws IOException {
+        try (TarArchiveInputStream tar = new TarArchiveInputStream(
+                new ByteArrayInputStream(tarball)
+        )) {
+            TarExtractor.extract(tar, target, name -> true);
+        }
+    }
+
+    private static void addDirectory(final TarArchiveOutputStream tar, final String name)
+            throws IOException {
+        tar.putArchiveEntry(new TarArchiveEntry(name));
+        tar.closeArchiveEntry();
+    }
+
+    private static void addFile(final TarArchiveOutputStream tar, final String name,
+                                final String content, final int mode)
+            throws IOException {
+        final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        final TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(bytes.length);
+        entry.setMode(mode);
+        tar.putArchiveEntry(entry);
+        tar.write(bytes);
+        tar.closeArchiveEntry();
+    }
+
+    private static void addLink(final TarArchiveOutputStream tar, final String name,
+                                final String linkName, final byte type)
+            throws IOException {
+        final TarArchiveEntry entry = new TarArchiveEntry(name, type);
+        entry.setLinkName(linkName);
+        tar.putArchiveEntry(entry);
+        tar.closeArchiveEntry();
+    }
+
+    private static boolean isWindows() {
+        return System.getProperty("os.name").toLowerCase().contains("win");
+    }
+}
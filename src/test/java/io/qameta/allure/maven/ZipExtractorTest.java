@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2016-2024 Qameta Software Inc
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.qameta.allure.maven;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.stream.Stream;
+
+import static io.qameta.allure.Allure.step;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Tag("unit")
+@Tag("install")
+/**
+ * Tests for {@link ZipExtractor}.
+ */
+class ZipExtractorTest {
+
+    private static final int FILES = 500;
+
+    @Test
+    void shouldExtractEveryFileWithItsMode() throws Exception {
+        final Path directory = Files.createTempDirectory("allure-zip");
+        try {
+            final Path archive = directory.resolve("allure-commandline.zip");
+            step("Write an archive with many files and an executable launcher", () -> {
+                try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(archive)) {
+                    addEntry(zip, "allure/bin/", null, 0x1ED);
+                    addEntry(zip, "allure/bin/allure", "#!/bin/sh", 0x1ED);
+                    for (int i = 0; i < FILES; i++) {
+                        addEntry(zip, "allure/lib/file-" + i + ".txt", "content " + i, 0x1A4);
+                    }
+                    addEntry(zip, "allure/plugins/readme.txt", "no mode", 0);
+                }
+            });
+
+            final Path target = directory.resolve("target");
+            step("Extract the archive on four threads", () -> ZipExtractor.extract(archive, target, name -> true, 4));
+
+            step("Verify the content and modes of the files", () -> {
+                assertThat(target.resolve("allure/lib/file-0.txt")).hasContent("content 0");
+                assertThat(target.resolve("allure/lib/file-499.txt")).hasContent("content 499");
+                assertThat(target.resolve("allure/plugins/readme.txt")).hasContent("no mode");
+                try (Stream<Path> files = Files.list(target.resolve("allure/lib"))) {
+                    assertThat(files.count()).isEqualTo(FILES);
+                }
+                assertThat(Files.isExecutable(target.resolve("allure/bin/allure"))).isTrue();
+                if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+                    assertThat(PosixFilePermissions.toString(
+                            Files.getPosixFilePermissions(target.resolve("allure/bin/allure"))
+                    )).isEqualTo("rwxr-xr-x");
+                    assertThat(PosixFilePermissions.toString(
+                            Files.getPosixFilePermissions(target.resolve("allure/lib/file-1.txt"))
+                    )).isEqualTo("rw-r--r--");
+                }
+            });
+        } finally {
+            FileUtils.deleteQuietly(directory.toFile());
+        }
+    }
+
+    @Test
+    void shouldRejectEntriesOutsideTheTargetBeforeWritingAnything() throws Exception {
+        final Path directory = Files.createTempDirectory("allure-zip");
+        try {
+            final Path archive = directory.resolve("evil.zip");
+            step("Write an archive with an entry escaping the target", () -> {
+                try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(archive)) {
+                    addEntry(zip, "allure/bin/allure", "#!/bin/sh", 0x1ED);
+                    addEntry(zip, "../escaped.txt", "escaped", 0x1A4);
+                }
+            });
+
+            final Path target = directory.resolve("target");
+            step("Verify the archive is refused", () -> {
+                assertThatThrownBy(() -> ZipExtractor.extract(archive, target))
+                        .isInstanceOf(IOException.class)
+                        .hasMessageContaining("../escaped.txt");
+                assertThat(directory.resolve("escaped.txt")).doesNotExist();
+                assertThat(target.resolve("allure/bin/allure")).doesNotExist();
+            });
+        } finally {
+            FileUtils.deleteQuietly(directory.toFile());
+        }
+    }
+
+    private static void addEntry(final ZipArchiveOutputStream zip, final String name,
+                                 final String content, final int mode)
+            throws IOException {
+        final ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        if (mode != 0) {
+            entry.setUnixMode(mode);
+        }
+        zip.putArchiveEntry(entry);
+        if (content != null) {
+            zip.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        zip.closeArchiveEntry();
+    }
+}